@@ -0,0 +1,154 @@
+package com.beeitstudio.mediaplayer;
+
+import android.app.Instrumentation;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.v4.media.MediaBrowserCompat;
+import android.support.v4.media.session.MediaControllerCompat;
+import android.util.Log;
+import android.util.Printer;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.beeitstudio.mediaplayer.service.AudioLibrary;
+import com.beeitstudio.mediaplayer.service.AudioService;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Measures how long the main thread is kept busy while the session skips through the queue:
+ * every message the main looper dispatches during a burst of skips is timed through the
+ * looper's message logging. Run it on the commits before and after a change to compare.
+ * <p>
+ * Results are logged and reported as instrumentation status, nothing is asserted.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SkipMainThreadBenchmark {
+
+    private static final String TAG = "oli_" + SkipMainThreadBenchmark.class.getSimpleName();
+
+    private static final int SKIPS = 20;
+    private static final long SKIP_INTERVAL_MS = 300;
+    private static final long CONNECT_TIMEOUT_S = 10;
+
+    private final Instrumentation mInstrumentation = InstrumentationRegistry.getInstrumentation();
+    private MediaBrowserCompat mMediaBrowser;
+
+    @After
+    public void tearDown() {
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                Looper.getMainLooper().setMessageLogging(null);
+                if (mMediaBrowser != null) {
+                    mMediaBrowser.disconnect();
+                }
+            }
+        });
+    }
+
+    @Test
+    public void measureSkips() throws Exception {
+        final Context context = mInstrumentation.getTargetContext();
+        final MediaControllerCompat controller = connect(context);
+        // Give the service's scan a moment to publish the indexed local files.
+        SystemClock.sleep(SKIP_INTERVAL_MS);
+        final List<MediaBrowserCompat.MediaItem> items =
+                AudioLibrary.getMediaItems(AudioLibrary.getRoot());
+        assumeTrue("needs at least two items in the library", items.size() >= 2);
+
+        for (MediaBrowserCompat.MediaItem item : items) {
+            controller.addQueueItem(item.getDescription());
+        }
+        controller.getTransportControls().prepare();
+        SystemClock.sleep(SKIP_INTERVAL_MS);
+
+        final MessageTimer timer = new MessageTimer();
+        Looper.getMainLooper().setMessageLogging(timer);
+        for (int i = 0; i < SKIPS; i++) {
+            controller.getTransportControls().skipToNext();
+            SystemClock.sleep(SKIP_INTERVAL_MS);
+        }
+        Looper.getMainLooper().setMessageLogging(null);
+        controller.getTransportControls().stop();
+
+        final Bundle results = new Bundle();
+        results.putLong("main_busy_ms_per_skip", timer.getTotalMs() / SKIPS);
+        results.putLong("main_longest_message_ms", timer.getLongestMs());
+        results.putInt("main_messages", timer.getCount());
+        Log.i(TAG, "measureSkips: " + results);
+        mInstrumentation.sendStatus(0, results);
+    }
+
+    private MediaControllerCompat connect(final Context context) throws Exception {
+        final CountDownLatch connected = new CountDownLatch(1);
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mMediaBrowser = new MediaBrowserCompat(
+                        context,
+                        new ComponentName(context, AudioService.class),
+                        new MediaBrowserCompat.ConnectionCallback() {
+                            @Override
+                            public void onConnected() {
+                                connected.countDown();
+                            }
+                        },
+                        null);
+                mMediaBrowser.connect();
+            }
+        });
+        assertTrue("no connection to AudioService",
+                connected.await(CONNECT_TIMEOUT_S, TimeUnit.SECONDS));
+        return new MediaControllerCompat(context, mMediaBrowser.getSessionToken());
+    }
+
+    // The looper prints ">>>>> Dispatching" before and "<<<<< Finished" after every message.
+    private static final class MessageTimer implements Printer {
+
+        private long mStartMs;
+        private long mTotalMs;
+        private long mLongestMs;
+        private int mCount;
+
+        @Override
+        public void println(String x) {
+            if (x.startsWith(">>>>>")) {
+                mStartMs = SystemClock.uptimeMillis();
+            } else if (x.startsWith("<<<<<") && mStartMs != 0) {
+                final long durationMs = SystemClock.uptimeMillis() - mStartMs;
+                synchronized (this) {
+                    mTotalMs += durationMs;
+                    mLongestMs = Math.max(mLongestMs, durationMs);
+                    mCount++;
+                }
+                mStartMs = 0;
+            }
+        }
+
+        synchronized long getTotalMs() {
+            return mTotalMs;
+        }
+
+        synchronized long getLongestMs() {
+            return mLongestMs;
+        }
+
+        synchronized int getCount() {
+            return mCount;
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package com.beeitstudio.mediaplayer;
+
+import android.Manifest;
+import android.app.Activity;
+import android.app.Instrumentation;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+import android.support.v4.media.MediaMetadataCompat;
+import android.support.v4.media.session.MediaControllerCompat;
+import android.support.v4.media.session.PlaybackStateCompat;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.beeitstudio.mediaplayer.clients.MediaBrowserHelper;
+import com.beeitstudio.mediaplayer.service.AudioLibrary;
+import com.beeitstudio.mediaplayer.service.AudioPlayer;
+import com.beeitstudio.mediaplayer.service.AudioService;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Startup of the app as a user sees it: launching {@link MainActivity} until its first frame
+ * is drawn, binding until {@link MediaBrowserHelper#onConnected} and pressing play on a local
+ * file until the session reports playing. Also writes a startup profile for the classes on
+ * that path. Run it on the commits before and after a change to compare.
+ * <p>
+ * The instrumentation runs inside the app's process, so "cold" here is the first launch in a
+ * fresh instrumentation run: nothing of the app has been loaded or initialized yet, but the
+ * process exists already. For process creation included use
+ * {@code adb shell am start -S -W com.beeitstudio.mediaplayer/.MainActivity}, which also
+ * logs the "Fully drawn" time the activity reports once it's connected.
+ * <p>
+ * Results are logged and reported as instrumentation status, nothing is asserted.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StartupBenchmark {
+
+    private static final String TAG = "oli_" + StartupBenchmark.class.getSimpleName();
+
+    private static final int WARM_RUNS = 5;
+    private static final long TIMEOUT_S = 10;
+    private static final String TEST_MEDIA_ID = "startup_benchmark_tone";
+    private static final int TONE_SAMPLE_RATE = 44100;
+    private static final int TONE_SECONDS = 5;
+
+    // Where startup is spent, the hot classes the profile is written for.
+    private static final Class<?>[] PROFILED_CLASSES = {
+            MainActivity.class,
+            MediaSeekBar.class,
+            MediaBrowserHelper.class,
+            AudioService.class,
+            AudioPlayer.class,
+            AudioLibrary.class,
+    };
+
+    private final Instrumentation mInstrumentation = InstrumentationRegistry.getInstrumentation();
+
+    /**
+     * Cold and warm start of {@link MainActivity} in one go, the cold one has to be the
+     * first launch of the run.
+     */
+    @Test
+    public void measureActivityStart() throws Exception {
+        grantStoragePermission();
+        final Bundle results = new Bundle();
+        results.putLong("activity_cold_start_ms", launchMainActivity());
+
+        final long[] warm = new long[WARM_RUNS];
+        for (int i = 0; i < WARM_RUNS; i++) {
+            warm[i] = launchMainActivity();
+        }
+        results.putLong("activity_warm_start_ms", median(warm));
+        report("measureActivityStart", results);
+    }
+
+    @Test
+    public void measureConnect() throws Exception {
+        final Bundle results = new Bundle();
+        results.putLong("connect_first_ms", connect().disconnect());
+
+        final long[] again = new long[WARM_RUNS];
+        for (int i = 0; i < WARM_RUNS; i++) {
+            again[i] = connect().disconnect();
+        }
+        results.putLong("connect_again_ms", median(again));
+        report("measureConnect", results);
+    }
+
+    @Test
+    public void measureFirstAudio() throws Exception {
+        final Context context = mInstrumentation.getTargetContext();
+        final File tone = new File(context.getCacheDir(), TEST_MEDIA_ID + ".wav");
+        writeTone(tone);
+        final MediaMetadataCompat metadata = AudioLibrary.buildMetadata(
+                TEST_MEDIA_ID, "Tone", "Benchmark", "Benchmark", "Test",
+                TONE_SECONDS * 1000L, Uri.fromFile(tone).toString());
+        AudioLibrary.putMedia(AudioLibrary.getRoot(), Collections.singletonList(metadata));
+
+        final Connection connection = connect();
+        final CountDownLatch playing = new CountDownLatch(1);
+        final MediaControllerCompat.Callback callback = new MediaControllerCompat.Callback() {
+            @Override
+            public void onPlaybackStateChanged(PlaybackStateCompat state) {
+                if (state != null && state.getState() == PlaybackStateCompat.STATE_PLAYING) {
+                    playing.countDown();
+                }
+            }
+        };
+        connection.helper.registerCallback(callback);
+        final MediaControllerCompat controller = connection.controller;
+        try {
+            controller.addQueueItem(metadata.getDescription());
+            final long start = SystemClock.elapsedRealtime();
+            controller.getTransportControls().play();
+            assertTrue("playback didn't start", playing.await(TIMEOUT_S, TimeUnit.SECONDS));
+            final long firstAudioMs = SystemClock.elapsedRealtime() - start;
+
+            final Bundle results = new Bundle();
+            results.putLong("first_audio_ms", firstAudioMs);
+            report("measureFirstAudio", results);
+        } finally {
+            controller.getTransportControls().stop();
+            controller.removeQueueItem(metadata.getDescription());
+            connection.helper.unregisterCallback(callback);
+            connection.disconnect();
+            AudioLibrary.removeMedia(Collections.singletonList(TEST_MEDIA_ID));
+            tone.delete();
+        }
+    }
+
+    /**
+     * Writes the methods of {@link #PROFILED_CLASSES} and their nested classes as startup
+     * profile rules, in the human readable format of baseline profiles. Pull the file with
+     * {@code adb pull} from the path in the status.
+     */
+    @Test
+    public void generateStartupProfile() throws Exception {
+        final Context context = mInstrumentation.getTargetContext();
+        File directory = context.getExternalFilesDir(null);
+        if (directory == null) {
+            directory = context.getFilesDir();
+        }
+        final File profile = new File(directory, "startup-prof.txt");
+        int rules = 0;
+        try (PrintWriter out = new PrintWriter(profile, "UTF-8")) {
+            for (Class<?> type : PROFILED_CLASSES) {
+                rules += writeRules(type, out);
+            }
+        }
+
+        final Bundle results = new Bundle();
+        results.putString("startup_profile", profile.getAbsolutePath());
+        results.putInt("startup_profile_rules", rules);
+        report("generateStartupProfile", results);
+    }
+
+    private long launchMainActivity() {
+        final Context context = mInstrumentation.getTargetContext();
+        final Intent intent = new Intent(context, MainActivity.class)
+                .addFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TASK);
+        final long start = SystemClock.elapsedRealtime();
+        // Returns once the activity is resumed and its first frame is drawn.
+        final Activity activity = mInstrumentation.startActivitySync(intent);
+        final long startMs = SystemClock.elapsedRealtime() - start;
+        activity.finish();
+        mInstrumentation.waitForIdleSync();
+        return startMs;
+    }
+
+    private Connection connect() throws Exception {
+        final Connection connection = new Connection(mInstrumentation.getTargetContext());
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                connection.start = SystemClock.elapsedRealtime();
+                connection.helper.onStart();
+            }
+        });
+        assertTrue("no connection to AudioService",
+                connection.connected.await(TIMEOUT_S, TimeUnit.SECONDS));
+        return connection;
+    }
+
+    private void grantStoragePermission() throws IOException {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return;
+        }
+        // Otherwise the permission dialog covers the first launch.
+        final ParcelFileDescriptor output = mInstrumentation.getUiAutomation()
+                .executeShellCommand("pm grant "
+                        + mInstrumentation.getTargetContext().getPackageName() + " "
+                        + Manifest.permission.READ_EXTERNAL_STORAGE);
+        // The command runs until its output is consumed.
+        new ParcelFileDescriptor.AutoCloseInputStream(output).close();
+    }
+
+    private void report(String test, Bundle results) {
+        Log.i(TAG, test + ": " + results);
+        mInstrumentation.sendStatus(0, results);
+    }
+
+    private static long median(long[] values) {
+        final long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    // A sine tone as 16 bit mono PCM in a WAV container.
+    private static void writeTone(File file) throws IOException {
+        final int samples = TONE_SAMPLE_RATE * TONE_SECONDS;
+        final int dataBytes = samples * 2;
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            out.writeBytes("RIFF");
+            out.writeInt(Integer.reverseBytes(36 + dataBytes));
+            out.writeBytes("WAVEfmt ");
+            out.writeInt(Integer.reverseBytes(16));
+            out.writeShort(Short.reverseBytes((short) 1)); // PCM
+            out.writeShort(Short.reverseBytes((short) 1)); // mono
+            out.writeInt(Integer.reverseBytes(TONE_SAMPLE_RATE));
+            out.writeInt(Integer.reverseBytes(TONE_SAMPLE_RATE * 2));
+            out.writeShort(Short.reverseBytes((short) 2));
+            out.writeShort(Short.reverseBytes((short) 16));
+            out.writeBytes("data");
+            out.writeInt(Integer.reverseBytes(dataBytes));
+            final byte[] buffer = new byte[dataBytes];
+            for (int i = 0; i < samples; i++) {
+                final short sample = (short) (Math.sin(2 * Math.PI * 440 * i / TONE_SAMPLE_RATE)
+                        * Short.MAX_VALUE / 4);
+                buffer[2 * i] = (byte) sample;
+                buffer[2 * i + 1] = (byte) (sample >> 8);
+            }
+            out.write(buffer);
+        }
+    }
+
+    private static int writeRules(Class<?> type, PrintWriter out) {
+        final String descriptor = descriptor(type);
+        out.println(descriptor);
+        int rules = 1;
+        for (Constructor<?> constructor : type.getDeclaredConstructors()) {
+            out.println("HSP" + descriptor + "-><init>"
+                    + signature(constructor.getParameterTypes(), void.class));
+            rules++;
+        }
+        for (Method method : type.getDeclaredMethods()) {
+            out.println("HSP" + descriptor + "->" + method.getName()
+                    + signature(method.getParameterTypes(), method.getReturnType()));
+            rules++;
+        }
+        for (Class<?> nested : type.getDeclaredClasses()) {
+            rules += writeRules(nested, out);
+        }
+        return rules;
+    }
+
+    private static String signature(Class<?>[] parameterTypes, Class<?> returnType) {
+        final StringBuilder signature = new StringBuilder("(");
+        for (Class<?> parameterType : parameterTypes) {
+            signature.append(descriptor(parameterType));
+        }
+        return signature.append(')').append(descriptor(returnType)).toString();
+    }
+
+    private static String descriptor(Class<?> type) {
+        if (type.isArray()) {
+            return "[" + descriptor(type.getComponentType());
+        }
+        if (type.isPrimitive()) {
+            switch (type.getName()) {
+                case "void":
+                    return "V";
+                case "boolean":
+                    return "Z";
+                case "byte":
+                    return "B";
+                case "char":
+                    return "C";
+                case "short":
+                    return "S";
+                case "int":
+                    return "I";
+                case "long":
+                    return "J";
+                case "float":
+                    return "F";
+                default:
+                    return "D";
+            }
+        }
+        return "L" + type.getName().replace('.', '/') + ";";
+    }
+
+    // A client the way the activity connects, timing bind to onConnected.
+    private static final class Connection {
+
+        private final CountDownLatch connected = new CountDownLatch(1);
+        private final MediaBrowserHelper helper;
+        private long start;
+        private long connectMs;
+        private MediaControllerCompat controller;
+
+        private Connection(Context context) {
+            helper = new MediaBrowserHelper(context, AudioService.class) {
+                @Override
+                protected void onConnected(@NonNull MediaControllerCompat mediaController) {
+                    connectMs = SystemClock.elapsedRealtime() - start;
+                    controller = mediaController;
+                    connected.countDown();
+                }
+            };
+        }
+
+        /**
+         * @return how long it took to connect
+         */
+        private long disconnect() {
+            InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    helper.onStop();
+                }
+            });
+            return connectMs;
+        }
+    }
+}
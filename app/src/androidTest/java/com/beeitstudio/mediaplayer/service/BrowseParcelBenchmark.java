@@ -0,0 +1,98 @@
+package com.beeitstudio.mediaplayer.service;
+
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Parcel;
+import android.os.SystemClock;
+import android.support.v4.media.MediaBrowserCompat;
+import android.support.v4.media.MediaMetadataCompat;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.beeitstudio.mediaplayer.clients.MediaBrowserHelper;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Size of a browse page on the Binder and the cost of building it: the items
+ * {@link AudioLibrary} hands out against items made from the full metadata description, the
+ * way browse results used to be built. Results are logged and reported as instrumentation
+ * status, nothing is asserted.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BrowseParcelBenchmark {
+
+    private static final String TAG = "oli_" + BrowseParcelBenchmark.class.getSimpleName();
+
+    private static final String PARENT_ID = "browse_parcel_benchmark";
+    private static final int ITEMS = 1000;
+    private static final int ROUNDS = 50;
+
+    @Test
+    public void measurePages() {
+        final List<MediaMetadataCompat> metadata = new ArrayList<>(ITEMS);
+        final List<String> mediaIds = new ArrayList<>(ITEMS);
+        for (int i = 0; i < ITEMS; i++) {
+            final String mediaId = "/storage/emulated/0/Music/Artist " + (i / 100)
+                    + "/Album " + (i / 10) + "/" + i + " - Track title " + i + ".mp3";
+            mediaIds.add(mediaId);
+            metadata.add(AudioLibrary.buildMetadata(mediaId, "Track title " + i,
+                    "Artist " + (i / 100), "Album " + (i / 10), "Genre", 215000,
+                    Uri.parse("file://" + mediaId).toString()));
+        }
+        AudioLibrary.putMedia(PARENT_ID, metadata);
+
+        try {
+            final List<MediaBrowserCompat.MediaItem> full = new ArrayList<>(ITEMS);
+            for (MediaMetadataCompat entry : metadata) {
+                full.add(new MediaBrowserCompat.MediaItem(
+                        entry.getDescription(), MediaBrowserCompat.MediaItem.FLAG_PLAYABLE));
+            }
+            final List<MediaBrowserCompat.MediaItem> compact =
+                    AudioLibrary.getMediaItems(PARENT_ID);
+
+            final Bundle results = new Bundle();
+            final int pages = ITEMS / MediaBrowserHelper.PAGE_SIZE;
+            results.putInt("full_bytes_per_page", parcelSize(full) / pages);
+            results.putInt("compact_bytes_per_page", parcelSize(compact) / pages);
+
+            long start = SystemClock.elapsedRealtimeNanos();
+            for (int round = 0; round < ROUNDS; round++) {
+                for (MediaMetadataCompat entry : metadata) {
+                    new MediaBrowserCompat.MediaItem(entry.getDescription(),
+                            MediaBrowserCompat.MediaItem.FLAG_PLAYABLE);
+                }
+            }
+            results.putLong("full_build_us_per_page",
+                    (SystemClock.elapsedRealtimeNanos() - start) / 1000 / ROUNDS / pages);
+
+            start = SystemClock.elapsedRealtimeNanos();
+            for (int round = 0; round < ROUNDS; round++) {
+                AudioLibrary.getMediaItems(PARENT_ID);
+            }
+            results.putLong("compact_build_us_per_page",
+                    (SystemClock.elapsedRealtimeNanos() - start) / 1000 / ROUNDS / pages);
+
+            Log.i(TAG, "measurePages: " + results);
+            InstrumentationRegistry.getInstrumentation().sendStatus(0, results);
+        } finally {
+            AudioLibrary.removeMedia(mediaIds);
+        }
+    }
+
+    private static int parcelSize(List<MediaBrowserCompat.MediaItem> items) {
+        final Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeTypedList(items);
+            return parcel.dataSize();
+        } finally {
+            parcel.recycle();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.beeitstudio.mediaplayer.service.dsp;
+
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.google.android.exoplayer2.C;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+/**
+ * Throughput of each DSP stage and of the full chain on the device, in samples per second,
+ * measured through {@link DspChain} the way the renderer drives it. Results are logged and
+ * reported as instrumentation status, nothing is asserted.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DspChainBenchmark {
+
+    private static final String TAG = "oli_" + DspChainBenchmark.class.getSimpleName();
+
+    private static final int SAMPLE_RATE = 44100;
+    private static final int CHANNELS = 2;
+    // A typical decoder output buffer: 1024 frames of stereo 16 bit PCM.
+    private static final int BUFFER_FRAMES = 1024;
+    private static final int WARMUP_BUFFERS = 2000;
+    private static final int MEASURED_BUFFERS = 20000;
+
+    @Test
+    public void measureStages() throws Exception {
+        final Bundle results = new Bundle();
+        measure("passthrough", new DspChain(new GainStage()), results);
+        measure("equalizer_5_bands", new DspChain(createEqualizer()), results);
+        measure("gain", new DspChain(createGain()), results);
+        measure("limiter", new DspChain(new Limiter()), results);
+        measure("full_chain",
+                new DspChain(createEqualizer(), createGain(), new Limiter()), results);
+        InstrumentationRegistry.getInstrumentation().sendStatus(0, results);
+    }
+
+    private static void measure(String name, DspChain chain, Bundle results) throws Exception {
+        chain.configure(SAMPLE_RATE, CHANNELS, C.ENCODING_PCM_16BIT);
+        chain.flush();
+        final ByteBuffer input = createInput();
+
+        for (int i = 0; i < WARMUP_BUFFERS; i++) {
+            run(chain, input);
+        }
+        final long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < MEASURED_BUFFERS; i++) {
+            run(chain, input);
+        }
+        final long elapsedNs = SystemClock.elapsedRealtimeNanos() - start;
+
+        final long samples = (long) MEASURED_BUFFERS * BUFFER_FRAMES * CHANNELS;
+        final long samplesPerSecond = samples * 1000000000L / elapsedNs;
+        // How much faster than real time the stage runs on this device.
+        final long realTimeFactor = samplesPerSecond / (SAMPLE_RATE * CHANNELS);
+        Log.i(TAG, name + ": " + samplesPerSecond + " samples/s, " + realTimeFactor
+                + "x real time");
+        results.putLong(name + "_samples_per_second", samplesPerSecond);
+    }
+
+    private static void run(DspChain chain, ByteBuffer input) {
+        input.rewind();
+        chain.queueInput(input);
+        chain.getOutput();
+    }
+
+    private static ByteBuffer createInput() {
+        final Random random = new Random(0);
+        final ByteBuffer input = ByteBuffer.allocateDirect(BUFFER_FRAMES * CHANNELS * 2)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        while (input.hasRemaining()) {
+            input.putShort((short) (random.nextGaussian() * 6000));
+        }
+        input.flip();
+        return input;
+    }
+
+    private static ParametricEqualizer createEqualizer() {
+        final ParametricEqualizer equalizer = new ParametricEqualizer();
+        equalizer.setBands(
+                new ParametricEqualizer.Band(ParametricEqualizer.TYPE_LOW_SHELF, 80, 3f, 0.7f),
+                new ParametricEqualizer.Band(ParametricEqualizer.TYPE_PEAKING, 250, -2f, 1f),
+                new ParametricEqualizer.Band(ParametricEqualizer.TYPE_PEAKING, 1000, 1f, 1f),
+                new ParametricEqualizer.Band(ParametricEqualizer.TYPE_PEAKING, 4000, 2f, 1f),
+                new ParametricEqualizer.Band(ParametricEqualizer.TYPE_HIGH_SHELF, 10000, 3f, 0.7f));
+        return equalizer;
+    }
+
+    private static GainStage createGain() {
+        final GainStage gain = new GainStage();
+        gain.setGain(1.5f);
+        return gain;
+    }
+}
@@ -0,0 +1,102 @@
+package com.beeitstudio.mediaplayer.service.scanner;
+
+import android.os.Bundle;
+import android.os.Debug;
+import android.os.Environment;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assume.assumeFalse;
+
+/**
+ * Compares {@link MappedTagReader} with {@link RetrieverTagExtractor} on a local corpus of
+ * audio files, by default {@code Music/tag-corpus} on external storage. Another directory can
+ * be passed with {@code -e tagCorpus /path/to/files}.
+ * <p>
+ * Results are logged and reported as instrumentation status, nothing is asserted.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TagReaderBenchmark {
+
+    private static final String TAG = "oli_" + TagReaderBenchmark.class.getSimpleName();
+
+    private static final int WARMUP_PASSES = 1;
+    private static final int MEASURED_PASSES = 3;
+
+    @Test
+    public void compareExtractors() {
+        final List<File> corpus = loadCorpus();
+        assumeFalse("no files in the tag corpus", corpus.isEmpty());
+
+        final Bundle results = new Bundle();
+        measure("mapped", new MappedTagReader(null), corpus, results);
+        measure("retriever", new RetrieverTagExtractor(), corpus, results);
+        InstrumentationRegistry.getInstrumentation().sendStatus(0, results);
+    }
+
+    private static void measure(String name, TagExtractor extractor, List<File> corpus,
+                                Bundle results) {
+        for (int i = 0; i < WARMUP_PASSES; i++) {
+            extractAll(extractor, corpus);
+        }
+
+        Debug.startAllocCounting();
+        final int allocationsBefore = Debug.getThreadAllocCount();
+        final long start = SystemClock.elapsedRealtimeNanos();
+        int found = 0;
+        for (int i = 0; i < MEASURED_PASSES; i++) {
+            found = extractAll(extractor, corpus);
+        }
+        final long elapsedNs = SystemClock.elapsedRealtimeNanos() - start;
+        final int allocations = Debug.getThreadAllocCount() - allocationsBefore;
+        Debug.stopAllocCounting();
+
+        final int files = corpus.size() * MEASURED_PASSES;
+        final long nsPerFile = elapsedNs / files;
+        final int allocationsPerFile = allocations / files;
+        Log.i(TAG, String.format("%s: %d us/file, %d allocations/file, %d/%d files tagged",
+                name, nsPerFile / 1000, allocationsPerFile, found, corpus.size()));
+        results.putLong(name + "_ns_per_file", nsPerFile);
+        results.putInt(name + "_allocations_per_file", allocationsPerFile);
+        results.putInt(name + "_tagged", found);
+    }
+
+    private static int extractAll(TagExtractor extractor, List<File> corpus) {
+        int found = 0;
+        for (File file : corpus) {
+            final TrackTags tags = extractor.extract(file);
+            if (tags != null && tags.title != null) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    private static List<File> loadCorpus() {
+        final String path = InstrumentationRegistry.getArguments().getString("tagCorpus");
+        final File directory = path != null
+                ? new File(path)
+                : new File(Environment.getExternalStoragePublicDirectory(
+                        Environment.DIRECTORY_MUSIC), "tag-corpus");
+        final List<File> files = new ArrayList<>();
+        final File[] children = directory.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                if (child.isFile()) {
+                    files.add(child);
+                }
+            }
+        }
+        return files;
+    }
+}
@@ -1,7 +1,12 @@
 package com.beeitstudio.mediaplayer;
 
+import android.Manifest;
 import android.content.Context;
+import android.content.pm.PackageManager;
+import android.net.Uri;
 import android.os.Bundle;
+import android.os.Looper;
+import android.os.MessageQueue;
 import android.support.v4.media.MediaBrowserCompat;
 import android.support.v4.media.MediaMetadataCompat;
 import android.support.v4.media.session.MediaControllerCompat;
@@ -14,24 +19,36 @@ import android.widget.TextView;
 
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.app.ActivityCompat;
+import androidx.core.content.ContextCompat;
 
 import com.beeitstudio.mediaplayer.clients.MediaBrowserHelper;
 import com.beeitstudio.mediaplayer.service.AudioLibrary;
 import com.beeitstudio.mediaplayer.service.AudioService;
+import com.beeitstudio.mediaplayer.service.art.ArtworkLoader;
 
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 public class MainActivity extends AppCompatActivity {
 
     private static final String TAG = "oli_" + MainActivity.class.getSimpleName();
 
+    private static final int REQUEST_STORAGE_PERMISSION = 1;
+    // The queue is filled this many items ahead of the one playing, as a list loads rows a
+    // little below the last visible one.
+    private static final int QUEUE_LOOKAHEAD = 10;
+
     private ImageView mAlbumArt;
     private TextView mTitleTextView;
     private TextView mArtistTextView;
     private ImageView mMediaControlsImage;
     private MediaSeekBar mSeekBarAudio;
 
-    private MediaBrowserHelper mMediaBrowserHelper;
+    private RetainedConnection mRetainedConnection;
+    private MediaBrowserConnection mMediaBrowserHelper;
+    private MediaBrowserListener mMediaBrowserListener;
 
     private boolean mIsPlaying;
 
@@ -51,53 +68,188 @@ public class MainActivity extends AppCompatActivity {
         findViewById(R.id.iv_play_pause).setOnClickListener(clickListener);
         findViewById(R.id.iv_next).setOnClickListener(clickListener);
 
-        mMediaBrowserHelper = new MediaBrowserConnection(this);
-        mMediaBrowserHelper.registerCallback(new MediaBrowserListener());
+        // Reuse the connection of the previous instance across configuration changes, so a
+        // rotation neither reconnects nor reloads the catalog.
+        mRetainedConnection = (RetainedConnection) getLastCustomNonConfigurationInstance();
+        if (mRetainedConnection == null) {
+            mRetainedConnection = new RetainedConnection(new MediaBrowserConnection(this));
+        }
+        mMediaBrowserHelper = mRetainedConnection.mConnection;
+        mMediaBrowserListener = new MediaBrowserListener();
+        mMediaBrowserHelper.registerCallback(mMediaBrowserListener);
+        mMediaBrowserHelper.attach(this);
+
+        if (savedInstanceState == null
+                && ContextCompat.checkSelfPermission(this, Manifest.permission.READ_EXTERNAL_STORAGE)
+                != PackageManager.PERMISSION_GRANTED) {
+            ActivityCompat.requestPermissions(this,
+                    new String[]{Manifest.permission.READ_EXTERNAL_STORAGE},
+                    REQUEST_STORAGE_PERMISSION);
+        }
+    }
+
+    @Override
+    public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions,
+                                           @NonNull int[] grantResults) {
+        super.onRequestPermissionsResult(requestCode, permissions, grantResults);
+        if (requestCode == REQUEST_STORAGE_PERMISSION
+                && grantResults.length > 0
+                && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
+            // The service skipped scanning without the permission, catch up now.
+            mMediaBrowserHelper.sendCustomAction(AudioLibrary.ACTION_SCAN_MEDIA, null);
+        }
+    }
+
+    @Override
+    public Object onRetainCustomNonConfigurationInstance() {
+        return mRetainedConnection;
     }
 
     @Override
     public void onStart() {
         super.onStart();
-        mMediaBrowserHelper.onStart();
+        mRetainedConnection.start();
     }
 
     @Override
     public void onStop() {
         super.onStop();
         mSeekBarAudio.disconnectController();
-        mMediaBrowserHelper.onStop();
+        mRetainedConnection.stop(isChangingConfigurations());
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mMediaBrowserHelper.unregisterCallback(mMediaBrowserListener);
+        mMediaBrowserHelper.detach();
+    }
+
+    /**
+     * Holds the connection from one activity instance to the next across configuration
+     * changes. It stays connected while an instance is started or a configuration change is
+     * underway, and disconnects only when the activity stops for good.
+     */
+    private static final class RetainedConnection {
+
+        private final MediaBrowserConnection mConnection;
+        private boolean mConnected;
+
+        private RetainedConnection(MediaBrowserConnection connection) {
+            mConnection = connection;
+        }
+
+        private void start() {
+            if (!mConnected) {
+                mConnected = true;
+                mConnection.onStart();
+            }
+        }
+
+        private void stop(boolean changingConfigurations) {
+            if (mConnected && !changingConfigurations) {
+                mConnected = false;
+                mConnection.onStop();
+            }
+        }
     }
 
     /**
      * Customize the connection to our {@link androidx.media.MediaBrowserServiceCompat}
      * and implement our app specific desires.
+     * <p>
+     * Static so it can outlive an activity instance across configuration changes, the current
+     * activity is attached in {@link #onCreate(Bundle)}.
      */
-    private class MediaBrowserConnection extends MediaBrowserHelper {
+    private static class MediaBrowserConnection extends MediaBrowserHelper {
+
+        private MainActivity mActivity;
 
         private MediaBrowserConnection(Context context) {
             super(context, AudioService.class);
         }
 
+        private void attach(MainActivity activity) {
+            mActivity = activity;
+            if (isConnected()) {
+                onConnected(getmMediaController());
+            }
+        }
+
+        private void detach() {
+            mActivity = null;
+        }
+
         @Override
         protected void onConnected(@NonNull MediaControllerCompat mediaController) {
             Log.d(TAG, "onConnected: CALLED");
-            mSeekBarAudio.setMediaController(mediaController);
+            if (mActivity != null) {
+                mActivity.mSeekBarAudio.setMediaController(mediaController);
+                // Usable from here on, startup measurements end at this point.
+                mActivity.reportFullyDrawn();
+            }
         }
 
         @Override
         protected void onChildrenLoaded(@NonNull String parentId,
+                                        int page,
                                         @NonNull List<MediaBrowserCompat.MediaItem> children) {
-            super.onChildrenLoaded(parentId, children);
+            super.onChildrenLoaded(parentId, page, children);
 
             final MediaControllerCompat mediaController = getmMediaController();
 
-            // Queue up all media items for this simple sample.
+            // The session outlives the activity, so only queue what it doesn't hold yet.
+            final List<MediaSessionCompat.QueueItem> queue = mediaController.getQueue();
+            final Set<String> queuedIds = new HashSet<>();
+            if (queue != null) {
+                for (final MediaSessionCompat.QueueItem queueItem : queue) {
+                    queuedIds.add(queueItem.getDescription().getMediaId());
+                }
+            }
+
+            boolean queuedNewItems = false;
             for (final MediaBrowserCompat.MediaItem mediaItem : children) {
-                mediaController.addQueueItem(mediaItem.getDescription());
+                if (!queuedIds.contains(mediaItem.getMediaId())) {
+                    mediaController.addQueueItem(mediaItem.getDescription());
+                    queuedNewItems = true;
+                }
+            }
+
+            // Prepare so pressing play just works, but only once the first frames are drawn:
+            // preparing loads the artwork, which can wait, play prepares on its own anyway.
+            if (queuedNewItems && queuedIds.isEmpty()) {
+                Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+                    @Override
+                    public boolean queueIdle() {
+                        if (isConnected()) {
+                            getmMediaController().getTransportControls().prepare();
+                        }
+                        return false;
+                    }
+                });
             }
+        }
 
-            // Call prepare now so pressing play just works.
-            mediaController.getTransportControls().prepare();
+        /**
+         * Fills the queue page by page as playback gets near its end, rather than pulling in
+         * the whole catalog up front.
+         */
+        private void onPlaying(@NonNull String mediaId) {
+            final String root = getRoot();
+            if (root == null || !isConnected()) {
+                return;
+            }
+            final List<MediaSessionCompat.QueueItem> queue = getmMediaController().getQueue();
+            if (queue == null) {
+                return;
+            }
+            // The queue holds the root's children in order, a page at a time.
+            for (int i = 0; i < queue.size(); i++) {
+                if (mediaId.equals(queue.get(i).getDescription().getMediaId())) {
+                    onPositionReached(root, i + QUEUE_LOOKAHEAD);
+                    return;
+                }
+            }
         }
     }
 
@@ -127,9 +279,15 @@ public class MainActivity extends AppCompatActivity {
                     metadata.getString(MediaMetadataCompat.METADATA_KEY_TITLE));
             mArtistTextView.setText(
                     metadata.getString(MediaMetadataCompat.METADATA_KEY_ARTIST));
-            mAlbumArt.setImageBitmap(AudioLibrary.getAlbumBitmap(
-                    MainActivity.this,
-                    metadata.getString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID)));
+            final String artUri =
+                    metadata.getString(MediaMetadataCompat.METADATA_KEY_ALBUM_ART_URI);
+            ArtworkLoader.into(mAlbumArt, artUri != null ? Uri.parse(artUri) : null);
+
+            final String mediaId =
+                    metadata.getString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID);
+            if (mediaId != null) {
+                mMediaBrowserHelper.onPlaying(mediaId);
+            }
         }
 
         @Override
@@ -2,6 +2,9 @@ package com.beeitstudio.mediaplayer;
 
 import android.animation.ValueAnimator;
 import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.os.Bundle;
 import android.support.v4.media.MediaMetadataCompat;
 import android.support.v4.media.session.MediaControllerCompat;
 import android.support.v4.media.session.MediaSessionCompat;
@@ -11,10 +14,16 @@ import android.view.animation.LinearInterpolator;
 import android.widget.SeekBar;
 
 import androidx.appcompat.widget.AppCompatSeekBar;
+import androidx.core.content.ContextCompat;
+
+import com.beeitstudio.mediaplayer.service.AudioLibrary;
+
+import java.util.Arrays;
 
 /**
  * SeekBar that can be used with a {@link MediaSessionCompat} to track and seek in playing
- * media.
+ * media. When the session publishes a waveform for the current media, it's drawn behind the
+ * bar, the played part in the accent color.
  */
 
 public class MediaSeekBar extends AppCompatSeekBar {
@@ -40,19 +49,32 @@ public class MediaSeekBar extends AppCompatSeekBar {
     };
     private ValueAnimator mProgressAnimator;
 
+    private final Paint mPlayedPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mRemainingPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private String mMediaId;
+    private byte[] mWaveform;
+    // Bar end points for Canvas.drawLines, rebuilt only when the waveform or size changes.
+    private float[] mWaveformLines;
+
     public MediaSeekBar(Context context) {
         super(context);
-        super.setOnSeekBarChangeListener(mOnSeekBarChangeListener);
+        init();
     }
 
     public MediaSeekBar(Context context, AttributeSet attrs) {
         super(context, attrs);
-        super.setOnSeekBarChangeListener(mOnSeekBarChangeListener);
+        init();
     }
 
     public MediaSeekBar(Context context, AttributeSet attrs, int defStyleAttr) {
         super(context, attrs, defStyleAttr);
+        init();
+    }
+
+    private void init() {
         super.setOnSeekBarChangeListener(mOnSeekBarChangeListener);
+        mPlayedPaint.setColor(ContextCompat.getColor(getContext(), R.color.colorAccent));
+        mRemainingPaint.setColor(ContextCompat.getColor(getContext(), R.color.grey));
     }
 
     @Override
@@ -65,6 +87,9 @@ public class MediaSeekBar extends AppCompatSeekBar {
         if (mediaController != null) {
             mControllerCallback = new ControllerCallback();
             mediaController.registerCallback(mControllerCallback);
+            final MediaMetadataCompat metadata = mediaController.getMetadata();
+            mMediaId = metadata != null ? metadata.getDescription().getMediaId() : null;
+            updateWaveform(mediaController.getExtras());
         } else if (mMediaController != null) {
             mMediaController.unregisterCallback(mControllerCallback);
             mControllerCallback = null;
@@ -80,6 +105,68 @@ public class MediaSeekBar extends AppCompatSeekBar {
         }
     }
 
+    private void updateWaveform(Bundle extras) {
+        byte[] waveform = null;
+        if (extras != null && mMediaId != null
+                && mMediaId.equals(extras.getString(AudioLibrary.EXTRA_WAVEFORM_MEDIA_ID))) {
+            waveform = extras.getByteArray(AudioLibrary.EXTRA_WAVEFORM);
+        }
+        if (!Arrays.equals(waveform, mWaveform)) {
+            mWaveform = waveform;
+            mWaveformLines = null;
+            invalidate();
+        }
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        mWaveformLines = null;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (mWaveform != null) {
+            drawWaveform(canvas);
+        }
+        super.onDraw(canvas);
+    }
+
+    private void drawWaveform(Canvas canvas) {
+        final int left = getPaddingLeft();
+        final int width = getWidth() - left - getPaddingRight();
+        final int height = getHeight() - getPaddingTop() - getPaddingBottom();
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+
+        final int bars = mWaveform.length;
+        if (mWaveformLines == null) {
+            final float centerY = getPaddingTop() + height / 2f;
+            final float step = (float) width / bars;
+            mWaveformLines = new float[bars * 4];
+            for (int i = 0; i < bars; i++) {
+                final float x = left + (i + 0.5f) * step;
+                final float halfHeight = Math.max(0.5f, (mWaveform[i] & 0xFF) / 255f * height / 2);
+                mWaveformLines[i * 4] = x;
+                mWaveformLines[i * 4 + 1] = centerY - halfHeight;
+                mWaveformLines[i * 4 + 2] = x;
+                mWaveformLines[i * 4 + 3] = centerY + halfHeight;
+            }
+            final float strokeWidth = Math.max(1f, step * 0.6f);
+            mPlayedPaint.setStrokeWidth(strokeWidth);
+            mRemainingPaint.setStrokeWidth(strokeWidth);
+        }
+
+        final int played = getMax() > 0 ? (int) ((long) bars * getProgress() / getMax()) : 0;
+        if (played > 0) {
+            canvas.drawLines(mWaveformLines, 0, played * 4, mPlayedPaint);
+        }
+        if (played < bars) {
+            canvas.drawLines(mWaveformLines, played * 4, (bars - played) * 4, mRemainingPaint);
+        }
+    }
+
     private class ControllerCallback
             extends MediaControllerCompat.Callback
             implements ValueAnimator.AnimatorUpdateListener {
@@ -103,6 +190,7 @@ public class MediaSeekBar extends AppCompatSeekBar {
                     ? (int) state.getPosition()
                     : 0;
             setProgress(progress);
+            setSecondaryProgress(state != null ? (int) state.getBufferedPosition() : 0);
 
             // If the media is playing then the seekbar should follow it, and the easiest
             // way to do that is to create a ValueAnimator to update it so the bar reaches
@@ -127,6 +215,15 @@ public class MediaSeekBar extends AppCompatSeekBar {
                     : 0;
             setProgress(0);
             setMax(max);
+
+            mMediaId = metadata != null ? metadata.getDescription().getMediaId() : null;
+            updateWaveform(mMediaController != null ? mMediaController.getExtras() : null);
+        }
+
+        @Override
+        public void onExtrasChanged(Bundle extras) {
+            super.onExtrasChanged(extras);
+            updateWaveform(extras);
         }
 
         @Override
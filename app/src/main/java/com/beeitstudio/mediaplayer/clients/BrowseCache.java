@@ -0,0 +1,215 @@
+package com.beeitstudio.mediaplayer.clients;
+
+import android.support.v4.media.MediaBrowserCompat;
+import android.util.SparseArray;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Browse pages of one media browser service, kept for the lifetime of the process so a new
+ * {@link MediaBrowserHelper} can show them right away and only fetch what changed since.
+ * <p>
+ * Every parent remembers the catalog version its pages are known to be current for. Pages
+ * loaded later may already contain newer changes, which is fine because applying a change
+ * twice leaves the same result.
+ */
+final class BrowseCache {
+
+    private long mGeneration = -1;
+    private final Map<String, Parent> mParents = new HashMap<>();
+
+    private static final class Parent {
+        private final SparseArray<List<MediaBrowserCompat.MediaItem>> mPages =
+                new SparseArray<>();
+        private long mVersion;
+
+        private Parent(long version) {
+            mVersion = version;
+        }
+    }
+
+    /**
+     * Drops everything when the catalog was rebuilt, since its versions start over.
+     */
+    synchronized void setGeneration(long generation) {
+        if (mGeneration != generation) {
+            mGeneration = generation;
+            mParents.clear();
+        }
+    }
+
+    @Nullable
+    synchronized List<MediaBrowserCompat.MediaItem> getPage(String parentId, int page) {
+        final Parent parent = mParents.get(parentId);
+        return parent != null ? parent.mPages.get(page) : null;
+    }
+
+    /**
+     * Caches a page loaded at {@code version}. The parent is then only known to be current for
+     * the older of its version and the page's, the changes since are fetched again.
+     */
+    synchronized void putPage(String parentId, int page, long version,
+                              List<MediaBrowserCompat.MediaItem> children) {
+        Parent parent = mParents.get(parentId);
+        if (parent == null) {
+            parent = new Parent(version);
+            mParents.put(parentId, parent);
+        } else {
+            parent.mVersion = Math.min(parent.mVersion, version);
+        }
+        parent.mPages.put(page, children);
+    }
+
+    synchronized void removeParent(String parentId) {
+        mParents.remove(parentId);
+    }
+
+    synchronized Set<String> getParentIds() {
+        return new HashSet<>(mParents.keySet());
+    }
+
+    /**
+     * @return the version of {@code parentId}, or -1 if nothing of it is cached.
+     */
+    synchronized long getVersion(String parentId) {
+        final Parent parent = mParents.get(parentId);
+        return parent != null ? parent.mVersion : -1;
+    }
+
+    /**
+     * Applies a delta to the cached pages of {@code parentId}. The service lists children in
+     * media ID order and pages them by offset, so the pages loaded from the first on are kept
+     * as one list: updated items are replaced where they are, removed ones dropped, and new
+     * ones put where they sort, then the list is cut into pages again. New items past the
+     * loaded ones show up when their page is loaded, and a last page that came up short but
+     * isn't the end of the parent is dropped, like pages past a gap, since items moved in or
+     * out of them.
+     *
+     * @return the indices of the pages that changed or were dropped.
+     */
+    @NonNull
+    synchronized List<Integer> applyChanges(String parentId, long version,
+                                            @NonNull List<MediaBrowserCompat.MediaItem> changed,
+                                            @NonNull List<String> removedIds,
+                                            int pageSize) {
+        final List<Integer> changedPages = new ArrayList<>();
+        final Parent parent = mParents.get(parentId);
+        if (parent == null || version <= parent.mVersion) {
+            return changedPages;
+        }
+        parent.mVersion = version;
+
+        final Map<String, MediaBrowserCompat.MediaItem> pending = new HashMap<>();
+        for (MediaBrowserCompat.MediaItem item : changed) {
+            pending.put(item.getMediaId(), item);
+        }
+        final Set<String> removed = new HashSet<>(removedIds);
+
+        // The loaded pages from the first on, and whether they reach the end of the parent.
+        int loaded = 0;
+        final List<MediaBrowserCompat.MediaItem> items = new ArrayList<>();
+        while (parent.mPages.get(loaded) != null) {
+            items.addAll(parent.mPages.get(loaded));
+            loaded++;
+        }
+        final boolean complete = loaded > 0 && parent.mPages.get(loaded - 1).size() < pageSize;
+
+        boolean moved = false;
+        for (int i = items.size() - 1; i >= 0; i--) {
+            final String mediaId = items.get(i).getMediaId();
+            if (removed.remove(mediaId)) {
+                items.remove(i);
+                moved = true;
+            } else if (pending.containsKey(mediaId)) {
+                items.set(i, pending.remove(mediaId));
+            }
+        }
+        // Past a gap, the updates are applied in place; anything else moves items about.
+        final List<Integer> detachedPages = new ArrayList<>();
+        for (int i = 0; i < parent.mPages.size(); i++) {
+            final int page = parent.mPages.keyAt(i);
+            if (page < loaded) {
+                continue;
+            }
+            detachedPages.add(page);
+            final List<MediaBrowserCompat.MediaItem> updated =
+                    new ArrayList<>(parent.mPages.valueAt(i));
+            boolean pageChanged = false;
+            for (int j = 0; j < updated.size(); j++) {
+                final MediaBrowserCompat.MediaItem item =
+                        pending.remove(updated.get(j).getMediaId());
+                if (item != null) {
+                    updated.set(j, item);
+                    pageChanged = true;
+                }
+            }
+            if (pageChanged) {
+                parent.mPages.setValueAt(i, updated);
+                changedPages.add(page);
+            }
+        }
+        // Removed items that weren't found were past the loaded pages.
+        boolean movedPastLoaded = !removed.isEmpty();
+        final String lastId = items.isEmpty() ? null : items.get(items.size() - 1).getMediaId();
+        for (MediaBrowserCompat.MediaItem item : pending.values()) {
+            final String mediaId = item.getMediaId();
+            if (complete || (lastId != null && mediaId.compareTo(lastId) < 0)) {
+                items.add(insertionPoint(items, mediaId), item);
+                moved = true;
+            } else {
+                movedPastLoaded = true;
+            }
+        }
+        if (moved || movedPastLoaded) {
+            for (int page : detachedPages) {
+                parent.mPages.remove(page);
+                if (!changedPages.contains(page)) {
+                    changedPages.add(page);
+                }
+            }
+        }
+
+        // A full last page is followed by an empty one when the parent ends there, as the
+        // service would send it.
+        final int pages = complete ? items.size() / pageSize + 1
+                : (items.size() + pageSize - 1) / pageSize;
+        for (int page = 0; page < Math.max(pages, loaded); page++) {
+            final List<MediaBrowserCompat.MediaItem> old = parent.mPages.get(page);
+            final int from = page * pageSize;
+            final int to = Math.min(from + pageSize, items.size());
+            if (page >= pages || (!complete && to - from < pageSize)) {
+                parent.mPages.remove(page);
+            } else if (old == null || !old.equals(items.subList(from, to))) {
+                parent.mPages.put(page, new ArrayList<>(items.subList(from, to)));
+            } else {
+                continue;
+            }
+            if (!changedPages.contains(page)) {
+                changedPages.add(page);
+            }
+        }
+        return changedPages;
+    }
+
+    private static int insertionPoint(List<MediaBrowserCompat.MediaItem> items, String mediaId) {
+        int low = 0;
+        int high = items.size();
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (items.get(middle).getMediaId().compareTo(mediaId) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
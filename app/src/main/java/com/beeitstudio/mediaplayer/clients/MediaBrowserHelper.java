@@ -2,41 +2,138 @@ package com.beeitstudio.mediaplayer.clients;
 
 import android.content.ComponentName;
 import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v4.media.MediaBrowserCompat;
 import android.support.v4.media.MediaMetadataCompat;
+import android.support.v4.media.RatingCompat;
 import android.support.v4.media.session.MediaControllerCompat;
 import android.support.v4.media.session.MediaSessionCompat;
 import android.support.v4.media.session.PlaybackStateCompat;
+import android.text.TextUtils;
 import android.util.Log;
+import android.util.SparseBooleanArray;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.media.MediaBrowserServiceCompat;
 
-import java.util.ArrayList;
+import com.beeitstudio.mediaplayer.service.AudioLibrary;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class MediaBrowserHelper {
 
+    /**
+     * Number of children requested per browse page.
+     */
+    public static final int PAGE_SIZE = 50;
+
+    /**
+     * Within this many items of the end of its page, {@link #onPositionReached(String, int)}
+     * prefetches the next page.
+     */
+    public static final int PREFETCH_DISTANCE = 10;
+
     private static final String TAG = "oli_" + MediaBrowserHelper.class.getSimpleName();
 
+    private static final MediaControllerCompat.Callback[] NO_CALLBACKS =
+            new MediaControllerCompat.Callback[0];
+
+    // Standard metadata keys by the type the builder allows, so values are compared with the
+    // typed getters: getBundle() copies the whole bundle on every call.
+    private static final Set<String> LONG_KEYS = new HashSet<>(Arrays.asList(
+            MediaMetadataCompat.METADATA_KEY_DURATION,
+            MediaMetadataCompat.METADATA_KEY_YEAR,
+            MediaMetadataCompat.METADATA_KEY_TRACK_NUMBER,
+            MediaMetadataCompat.METADATA_KEY_NUM_TRACKS,
+            MediaMetadataCompat.METADATA_KEY_DISC_NUMBER,
+            MediaMetadataCompat.METADATA_KEY_BT_FOLDER_TYPE,
+            MediaMetadataCompat.METADATA_KEY_ADVERTISEMENT,
+            MediaMetadataCompat.METADATA_KEY_DOWNLOAD_STATUS));
+    private static final Set<String> BITMAP_KEYS = new HashSet<>(Arrays.asList(
+            MediaMetadataCompat.METADATA_KEY_ART,
+            MediaMetadataCompat.METADATA_KEY_ALBUM_ART,
+            MediaMetadataCompat.METADATA_KEY_DISPLAY_ICON));
+    private static final Set<String> RATING_KEYS = new HashSet<>(Arrays.asList(
+            MediaMetadataCompat.METADATA_KEY_USER_RATING,
+            MediaMetadataCompat.METADATA_KEY_RATING));
+    private static final Set<String> TEXT_KEYS = new HashSet<>(Arrays.asList(
+            MediaMetadataCompat.METADATA_KEY_TITLE,
+            MediaMetadataCompat.METADATA_KEY_ARTIST,
+            MediaMetadataCompat.METADATA_KEY_ALBUM,
+            MediaMetadataCompat.METADATA_KEY_AUTHOR,
+            MediaMetadataCompat.METADATA_KEY_WRITER,
+            MediaMetadataCompat.METADATA_KEY_COMPOSER,
+            MediaMetadataCompat.METADATA_KEY_COMPILATION,
+            MediaMetadataCompat.METADATA_KEY_DATE,
+            MediaMetadataCompat.METADATA_KEY_GENRE,
+            MediaMetadataCompat.METADATA_KEY_ALBUM_ARTIST,
+            MediaMetadataCompat.METADATA_KEY_ART_URI,
+            MediaMetadataCompat.METADATA_KEY_ALBUM_ART_URI,
+            MediaMetadataCompat.METADATA_KEY_DISPLAY_TITLE,
+            MediaMetadataCompat.METADATA_KEY_DISPLAY_SUBTITLE,
+            MediaMetadataCompat.METADATA_KEY_DISPLAY_DESCRIPTION,
+            MediaMetadataCompat.METADATA_KEY_DISPLAY_ICON_URI,
+            MediaMetadataCompat.METADATA_KEY_MEDIA_ID,
+            MediaMetadataCompat.METADATA_KEY_MEDIA_URI));
+
+    // Two playing states whose extrapolated positions differ by less than this are treated as
+    // the same state and are not dispatched again.
+    private static final long POSITION_TOLERANCE_MS = 50;
+
     private final Context mContext;
     private final Class<? extends MediaBrowserServiceCompat> mMediaBrowserServiceClass;
-    private final List<MediaControllerCompat.Callback> mCallbackList = new ArrayList<>();
+    private final Object mCallbackLock = new Object();
+    // Copy-on-write snapshot, replaced on every register/unregister so dispatch can iterate it
+    // without locking or allocating, even if a callback changes the registrations meanwhile.
+    private volatile MediaControllerCompat.Callback[] mCallbacks = NO_CALLBACKS;
+    private MediaMetadataCompat mLastMetadata;
+    private PlaybackStateCompat mLastPlaybackState;
+    private boolean mHasDispatchedMetadata;
+    private boolean mHasDispatchedPlaybackState;
     private MediaBrowserCompat mMediaBrowser;
     private MediaControllerCompat mMediaController;
     private MediaBrowserConnectionCallback mMediaBrowserConnectionCallback;
     private MediaControllerCallback mMediaControllerCallback;
-    private MediaBrowserSubscriptionCallback mMediaBrowserSubscriptionCallback;
+    // Browse pages outlive the helper (one cache per service), so reopening the UI only fetches
+    // the catalog changes since the cached version instead of every page again.
+    private static final Map<String, BrowseCache> sBrowseCaches = new HashMap<>();
+    private final BrowseCache mBrowseCache;
+    private final Map<String, SparseBooleanArray> mRequestedPages = new HashMap<>();
+    private final Map<String, SparseBooleanArray> mLoadingPages = new HashMap<>();
+    private final Set<String> mFetchingChanges = new HashSet<>();
+    private long mCatalogVersion = -1;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
 
+    /**
+     * The helper only keeps the application context, so an instance can be retained across
+     * configuration changes together with its connection and browse cache.
+     */
     public MediaBrowserHelper(Context context,
                               Class<? extends MediaBrowserServiceCompat> mediaBrowserServiceClass) {
-        mContext = context;
+        mContext = context.getApplicationContext();
         mMediaBrowserServiceClass = mediaBrowserServiceClass;
 
         mMediaBrowserConnectionCallback = new MediaBrowserConnectionCallback();
         mMediaControllerCallback = new MediaControllerCallback();
-        mMediaBrowserSubscriptionCallback = new MediaBrowserSubscriptionCallback();
 
+        synchronized (sBrowseCaches) {
+            BrowseCache browseCache = sBrowseCaches.get(mediaBrowserServiceClass.getName());
+            if (browseCache == null) {
+                browseCache = new BrowseCache();
+                sBrowseCaches.put(mediaBrowserServiceClass.getName(), browseCache);
+            }
+            mBrowseCache = browseCache;
+        }
     }
 
     public void onStart() {
@@ -57,10 +154,14 @@ public class MediaBrowserHelper {
             mMediaController.unregisterCallback(mMediaControllerCallback);
             mMediaController = null;
         }
-        if (mMediaBrowser != null && mMediaBrowser.isConnected()) {
+        if (mMediaBrowser != null) {
+            // Also while still connecting, or it would connect with nobody listening.
             mMediaBrowser.disconnect();
             mMediaBrowser = null;
         }
+        mLoadingPages.clear();
+        mFetchingChanges.clear();
+        mCatalogVersion = -1;
         resetState();
         Log.d(TAG, "onStop: Releasing MediaController, Disconnecting from MediaBrowser");
     }
@@ -71,20 +172,135 @@ public class MediaBrowserHelper {
      * happens via the {@link MediaSessionCompat}.
      */
     private void resetState() {
-        performOnAllCallbacks(new CallbackCommand() {
-            @Override
-            public void perform(@NonNull MediaControllerCompat.Callback callback) {
-                callback.onPlaybackStateChanged(null);
+        mHasDispatchedMetadata = false;
+        mLastMetadata = null;
+        mHasDispatchedPlaybackState = false;
+        mLastPlaybackState = null;
+        dispatchPlaybackStateChanged(null);
+    }
+
+    private void dispatchMetadataChanged(MediaMetadataCompat metadata) {
+        if (mHasDispatchedMetadata && isSameMetadata(mLastMetadata, metadata)) {
+            return;
+        }
+        mHasDispatchedMetadata = true;
+        mLastMetadata = metadata;
+
+        final MediaControllerCompat.Callback[] callbacks = mCallbacks;
+        for (MediaControllerCompat.Callback callback : callbacks) {
+            callback.onMetadataChanged(metadata);
+        }
+    }
+
+    private void dispatchPlaybackStateChanged(PlaybackStateCompat state) {
+        if (mHasDispatchedPlaybackState && isSamePlaybackState(mLastPlaybackState, state)) {
+            return;
+        }
+        mHasDispatchedPlaybackState = true;
+        mLastPlaybackState = state;
+
+        final MediaControllerCompat.Callback[] callbacks = mCallbacks;
+        for (MediaControllerCompat.Callback callback : callbacks) {
+            callback.onPlaybackStateChanged(state);
+        }
+    }
+
+    private static boolean isSameMetadata(MediaMetadataCompat a, MediaMetadataCompat b) {
+        if (a == b) {
+            return true;
+        }
+        if (a == null || b == null || a.size() != b.size()) {
+            return false;
+        }
+        // Every key counts, an album or art URI may change on its own. keySet() is the
+        // metadata's own, only a key of no standard type needs the bundles copied.
+        boolean hasOtherKeys = false;
+        for (String key : a.keySet()) {
+            if (!b.containsKey(key)) {
+                return false;
             }
-        });
+            if (TEXT_KEYS.contains(key)) {
+                if (!TextUtils.equals(a.getText(key), b.getText(key))) {
+                    return false;
+                }
+            } else if (LONG_KEYS.contains(key)) {
+                if (a.getLong(key) != b.getLong(key)) {
+                    return false;
+                }
+            } else if (BITMAP_KEYS.contains(key)) {
+                if (!isSameBitmap(a.getBitmap(key), b.getBitmap(key))) {
+                    return false;
+                }
+            } else if (RATING_KEYS.contains(key)) {
+                if (!isSameValue(a.getRating(key), b.getRating(key))) {
+                    return false;
+                }
+            } else {
+                hasOtherKeys = true;
+            }
+        }
+        return !hasOtherKeys || isSameOtherValues(a.getBundle(), b.getBundle());
     }
 
-    private void performOnAllCallbacks(@NonNull CallbackCommand command) {
-        for (MediaControllerCompat.Callback callback : mCallbackList) {
-            if (callback != null) {
-                command.perform(callback);
+    private static boolean isSameOtherValues(Bundle a, Bundle b) {
+        for (String key : a.keySet()) {
+            if (!TEXT_KEYS.contains(key) && !LONG_KEYS.contains(key)
+                    && !BITMAP_KEYS.contains(key) && !RATING_KEYS.contains(key)
+                    && !isSameValue(a.get(key), b.get(key))) {
+                return false;
             }
         }
+        return true;
+    }
+
+    private static boolean isSameValue(Object a, Object b) {
+        if (a instanceof Bitmap && b instanceof Bitmap) {
+            return isSameBitmap((Bitmap) a, (Bitmap) b);
+        }
+        if (a instanceof CharSequence && b instanceof CharSequence) {
+            return TextUtils.equals((CharSequence) a, (CharSequence) b);
+        }
+        if (a instanceof RatingCompat && b instanceof RatingCompat) {
+            // Ratings don't implement equals, their description covers type and value.
+            return a.toString().equals(b.toString());
+        }
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static boolean isSameBitmap(Bitmap a, Bitmap b) {
+        if (a == b) {
+            return true;
+        }
+        return a != null && b != null
+                && a.getWidth() == b.getWidth()
+                && a.getHeight() == b.getHeight()
+                && a.getGenerationId() == b.getGenerationId();
+    }
+
+    private static boolean isSamePlaybackState(PlaybackStateCompat a, PlaybackStateCompat b) {
+        if (a == b) {
+            return true;
+        }
+        if (a == null || b == null) {
+            return false;
+        }
+        if (a.getState() != b.getState()
+                || a.getActions() != b.getActions()
+                || a.getPlaybackSpeed() != b.getPlaybackSpeed()
+                || a.getBufferedPosition() != b.getBufferedPosition()
+                || a.getActiveQueueItemId() != b.getActiveQueueItemId()
+                || !TextUtils.equals(a.getErrorMessage(), b.getErrorMessage())) {
+            return false;
+        }
+        if (a.getState() != PlaybackStateCompat.STATE_PLAYING) {
+            return a.getPosition() == b.getPosition();
+        }
+
+        // While playing the position moves on its own, so compare where a would be at the
+        // time b was sampled.
+        final long projected = a.getPosition() + (long) ((b.getLastPositionUpdateTime()
+                - a.getLastPositionUpdateTime()) * a.getPlaybackSpeed());
+        return Math.abs(projected - b.getPosition()) <= POSITION_TOLERANCE_MS;
     }
 
     /**
@@ -99,12 +315,16 @@ public class MediaBrowserHelper {
     }
 
     /**
-     * Called after loading a browsable {@link MediaBrowserCompat.MediaItem}
+     * Called after loading a page of a browsable {@link MediaBrowserCompat.MediaItem} that was
+     * requested with {@link #loadChildren(String, int)}, and again whenever the service reports
+     * that page as changed.
      *
      * @param parentId The media ID of the parent item.
+     * @param page     Zero based page index, pages hold at most {@link #PAGE_SIZE} items.
      * @param children List (possibly empty) of child items.
      */
     protected void onChildrenLoaded(@NonNull String parentId,
+                                    int page,
                                     @NonNull List<MediaBrowserCompat.MediaItem> children) {
     }
 
@@ -114,6 +334,197 @@ public class MediaBrowserHelper {
     protected void onDisconnected() {
     }
 
+    public boolean isConnected() {
+        return mMediaController != null;
+    }
+
+    /**
+     * @return the media ID of the browse root, null while not connected
+     */
+    @Nullable
+    public String getRoot() {
+        return mMediaBrowser != null && mMediaBrowser.isConnected()
+                ? mMediaBrowser.getRoot()
+                : null;
+    }
+
+    /**
+     * Follows the user through {@code parentId}'s children, such as the last visible row of
+     * a list: the page holding {@code position} is loaded, and the next one prefetched once
+     * {@code position} is within {@link #PREFETCH_DISTANCE} of its page's end, so it's
+     * delivered straight from the cache when reached. Pages past the end of the children
+     * aren't asked for.
+     */
+    public void onPositionReached(@NonNull String parentId, int position) {
+        final int page = position / PAGE_SIZE;
+        if (page > 0 && !isFullPage(parentId, page - 1)) {
+            return;
+        }
+        if (!getPages(mRequestedPages, parentId).get(page)) {
+            loadChildren(parentId, page);
+        }
+        if (position % PAGE_SIZE >= PAGE_SIZE - PREFETCH_DISTANCE
+                && isFullPage(parentId, page)) {
+            prefetchChildren(parentId, page + 1);
+        }
+    }
+
+    private boolean isFullPage(String parentId, int page) {
+        final List<MediaBrowserCompat.MediaItem> children = mBrowseCache.getPage(parentId, page);
+        return children != null && children.size() == PAGE_SIZE;
+    }
+
+    /**
+     * Delivers a page of children to {@link #onChildrenLoaded(String, int, List)}, straight from
+     * the cache when it has already been loaded or prefetched.
+     */
+    public void loadChildren(@NonNull String parentId, int page) {
+        getPages(mRequestedPages, parentId).put(page, true);
+
+        final List<MediaBrowserCompat.MediaItem> cached = mBrowseCache.getPage(parentId, page);
+        if (cached != null) {
+            onChildrenLoaded(parentId, page, cached);
+        } else {
+            subscribePage(parentId, page);
+        }
+    }
+
+    /**
+     * Loads a page into the cache without delivering it, so a later
+     * {@link #loadChildren(String, int)} for it is answered immediately.
+     */
+    public void prefetchChildren(@NonNull String parentId, int page) {
+        if (mBrowseCache.getPage(parentId, page) == null) {
+            subscribePage(parentId, page);
+        }
+    }
+
+    @Nullable
+    public List<MediaBrowserCompat.MediaItem> getCachedChildren(@NonNull String parentId,
+                                                                int page) {
+        return mBrowseCache.getPage(parentId, page);
+    }
+
+    private static SparseBooleanArray getPages(Map<String, SparseBooleanArray> pages,
+                                               String parentId) {
+        SparseBooleanArray parentPages = pages.get(parentId);
+        if (parentPages == null) {
+            parentPages = new SparseBooleanArray();
+            pages.put(parentId, parentPages);
+        }
+        return parentPages;
+    }
+
+    private void subscribePage(String parentId, int page) {
+        if (mMediaBrowser == null || !mMediaBrowser.isConnected()) {
+            return;
+        }
+        final SparseBooleanArray loadingPages = getPages(mLoadingPages, parentId);
+        if (loadingPages.get(page)) {
+            return;
+        }
+        loadingPages.put(page, true);
+
+        final Bundle options = new Bundle();
+        options.putInt(MediaBrowserCompat.EXTRA_PAGE, page);
+        options.putInt(MediaBrowserCompat.EXTRA_PAGE_SIZE, PAGE_SIZE);
+        mMediaBrowser.subscribe(parentId, options, new PageSubscriptionCallback(mCatalogVersion));
+    }
+
+    private void onPageLoaded(String parentId, int page, long version,
+                              List<MediaBrowserCompat.MediaItem> children) {
+        getPages(mLoadingPages, parentId).delete(page);
+        mBrowseCache.putPage(parentId, page, version, children);
+
+        // Prefetched pages only fill the cache until somebody asks for them.
+        if (getPages(mRequestedPages, parentId).get(page)) {
+            onChildrenLoaded(parentId, page, children);
+        }
+        // The catalog may have changed while the page was loading.
+        fetchChanges(parentId);
+    }
+
+    /**
+     * Brings the cached parents up to {@code version} by fetching only their changes.
+     */
+    private void onCatalogVersionChanged(Bundle extras) {
+        if (extras == null || !extras.containsKey(AudioLibrary.EXTRA_CATALOG_VERSION)) {
+            return;
+        }
+        mBrowseCache.setGeneration(extras.getLong(AudioLibrary.EXTRA_CATALOG_GENERATION));
+        mCatalogVersion = extras.getLong(AudioLibrary.EXTRA_CATALOG_VERSION);
+
+        for (String parentId : mBrowseCache.getParentIds()) {
+            fetchChanges(parentId);
+        }
+    }
+
+    private void fetchChanges(final String parentId) {
+        final long since = mBrowseCache.getVersion(parentId);
+        if (since < 0 || since >= mCatalogVersion || mFetchingChanges.contains(parentId)
+                || mMediaBrowser == null || !mMediaBrowser.isConnected()) {
+            return;
+        }
+        mFetchingChanges.add(parentId);
+
+        final Bundle extras = new Bundle();
+        extras.putString(AudioLibrary.EXTRA_PARENT_ID, parentId);
+        extras.putLong(AudioLibrary.EXTRA_SINCE_VERSION, since);
+        mMediaBrowser.sendCustomAction(AudioLibrary.ACTION_GET_CATALOG_CHANGES, extras,
+                new MediaBrowserCompat.CustomActionCallback() {
+                    @Override
+                    public void onResult(String action, Bundle extras, Bundle resultData) {
+                        mFetchingChanges.remove(parentId);
+                        onChangesLoaded(parentId, resultData);
+                        // More changes may have been published while this one was in flight.
+                        fetchChanges(parentId);
+                    }
+
+                    @Override
+                    public void onError(String action, Bundle extras, Bundle data) {
+                        Log.e(TAG, "onError: failed to fetch changes of " + parentId);
+                        mFetchingChanges.remove(parentId);
+                    }
+                });
+    }
+
+    private void onChangesLoaded(String parentId, Bundle changes) {
+        final SparseBooleanArray requestedPages = getPages(mRequestedPages, parentId);
+        if (changes.getBoolean(AudioLibrary.EXTRA_RESET)) {
+            // Too far behind for a delta, start over with the pages on screen.
+            mBrowseCache.removeParent(parentId);
+            for (int i = 0; i < requestedPages.size(); i++) {
+                subscribePage(parentId, requestedPages.keyAt(i));
+            }
+            return;
+        }
+
+        changes.setClassLoader(MediaBrowserCompat.MediaItem.class.getClassLoader());
+        final List<MediaBrowserCompat.MediaItem> changedItems =
+                changes.getParcelableArrayList(AudioLibrary.EXTRA_CHANGED_ITEMS);
+        final List<String> removedIds = changes.getStringArrayList(AudioLibrary.EXTRA_REMOVED_IDS);
+        final List<Integer> changedPages = mBrowseCache.applyChanges(
+                parentId,
+                changes.getLong(AudioLibrary.EXTRA_CATALOG_VERSION),
+                changedItems != null
+                        ? changedItems
+                        : Collections.<MediaBrowserCompat.MediaItem>emptyList(),
+                removedIds != null ? removedIds : Collections.<String>emptyList(),
+                PAGE_SIZE);
+        for (int page : changedPages) {
+            if (!requestedPages.get(page)) {
+                continue;
+            }
+            final List<MediaBrowserCompat.MediaItem> cached = mBrowseCache.getPage(parentId, page);
+            if (cached != null) {
+                onChildrenLoaded(parentId, page, cached);
+            } else {
+                // Dropped, its items moved about.
+                subscribePage(parentId, page);
+            }
+        }
+    }
+
     @NonNull
     protected final MediaControllerCompat getmMediaController() {
         if (mMediaController == null) {
@@ -132,10 +543,30 @@ public class MediaBrowserHelper {
         return mMediaController.getTransportControls();
     }
 
+    /**
+     * Sends a custom action to the service, ignored while not connected.
+     */
+    public void sendCustomAction(@NonNull String action, @Nullable Bundle extras) {
+        if (mMediaBrowser != null && mMediaBrowser.isConnected()) {
+            mMediaBrowser.sendCustomAction(action, extras, null);
+        }
+    }
+
     public void registerCallback(MediaControllerCompat.Callback callback) {
 
         if (callback != null) {
-            mCallbackList.add(callback);
+            synchronized (mCallbackLock) {
+                final MediaControllerCompat.Callback[] callbacks = mCallbacks;
+                for (MediaControllerCompat.Callback registered : callbacks) {
+                    if (registered == callback) {
+                        return;
+                    }
+                }
+                final MediaControllerCompat.Callback[] updated =
+                        Arrays.copyOf(callbacks, callbacks.length + 1);
+                updated[callbacks.length] = callback;
+                mCallbacks = updated;
+            }
 
             //update with latest metadata/playback state
             if (mMediaController != null) {
@@ -151,11 +582,20 @@ public class MediaBrowserHelper {
         }
     }
 
-    /**
-     * Helper for more easily performing operations on all listening clients.
-     */
-    private interface CallbackCommand {
-        void perform(@NonNull MediaControllerCompat.Callback callback);
+    public void unregisterCallback(MediaControllerCompat.Callback callback) {
+        synchronized (mCallbackLock) {
+            final MediaControllerCompat.Callback[] callbacks = mCallbacks;
+            for (int i = 0; i < callbacks.length; i++) {
+                if (callbacks[i] == callback) {
+                    final MediaControllerCompat.Callback[] updated =
+                            new MediaControllerCompat.Callback[callbacks.length - 1];
+                    System.arraycopy(callbacks, 0, updated, 0, i);
+                    System.arraycopy(callbacks, i + 1, updated, i, callbacks.length - i - 1);
+                    mCallbacks = updated;
+                    return;
+                }
+            }
+        }
     }
 
     // Receives callbacks from the MediaBrowser when it has successfully connected to the
@@ -171,6 +611,7 @@ public class MediaBrowserHelper {
                 // Sync existing MediaSession state to the UI.
                 mMediaControllerCallback.onMetadataChanged(mMediaController.getMetadata());
                 mMediaControllerCallback.onPlaybackStateChanged(mMediaController.getPlaybackState());
+                onCatalogVersionChanged(mMediaController.getExtras());
 
                 MediaBrowserHelper.this.onConnected(mMediaController);
 
@@ -179,7 +620,7 @@ public class MediaBrowserHelper {
                 throw new RuntimeException("Exception in mediabrowser connection ", e);
             }
 
-            mMediaBrowser.subscribe(mMediaBrowser.getRoot(), mMediaBrowserSubscriptionCallback);
+            loadChildren(mMediaBrowser.getRoot(), 0);
         }
     }
 
@@ -189,22 +630,17 @@ public class MediaBrowserHelper {
 
         @Override
         public void onMetadataChanged(MediaMetadataCompat metadata) {
-            performOnAllCallbacks(new CallbackCommand() {
-                @Override
-                public void perform(@NonNull MediaControllerCompat.Callback callback) {
-                    callback.onMetadataChanged(metadata);
-                }
-            });
+            dispatchMetadataChanged(metadata);
         }
 
         @Override
         public void onPlaybackStateChanged(PlaybackStateCompat state) {
-            performOnAllCallbacks(new CallbackCommand() {
-                @Override
-                public void perform(@NonNull MediaControllerCompat.Callback callback) {
-                    callback.onPlaybackStateChanged(state);
-                }
-            });
+            dispatchPlaybackStateChanged(state);
+        }
+
+        @Override
+        public void onExtrasChanged(Bundle extras) {
+            onCatalogVersionChanged(extras);
         }
 
         // This might happen if the MusicService is killed while the Activity is in the
@@ -217,13 +653,48 @@ public class MediaBrowserHelper {
         }
     }
 
-    // Receives callbacks from the MediaBrowser when the MediaBrowserService has loaded new media
-    // that is ready for playback.
-    private class MediaBrowserSubscriptionCallback extends MediaBrowserCompat.SubscriptionCallback {
+    // Receives one page from the MediaBrowser when the MediaBrowserService has loaded media that
+    // is ready for playback. Pages are loaded once, later changes arrive as catalog deltas.
+    private class PageSubscriptionCallback extends MediaBrowserCompat.SubscriptionCallback
+            implements Runnable {
+
+        private final long mVersion;
+        private String mParentId;
+
+        private PageSubscriptionCallback(long version) {
+            mVersion = version;
+        }
+
         @Override
         public void onChildrenLoaded(@NonNull String parentId,
-                                     @NonNull List<MediaBrowserCompat.MediaItem> children) {
-            MediaBrowserHelper.this.onChildrenLoaded(parentId, children);
+                                     @NonNull List<MediaBrowserCompat.MediaItem> children,
+                                     @NonNull Bundle options) {
+            unsubscribe(parentId);
+            onPageLoaded(parentId, options.getInt(MediaBrowserCompat.EXTRA_PAGE, 0),
+                    mVersion, children);
+        }
+
+        @Override
+        public void onError(@NonNull String parentId, @NonNull Bundle options) {
+            final int page = options.getInt(MediaBrowserCompat.EXTRA_PAGE, 0);
+            Log.e(TAG, "onError: failed to load " + parentId + " page " + page);
+            unsubscribe(parentId);
+            getPages(mLoadingPages, parentId).delete(page);
+        }
+
+        // The browser is still iterating its callbacks, so leave it before unsubscribing.
+        private void unsubscribe(String parentId) {
+            if (mParentId == null) {
+                mParentId = parentId;
+                mHandler.post(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            if (mMediaBrowser != null && mMediaBrowser.isConnected()) {
+                mMediaBrowser.unsubscribe(mParentId, this);
+            }
         }
     }
 }
@@ -1,26 +1,159 @@
 package com.beeitstudio.mediaplayer.service;
 
 import android.content.ContentResolver;
-import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.net.Uri;
 import android.support.v4.media.MediaBrowserCompat;
+import android.support.v4.media.MediaDescriptionCompat;
 import android.support.v4.media.MediaMetadataCompat;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
 import com.beeitstudio.mediaplayer.BuildConfig;
 import com.beeitstudio.mediaplayer.R;
 
+import java.io.File;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 
 public class AudioLibrary {
 
+    /**
+     * Custom browse action returning the changes of {@link #EXTRA_PARENT_ID} after
+     * {@link #EXTRA_SINCE_VERSION}, see {@link AudioService#onCustomAction}.
+     */
+    public static final String ACTION_GET_CATALOG_CHANGES =
+            "com.beeitstudio.mediaplayer.ACTION_GET_CATALOG_CHANGES";
+
+    /**
+     * Custom browse action that (re)scans local storage for music.
+     */
+    public static final String ACTION_SCAN_MEDIA = "com.beeitstudio.mediaplayer.ACTION_SCAN_MEDIA";
+
+    /**
+     * Custom browse actions that pin {@link #EXTRA_MEDIA_ID} for offline playback, or unpin
+     * it and delete the download.
+     */
+    public static final String ACTION_DOWNLOAD = "com.beeitstudio.mediaplayer.ACTION_DOWNLOAD";
+    public static final String ACTION_REMOVE_DOWNLOAD =
+            "com.beeitstudio.mediaplayer.ACTION_REMOVE_DOWNLOAD";
+
+    /**
+     * Custom browse action that stops playback after {@link #EXTRA_SLEEP_TIMER_MS}, or at the
+     * end of the current track if {@link #EXTRA_SLEEP_AT_END_OF_TRACK} is set. Neither cancels
+     * the timer. The timer is published in the session extras, see
+     * {@link #EXTRA_SLEEP_TIMER_DEADLINE}.
+     */
+    public static final String ACTION_SET_SLEEP_TIMER =
+            "com.beeitstudio.mediaplayer.ACTION_SET_SLEEP_TIMER";
+    public static final String EXTRA_SLEEP_TIMER_MS =
+            "com.beeitstudio.mediaplayer.EXTRA_SLEEP_TIMER_MS";
+    public static final String EXTRA_SLEEP_AT_END_OF_TRACK =
+            "com.beeitstudio.mediaplayer.EXTRA_SLEEP_AT_END_OF_TRACK";
+    // Session extras: when the sleep timer stops playback, in System.currentTimeMillis() time.
+    public static final String EXTRA_SLEEP_TIMER_DEADLINE =
+            "com.beeitstudio.mediaplayer.EXTRA_SLEEP_TIMER_DEADLINE";
+
+    /**
+     * Custom browse actions for zones, playback sessions of their own next to the main one
+     * (the browser's session, {@link #MAIN_ZONE_ID}). Creating one returns its
+     * {@link #EXTRA_ZONE_ID} and {@link #EXTRA_SESSION_TOKEN}, or an error if the service
+     * hosts as many as it can already; releasing one stops it. Listing them returns
+     * {@link #EXTRA_ZONE_IDS} and {@link #EXTRA_SESSION_TOKENS}, in the same order.
+     */
+    public static final String ACTION_CREATE_ZONE =
+            "com.beeitstudio.mediaplayer.ACTION_CREATE_ZONE";
+    public static final String ACTION_RELEASE_ZONE =
+            "com.beeitstudio.mediaplayer.ACTION_RELEASE_ZONE";
+    public static final String ACTION_GET_ZONES = "com.beeitstudio.mediaplayer.ACTION_GET_ZONES";
+    public static final String MAIN_ZONE_ID = "main";
+    public static final String EXTRA_ZONE_ID = "com.beeitstudio.mediaplayer.EXTRA_ZONE_ID";
+    public static final String EXTRA_SESSION_TOKEN =
+            "com.beeitstudio.mediaplayer.EXTRA_SESSION_TOKEN";
+    public static final String EXTRA_ZONE_IDS = "com.beeitstudio.mediaplayer.EXTRA_ZONE_IDS";
+    public static final String EXTRA_SESSION_TOKENS =
+            "com.beeitstudio.mediaplayer.EXTRA_SESSION_TOKENS";
+
+    /**
+     * Custom browse actions that serve what the main zone plays to other devices on the local
+     * network, or stop doing so. Starting returns {@link #EXTRA_CAST_URL} for them to play,
+     * or an error if the device isn't on a local network. Progressive streams and files are
+     * served, HLS and DASH aren't.
+     */
+    public static final String ACTION_START_CASTING =
+            "com.beeitstudio.mediaplayer.ACTION_START_CASTING";
+    public static final String ACTION_STOP_CASTING =
+            "com.beeitstudio.mediaplayer.ACTION_STOP_CASTING";
+    public static final String EXTRA_CAST_URL = "com.beeitstudio.mediaplayer.EXTRA_CAST_URL";
+
+    public static final String EXTRA_MEDIA_ID = "com.beeitstudio.mediaplayer.EXTRA_MEDIA_ID";
+    public static final String EXTRA_PARENT_ID = "com.beeitstudio.mediaplayer.EXTRA_PARENT_ID";
+    public static final String EXTRA_SINCE_VERSION =
+            "com.beeitstudio.mediaplayer.EXTRA_SINCE_VERSION";
+    public static final String EXTRA_CATALOG_VERSION =
+            "com.beeitstudio.mediaplayer.EXTRA_CATALOG_VERSION";
+    public static final String EXTRA_CATALOG_GENERATION =
+            "com.beeitstudio.mediaplayer.EXTRA_CATALOG_GENERATION";
+    public static final String EXTRA_CHANGED_ITEMS =
+            "com.beeitstudio.mediaplayer.EXTRA_CHANGED_ITEMS";
+    public static final String EXTRA_REMOVED_IDS = "com.beeitstudio.mediaplayer.EXTRA_REMOVED_IDS";
+    // Set when the requested version is older than the change log, the client has to reload.
+    public static final String EXTRA_RESET = "com.beeitstudio.mediaplayer.EXTRA_RESET";
+
+    /**
+     * Session extras: the peak waveform (a byte array) of the media
+     * {@link #EXTRA_WAVEFORM_MEDIA_ID}.
+     */
+    public static final String EXTRA_WAVEFORM = "com.beeitstudio.mediaplayer.EXTRA_WAVEFORM";
+    public static final String EXTRA_WAVEFORM_MEDIA_ID =
+            "com.beeitstudio.mediaplayer.EXTRA_WAVEFORM_MEDIA_ID";
+
+    /**
+     * Authority of the artwork provider, see {@link #getArtUri(String)}.
+     */
+    public static final String ART_AUTHORITY = BuildConfig.APPLICATION_ID + ".art";
+
+    private static final int MAX_CHANGE_LOG = 1024;
+
     private static final TreeMap<String, MediaMetadataCompat> music = new TreeMap<>();
     private static final HashMap<String, Integer> albumRes = new HashMap<>();
     private static final HashMap<String, String> musicFileName = new HashMap<>();
+    private static final HashMap<String, String> parentIds = new HashMap<>();
+    // Media ids by parent, each ordered by media id like music, so a browse page is a sublist.
+    private static final HashMap<String, ArrayList<String>> children = new HashMap<>();
+    // Browse items are built once per entry and handed out again until the entry changes.
+    private static final HashMap<String, MediaBrowserCompat.MediaItem> mediaItems =
+            new HashMap<>();
+    private static final ArrayDeque<CatalogChange> changeLog = new ArrayDeque<>();
+    private static final List<OnCatalogChangedListener> listeners = new CopyOnWriteArrayList<>();
+    // Differs on every process start, so clients can tell a rebuilt catalog (whose versions
+    // start over) from the one they have cached.
+    private static final long generation = System.currentTimeMillis();
+    private static long version;
+
+    /**
+     * Knows which entries have been downloaded, those are played from their local copy.
+     */
+    public interface LocalCopies {
+        @Nullable
+        File getLocalCopy(@NonNull String mediaId);
+    }
+
+    private static volatile LocalCopies localCopies;
+
+    /**
+     * Receives every batch of changes applied to the catalog, on the thread that applied it.
+     */
+    public interface OnCatalogChangedListener {
+        void onCatalogChanged(@NonNull List<CatalogChange> changes);
+    }
 
     static {
         createMediaMetadataCompat(
@@ -33,65 +166,280 @@ public class AudioLibrary {
                 TimeUnit.SECONDS,
                 "t",
                 "http://uk7.internet-radio.com:8226",
-                R.drawable.album_jazz_blues,
-                "");
+                R.drawable.album_jazz_blues);
     }
 
     public static String getRoot() {
         return "root";
     }
 
-    private static String getAlbumArtUri(String albumArtResName) {
-        return ContentResolver.SCHEME_ANDROID_RESOURCE + "://" +
-                BuildConfig.APPLICATION_ID + "/drawable/" + albumArtResName;
+    public static long getGeneration() {
+        return generation;
+    }
+
+    public static synchronized long getVersion() {
+        return version;
+    }
+
+    public static synchronized boolean hasMedia(String mediaId) {
+        return music.containsKey(mediaId);
+    }
+
+    public static synchronized String getParentId(String mediaId) {
+        final String parentId = parentIds.get(mediaId);
+        return parentId != null ? parentId : getRoot();
+    }
+
+    /**
+     * @return the local copy's URI if the entry has been downloaded, its own otherwise
+     */
+    @Nullable
+    public static String getMediaUri(String mediaId) {
+        final MediaMetadataCompat metadata;
+        synchronized (AudioLibrary.class) {
+            metadata = music.get(mediaId);
+        }
+        return metadata != null
+                ? getPlaybackUri(mediaId,
+                metadata.getString(MediaMetadataCompat.METADATA_KEY_MEDIA_URI))
+                : null;
+    }
+
+    public static void setLocalCopies(@Nullable LocalCopies copies) {
+        localCopies = copies;
     }
 
-    public static String getMusicFilename(String mediaId) {
+    private static String getPlaybackUri(String mediaId, String mediaUri) {
+        final LocalCopies copies = localCopies;
+        final File copy = copies != null ? copies.getLocalCopy(mediaId) : null;
+        return copy != null ? Uri.fromFile(copy).toString() : mediaUri;
+    }
+
+    public static void addOnCatalogChangedListener(OnCatalogChangedListener listener) {
+        listeners.add(listener);
+    }
+
+    public static void removeOnCatalogChangedListener(OnCatalogChangedListener listener) {
+        listeners.remove(listener);
+    }
+
+    public static synchronized String getMusicFilename(String mediaId) {
         return musicFileName.containsKey(mediaId) ? musicFileName.get(mediaId) : null;
     }
 
-    private static int getAlbumRes(String mediaId) {
+    /**
+     * @return the drawable with the artwork of {@code mediaId}, 0 if it has none
+     */
+    public static synchronized int getAlbumRes(String mediaId) {
         return albumRes.containsKey(mediaId) ? albumRes.get(mediaId) : 0;
     }
 
-    public static Bitmap getAlbumBitmap(Context context, String mediaId) {
-        return BitmapFactory.decodeResource(context.getResources(),
-                AudioLibrary.getAlbumRes(mediaId));
+    public static synchronized List<MediaBrowserCompat.MediaItem> getMediaItems(String parentId) {
+        return getMediaItems(parentId, 0, Integer.MAX_VALUE);
     }
 
-    public static List<MediaBrowserCompat.MediaItem> getMediaItems() {
-        List<MediaBrowserCompat.MediaItem> result = new ArrayList<>();
-        for (MediaMetadataCompat metadata : music.values()) {
-            result.add(
-                    new MediaBrowserCompat.MediaItem(
-                            metadata.getDescription(), MediaBrowserCompat.MediaItem.FLAG_PLAYABLE));
+    /**
+     * @return page {@code page} of {@code parentId}'s children, ordered by media id; empty past
+     * the last one
+     */
+    public static synchronized List<MediaBrowserCompat.MediaItem> getMediaItems(String parentId,
+                                                                             int page,
+                                                                             int pageSize) {
+        final List<MediaBrowserCompat.MediaItem> result = new ArrayList<>();
+        final ArrayList<String> ids = children.get(parentId);
+        if (ids == null || page < 0 || pageSize < 1) {
+            return result;
+        }
+        final long from = (long) page * pageSize;
+        final int to = (int) Math.min(ids.size(), from + pageSize);
+        for (int i = (int) Math.min(from, ids.size()); i < to; i++) {
+            result.add(createMediaItem(music.get(ids.get(i))));
         }
         return result;
     }
 
-    public static MediaMetadataCompat getMetadata(Context context, String mediaId) {
-        MediaMetadataCompat metadataWithoutBitmap = music.get(mediaId);
-        Bitmap albumArt = getAlbumBitmap(context, mediaId);
+    // Must hold the class lock.
+    private static void addChild(String parentId, String mediaId) {
+        ArrayList<String> ids = children.get(parentId);
+        if (ids == null) {
+            ids = new ArrayList<>();
+            children.put(parentId, ids);
+        }
+        final int index = Collections.binarySearch(ids, mediaId);
+        if (index < 0) {
+            ids.add(-index - 1, mediaId);
+        }
+    }
 
-        // Since MediaMetadataCompat is immutable, we need to create a copy to set the album art.
-        // We don't set it initially on all items so that they don't take unnecessary memory.
-        MediaMetadataCompat.Builder builder = new MediaMetadataCompat.Builder();
-        for (String key :
-                new String[]{
-                        MediaMetadataCompat.METADATA_KEY_MEDIA_ID,
-                        MediaMetadataCompat.METADATA_KEY_ALBUM,
-                        MediaMetadataCompat.METADATA_KEY_ARTIST,
-                        MediaMetadataCompat.METADATA_KEY_GENRE,
-                        MediaMetadataCompat.METADATA_KEY_TITLE,
-                        MediaMetadataCompat.METADATA_KEY_MEDIA_URI
-                }) {
-            builder.putString(key, metadataWithoutBitmap.getString(key));
+    // Must hold the class lock.
+    private static void removeChild(String parentId, String mediaId) {
+        final ArrayList<String> ids = children.get(parentId);
+        if (ids == null) {
+            return;
         }
-        builder.putLong(
-                MediaMetadataCompat.METADATA_KEY_DURATION,
-                metadataWithoutBitmap.getLong(MediaMetadataCompat.METADATA_KEY_DURATION));
-        builder.putBitmap(MediaMetadataCompat.METADATA_KEY_ALBUM_ART, albumArt);
-        return builder.build();
+        final int index = Collections.binarySearch(ids, mediaId);
+        if (index >= 0) {
+            ids.remove(index);
+            if (ids.isEmpty()) {
+                children.remove(parentId);
+            }
+        }
+    }
+
+    @Nullable
+    public static synchronized MediaBrowserCompat.MediaItem getMediaItem(String mediaId) {
+        final MediaMetadataCompat metadata = music.get(mediaId);
+        return metadata != null ? createMediaItem(metadata) : null;
+    }
+
+    /**
+     * @return the artwork of {@code mediaId}, served by the provider under
+     * {@link #ART_AUTHORITY} when it's opened
+     */
+    public static Uri getArtUri(String mediaId) {
+        return new Uri.Builder()
+                .scheme(ContentResolver.SCHEME_CONTENT)
+                .authority(ART_AUTHORITY)
+                .appendPath(mediaId)
+                .build();
+    }
+
+    // Must hold the class lock.
+    private static MediaBrowserCompat.MediaItem createMediaItem(MediaMetadataCompat metadata) {
+        final String mediaId = metadata.getDescription().getMediaId();
+        MediaBrowserCompat.MediaItem item = mediaItems.get(mediaId);
+        if (item == null) {
+            // Only what a browse list shows: no media URI, no extras and a single art URI
+            // that's resolved when a client actually loads it, instead of the two
+            // full-length ones the metadata's description carries.
+            final String artUri =
+                    metadata.getString(MediaMetadataCompat.METADATA_KEY_DISPLAY_ICON_URI);
+            final MediaDescriptionCompat description = new MediaDescriptionCompat.Builder()
+                    .setMediaId(mediaId)
+                    .setTitle(metadata.getString(MediaMetadataCompat.METADATA_KEY_TITLE))
+                    .setSubtitle(metadata.getString(MediaMetadataCompat.METADATA_KEY_ARTIST))
+                    .setDescription(metadata.getString(MediaMetadataCompat.METADATA_KEY_ALBUM))
+                    .setIconUri(artUri != null ? Uri.parse(artUri) : getArtUri(mediaId))
+                    .build();
+            item = new MediaBrowserCompat.MediaItem(
+                    description, MediaBrowserCompat.MediaItem.FLAG_PLAYABLE);
+            mediaItems.put(mediaId, item);
+        }
+        return item;
+    }
+
+    /**
+     * Returns the changes recorded after {@code sinceVersion} in version order, or null if
+     * the change log no longer reaches back that far.
+     */
+    @Nullable
+    public static synchronized List<CatalogChange> getChangesSince(long sinceVersion) {
+        final List<CatalogChange> result = new ArrayList<>();
+        if (sinceVersion >= version) {
+            return result;
+        }
+        if (changeLog.isEmpty() || changeLog.peekFirst().version > sinceVersion + 1) {
+            return null;
+        }
+        for (CatalogChange change : changeLog) {
+            if (change.version > sinceVersion) {
+                result.add(change);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Inserts or replaces media under {@code parentId} and publishes the changes as one batch.
+     */
+    public static void putMedia(@NonNull String parentId,
+                                @NonNull Collection<MediaMetadataCompat> items) {
+        final List<CatalogChange> changes = new ArrayList<>(items.size());
+        synchronized (AudioLibrary.class) {
+            for (MediaMetadataCompat metadata : items) {
+                final String mediaId = metadata.getDescription().getMediaId();
+                final MediaMetadataCompat previous = music.put(mediaId, metadata);
+                mediaItems.remove(mediaId);
+                final String previousParentId = parentIds.put(mediaId, parentId);
+                if (previousParentId != null && !previousParentId.equals(parentId)) {
+                    removeChild(previousParentId, mediaId);
+                }
+                addChild(parentId, mediaId);
+                if (previous != null && previousParentId != null
+                        && !previousParentId.equals(parentId)) {
+                    // Moving between parents is a delete in one and an insert in the other.
+                    changes.add(recordChange(CatalogChange.TYPE_DELETE, mediaId, previousParentId));
+                    changes.add(recordChange(CatalogChange.TYPE_INSERT, mediaId, parentId));
+                } else {
+                    changes.add(recordChange(previous == null
+                            ? CatalogChange.TYPE_INSERT
+                            : CatalogChange.TYPE_UPDATE, mediaId, parentId));
+                }
+            }
+        }
+        dispatchChanges(changes);
+    }
+
+    /**
+     * Removes media from the catalog and publishes the changes as one batch.
+     */
+    public static void removeMedia(@NonNull Collection<String> mediaIds) {
+        final List<CatalogChange> changes = new ArrayList<>(mediaIds.size());
+        synchronized (AudioLibrary.class) {
+            for (String mediaId : mediaIds) {
+                if (music.remove(mediaId) == null) {
+                    continue;
+                }
+                final String parentId = parentIds.remove(mediaId);
+                removeChild(parentId != null ? parentId : getRoot(), mediaId);
+                mediaItems.remove(mediaId);
+                albumRes.remove(mediaId);
+                musicFileName.remove(mediaId);
+                changes.add(recordChange(CatalogChange.TYPE_DELETE, mediaId,
+                        parentId != null ? parentId : getRoot()));
+            }
+        }
+        dispatchChanges(changes);
+    }
+
+    // Must hold the class lock.
+    private static CatalogChange recordChange(@CatalogChange.Type int type,
+                                              String mediaId,
+                                              String parentId) {
+        final CatalogChange change = new CatalogChange(type, mediaId, parentId, ++version);
+        changeLog.addLast(change);
+        if (changeLog.size() > MAX_CHANGE_LOG) {
+            changeLog.removeFirst();
+        }
+        return change;
+    }
+
+    private static void dispatchChanges(List<CatalogChange> changes) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        for (OnCatalogChangedListener listener : listeners) {
+            listener.onCatalogChanged(changes);
+        }
+    }
+
+    /**
+     * @return the entry with the URI it's played from; the artwork is loaded separately from
+     * its art URI
+     */
+    @Nullable
+    public static MediaMetadataCompat getMetadata(String mediaId) {
+        final MediaMetadataCompat metadata;
+        synchronized (AudioLibrary.class) {
+            metadata = music.get(mediaId);
+        }
+        if (metadata == null) {
+            return null;
+        }
+        return new MediaMetadataCompat.Builder(metadata)
+                .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_URI, getPlaybackUri(mediaId,
+                        metadata.getString(MediaMetadataCompat.METADATA_KEY_MEDIA_URI)))
+                .build();
     }
 
     private static void createMediaMetadataCompat(
@@ -104,27 +452,62 @@ public class AudioLibrary {
             TimeUnit durationUnit,
             String musicFilename,
             String fileUri,
-            int albumArtResId,
-            String albumArtResName) {
+            int albumArtResId) {
         music.put(
                 mediaId,
-                new MediaMetadataCompat.Builder()
-                        .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID, mediaId)
-                        .putString(MediaMetadataCompat.METADATA_KEY_ALBUM, album)
-                        .putString(MediaMetadataCompat.METADATA_KEY_ARTIST, artist)
-                        .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_URI, fileUri)
-                        .putLong(MediaMetadataCompat.METADATA_KEY_DURATION,
-                                TimeUnit.MILLISECONDS.convert(duration, durationUnit))
-                        .putString(MediaMetadataCompat.METADATA_KEY_GENRE, genre)
-                        .putString(
-                                MediaMetadataCompat.METADATA_KEY_ALBUM_ART_URI,
-                                getAlbumArtUri(albumArtResName))
-                        .putString(
-                                MediaMetadataCompat.METADATA_KEY_DISPLAY_ICON_URI,
-                                getAlbumArtUri(albumArtResName))
-                        .putString(MediaMetadataCompat.METADATA_KEY_TITLE, title)
-                        .build());
+                buildMetadata(
+                        mediaId,
+                        title,
+                        artist,
+                        album,
+                        genre,
+                        TimeUnit.MILLISECONDS.convert(duration, durationUnit),
+                        fileUri));
         albumRes.put(mediaId, albumArtResId);
         musicFileName.put(mediaId, musicFilename);
+        parentIds.put(mediaId, getRoot());
+        addChild(getRoot(), mediaId);
+    }
+
+    /**
+     * Builds a catalog entry the same way the built-in entries are built, for media that is
+     * added at runtime through {@link #putMedia(String, Collection)}.
+     */
+    public static MediaMetadataCompat buildMetadata(
+            String mediaId,
+            String title,
+            String artist,
+            String album,
+            String genre,
+            long durationMs,
+            String fileUri) {
+        return buildMetadata(mediaId, title, artist, album, genre, durationMs, fileUri, null);
+    }
+
+    /**
+     * @param artUri the entry's remote artwork, null for the artwork served from
+     *               {@link #getArtUri(String)}
+     */
+    public static MediaMetadataCompat buildMetadata(
+            String mediaId,
+            String title,
+            String artist,
+            String album,
+            String genre,
+            long durationMs,
+            String fileUri,
+            @Nullable String artUri) {
+        final String art = artUri != null ? artUri : getArtUri(mediaId).toString();
+        return new MediaMetadataCompat.Builder()
+                .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID, mediaId)
+                .putString(MediaMetadataCompat.METADATA_KEY_ALBUM, album)
+                .putString(MediaMetadataCompat.METADATA_KEY_ARTIST, artist)
+                .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_URI, fileUri)
+                .putLong(MediaMetadataCompat.METADATA_KEY_DURATION, durationMs)
+                .putString(MediaMetadataCompat.METADATA_KEY_GENRE, genre)
+                .putString(MediaMetadataCompat.METADATA_KEY_ALBUM_ART_URI, art)
+                .putString(MediaMetadataCompat.METADATA_KEY_DISPLAY_ICON_URI, art)
+                .putString(MediaMetadataCompat.METADATA_KEY_TITLE, title)
+                .build();
     }
 }
\ No newline at end of file
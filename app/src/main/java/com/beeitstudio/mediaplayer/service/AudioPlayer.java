@@ -1,117 +1,494 @@
 package com.beeitstudio.mediaplayer.service;
 
 import android.content.Context;
-import android.media.session.PlaybackState;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.Looper;
 import android.os.SystemClock;
 import android.support.v4.media.MediaMetadataCompat;
 import android.support.v4.media.session.PlaybackStateCompat;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.beeitstudio.mediaplayer.R;
+import com.beeitstudio.mediaplayer.service.cast.CastDataSink;
+import com.beeitstudio.mediaplayer.service.cast.CastServer;
+import com.beeitstudio.mediaplayer.service.dsp.DspChain;
+import com.beeitstudio.mediaplayer.service.dsp.GainStage;
+import com.beeitstudio.mediaplayer.service.dsp.Limiter;
+import com.beeitstudio.mediaplayer.service.dsp.ParametricEqualizer;
+import com.beeitstudio.mediaplayer.service.http.PooledHttpClient;
+import com.beeitstudio.mediaplayer.service.http.PooledHttpDataSource;
+import com.beeitstudio.mediaplayer.service.stream.CappedBandwidthMeter;
+import com.beeitstudio.mediaplayer.service.stream.ResolvedStream;
+import com.beeitstudio.mediaplayer.service.stream.StreamMetrics;
+import com.beeitstudio.mediaplayer.service.stream.StreamResolver;
+import com.beeitstudio.mediaplayer.service.stream.TimeShiftBuffer;
+import com.beeitstudio.mediaplayer.service.stream.TimeShiftDataSource;
+import com.beeitstudio.mediaplayer.service.stream.TimeShiftRecorder;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.DefaultLoadControl;
 import com.google.android.exoplayer2.DefaultRenderersFactory;
+import com.google.android.exoplayer2.ExoPlaybackException;
 import com.google.android.exoplayer2.ExoPlayerFactory;
 import com.google.android.exoplayer2.Player;
 import com.google.android.exoplayer2.SimpleExoPlayer;
+import com.google.android.exoplayer2.analytics.AnalyticsListener;
+import com.google.android.exoplayer2.audio.AudioProcessor;
 import com.google.android.exoplayer2.source.ExtractorMediaSource;
 import com.google.android.exoplayer2.source.MediaSource;
+import com.google.android.exoplayer2.source.MediaSourceEventListener;
+import com.google.android.exoplayer2.source.dash.DashMediaSource;
+import com.google.android.exoplayer2.source.dash.DefaultDashChunkSource;
+import com.google.android.exoplayer2.source.hls.HlsMediaSource;
+import com.google.android.exoplayer2.trackselection.AdaptiveTrackSelection;
 import com.google.android.exoplayer2.trackselection.DefaultTrackSelector;
 import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DefaultBandwidthMeter;
 import com.google.android.exoplayer2.upstream.DefaultDataSourceFactory;
+import com.google.android.exoplayer2.upstream.DefaultLoadErrorHandlingPolicy;
+import com.google.android.exoplayer2.upstream.TeeDataSource;
 import com.google.android.exoplayer2.util.Util;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
 public class AudioPlayer extends PlayerAdapter {
 
     private static final String TAG = "oli_" + AudioPlayer.class.getSimpleName();
 
+    private static final int DEFAULT_FADE_IN_MS = 300;
+    private static final int DEFAULT_FADE_OUT_MS = 200;
+    private static final int VOLUME_RAMP_MS = 250;
+    // Audio leaves the DSP chain this long before it's heard, roughly the audio sink's buffer.
+    // The player is only paused or released once a fade out has made it through.
+    private static final int OUTPUT_LATENCY_MS = 250;
+    // While playing, the position is checked this often and reported again once it has
+    // drifted this far from what clients extrapolate from the last report, or the buffered
+    // position has moved on by a step.
+    private static final int POSITION_CHECK_INTERVAL_MS = 1000;
+    private static final int MAX_POSITION_DRIFT_MS = 250;
+    private static final int BUFFERED_POSITION_STEP_MS = 5000;
+    // The meter's default is tuned for video. Audio renditions start low and move up once
+    // the network has proven itself, rather than starting high and stalling.
+    private static final long INITIAL_BITRATE_ESTIMATE = 128000;
+    // On metered networks adaptive streams stay at or below this, plenty for music in AAC.
+    private static final long METERED_BITRATE_CAP = 96000;
+    // And players load in longer bursts, so the cellular radio can drop to idle in between
+    // rather than waking every few seconds for the next chunk.
+    private static final int METERED_MIN_BUFFER_MS = 30000;
+    private static final int METERED_MAX_BUFFER_MS = 120000;
+    // Live streams are recorded to disk as they arrive, so they can be paused and rewound:
+    // this much of them, over an hour at 128 kbit/s.
+    private static final int TIME_SHIFT_BYTES = 64 * 1024 * 1024;
+    private static final String TIME_SHIFT_DIRECTORY = "timeshift";
+    // Paused for longer, the recording stops. What it got can still be played.
+    private static final int MAX_PAUSED_RECORDING_MS = 60 * 60 * 1000;
+    // Paused for longer than the recording goes back, playback resumes this far from its
+    // oldest end, so it isn't overwritten again right away.
+    private static final int OVERRUN_MARGIN_MS = 10000;
+
     private final Context mContext;
+    private final String mUserAgent;
     private PlaybackInfoListener mPlaybackInfoListener;
 
     //exoplayer
     private SimpleExoPlayer mExoPlayer;
     private DataSource.Factory mDataSourceFactory;
+    // The remote part of it, for sources that need to see the responses.
+    private PooledHttpDataSource.Factory mHttpDataSourceFactory;
+    // Outlives the players too, so the next stream starts from what the network last did.
+    private final DefaultBandwidthMeter mBandwidthMeter = new DefaultBandwidthMeter.Builder()
+            .setInitialBitrateEstimate(INITIAL_BITRATE_ESTIMATE)
+            .build();
+    // What the players see of it: capped on metered networks, counting the session's data.
+    private final CappedBandwidthMeter mCappedBandwidthMeter =
+            new CappedBandwidthMeter(mBandwidthMeter);
+    private final NetworkPolicy mNetworkPolicy;
+    private final StreamMetrics mStreamMetrics = new StreamMetrics();
+    // Progressive streams go through it on their way in, to be cast as they load.
+    private final CastDataSink mCastSink = new CastDataSink();
+    // Records the current stream once it turns out to be live, null if it can't be.
+    private TimeShiftRecorder mTimeShift;
+    // Where the player's source starts, in ms since the recording started.
+    private long mTimeShiftBaseMs;
+    private final Runnable mStopRecording = new Runnable() {
+        @Override
+        public void run() {
+            Log.i(TAG, "stopRecording: paused for too long");
+            mTimeShift.stop();
+            mNetworkPolicy.setStreaming(false);
+        }
+    };
+    // A recording that has been overwritten where the player was is fatal to the load, not
+    // retried: the player starts over from what's left.
+    private final DefaultLoadErrorHandlingPolicy mLoadErrorHandlingPolicy =
+            new DefaultLoadErrorHandlingPolicy() {
+                @Override
+                public long getRetryDelayMsFor(int dataType, long loadDurationMs,
+                                               IOException exception, int errorCount) {
+                    if (exception instanceof TimeShiftBuffer.OverrunException) {
+                        return C.TIME_UNSET;
+                    }
+                    return super.getRetryDelayMsFor(dataType, loadDurationMs, exception,
+                            errorCount);
+                }
+            };
+    // Outlives the players as well, so a re-prepare or seek reuses the stream's connection.
+    private final PooledHttpClient mHttpClient;
+    // Station playlists are resolved off the playback thread, the thread goes away when idle.
+    // The resolver and its cache may be shared with other players.
+    private final StreamResolver mStreamResolver;
+    private final Executor mResolverExecutor = new ThreadPoolExecutor(
+            0, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(@NonNull Runnable runnable) {
+                    return new Thread(runnable, "StreamResolver");
+                }
+            });
 
-    private int mState;
-    private boolean mCurrentMediaPlayedToCompletion;
-    private MediaMetadataCompat mCurrentMedia;
+    // Written on the player's thread only, read from anywhere.
+    private final PlaybackStateMachine mState = new PlaybackStateMachine();
+    private volatile MediaMetadataCompat mCurrentMedia;
+    // What mCurrentMedia's URI resolved to, null while resolving.
+    private ResolvedStream mCurrentStream;
+    // Whether to play once mCurrentMedia has resolved, a pause meanwhile clears it.
+    private boolean mPlayWhenResolved;
+
+    // DSP stages outlive the players, so settings carry over from track to track.
+    private final ParametricEqualizer mEqualizer = new ParametricEqualizer();
+    private final GainStage mNormalizationGain = new GainStage();
+    private final Limiter mLimiter = new Limiter();
+    // Ducking, and the fades of play/pause/stop. Applied after the limiter, they only ever
+    // lower the level.
+    private final GainStage mVolume = new GainStage();
+    private final GainStage mFade = new GainStage();
+
+    // Most a player buffers, C.LENGTH_UNSET for ExoPlayer's default.
+    private int mTargetBufferBytes = C.LENGTH_UNSET;
+    private int mFadeInMs = DEFAULT_FADE_IN_MS;
+    private int mFadeOutMs = DEFAULT_FADE_OUT_MS;
+    // Runs the pause or release that waits for a fade out, null if none is pending.
+    private Runnable mPendingTransition;
+
+    // What was last reported to clients, to tell when they've gone out of sync.
+    private long mReportedPosition;
+    private long mReportedBufferedPosition;
+    private long mReportedUpdateTime;
+    private float mReportedSpeed;
+    private final Runnable mPositionCheck = new Runnable() {
+        @Override
+        public void run() {
+            checkPositionDrift();
+            getHandler().postDelayed(this, POSITION_CHECK_INTERVAL_MS);
+        }
+    };
 
 
-    public AudioPlayer(@NonNull Context context, PlaybackInfoListener playbackInfoListener) {
-        super(context);
+    /**
+     * @param looper         of the thread that owns the player, ExoPlayer reports to it as well
+     * @param httpClient     streams are loaded with, may be shared with other users
+     * @param streamResolver resolves station playlists, may be shared with other players
+     */
+    public AudioPlayer(@NonNull Context context,
+                       @NonNull Looper looper,
+                       @NonNull PooledHttpClient httpClient,
+                       @NonNull StreamResolver streamResolver,
+                       PlaybackInfoListener playbackInfoListener) {
+        super(context, looper);
         mContext = context.getApplicationContext();
+        mHttpClient = httpClient;
+        mUserAgent = Util.getUserAgent(mContext, mContext.getString(R.string.app_name));
+        mStreamResolver = streamResolver;
         mPlaybackInfoListener = playbackInfoListener;
+        mNetworkPolicy = new NetworkPolicy(mContext, getHandler(), new NetworkPolicy.Listener() {
+            @Override
+            public void onMeteredChanged(boolean metered) {
+                applyNetworkPolicy(metered);
+            }
+        });
+        applyNetworkPolicy(mNetworkPolicy.isMetered());
+    }
+
+    /**
+     * Caps the bitrate on metered networks. The current player picks it up with its next
+     * rendition switch, the buffer sizes apply from the next player on.
+     */
+    private void applyNetworkPolicy(boolean metered) {
+        mCappedBandwidthMeter.setMetered(metered);
+        mCappedBandwidthMeter.setBitrateCap(
+                metered ? METERED_BITRATE_CAP : CappedBandwidthMeter.NO_CAP);
     }
 
     private void initializeExoPlayer() {
 
         if (mExoPlayer == null) {
 
+            mHttpDataSourceFactory = new PooledHttpDataSource.Factory(mHttpClient, mUserAgent);
             mDataSourceFactory = new DefaultDataSourceFactory(
                     mContext,
-                    Util.getUserAgent(mContext, mContext.getString(R.string.app_name)));
+                    null,
+                    mHttpDataSourceFactory);
 
             mExoPlayer = ExoPlayerFactory.newSimpleInstance(
                     mContext,
-                    new DefaultRenderersFactory(mContext),
-                    new DefaultTrackSelector());
+                    new DefaultRenderersFactory(mContext) {
+                        @Override
+                        protected AudioProcessor[] buildAudioProcessors() {
+                            return new AudioProcessor[]{
+                                    new DspChain(mEqualizer, mNormalizationGain, mLimiter,
+                                            mVolume, mFade)
+                            };
+                        }
+                    },
+                    // Picks the rendition of adaptive streams from the bandwidth meter.
+                    new DefaultTrackSelector(new AdaptiveTrackSelection.Factory()),
+                    createLoadControl(mNetworkPolicy.isMetered()),
+                    null,
+                    mCappedBandwidthMeter);
+            mExoPlayer.addAnalyticsListener(new AnalyticsListener() {
+                @Override
+                public void onDownstreamFormatChanged(
+                        EventTime eventTime, MediaSourceEventListener.MediaLoadData data) {
+                    if (data.trackFormat == null || (data.trackType != C.TRACK_TYPE_AUDIO
+                            && data.trackType != C.TRACK_TYPE_DEFAULT)) {
+                        return;
+                    }
+                    if (mStreamMetrics.onFormat(data.trackFormat.bitrate)) {
+                        Log.i(TAG, "onDownstreamFormatChanged: switched, " + mStreamMetrics);
+                        publishState();
+                    }
+                }
+
+                @Override
+                public void onBandwidthEstimate(EventTime eventTime, int totalLoadTimeMs,
+                                                long totalBytesLoaded, long bitrateEstimate) {
+                    mStreamMetrics.onBandwidthEstimate(bitrateEstimate);
+                }
+            });
             mExoPlayer.addListener(new Player.EventListener() {
                 @Override
                 public void onPlayerStateChanged(boolean playWhenReady, int playbackState) {
                     Log.d(TAG, "onPlayerStateChanged: state: " + playbackState);
-                    if (playbackState == Player.STATE_ENDED) {
-                        mPlaybackInfoListener.onPlaybackCompleted();
-
-                        // Set the state to "paused" because it most closely matches the state
-                        // in MediaPlayer with regards to available state transitions compared
-                        // to "stop".
-                        // Paused allows: seekTo(), start(), pause(), stop()
-                        // Stop allows: stop()
-                        setNewState(PlaybackStateCompat.STATE_PAUSED);
+                    // Playing, as opposed to paused or fading out towards a pause.
+                    final boolean wantsToPlay = playWhenReady && mPendingTransition == null;
+                    switch (playbackState) {
+                        case Player.STATE_BUFFERING:
+                            if (wantsToPlay) {
+                                setNewState(PlaybackStateMachine.BUFFERING);
+                            }
+                            break;
+                        case Player.STATE_READY:
+                            if (wantsToPlay) {
+                                setNewState(PlaybackStateMachine.PLAYING);
+                            }
+                            break;
+                        case Player.STATE_ENDED:
+                            mPlaybackInfoListener.onPlaybackCompleted();
+
+                            // Set the state to "paused" because it most closely matches the
+                            // state in MediaPlayer with regards to available state transitions
+                            // compared to "stop".
+                            // Paused allows: seekTo(), start(), pause(), stop()
+                            // Stop allows: stop()
+                            setNewState(PlaybackStateMachine.PAUSED);
+                            break;
+                    }
+                }
+
+                @Override
+                public void onPlayerError(ExoPlaybackException error) {
+                    Log.e(TAG, "onPlayerError: " + error.getMessage(), error);
+                    cancelPendingTransition();
+                    if (error.type == ExoPlaybackException.TYPE_SOURCE && isTimeShifting()
+                            && error.getSourceException()
+                            instanceof TimeShiftBuffer.OverrunException) {
+                        resumeFromOldest();
+                        return;
+                    }
+                    if (error.type == ExoPlaybackException.TYPE_SOURCE && tryAlternative()) {
+                        return;
                     }
+                    if (mTimeShift != null) {
+                        mTimeShift.stop();
+                    }
+                    setNewState(PlaybackStateMachine.ERROR);
                 }
             });
         }
     }
 
+    private DefaultLoadControl createLoadControl(boolean metered) {
+        final DefaultLoadControl.Builder builder = new DefaultLoadControl.Builder()
+                .setTargetBufferBytes(mTargetBufferBytes);
+        if (metered) {
+            builder.setBufferDurationsMs(METERED_MIN_BUFFER_MS, METERED_MAX_BUFFER_MS,
+                    DefaultLoadControl.DEFAULT_BUFFER_FOR_PLAYBACK_MS,
+                    DefaultLoadControl.DEFAULT_BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS);
+        }
+        return builder.createDefaultLoadControl();
+    }
+
     private void release() {
+        cancelPendingTransition();
+        getHandler().removeCallbacks(mPositionCheck);
         if (mExoPlayer != null) {
             mExoPlayer.release();
             mExoPlayer = null;
         }
+        // After the player, whose loader may be waiting on the recording.
+        getHandler().removeCallbacks(mStopRecording);
+        if (mTimeShift != null) {
+            mTimeShift.release();
+            mTimeShift = null;
+        }
     }
 
-    private void setNewState(@PlaybackStateCompat.State int newPlayState) {
-        mState = newPlayState;
+    /**
+     * Deletes recordings left behind by players that weren't released, before any player
+     * records.
+     */
+    public static void deleteRecordings(@NonNull Context context) {
+        final File[] files = new File(context.getCacheDir(), TIME_SHIFT_DIRECTORY).listFiles();
+        if (files != null) {
+            for (File file : files) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+    }
 
-        // Whether playback goes to completion, or whether it is stopped, the
-        // mCurrentMediaPlayedToCompletion is set to true.
-        if (mState == PlaybackState.STATE_STOPPED) {
-            mCurrentMediaPlayedToCompletion = true;
+    /**
+     * Moves to {@code newState} and publishes it. Repeating the current state is a no-op, so
+     * every change reaches the listener exactly once.
+     */
+    private void setNewState(@PlaybackStateMachine.State int newState) {
+        final int oldState = mState.getState();
+        if (!mState.moveTo(newState)) {
+            if (oldState != newState) {
+                Log.w(TAG, "setNewState: ignoring " + PlaybackStateMachine.toString(oldState)
+                        + " -> " + PlaybackStateMachine.toString(newState));
+            }
+            return;
         }
+        publishState();
 
-        final long reportPosition = mExoPlayer == null ? 0 : mExoPlayer.getCurrentPosition();
+        // Only a moving position can drift.
+        getHandler().removeCallbacks(mPositionCheck);
+        if (mState.isActive()) {
+            getHandler().postDelayed(mPositionCheck, POSITION_CHECK_INTERVAL_MS);
+        }
+        // Paused, a live stream is still being recorded.
+        mNetworkPolicy.setStreaming((mState.isActive()
+                || mState.getState() == PlaybackStateMachine.PAUSED
+                && mTimeShift != null && mTimeShift.isRecording())
+                && mCurrentStream != null && mCurrentStream.isRemote());
+    }
+
+    /**
+     * Reports the current state with a fresh position, for changes that aren't transitions
+     * such as a seek.
+     */
+    private void publishState() {
+        mReportedPosition = getPosition();
+        mReportedBufferedPosition = getBufferedPosition();
+        mReportedUpdateTime = SystemClock.elapsedRealtime();
+        // Clients extrapolate the position with the speed, it only moves while playing.
+        mReportedSpeed = mExoPlayer != null
+                && mState.getState() == PlaybackStateMachine.PLAYING
+                ? mExoPlayer.getPlaybackParameters().speed
+                : 0f;
 
         final PlaybackStateCompat.Builder stateBuilder = new PlaybackStateCompat.Builder();
-        stateBuilder.setActions(getAvailableActions());
+        stateBuilder.setActions(mState.getAvailableActions());
         stateBuilder.setState(
-                mState,
-                reportPosition,
-                1.0f,
-                SystemClock.elapsedRealtime());
+                mState.getSessionState(),
+                mReportedPosition,
+                mReportedSpeed,
+                mReportedUpdateTime);
+        stateBuilder.setBufferedPosition(mReportedBufferedPosition);
+        final Bundle extras = new Bundle();
+        if (mStreamMetrics.getBitrate() != StreamMetrics.UNKNOWN) {
+            extras.putInt(StreamMetrics.EXTRA_BITRATE, mStreamMetrics.getBitrate());
+            extras.putInt(StreamMetrics.EXTRA_UPSHIFT_COUNT, mStreamMetrics.getUpshiftCount());
+            extras.putInt(StreamMetrics.EXTRA_DOWNSHIFT_COUNT,
+                    mStreamMetrics.getDownshiftCount());
+            extras.putLong(StreamMetrics.EXTRA_BANDWIDTH_ESTIMATE,
+                    mStreamMetrics.getBandwidthEstimate());
+        }
+        if (mCappedBandwidthMeter.getBytes() > 0) {
+            extras.putLong(CappedBandwidthMeter.EXTRA_DATA_USAGE,
+                    mCappedBandwidthMeter.getBytes());
+            extras.putLong(CappedBandwidthMeter.EXTRA_METERED_DATA_USAGE,
+                    mCappedBandwidthMeter.getMeteredBytes());
+        }
+        if (!extras.isEmpty()) {
+            stateBuilder.setExtras(extras);
+        }
         mPlaybackInfoListener.onPlaybackStateChange(stateBuilder.build());
     }
 
+    private void checkPositionDrift() {
+        if (mExoPlayer == null) {
+            return;
+        }
+        final long expected = mReportedPosition + (long) ((SystemClock.elapsedRealtime()
+                - mReportedUpdateTime) * mReportedSpeed);
+        if (Math.abs(getPosition() - expected) > MAX_POSITION_DRIFT_MS
+                || Math.abs(getBufferedPosition() - mReportedBufferedPosition)
+                >= BUFFERED_POSITION_STEP_MS) {
+            publishState();
+        }
+    }
+
+    /**
+     * @return the position in the current media; for a live stream, in ms since its
+     * recording started
+     */
+    private long getPosition() {
+        if (mExoPlayer == null) {
+            return 0;
+        }
+        return isTimeShifting()
+                ? mTimeShiftBaseMs + mExoPlayer.getCurrentPosition()
+                : mExoPlayer.getCurrentPosition();
+    }
+
+    /**
+     * @return how far the current media has been loaded; for a live stream, live
+     */
+    private long getBufferedPosition() {
+        if (mExoPlayer == null) {
+            return 0;
+        }
+        return isTimeShifting()
+                ? mTimeShift.getBuffer().getLiveMs()
+                : mExoPlayer.getBufferedPosition();
+    }
+
+    /**
+     * @return true if the current stream is live and played from its recording
+     */
+    private boolean isTimeShifting() {
+        return mTimeShift != null && mTimeShift.isLive();
+    }
+
     private void playFile(MediaMetadataCompat metadata) {
         String mediaId = metadata.getDescription().getMediaId();
         boolean mediaChanged = (mCurrentMedia == null
                 || !mediaId.equals(mCurrentMedia.getDescription().getMediaId()));
-        if (mCurrentMediaPlayedToCompletion) {
-            // Last audio file was played to completion, the resourceId hasn't changed, but the
-            // player was released, so force a reload of the media file for playback.
+        if (mState.needsReload()) {
+            // The media hasn't changed, but the player was stopped or failed and has been (or
+            // has to be) released, so force a reload of the media file for playback.
             mediaChanged = true;
-            mCurrentMediaPlayedToCompletion = false;
         }
 
         if (!mediaChanged) {
@@ -124,61 +501,180 @@ public class AudioPlayer extends PlayerAdapter {
         }
 
         mCurrentMedia = metadata;
+        mCurrentStream = null;
+
+        final String uri = metadata.getString(MediaMetadataCompat.METADATA_KEY_MEDIA_URI);
+        final ResolvedStream cached = mStreamResolver.getCached(uri);
+        if (cached != null) {
+            // Played recently, no need to fetch the playlist again.
+            playStream(cached, true);
+        } else if (StreamResolver.isDirect(uri)) {
+            playStream(ResolvedStream.of(uri), true);
+        } else {
+            resolveThenPlay(metadata, uri);
+        }
+    }
+
+    private void resolveThenPlay(final MediaMetadataCompat metadata, final String uri) {
+        mPlayWhenResolved = true;
+        setNewState(PlaybackStateMachine.PREPARING);
+        mResolverExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                ResolvedStream resolved = null;
+                try {
+                    resolved = mStreamResolver.resolve(uri);
+                } catch (IOException e) {
+                    Log.e(TAG, "resolveThenPlay: " + uri + ": " + e.getMessage());
+                }
+                final ResolvedStream stream = resolved;
+                getHandler().post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // Another media was picked, or playback stopped, in the meantime.
+                        if (mCurrentMedia != metadata || !isResolving()) {
+                            return;
+                        }
+                        if (stream == null) {
+                            setNewState(PlaybackStateMachine.ERROR);
+                            return;
+                        }
+                        playStream(stream, mPlayWhenResolved);
+                    }
+                });
+            }
+        });
+    }
 
+    /**
+     * @return true while mCurrentMedia's URI is resolving, played or paused meanwhile
+     */
+    private boolean isResolving() {
+        final int state = mState.getState();
+        return mExoPlayer == null && mCurrentStream == null && mCurrentMedia != null
+                && (state == PlaybackStateMachine.PREPARING
+                || state == PlaybackStateMachine.PAUSED);
+    }
+
+    /**
+     * @param playWhenReady false to only prepare, paused
+     */
+    private void playStream(ResolvedStream stream, boolean playWhenReady) {
+        mCurrentStream = stream;
+        mStreamMetrics.reset();
+
+        // Before the player is made, it's sized for the network.
+        mNetworkPolicy.start();
         initializeExoPlayer();
+        startRecording(stream);
+        mTimeShiftBaseMs = 0;
 
         try {
-            MediaSource audioSource = new ExtractorMediaSource.Factory(mDataSourceFactory)
-                    .createMediaSource(Uri.parse(mCurrentMedia
-                            .getString(MediaMetadataCompat.METADATA_KEY_MEDIA_URI)));
-            mExoPlayer.prepare(audioSource);
+            mExoPlayer.prepare(buildMediaSource(stream, 0));
+            setNewState(playWhenReady
+                    ? PlaybackStateMachine.PREPARING
+                    : PlaybackStateMachine.PAUSED);
         } catch (Exception e) {
-            Log.e(TAG, "playFile: Exception: " + e.getMessage());
-            throw new RuntimeException("Failed to play uri: "
-                    + mCurrentMedia.getString(MediaMetadataCompat.METADATA_KEY_MEDIA_URI), e);
-        }
-
-        play();
-
-    }
-
-    /**
-     * Set the current capabilities available on this session. Note: If a capability is not
-     * listed in the bitmask of capabilities then the MediaSession will not handle it. For
-     * example, if you don't want ACTION_STOP to be handled by the MediaSession, then don't
-     * included it in the bitmask that's returned.
-     */
-    @PlaybackStateCompat.Actions
-    private long getAvailableActions() {
-        long actions = PlaybackStateCompat.ACTION_PLAY_FROM_MEDIA_ID
-                | PlaybackStateCompat.ACTION_PLAY_FROM_SEARCH
-                | PlaybackStateCompat.ACTION_SKIP_TO_NEXT
-                | PlaybackStateCompat.ACTION_SKIP_TO_PREVIOUS;
-        switch (mState) {
-            case PlaybackStateCompat.STATE_STOPPED:
-                actions |= PlaybackStateCompat.ACTION_PLAY
-                        | PlaybackStateCompat.ACTION_PAUSE;
-                break;
-            case PlaybackStateCompat.STATE_PLAYING:
-                actions |= PlaybackStateCompat.ACTION_STOP
-                        | PlaybackStateCompat.ACTION_PAUSE
-                        | PlaybackStateCompat.ACTION_SEEK_TO;
-                break;
-            case PlaybackStateCompat.STATE_PAUSED:
-                actions |= PlaybackStateCompat.ACTION_PLAY
-                        | PlaybackStateCompat.ACTION_STOP;
-                break;
+            Log.e(TAG, "playStream: Exception: " + e.getMessage());
+            throw new RuntimeException("Failed to play uri: " + stream.getUri(), e);
+        }
+
+        if (playWhenReady) {
+            play();
+        } else if (mTimeShift != null) {
+            getHandler().postDelayed(mStopRecording, MAX_PAUSED_RECORDING_MS);
+        }
+    }
+
+    /**
+     * Gets ready to record {@code stream} if it may be live: a progressive one from the
+     * network. Whether it is shows once the player has opened it, recording starts then.
+     */
+    private void startRecording(ResolvedStream stream) {
+        if (stream.getType() != ResolvedStream.TYPE_PROGRESSIVE || !stream.isRemote()) {
+            return;
+        }
+        final File directory = new File(mContext.getCacheDir(), TIME_SHIFT_DIRECTORY);
+        if (!directory.isDirectory() && !directory.mkdirs()
+                || directory.getUsableSpace() < 2L * TIME_SHIFT_BYTES) {
+            // Played as it arrives, it can't be paused for long.
+            Log.w(TAG, "startRecording: no room in " + directory);
+            return;
+        }
+        mTimeShift = new TimeShiftRecorder(directory, TIME_SHIFT_BYTES);
+    }
+
+    /**
+     * @param startPosition of the recording to play a live stream from
+     */
+    private MediaSource buildMediaSource(ResolvedStream stream, final long startPosition) {
+        final Uri uri = Uri.parse(stream.getUri());
+        switch (stream.getType()) {
+            case ResolvedStream.TYPE_HLS:
+                return new HlsMediaSource.Factory(mDataSourceFactory)
+                        // Audio renditions declare their codecs, no need to load a segment.
+                        .setAllowChunklessPreparation(true)
+                        .createMediaSource(uri);
+            case ResolvedStream.TYPE_DASH:
+                return new DashMediaSource.Factory(
+                        new DefaultDashChunkSource.Factory(mDataSourceFactory),
+                        mDataSourceFactory)
+                        .createMediaSource(uri);
             default:
-                actions |= PlaybackStateCompat.ACTION_PLAY
-                        | PlaybackStateCompat.ACTION_PLAY_PAUSE
-                        | PlaybackStateCompat.ACTION_STOP
-                        | PlaybackStateCompat.ACTION_PAUSE;
+                final TimeShiftRecorder timeShift = mTimeShift;
+                return new ExtractorMediaSource.Factory(new DataSource.Factory() {
+                    @Override
+                    public DataSource createDataSource() {
+                        final DataSource source;
+                        if (timeShift != null) {
+                            source = new TimeShiftDataSource(timeShift, startPosition,
+                                    mHttpDataSourceFactory.createDataSource());
+                        } else {
+                            source = mDataSourceFactory.createDataSource();
+                        }
+                        return new TeeDataSource(source, mCastSink);
+                    }
+                })
+                        .setLoadErrorHandlingPolicy(mLoadErrorHandlingPolicy)
+                        .createMediaSource(uri);
         }
-        return actions;
+    }
+
+    /**
+     * Moves on to the next candidate of the current playlist when the stream failed to load.
+     *
+     * @return false if there is none left
+     */
+    private boolean tryAlternative() {
+        final ResolvedStream failed = mCurrentStream;
+        final ResolvedStream next = failed != null ? failed.next() : null;
+        if (failed != null) {
+            // Resolve again next time, the playlist may have changed.
+            mStreamResolver.invalidate(
+                    mCurrentMedia.getString(MediaMetadataCompat.METADATA_KEY_MEDIA_URI));
+        }
+        if (next == null) {
+            return false;
+        }
+        Log.w(TAG, "tryAlternative: " + failed.getUri() + " failed, trying " + next.getUri());
+        // Not from inside the failed player's callback.
+        getHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                if (mCurrentStream != failed
+                        || mState.getState() == PlaybackStateMachine.STOPPED) {
+                    return;
+                }
+                release();
+                playStream(next, true);
+            }
+        });
+        return true;
     }
 
     @Override
     public void playFromMedia(MediaMetadataCompat metadata) {
+        checkThread();
         playFile(metadata);
     }
 
@@ -189,48 +685,235 @@ public class AudioPlayer extends PlayerAdapter {
 
     @Override
     public boolean isPlaying() {
-        return mExoPlayer != null && mExoPlayer.getPlayWhenReady();
+        // A player fading out towards a pause is already paused as far as anyone else knows.
+        return mExoPlayer != null && mExoPlayer.getPlayWhenReady() && mPendingTransition == null;
     }
 
     @Override
     protected void onPlay() {
-        if (mExoPlayer != null && !mExoPlayer.getPlayWhenReady()) {
+        if (mExoPlayer == null) {
+            if (isResolving()) {
+                // Paused while resolving, it plays once resolved after all.
+                mPlayWhenResolved = true;
+                setNewState(PlaybackStateMachine.PREPARING);
+            }
+            return;
+        }
+        getHandler().removeCallbacks(mStopRecording);
+        if (mPendingTransition != null) {
+            // Resumed during the fade out: turn around from wherever the fade got to.
+            cancelPendingTransition();
+            mFade.rampTo(1f, mFadeInMs);
+            setNewState(getPlayingState());
+        } else if (!mExoPlayer.getPlayWhenReady()) {
+            mFade.rampFromTo(0f, 1f, mFadeInMs);
             mExoPlayer.setPlayWhenReady(true);
-            setNewState(PlaybackStateCompat.STATE_PLAYING);
+            setNewState(getPlayingState());
         }
     }
 
+    /**
+     * @return playing if the player can play right away, buffering if it's still waiting for
+     * data
+     */
+    @PlaybackStateMachine.State
+    private int getPlayingState() {
+        return mExoPlayer.getPlaybackState() == Player.STATE_READY
+                ? PlaybackStateMachine.PLAYING
+                : PlaybackStateMachine.BUFFERING;
+    }
+
     @Override
     protected void onPause() {
-        if (mExoPlayer != null && mExoPlayer.getPlayWhenReady()) {
-            mExoPlayer.setPlayWhenReady(false);
-            setNewState(PlaybackStateCompat.STATE_PAUSED);
+        if (isResolving()) {
+            // Nothing to pause yet, the stream is only prepared once resolved.
+            mPlayWhenResolved = false;
+            setNewState(PlaybackStateMachine.PAUSED);
+        } else if (mExoPlayer != null && isPlaying()) {
+            setNewState(PlaybackStateMachine.PAUSED);
+            if (mTimeShift != null && mTimeShift.isRecording()) {
+                // A live stream carries on being recorded, to pick up where it was paused.
+                getHandler().postDelayed(mStopRecording, MAX_PAUSED_RECORDING_MS);
+            }
+            fadeOutThen(new Runnable() {
+                @Override
+                public void run() {
+                    if (mExoPlayer != null) {
+                        mExoPlayer.setPlayWhenReady(false);
+                    }
+                }
+            });
         }
     }
 
     @Override
     protected void onStop() {
+        if (mExoPlayer != null && isPlaying()) {
+            // Stopped once faded out: until then the service stays started and the locks
+            // held, or a long fade would be cut short.
+            fadeOutThen(new Runnable() {
+                @Override
+                public void run() {
+                    finishStop();
+                }
+            });
+        } else {
+            finishStop();
+        }
+    }
+
+    private void finishStop() {
         // Regardless of whether or not the MediaPlayer has been created / started, the state must
         // be updated, so that MediaNotificationManager can take down the notification.
-        setNewState(PlaybackStateCompat.STATE_STOPPED);
+        setNewState(PlaybackStateMachine.STOPPED);
         release();
+        // The connections are left to the pool, shared with other zones and downloads; its
+        // keep-alive closes the idle ones.
+        mNetworkPolicy.release();
+        if (mCappedBandwidthMeter.getBytes() > 0) {
+            Log.i(TAG, "onStop: session loaded " + mCappedBandwidthMeter.getBytes()
+                    + " bytes, " + mCappedBandwidthMeter.getMeteredBytes() + " metered");
+        }
+        // Counted per session, the next one starts from zero.
+        mCappedBandwidthMeter.resetUsage();
+    }
+
+    /**
+     * Stops like {@link #stop()}, fading out over {@code fadeOutMs} instead of the usual
+     * duration.
+     */
+    public void stop(int fadeOutMs) {
+        final int defaultFadeOutMs = mFadeOutMs;
+        mFadeOutMs = fadeOutMs;
+        stop();
+        mFadeOutMs = defaultFadeOutMs;
+    }
+
+    /**
+     * Serves progressive streams to {@code server}'s clients as they load, including the one
+     * playing; HLS and DASH aren't cast. Null stops it.
+     */
+    public void setCastServer(@Nullable CastServer server) {
+        mCastSink.setServer(server);
+    }
+
+    /**
+     * Sets the fade durations of play and pause/stop, 0 for hard cuts.
+     */
+    public void setFadeDurations(int fadeInMs, int fadeOutMs) {
+        mFadeInMs = fadeInMs;
+        mFadeOutMs = fadeOutMs;
+    }
+
+    /**
+     * Bounds the memory the player buffers into, from the next media on. Short of its
+     * minimum buffer duration the player loads on regardless.
+     */
+    public void setTargetBufferBytes(int bytes) {
+        mTargetBufferBytes = bytes;
+    }
+
+    private void fadeOutThen(final Runnable transition) {
+        cancelPendingTransition();
+        if (mFadeOutMs <= 0) {
+            transition.run();
+            return;
+        }
+        mFade.rampTo(0f, mFadeOutMs);
+        mPendingTransition = new Runnable() {
+            @Override
+            public void run() {
+                mPendingTransition = null;
+                transition.run();
+            }
+        };
+        getHandler().postDelayed(mPendingTransition, mFadeOutMs + OUTPUT_LATENCY_MS);
+    }
+
+    private void cancelPendingTransition() {
+        if (mPendingTransition != null) {
+            getHandler().removeCallbacks(mPendingTransition);
+            mPendingTransition = null;
+        }
     }
 
     @Override
     public void seekTo(long position) {
+        checkThread();
         if (mExoPlayer != null) {
-            mExoPlayer.seekTo((int) position);
+            if (isTimeShifting()) {
+                seekRecording(position);
+            } else {
+                mExoPlayer.seekTo((int) position);
+            }
 
-            // Set the state (to the current state) because the position changed and should
-            // be reported to clients.
-            setNewState(mState);
+            // The state is unchanged, but the position changed and should be reported to
+            // clients.
+            publishState();
         }
     }
 
+    /**
+     * Plays a live stream from {@code timeMs} of its recording on, to a second: back as far as
+     * it goes, forward as far as live.
+     */
+    private void seekRecording(long timeMs) {
+        final TimeShiftBuffer buffer = mTimeShift.getBuffer();
+        final long position = buffer.getPositionAt(Math.max(timeMs, buffer.getOldestMs()));
+        mTimeShiftBaseMs = buffer.getTimeAt(position);
+        mExoPlayer.prepare(buildMediaSource(mCurrentStream, position));
+    }
+
+    /**
+     * Carries on with a live stream whose recording was overwritten where the player was.
+     */
+    private void resumeFromOldest() {
+        final TimeShiftRecorder failed = mTimeShift;
+        // Not from inside the failed player's callback.
+        getHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                if (mTimeShift != failed || mExoPlayer == null) {
+                    return;
+                }
+                Log.w(TAG, "resumeFromOldest: the recording was overwritten");
+                seekRecording(mTimeShift.getBuffer().getOldestMs() + OVERRUN_MARGIN_MS);
+                publishState();
+            }
+        });
+    }
+
     @Override
     public void setVolume(float volume) {
-        if (mExoPlayer != null) {
-            mExoPlayer.setVolume(volume);
-        }
+        // Ramped in the audio path instead of stepping the player's volume.
+        mVolume.rampTo(volume, VOLUME_RAMP_MS);
+    }
+
+    @Override
+    public void setNormalizationGain(float gain) {
+        // Applied in the audio path, the limiter catches what a gain above unity would clip.
+        mNormalizationGain.setGain(gain);
+    }
+
+    /**
+     * The EQ stage of the audio path, empty (bypassed) until bands are set.
+     */
+    public ParametricEqualizer getEqualizer() {
+        return mEqualizer;
+    }
+
+    /**
+     * Bitrate switches and bandwidth of the current stream, also reported in the playback
+     * state's extras.
+     */
+    public StreamMetrics getStreamMetrics() {
+        return mStreamMetrics;
+    }
+
+    /**
+     * The client streams are loaded with, for its connection stats.
+     */
+    public PooledHttpClient getHttpClient() {
+        return mHttpClient;
     }
 }
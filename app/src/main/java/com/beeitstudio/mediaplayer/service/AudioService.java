@@ -1,8 +1,19 @@
 package com.beeitstudio.mediaplayer.service;
 
+import android.Manifest;
 import android.app.Notification;
+import android.app.NotificationManager;
 import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.net.Uri;
 import android.os.Bundle;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.Process;
 import android.support.v4.media.MediaBrowserCompat;
 import android.support.v4.media.MediaDescriptionCompat;
 import android.support.v4.media.MediaMetadataCompat;
@@ -14,37 +25,186 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.core.content.ContextCompat;
 import androidx.media.MediaBrowserServiceCompat;
+import androidx.media.session.MediaButtonReceiver;
 
+import com.beeitstudio.mediaplayer.R;
+import com.beeitstudio.mediaplayer.service.analysis.AnalysisManager;
+import com.beeitstudio.mediaplayer.service.analysis.TrackAnalysis;
+import com.beeitstudio.mediaplayer.service.art.ArtworkLoader;
+import com.beeitstudio.mediaplayer.service.cast.CastServer;
+import com.beeitstudio.mediaplayer.service.download.DownloadManager;
+import com.beeitstudio.mediaplayer.service.http.PooledHttpClient;
+import com.beeitstudio.mediaplayer.service.scanner.MappedTagReader;
+import com.beeitstudio.mediaplayer.service.scanner.MediaScanner;
+import com.beeitstudio.mediaplayer.service.scanner.RetrieverTagExtractor;
+import com.beeitstudio.mediaplayer.service.stream.StreamResolver;
+import com.google.android.exoplayer2.util.Util;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.SocketException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
 
+/**
+ * Threads: the browser service callbacks ({@link #onGetRoot}, {@link #onLoadChildren},
+ * {@link #onCustomAction}) and the service lifecycle run on the main thread. Everything that
+ * makes up playback - the session callback, the {@link AudioPlayer} and its state reports,
+ * notification updates and the session's metadata and extras - belongs to the playback
+ * thread, so the UI and playback can't hold each other up.
+ * <p>
+ * Playback happens in zones, each a session with its own queue, player and notification: the
+ * main zone is the browser's session, clients create more with
+ * {@link AudioLibrary#ACTION_CREATE_ZONE}, one for every area that plays something else. The
+ * zones share the catalog, the artwork cache, the HTTP connections and resolved streams, and
+ * each buffers a bounded amount, so a handful of simultaneous streams fit on one device.
+ */
 public class AudioService extends MediaBrowserServiceCompat {
 
     private static final String TAG = "oli_" + AudioService.class.getSimpleName();
 
-    private MediaSessionCompat mSession;
-    private AudioPlayer mPlayback;
+    private static final long DOWNLOAD_QUOTA_BYTES = 1024L * 1024 * 1024;
+    private static final int MAX_CONCURRENT_DOWNLOADS = 2;
+    // Whoever fell asleep shouldn't be woken by the music stopping.
+    private static final int SLEEP_FADE_OUT_MS = 30000;
+    // The main zone and the ones clients created, together.
+    private static final int MAX_ZONES = 4;
+    // The most a zone's player buffers, and the most tracks its queue holds.
+    private static final int ZONE_BUFFER_BYTES = 2 * 1024 * 1024;
+    private static final int MAX_QUEUE_SIZE = 1000;
+    // How far cast clients may fall behind, and how far back new ones start.
+    private static final int CAST_BUFFER_BYTES = 1024 * 1024;
+    private static final int CAST_BACKLOG_BYTES = 64 * 1024;
+
+    // The browser's session, lives as long as the service.
+    private Zone mMainZone;
+    // All zones by id, the main one first. Changed on the main thread, read on both.
+    private final Map<String, Zone> mZones = new LinkedHashMap<>();
+    private int mLastZoneNumber;
+    // Created on first use, see the getters. Notifications and the rest of playback on the
+    // playback thread, the scanner on the main thread, the rest on any thread.
     private MediaNotificationManager mMediaNotificationManager;
-    private MediaSessionCallback mCallback;
+    private ArtworkLoader mArtworkLoader;
+    private StreamResolver mStreamResolver;
+    private SleepTimer mSleepTimer;
+    private MediaScanner mMediaScanner;
+    private volatile PooledHttpClient mHttpClient;
+    private volatile AnalysisManager mAnalysisManager;
+    private volatile DownloadManager mDownloadManager;
+    // Set in onDestroy(), after which the managers above aren't made again.
+    private volatile boolean mDestroyed;
+    // While casting, on the main thread.
+    private CastServer mCastServer;
     private boolean mServiceInStartedState;
+    // Zones with a notification up, and the one whose notification keeps the service in the
+    // foreground; on the playback thread.
+    private final Set<Zone> mNotifyingZones = new LinkedHashSet<>();
+    private Zone mForegroundZone;
+    private HandlerThread mPlaybackThread;
+    private Handler mPlaybackHandler;
+    private final CatalogChangeNotifier mCatalogChangeNotifier = new CatalogChangeNotifier();
+    private final MessageQueue.IdleHandler mDeferredStartup = new MessageQueue.IdleHandler() {
+        @Override
+        public boolean queueIdle() {
+            onStartupIdle();
+            return false;
+        }
+    };
 
     @Override
     public void onCreate() {
         super.onCreate();
 
+        mPlaybackThread = new HandlerThread("Playback", Process.THREAD_PRIORITY_FOREGROUND);
+        mPlaybackThread.start();
+        mPlaybackHandler = new Handler(mPlaybackThread.getLooper());
+
         //create media session
-        mSession = new MediaSessionCompat(this, getPackageName());
-        mCallback = new MediaSessionCallback();
-        mSession.setCallback(mCallback);
-        mSession.setFlags(MediaSessionCompat.FLAG_HANDLES_MEDIA_BUTTONS
-                | MediaSessionCompat.FLAG_HANDLES_QUEUE_COMMANDS
-                | MediaSessionCompat.FLAG_HANDLES_TRANSPORT_CONTROLS);
-        setSessionToken(mSession.getSessionToken());
+        mMainZone = new Zone(AudioLibrary.MAIN_ZONE_ID, 0);
+        synchronized (mZones) {
+            mZones.put(mMainZone.mId, mMainZone);
+        }
+        setSessionToken(mMainZone.mSession.getSessionToken());
+        mPlaybackHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                // Before any player records, on the thread they record from.
+                AudioPlayer.deleteRecordings(AudioService.this);
+                mMainZone.publishSessionExtras();
+            }
+        });
 
-        mMediaNotificationManager = new MediaNotificationManager(this);
-        mPlayback = new AudioPlayer(this, new MediaPlayerListener());
+        AudioLibrary.setLocalCopies(new AudioLibrary.LocalCopies() {
+            @Nullable
+            @Override
+            public File getLocalCopy(@NonNull String mediaId) {
+                final DownloadManager downloads = getDownloadManager();
+                return downloads != null ? downloads.getDownloadedFile(mediaId) : null;
+            }
+        });
 
-        Log.d(TAG, "onCreate: AudioService creating AudioPlayer and MediaNotificationManager");
+        // The session is all a binding client needs to connect. The player, notifications and
+        // analysis are created when they are first used; downloads and the rest of the
+        // startup work wait until the main thread has nothing else to do.
+        Looper.myQueue().addIdleHandler(mDeferredStartup);
+
+        Log.d(TAG, "onCreate: AudioService created MediaSession");
+    }
+
+    // Startup work that can't wait for first use, on the main thread once it's idle.
+    private void onStartupIdle() {
+        AudioLibrary.addOnCatalogChangedListener(mCatalogChangeNotifier);
+
+        mPlaybackHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                // Cancel notifications left behind in case the Service was killed and
+                // restarted by the system, unless playback got to post its own in the meantime.
+                if (mMediaNotificationManager == null) {
+                    final NotificationManager notificationManager =
+                            (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
+                    for (int slot = 0; slot < MAX_ZONES; slot++) {
+                        notificationManager.cancel(MediaNotificationManager.NOTIFICATION_ID + slot);
+                    }
+                }
+                // Picks up a sleep timer set before the service was stopped.
+                getSleepTimer();
+                mMainZone.publishSessionExtras();
+                // Pinned tracks that didn't finish downloading carry on.
+                final DownloadManager downloads = getDownloadManager();
+                if (downloads != null) {
+                    downloads.resumePinned();
+                    updateDownloadPriorities();
+                }
+            }
+        });
+
+        scanMedia();
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        // A control of a zone's notification.
+        if (intent != null && Intent.ACTION_MEDIA_BUTTON.equals(intent.getAction())) {
+            final Zone zone;
+            synchronized (mZones) {
+                zone = mZones.get(intent.getStringExtra(AudioLibrary.EXTRA_ZONE_ID));
+            }
+            if (zone != null) {
+                MediaButtonReceiver.handleIntent(zone.mSession, intent);
+            }
+        }
+        return super.onStartCommand(intent, flags, startId);
     }
 
     @Override
@@ -55,10 +215,233 @@ public class AudioService extends MediaBrowserServiceCompat {
 
     @Override
     public void onDestroy() {
-        mMediaNotificationManager.onDestroy();
-        mPlayback.stop();
-        mSession.release();
-        Log.d(TAG, "onDestroy: AudioPlayer stopped and MediaSession released");
+        Looper.myQueue().removeIdleHandler(mDeferredStartup);
+        AudioLibrary.removeOnCatalogChangedListener(mCatalogChangeNotifier);
+        mPlaybackHandler.removeCallbacks(mCatalogChangeNotifier);
+        if (mMediaScanner != null) {
+            mMediaScanner.release();
+        }
+        AudioLibrary.setLocalCopies(null);
+        if (mCastServer != null) {
+            mCastServer.stop();
+        }
+        synchronized (this) {
+            mDestroyed = true;
+            if (mAnalysisManager != null) {
+                mAnalysisManager.release();
+            }
+            if (mDownloadManager != null) {
+                mDownloadManager.release();
+            }
+        }
+
+        // Tear down playback on its own thread, then let the thread finish. No fade: delayed
+        // messages don't survive quitSafely().
+        mPlaybackHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (Zone zone : getZones()) {
+                    zone.release();
+                }
+                if (mMediaNotificationManager != null) {
+                    mMediaNotificationManager.onDestroy();
+                }
+                Log.d(TAG, "onDestroy: AudioPlayers stopped and MediaSessions released");
+            }
+        });
+        mPlaybackThread.quitSafely();
+    }
+
+    /**
+     * @return a new zone, null if the service hosts as many as it can. On the main thread.
+     */
+    @Nullable
+    private Zone createZone() {
+        synchronized (mZones) {
+            if (mZones.size() >= MAX_ZONES) {
+                return null;
+            }
+            final boolean[] taken = new boolean[MAX_ZONES];
+            for (Zone zone : mZones.values()) {
+                taken[zone.mSlot] = true;
+            }
+            int slot = 0;
+            while (taken[slot]) {
+                slot++;
+            }
+            final Zone zone = new Zone("zone-" + (++mLastZoneNumber), slot);
+            mZones.put(zone.mId, zone);
+            Log.d(TAG, "createZone: " + zone.mId + ", " + mZones.size() + " zones");
+            return zone;
+        }
+    }
+
+    // On the main thread. The main zone lives as long as the service.
+    private void releaseZone(@Nullable String zoneId) {
+        if (AudioLibrary.MAIN_ZONE_ID.equals(zoneId)) {
+            return;
+        }
+        final Zone zone;
+        synchronized (mZones) {
+            zone = mZones.remove(zoneId);
+        }
+        if (zone == null) {
+            return;
+        }
+        mPlaybackHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                zone.release();
+                updateDownloadPriorities();
+            }
+        });
+    }
+
+    private List<Zone> getZones() {
+        synchronized (mZones) {
+            return new ArrayList<>(mZones.values());
+        }
+    }
+
+    private Bundle createZoneList() {
+        final ArrayList<String> zoneIds = new ArrayList<>();
+        final ArrayList<MediaSessionCompat.Token> tokens = new ArrayList<>();
+        for (Zone zone : getZones()) {
+            zoneIds.add(zone.mId);
+            tokens.add(zone.mSession.getSessionToken());
+        }
+        final Bundle zones = new Bundle();
+        zones.putStringArrayList(AudioLibrary.EXTRA_ZONE_IDS, zoneIds);
+        zones.putParcelableArrayList(AudioLibrary.EXTRA_SESSION_TOKENS, tokens);
+        return zones;
+    }
+
+    // On the playback thread.
+    private MediaNotificationManager getMediaNotificationManager() {
+        if (mMediaNotificationManager == null) {
+            mMediaNotificationManager = new MediaNotificationManager(this);
+        }
+        return mMediaNotificationManager;
+    }
+
+    // On the playback thread.
+    private ArtworkLoader getArtworkLoader() {
+        if (mArtworkLoader == null) {
+            mArtworkLoader = new ArtworkLoader(this);
+        }
+        return mArtworkLoader;
+    }
+
+    // On the playback thread. Shared by the zones' players, a station resolved for one of them
+    // is cached for all.
+    private StreamResolver getStreamResolver() {
+        if (mStreamResolver == null) {
+            mStreamResolver = new StreamResolver(getHttpClient(),
+                    Util.getUserAgent(this, getString(R.string.app_name)),
+                    StreamResolver.DEFAULT_TTL_MS);
+        }
+        return mStreamResolver;
+    }
+
+    // On the playback thread. The timer stops the main zone, the others play on.
+    private SleepTimer getSleepTimer() {
+        if (mSleepTimer == null) {
+            mSleepTimer = new SleepTimer(
+                    getSharedPreferences("playback", MODE_PRIVATE),
+                    mPlaybackHandler,
+                    new SleepTimer.Listener() {
+                        @Override
+                        public void onSleepTimerExpired() {
+                            Log.d(TAG, "onSleepTimerExpired: stopping playback");
+                            if (mMainZone.mPlayback != null) {
+                                mMainZone.mPlayback.stop(SLEEP_FADE_OUT_MS);
+                            }
+                            mMainZone.mSession.setActive(false);
+                            mMainZone.publishSessionExtras();
+                        }
+                    });
+        }
+        return mSleepTimer;
+    }
+
+    // On the main thread.
+    private MediaScanner getMediaScanner() {
+        if (mMediaScanner == null) {
+            mMediaScanner = new MediaScanner(
+                    new File(getFilesDir(), "scan_index.bin"),
+                    new MappedTagReader(new RetrieverTagExtractor()),
+                    AudioLibrary.getRoot());
+        }
+        return mMediaScanner;
+    }
+
+    // Shared by playback and downloads, so both reuse the same connections.
+    private PooledHttpClient getHttpClient() {
+        PooledHttpClient client = mHttpClient;
+        if (client == null) {
+            synchronized (this) {
+                client = mHttpClient;
+                if (client == null) {
+                    client = new PooledHttpClient.Builder().build();
+                    mHttpClient = client;
+                }
+            }
+        }
+        return client;
+    }
+
+    /**
+     * @return null once the service is destroyed
+     */
+    @Nullable
+    private AnalysisManager getAnalysisManager() {
+        if (mDestroyed) {
+            return null;
+        }
+        AnalysisManager manager = mAnalysisManager;
+        if (manager == null) {
+            synchronized (this) {
+                manager = mAnalysisManager;
+                if (manager == null && !mDestroyed) {
+                    manager = new AnalysisManager(new File(getFilesDir(), "analysis"));
+                    mAnalysisManager = manager;
+                }
+            }
+        }
+        return manager;
+    }
+
+    /**
+     * @return null once the service is destroyed
+     */
+    @Nullable
+    private DownloadManager getDownloadManager() {
+        if (mDestroyed) {
+            return null;
+        }
+        DownloadManager manager = mDownloadManager;
+        if (manager == null) {
+            synchronized (this) {
+                manager = mDownloadManager;
+                if (manager == null && !mDestroyed) {
+                    manager = new DownloadManager(
+                            new File(getFilesDir(), "downloads"),
+                            DOWNLOAD_QUOTA_BYTES,
+                            MAX_CONCURRENT_DOWNLOADS,
+                            getHttpClient(),
+                            Util.getUserAgent(this, getString(R.string.app_name)),
+                            new Executor() {
+                                @Override
+                                public void execute(@NonNull Runnable command) {
+                                    mPlaybackHandler.post(command);
+                                }
+                            },
+                            new DownloadListener());
+                    mDownloadManager = manager;
+                }
+            }
+        }
+        return manager;
     }
 
     @Nullable
@@ -71,159 +454,740 @@ public class AudioService extends MediaBrowserServiceCompat {
     @Override
     public void onLoadChildren(@NonNull String parentId,
                                @NonNull Result<List<MediaBrowserCompat.MediaItem>> result) {
-        Log.d(TAG, "onLoadChildren: size: " + AudioLibrary.getMediaItems().size());
-        result.sendResult(AudioLibrary.getMediaItems());
+        final List<MediaBrowserCompat.MediaItem> items = AudioLibrary.getMediaItems(parentId);
+        Log.d(TAG, "onLoadChildren: size: " + items.size());
+        result.sendResult(items);
     }
 
-    // MediaSession Callback: Transport Controls -> AudioPlayer
-    public class MediaSessionCallback extends MediaSessionCompat.Callback {
+    @Override
+    public void onLoadChildren(@NonNull String parentId,
+                               @NonNull Result<List<MediaBrowserCompat.MediaItem>> result,
+                               @NonNull Bundle options) {
+        final int page = options.getInt(MediaBrowserCompat.EXTRA_PAGE, -1);
+        final int pageSize = options.getInt(MediaBrowserCompat.EXTRA_PAGE_SIZE, -1);
+        if (page < 0 || pageSize < 1) {
+            onLoadChildren(parentId, result);
+            return;
+        }
+        // Only the page is built, rather than all children for the base class to cut it from.
+        final List<MediaBrowserCompat.MediaItem> items =
+                AudioLibrary.getMediaItems(parentId, page, pageSize);
+        Log.d(TAG, "onLoadChildren: page " + page + " size: " + items.size());
+        result.sendResult(items);
+    }
 
-        private final List<MediaSessionCompat.QueueItem> mPlaylist = new ArrayList<>();
-        private int mQueueIndex = -1;
-        private MediaMetadataCompat mPreparedMedia;
+    @Override
+    public void onCustomAction(@NonNull String action, Bundle extras,
+                               @NonNull Result<Bundle> result) {
+        if (AudioLibrary.ACTION_GET_CATALOG_CHANGES.equals(action) && extras != null) {
+            result.sendResult(createCatalogChanges(
+                    extras.getString(AudioLibrary.EXTRA_PARENT_ID, AudioLibrary.getRoot()),
+                    extras.getLong(AudioLibrary.EXTRA_SINCE_VERSION, -1)));
+        } else if (AudioLibrary.ACTION_SCAN_MEDIA.equals(action)) {
+            scanMedia();
+            result.sendResult(null);
+        } else if (AudioLibrary.ACTION_SET_SLEEP_TIMER.equals(action)) {
+            setSleepTimer(extras);
+            result.sendResult(null);
+        } else if (AudioLibrary.ACTION_CREATE_ZONE.equals(action)) {
+            final Zone zone = createZone();
+            if (zone != null) {
+                result.sendResult(zone.toBundle());
+            } else {
+                result.sendError(null);
+            }
+        } else if (AudioLibrary.ACTION_RELEASE_ZONE.equals(action) && extras != null) {
+            releaseZone(extras.getString(AudioLibrary.EXTRA_ZONE_ID));
+            result.sendResult(null);
+        } else if (AudioLibrary.ACTION_GET_ZONES.equals(action)) {
+            result.sendResult(createZoneList());
+        } else if (AudioLibrary.ACTION_START_CASTING.equals(action)) {
+            final String url = startCasting();
+            if (url != null) {
+                final Bundle casting = new Bundle();
+                casting.putString(AudioLibrary.EXTRA_CAST_URL, url);
+                result.sendResult(casting);
+            } else {
+                result.sendError(null);
+            }
+        } else if (AudioLibrary.ACTION_STOP_CASTING.equals(action)) {
+            stopCasting();
+            result.sendResult(null);
+        } else if (AudioLibrary.ACTION_DOWNLOAD.equals(action) && extras != null) {
+            download(extras.getString(AudioLibrary.EXTRA_MEDIA_ID));
+            result.sendResult(null);
+        } else if (AudioLibrary.ACTION_REMOVE_DOWNLOAD.equals(action) && extras != null) {
+            final String mediaId = extras.getString(AudioLibrary.EXTRA_MEDIA_ID);
+            final DownloadManager downloads = getDownloadManager();
+            if (mediaId != null && downloads != null) {
+                downloads.remove(mediaId);
+            }
+            result.sendResult(null);
+        } else {
+            super.onCustomAction(action, extras, result);
+        }
+    }
 
-        @Override
-        public void onAddQueueItem(MediaDescriptionCompat description) {
-            mPlaylist.add(new MediaSessionCompat.QueueItem(description, description.hashCode()));
-            mQueueIndex = (mQueueIndex == -1) ? 0 : mQueueIndex;
-            mSession.setQueue(mPlaylist);
+    private void scanMedia() {
+        if (ContextCompat.checkSelfPermission(this, Manifest.permission.READ_EXTERNAL_STORAGE)
+                != PackageManager.PERMISSION_GRANTED) {
+            Log.d(TAG, "scanMedia: no storage permission yet");
+            return;
         }
+        getMediaScanner().scan(Collections.singletonList(
+                Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_MUSIC)));
+    }
 
-        @Override
-        public void onRemoveQueueItem(MediaDescriptionCompat description) {
-            mPlaylist.remove(new MediaSessionCompat.QueueItem(description, description.hashCode()));
-            mQueueIndex = (mPlaylist.isEmpty()) ? -1 : mQueueIndex;
-            mSession.setQueue(mPlaylist);
+    /**
+     * Serves the main zone's streams to the local network from now on, if it isn't already.
+     *
+     * @return the URL to play them from, null if there's no local network to serve on
+     */
+    @Nullable
+    private String startCasting() {
+        final InetAddress address;
+        try {
+            address = CastServer.findLanAddress();
+        } catch (SocketException e) {
+            Log.e(TAG, "startCasting: " + e.getMessage());
+            return null;
+        }
+        if (address == null) {
+            Log.w(TAG, "startCasting: not on a local network");
+            return null;
+        }
+        if (mCastServer == null) {
+            final CastServer server = new CastServer(CAST_BUFFER_BYTES, CAST_BACKLOG_BYTES);
+            try {
+                server.start(null, 0);
+            } catch (IOException e) {
+                Log.e(TAG, "startCasting: " + e.getMessage());
+                return null;
+            }
+            mCastServer = server;
+            mPlaybackHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mMainZone.getPlayback().setCastServer(server);
+                }
+            });
         }
+        final String url = "http://" + address.getHostAddress() + ":" + mCastServer.getPort()
+                + CastServer.PATH;
+        Log.d(TAG, "startCasting: " + url);
+        return url;
+    }
 
-        @Override
-        public void onPrepare() {
-            if (mQueueIndex < 0 && mPlaylist.isEmpty()) {
-                //nothing to play
-                return;
+    private void stopCasting() {
+        if (mCastServer == null) {
+            return;
+        }
+        mPlaybackHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mMainZone.mPlayback != null) {
+                    mMainZone.mPlayback.setCastServer(null);
+                }
+            }
+        });
+        mCastServer.stop();
+        mCastServer = null;
+    }
+
+    private void setSleepTimer(@Nullable Bundle extras) {
+        final long durationMs = extras != null
+                ? extras.getLong(AudioLibrary.EXTRA_SLEEP_TIMER_MS, 0)
+                : 0;
+        final boolean endOfTrack = extras != null
+                && extras.getBoolean(AudioLibrary.EXTRA_SLEEP_AT_END_OF_TRACK, false);
+        mPlaybackHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (endOfTrack) {
+                    getSleepTimer().setEndOfTrack();
+                } else if (durationMs > 0) {
+                    getSleepTimer().setDuration(durationMs);
+                } else {
+                    getSleepTimer().cancel();
+                }
+                mMainZone.publishSessionExtras();
+            }
+        });
+    }
+
+    private void download(@Nullable String mediaId) {
+        final String uri = mediaId != null ? AudioLibrary.getMediaUri(mediaId) : null;
+        if (uri == null || !(uri.startsWith("http://") || uri.startsWith("https://"))) {
+            // Unknown, local already, or downloaded.
+            return;
+        }
+        final DownloadManager downloads = getDownloadManager();
+        if (downloads == null) {
+            return;
+        }
+        downloads.enqueue(mediaId, uri, DownloadManager.PRIORITY_LOWEST);
+        // The queue belongs to the playback thread, it sets the actual priority.
+        mPlaybackHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                updateDownloadPriorities();
             }
+        });
+    }
+
+    // Pinned tracks download in the order they'll be played: every zone's queue from its
+    // current track on, the main zone's first. On the playback thread.
+    private void updateDownloadPriorities() {
+        final DownloadManager downloads = mDownloadManager;
+        if (downloads == null) {
+            // Nothing pinned since the service started.
+            return;
+        }
+        final Set<String> order = new LinkedHashSet<>();
+        for (Zone zone : getZones()) {
+            zone.mCallback.addUpcoming(order);
+        }
+        downloads.setPriorities(new ArrayList<>(order));
+    }
 
-            final String mediaId = mPlaylist.get(mQueueIndex).getDescription().getMediaId();
-            mPreparedMedia = AudioLibrary.getMetadata(AudioService.this, mediaId);
-            mSession.setMetadata(mPreparedMedia);
+    /**
+     * Builds the delta of {@code parentId} after {@code sinceVersion}: the current item for
+     * every inserted or updated id and the ids that were deleted, each id at most once.
+     */
+    private Bundle createCatalogChanges(String parentId, long sinceVersion) {
+        final Bundle changes = createCatalogVersionExtras();
+        final List<CatalogChange> log = sinceVersion < 0
+                ? null
+                : AudioLibrary.getChangesSince(sinceVersion);
+        if (log == null) {
+            changes.putBoolean(AudioLibrary.EXTRA_RESET, true);
+            return changes;
+        }
 
-            if (!mSession.isActive()) {
-                mSession.setActive(true);
+        // Only the last change of an id matters to a client catching up.
+        final Map<String, CatalogChange> latest = new HashMap<>();
+        for (CatalogChange change : log) {
+            if (parentId.equals(change.parentId)) {
+                latest.put(change.mediaId, change);
             }
         }
 
+        final ArrayList<MediaBrowserCompat.MediaItem> changedItems = new ArrayList<>();
+        final ArrayList<String> removedIds = new ArrayList<>();
+        for (CatalogChange change : latest.values()) {
+            final MediaBrowserCompat.MediaItem item = change.type == CatalogChange.TYPE_DELETE
+                    ? null
+                    : AudioLibrary.getMediaItem(change.mediaId);
+            if (item != null) {
+                changedItems.add(item);
+            } else {
+                removedIds.add(change.mediaId);
+            }
+        }
+        changes.putParcelableArrayList(AudioLibrary.EXTRA_CHANGED_ITEMS, changedItems);
+        changes.putStringArrayList(AudioLibrary.EXTRA_REMOVED_IDS, removedIds);
+        return changes;
+    }
+
+    /**
+     * @return the file behind {@code mediaId} if it's local, only those can be analysed
+     */
+    @Nullable
+    private static File getLocalFile(String mediaId) {
+        final String uri = AudioLibrary.getMediaUri(mediaId);
+        if (uri == null) {
+            return null;
+        }
+        final Uri parsed = Uri.parse(uri);
+        return "file".equals(parsed.getScheme()) && parsed.getPath() != null
+                ? new File(parsed.getPath())
+                : null;
+    }
+
+    private Bundle createCatalogVersionExtras() {
+        final Bundle extras = new Bundle();
+        extras.putLong(AudioLibrary.EXTRA_CATALOG_GENERATION, AudioLibrary.getGeneration());
+        extras.putLong(AudioLibrary.EXTRA_CATALOG_VERSION, AudioLibrary.getVersion());
+        return extras;
+    }
+
+    // AudioLibrary changes -> browser clients. Batches arriving in quick succession are
+    // collected and published once on the playback thread, which owns the session extras,
+    // notifying only the parents that actually changed.
+    private class CatalogChangeNotifier
+            implements AudioLibrary.OnCatalogChangedListener, Runnable {
+
+        private final Set<String> mChangedParentIds = new HashSet<>();
+
         @Override
-        public void onPlay() {
-            if (!isReadyToPlay()) {
-                //nothing to play
-                return;
+        public void onCatalogChanged(@NonNull List<CatalogChange> changes) {
+            // New and changed local tracks are analysed in the background ahead of playback.
+            final AnalysisManager analysis = getAnalysisManager();
+            for (CatalogChange change : changes) {
+                if (analysis != null && change.type != CatalogChange.TYPE_DELETE) {
+                    final File file = getLocalFile(change.mediaId);
+                    if (file != null) {
+                        analysis.enqueue(file);
+                    }
+                }
             }
 
-            if (mPreparedMedia == null) {
-                onPrepare();
+            synchronized (mChangedParentIds) {
+                final boolean scheduled = !mChangedParentIds.isEmpty();
+                for (CatalogChange change : changes) {
+                    mChangedParentIds.add(change.parentId);
+                }
+                if (!scheduled) {
+                    mPlaybackHandler.post(this);
+                }
             }
+        }
 
-            mPlayback.playFromMedia(mPreparedMedia);
+        @Override
+        public void run() {
+            final List<String> parentIds;
+            synchronized (mChangedParentIds) {
+                parentIds = new ArrayList<>(mChangedParentIds);
+                mChangedParentIds.clear();
+            }
 
-            Log.d(TAG, "onPlay: MediaSession active");
+            // Our own clients pick the version up from the session extras and fetch the delta,
+            // other browsers reload just the affected parents.
+            for (Zone zone : getZones()) {
+                zone.publishSessionExtras();
+            }
+            for (String parentId : parentIds) {
+                notifyChildrenChanged(parentId);
+            }
         }
+    }
 
-        @Override
-        public void onPause() {
-            mPlayback.pause();
+    // One independent playback: a session of its own with its queue, player, notification and
+    // session extras. Created on the main thread, used on the playback thread from then on.
+    private final class Zone {
+
+        final String mId;
+        // Which of the MAX_ZONES places it takes, it has that notification id.
+        final int mSlot;
+        final int mNotificationId;
+        final MediaSessionCompat mSession;
+        final MediaSessionCallback mCallback;
+        // Created on first play.
+        private AudioPlayer mPlayback;
+        private MediaPlayerListener mPlayerListener;
+        // Waveform of the prepared media, published in the session extras.
+        private String mWaveformMediaId;
+        private byte[] mWaveform;
+        private boolean mReleased;
+
+        Zone(String id, int slot) {
+            mId = id;
+            mSlot = slot;
+            mNotificationId = MediaNotificationManager.NOTIFICATION_ID + slot;
+            mSession = new MediaSessionCompat(AudioService.this, getPackageName() + "/" + id);
+            mCallback = new MediaSessionCallback();
+            mSession.setCallback(mCallback, mPlaybackHandler);
+            mSession.setFlags(MediaSessionCompat.FLAG_HANDLES_MEDIA_BUTTONS
+                    | MediaSessionCompat.FLAG_HANDLES_QUEUE_COMMANDS
+                    | MediaSessionCompat.FLAG_HANDLES_TRANSPORT_CONTROLS);
         }
 
-        @Override
-        public void onStop() {
-            mPlayback.stop();
-            mSession.setActive(false);
+        private AudioPlayer getPlayback() {
+            if (mPlayback == null) {
+                mPlayerListener = new MediaPlayerListener();
+                mPlayback = new AudioPlayer(AudioService.this, mPlaybackThread.getLooper(),
+                        getHttpClient(), getStreamResolver(), mPlayerListener);
+                mPlayback.setTargetBufferBytes(ZONE_BUFFER_BYTES);
+            }
+            return mPlayback;
         }
 
-        @Override
-        public void onSkipToNext() {
-            mQueueIndex = (++mQueueIndex % mPlaylist.size());
-            mPreparedMedia = null;
-            onPlay();
+        // Playing, or on the way to it, as last reported.
+        boolean isStarted() {
+            final PlaybackStateCompat state =
+                    mPlayerListener != null ? mPlayerListener.mLastState : null;
+            return state != null && (state.getState() == PlaybackStateCompat.STATE_PLAYING
+                    || state.getState() == PlaybackStateCompat.STATE_BUFFERING);
         }
 
-        @Override
-        public void onSkipToPrevious() {
-            mQueueIndex = mQueueIndex > 0 ? mQueueIndex - 1 : mPlaylist.size() - 1;
-            mPreparedMedia = null;
-            onPlay();
+        void publishSessionExtras() {
+            if (mReleased) {
+                return;
+            }
+            final Bundle extras = createCatalogVersionExtras();
+            if (mWaveform != null) {
+                extras.putString(AudioLibrary.EXTRA_WAVEFORM_MEDIA_ID, mWaveformMediaId);
+                extras.putByteArray(AudioLibrary.EXTRA_WAVEFORM, mWaveform);
+            }
+            if (this == mMainZone && mSleepTimer != null) {
+                mSleepTimer.putExtras(extras);
+            }
+            mSession.setExtras(extras);
         }
 
-        @Override
-        public void onSeekTo(long pos) {
-            mPlayback.seekTo(pos);
+        Bundle toBundle() {
+            final Bundle bundle = new Bundle();
+            bundle.putString(AudioLibrary.EXTRA_ZONE_ID, mId);
+            bundle.putParcelable(AudioLibrary.EXTRA_SESSION_TOKEN, mSession.getSessionToken());
+            return bundle;
         }
 
-        private boolean isReadyToPlay() {
-            return (!mPlaylist.isEmpty());
+        // Stops playback right away, no fade, and lets go of the session. Artwork and analysis
+        // results still on their way find nothing prepared.
+        void release() {
+            mReleased = true;
+            if (mCallback.mArtworkRequest != null) {
+                mCallback.mArtworkRequest.cancel();
+                mCallback.mArtworkRequest = null;
+            }
+            mCallback.mPreparedMedia = null;
+            if (mPlayback != null) {
+                mPlayback.setFadeDurations(0, 0);
+                mPlayback.stop();
+            }
+            mSession.release();
         }
-    }
 
-    // AudioPlayer Callback: AudioPlayer state -> AudioService.
-    public class MediaPlayerListener extends PlaybackInfoListener {
+        // MediaSession Callback: Transport Controls -> AudioPlayer, on the playback thread.
+        class MediaSessionCallback extends MediaSessionCompat.Callback {
 
-        private final ServiceManager mServiceManager;
+            private final List<MediaSessionCompat.QueueItem> mPlaylist = new ArrayList<>();
+            private int mQueueIndex = -1;
+            private MediaMetadataCompat mPreparedMedia;
+            private ArtworkLoader.Request mArtworkRequest;
 
-        public MediaPlayerListener() {
-            mServiceManager = new ServiceManager();
-        }
+            @Override
+            public void onAddQueueItem(MediaDescriptionCompat description) {
+                if (mPlaylist.size() >= MAX_QUEUE_SIZE) {
+                    Log.w(TAG, "onAddQueueItem: the queue of " + mId + " is full");
+                    return;
+                }
+                mPlaylist.add(
+                        new MediaSessionCompat.QueueItem(description, description.hashCode()));
+                mQueueIndex = (mQueueIndex == -1) ? 0 : mQueueIndex;
+                mSession.setQueue(mPlaylist);
+                updateDownloadPriorities();
+            }
 
-        @Override
-        public void onPlaybackStateChange(PlaybackStateCompat state) {
+            @Override
+            public void onRemoveQueueItem(MediaDescriptionCompat description) {
+                mPlaylist.remove(
+                        new MediaSessionCompat.QueueItem(description, description.hashCode()));
+                mQueueIndex = (mPlaylist.isEmpty()) ? -1 : mQueueIndex;
+                mSession.setQueue(mPlaylist);
+                updateDownloadPriorities();
+            }
+
+            @Override
+            public void onPrepare() {
+                if (mQueueIndex < 0 && mPlaylist.isEmpty()) {
+                    //nothing to play
+                    return;
+                }
+
+                final String mediaId = mPlaylist.get(mQueueIndex).getDescription().getMediaId();
+                mPreparedMedia = AudioLibrary.getMetadata(mediaId);
+                mSession.setMetadata(mPreparedMedia);
+                prepareArtwork();
+                prepareAnalysis(mediaId);
+
+                if (!mSession.isActive()) {
+                    mSession.setActive(true);
+                }
+            }
+
+            @Override
+            public void onPlay() {
+                if (!isReadyToPlay()) {
+                    //nothing to play
+                    return;
+                }
+
+                if (mPreparedMedia == null) {
+                    onPrepare();
+                }
+
+                getPlayback().playFromMedia(mPreparedMedia);
 
-            // Report the state to the MediaSession.
-            mSession.setPlaybackState(state);
+                Log.d(TAG, "onPlay: MediaSession active");
+            }
+
+            @Override
+            public void onPause() {
+                getPlayback().pause();
+            }
 
-            // Manage the started state of this service.
-            switch (state.getState()) {
-                case PlaybackStateCompat.STATE_PLAYING:
-                    mServiceManager.moveServiceToStartedState(state);
-                    break;
-                case PlaybackStateCompat.STATE_PAUSED:
-                    mServiceManager.updateNotificationForPause(state);
-                    break;
-                case PlaybackStateCompat.STATE_STOPPED:
-                    mServiceManager.moveServiceOutOfStartedState(state);
-                    break;
+            @Override
+            public void onStop() {
+                getPlayback().stop();
+                mSession.setActive(false);
             }
 
+            @Override
+            public void onSkipToNext() {
+                mQueueIndex = (++mQueueIndex % mPlaylist.size());
+                mPreparedMedia = null;
+                updateDownloadPriorities();
+                onPlay();
+            }
+
+            @Override
+            public void onSkipToPrevious() {
+                mQueueIndex = mQueueIndex > 0 ? mQueueIndex - 1 : mPlaylist.size() - 1;
+                mPreparedMedia = null;
+                updateDownloadPriorities();
+                onPlay();
+            }
+
+            @Override
+            public void onSeekTo(long pos) {
+                getPlayback().seekTo(pos);
+            }
+
+            // The queue in the order it'll be played, from the current track on.
+            private void addUpcoming(Collection<String> mediaIds) {
+                for (int i = 0; i < mPlaylist.size(); i++) {
+                    mediaIds.add(mPlaylist.get((Math.max(mQueueIndex, 0) + i) % mPlaylist.size())
+                            .getDescription().getMediaId());
+                }
+            }
+
+            private boolean isReadyToPlay() {
+                return (!mPlaylist.isEmpty());
+            }
+
+            // Loads the artwork of the prepared media, the session and the notification show it
+            // once it's there. Preparing another track drops the load for the previous one.
+            private void prepareArtwork() {
+                if (mArtworkRequest != null) {
+                    mArtworkRequest.cancel();
+                    mArtworkRequest = null;
+                }
+                final String artUri = mPreparedMedia != null
+                        ? mPreparedMedia.getString(MediaMetadataCompat.METADATA_KEY_ALBUM_ART_URI)
+                        : null;
+                if (artUri == null) {
+                    return;
+                }
+                final String mediaId = mPreparedMedia.getDescription().getMediaId();
+                mArtworkRequest = getArtworkLoader().load(Uri.parse(artUri),
+                        ArtworkLoader.SESSION_SIZE, new ArtworkLoader.Callback() {
+                            @Override
+                            public void onArtworkLoaded(@NonNull Uri uri, @Nullable Bitmap bitmap) {
+                                mArtworkRequest = null;
+                                if (bitmap == null || mPreparedMedia == null || !mediaId.equals(
+                                        mPreparedMedia.getDescription().getMediaId())) {
+                                    return;
+                                }
+                                mPreparedMedia = new MediaMetadataCompat.Builder(mPreparedMedia)
+                                        .putBitmap(MediaMetadataCompat.METADATA_KEY_ALBUM_ART,
+                                            bitmap)
+                                        .build();
+                                mSession.setMetadata(mPreparedMedia);
+                                if (mPlayerListener != null) {
+                                    mPlayerListener.updateNotification();
+                                }
+                            }
+                        });
+            }
+
+            // Looks up the waveform and loudness of the prepared media; for tracks analysed
+            // before, that's a cache hit and the gain is in place before playback starts.
+            private void prepareAnalysis(final String mediaId) {
+                getPlayback().setNormalizationGain(1.0f);
+                if (mWaveform != null) {
+                    mWaveform = null;
+                    mWaveformMediaId = null;
+                    publishSessionExtras();
+                }
+
+                final File file = getLocalFile(mediaId);
+                final AnalysisManager analysis = getAnalysisManager();
+                if (file == null || analysis == null) {
+                    return;
+                }
+                analysis.request(mediaId, file, new AnalysisManager.Callback() {
+                    @Override
+                    public void onAnalysisReady(@NonNull String mediaId,
+                                                @NonNull TrackAnalysis analysis) {
+                        if (mPreparedMedia == null || !mediaId.equals(
+                                mPreparedMedia.getDescription().getMediaId())) {
+                            return;
+                        }
+                        // Changing the level in the middle of a track would be audible, a track
+                        // that wasn't analysed in time gets its gain the next time it's played.
+                        if (!getPlayback().isPlaying()) {
+                            getPlayback().setNormalizationGain(analysis.getNormalizationGain(
+                                    TrackAnalysis.REFERENCE_LOUDNESS));
+                        }
+                        mWaveformMediaId = mediaId;
+                        mWaveform = analysis.waveform;
+                        publishSessionExtras();
+                    }
+                });
+            }
         }
 
-        class ServiceManager {
+        // AudioPlayer Callback: AudioPlayer state -> AudioService, on the playback thread.
+        class MediaPlayerListener extends PlaybackInfoListener {
+
+            private final ServiceManager mServiceManager;
+            private PlaybackStateCompat mLastState;
+
+            public MediaPlayerListener() {
+                mServiceManager = new ServiceManager();
+            }
 
-            private void moveServiceToStartedState(PlaybackStateCompat state) {
-                Notification notification =
-                        mMediaNotificationManager.getNotification(
-                                mPlayback.getCurrentMedia(), state, getSessionToken());
+            @Override
+            public void onPlaybackStateChange(PlaybackStateCompat state) {
 
-                if (!mServiceInStartedState) {
-                    ContextCompat.startForegroundService(
-                            AudioService.this,
-                            new Intent(AudioService.this, AudioService.class));
-                    mServiceInStartedState = true;
+                // Report the state to the MediaSession.
+                mSession.setPlaybackState(state);
+                mLastState = state;
+
+                // Manage the started state of this service.
+                switch (state.getState()) {
+                    case PlaybackStateCompat.STATE_PLAYING:
+                    case PlaybackStateCompat.STATE_BUFFERING:
+                        mServiceManager.moveServiceToStartedState(state);
+                        break;
+                    case PlaybackStateCompat.STATE_PAUSED:
+                    case PlaybackStateCompat.STATE_ERROR:
+                        mServiceManager.updateNotificationForPause(state);
+                        break;
+                    case PlaybackStateCompat.STATE_STOPPED:
+                        mServiceManager.moveServiceOutOfStartedState(state);
+                        break;
+                }
+
+            }
+
+            @Override
+            public void onPlaybackCompleted() {
+                // The sleep timer belongs to the main zone.
+                if (Zone.this == mMainZone && mSleepTimer != null && mSleepTimer.onTrackEnded()) {
+                    Log.d(TAG, "onPlaybackCompleted: sleep timer stops playback");
+                    mCallback.onStop();
+                    publishSessionExtras();
+                }
+            }
+
+            // Posts the notification for the last state again: for artwork that arrived after it
+            // was posted, or to take over the foreground from another zone.
+            void updateNotification() {
+                if (mLastState == null) {
+                    return;
+                }
+                switch (mLastState.getState()) {
+                    case PlaybackStateCompat.STATE_PLAYING:
+                    case PlaybackStateCompat.STATE_BUFFERING:
+                        mServiceManager.moveServiceToStartedState(mLastState);
+                        break;
+                    case PlaybackStateCompat.STATE_PAUSED:
+                    case PlaybackStateCompat.STATE_ERROR:
+                        mServiceManager.updateNotificationForPause(mLastState);
+                        break;
                 }
+            }
 
-                startForeground(MediaNotificationManager.NOTIFICATION_ID, notification);
+            // The prepared media carries the artwork once it's loaded.
+            private MediaMetadataCompat getNotificationMedia() {
+                final MediaMetadataCompat current = mPlayback.getCurrentMedia();
+                final MediaMetadataCompat prepared = mCallback.mPreparedMedia;
+                return current != null && prepared != null && current.getDescription().getMediaId()
+                        .equals(prepared.getDescription().getMediaId())
+                        ? prepared
+                        : current;
             }
 
-            private void updateNotificationForPause(PlaybackStateCompat state) {
-                stopForeground(false);
-                Notification notification =
-                        mMediaNotificationManager.getNotification(
-                                mPlayback.getCurrentMedia(), state, getSessionToken());
-                mMediaNotificationManager.getNotificationManager()
-                        .notify(MediaNotificationManager.NOTIFICATION_ID, notification);
+            class ServiceManager {
+
+                private void moveServiceToStartedState(PlaybackStateCompat state) {
+                    Notification notification =
+                            getMediaNotificationManager().getNotification(
+                                    getNotificationMedia(), state, mSession.getSessionToken(),
+                                    mId, mSlot);
+
+                    if (!mServiceInStartedState) {
+                        ContextCompat.startForegroundService(
+                                AudioService.this,
+                                new Intent(AudioService.this, AudioService.class));
+                        mServiceInStartedState = true;
+                    }
+
+                    mNotifyingZones.add(Zone.this);
+                    if (mForegroundZone == null || mForegroundZone == Zone.this) {
+                        mForegroundZone = Zone.this;
+                        startForeground(mNotificationId, notification);
+                    } else {
+                        // Another zone's notification keeps the service in the foreground.
+                        getMediaNotificationManager().getNotificationManager()
+                                .notify(mNotificationId, notification);
+                    }
+                }
+
+                private void updateNotificationForPause(PlaybackStateCompat state) {
+                    mNotifyingZones.add(Zone.this);
+                    leaveForeground(false);
+                    Notification notification =
+                            getMediaNotificationManager().getNotification(
+                                    getNotificationMedia(), state, mSession.getSessionToken(),
+                                    mId, mSlot);
+                    getMediaNotificationManager().getNotificationManager()
+                            .notify(mNotificationId, notification);
+                }
+
+                private void moveServiceOutOfStartedState(PlaybackStateCompat state) {
+                    if (mNotifyingZones.remove(Zone.this)) {
+                        leaveForeground(true);
+                        // Left behind if another zone took the foreground over.
+                        getMediaNotificationManager().getNotificationManager()
+                                .cancel(mNotificationId);
+                    }
+                    // The service runs on as long as any zone has a notification up.
+                    if (mNotifyingZones.isEmpty()) {
+                        stopSelf();
+                        mServiceInStartedState = false;
+                    }
+                }
+
+                // Hands the foreground over to another playing zone, or leaves it if none is.
+                private void leaveForeground(boolean removeNotification) {
+                    if (mForegroundZone != Zone.this) {
+                        return;
+                    }
+                    mForegroundZone = null;
+                    for (Zone zone : mNotifyingZones) {
+                        if (zone != Zone.this && zone.isStarted()) {
+                            zone.mPlayerListener.updateNotification();
+                            return;
+                        }
+                    }
+                    stopForeground(removeNotification);
+                }
             }
+        }
+    }
+
+    // DownloadManager results, on the playback thread.
+    private class DownloadListener implements DownloadManager.Listener {
 
-            private void moveServiceOutOfStartedState(PlaybackStateCompat state) {
-                stopForeground(true);
-                stopSelf();
-                mServiceInStartedState = false;
+        @Override
+        public void onDownloadCompleted(@NonNull String mediaId, @NonNull File file) {
+            final DownloadManager downloads = getDownloadManager();
+            final AnalysisManager analysis = getAnalysisManager();
+            if (downloads == null || analysis == null) {
+                return;
             }
+            Log.d(TAG, "onDownloadCompleted: " + mediaId + ", "
+                    + downloads.getUsedBytes() + " bytes used");
+            // A local file now, so it gets its waveform and loudness like the others.
+            analysis.enqueue(file);
+        }
+
+        @Override
+        public void onDownloadFailed(@NonNull String mediaId, @NonNull IOException error) {
+            Log.e(TAG, "onDownloadFailed: " + mediaId + ": " + error.getMessage());
         }
     }
 }
@@ -0,0 +1,43 @@
+package com.beeitstudio.mediaplayer.service;
+
+import androidx.annotation.IntDef;
+import androidx.annotation.NonNull;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * One entry of the {@link AudioLibrary} change feed. Versions are assigned from a single
+ * monotonic counter, so a client that remembers the last version it has seen can ask for
+ * everything that happened after it.
+ */
+public final class CatalogChange {
+
+    public static final int TYPE_INSERT = 1;
+    public static final int TYPE_UPDATE = 2;
+    public static final int TYPE_DELETE = 3;
+
+    @IntDef({TYPE_INSERT, TYPE_UPDATE, TYPE_DELETE})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface Type {
+    }
+
+    @Type
+    public final int type;
+    public final String mediaId;
+    public final String parentId;
+    public final long version;
+
+    CatalogChange(@Type int type, @NonNull String mediaId, @NonNull String parentId, long version) {
+        this.type = type;
+        this.mediaId = mediaId;
+        this.parentId = parentId;
+        this.version = version;
+    }
+
+    @Override
+    public String toString() {
+        return "CatalogChange{type=" + type + ", mediaId=" + mediaId
+                + ", parentId=" + parentId + ", version=" + version + '}';
+    }
+}
@@ -0,0 +1,24 @@
+package com.beeitstudio.mediaplayer.service;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Hashes that name cache files after keys that can't be file names themselves.
+ */
+public final class Hashes {
+
+    private Hashes() {
+    }
+
+    /**
+     * @return the 64 bit FNV-1a hash of {@code value}'s chars
+     */
+    public static long fnv1a(@NonNull String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
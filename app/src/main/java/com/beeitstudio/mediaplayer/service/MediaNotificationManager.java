@@ -13,12 +13,13 @@ import android.support.v4.media.MediaMetadataCompat;
 import android.support.v4.media.session.MediaSessionCompat;
 import android.support.v4.media.session.PlaybackStateCompat;
 import android.util.Log;
+import android.util.SparseArray;
+import android.view.KeyEvent;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.RequiresApi;
 import androidx.core.app.NotificationCompat;
 import androidx.core.content.ContextCompat;
-import androidx.media.session.MediaButtonReceiver;
 
 import com.beeitstudio.mediaplayer.MainActivity;
 import com.beeitstudio.mediaplayer.R;
@@ -34,53 +35,85 @@ public class MediaNotificationManager {
     private static final String TAG = MediaNotificationManager.class.getSimpleName();
     private static final String CHANNEL_ID = "com.beeitstudio.mediaplayer.channel";
     private static final int REQUEST_CODE = 501;
+    // Media button intents take this plus 8 per zone slot plus the action's bit, so every
+    // zone and action has a PendingIntent of its own.
+    private static final int MEDIA_BUTTON_REQUEST_CODE = 600;
 
     private final AudioService mService;
 
-    private final NotificationCompat.Action mPlayAction;
-    private final NotificationCompat.Action mPauseAction;
-    private final NotificationCompat.Action mNextAction;
-    private final NotificationCompat.Action mPrevAction;
     private final NotificationManager mNotificationManager;
+    // By zone slot, built with the zone's first notification; a service that never plays
+    // doesn't need them.
+    private final SparseArray<ZoneActions> mZoneActions = new SparseArray<>();
+
+    // The controls of one zone's notification.
+    private final class ZoneActions {
+
+        private final String mZoneId;
+        private final NotificationCompat.Action mPlayAction;
+        private final NotificationCompat.Action mPauseAction;
+        private final NotificationCompat.Action mNextAction;
+        private final NotificationCompat.Action mPrevAction;
+        private final PendingIntent mStopIntent;
+
+        private ZoneActions(String zoneId, int slot) {
+            mZoneId = zoneId;
+            mPlayAction =
+                    new NotificationCompat.Action(
+                            R.drawable.ic_play_arrow_white_24dp,
+                            mService.getString(R.string.label_play),
+                            createMediaButtonIntent(zoneId, slot,
+                                    PlaybackStateCompat.ACTION_PLAY));
+            mPauseAction =
+                    new NotificationCompat.Action(
+                            R.drawable.ic_pause_circle_outline_white_24dp,
+                            mService.getString(R.string.label_pause),
+                            createMediaButtonIntent(zoneId, slot,
+                                    PlaybackStateCompat.ACTION_PAUSE));
+            mNextAction =
+                    new NotificationCompat.Action(
+                            R.drawable.ic_skip_next_white_24dp,
+                            mService.getString(R.string.label_next),
+                            createMediaButtonIntent(zoneId, slot,
+                                    PlaybackStateCompat.ACTION_SKIP_TO_NEXT));
+            mPrevAction =
+                    new NotificationCompat.Action(
+                            R.drawable.ic_skip_previous_white_24dp,
+                            mService.getString(R.string.label_previous),
+                            createMediaButtonIntent(zoneId, slot,
+                                    PlaybackStateCompat.ACTION_SKIP_TO_PREVIOUS));
+            mStopIntent = createMediaButtonIntent(zoneId, slot, PlaybackStateCompat.ACTION_STOP);
+        }
+    }
 
     public MediaNotificationManager(AudioService service) {
         mService = service;
 
         mNotificationManager =
                 (NotificationManager) mService.getSystemService(Context.NOTIFICATION_SERVICE);
+    }
 
-        mPlayAction =
-                new NotificationCompat.Action(
-                        R.drawable.ic_play_arrow_white_24dp,
-                        mService.getString(R.string.label_play),
-                        MediaButtonReceiver.buildMediaButtonPendingIntent(
-                                mService,
-                                PlaybackStateCompat.ACTION_PLAY));
-        mPauseAction =
-                new NotificationCompat.Action(
-                        R.drawable.ic_pause_circle_outline_white_24dp,
-                        mService.getString(R.string.label_pause),
-                        MediaButtonReceiver.buildMediaButtonPendingIntent(
-                                mService,
-                                PlaybackStateCompat.ACTION_PAUSE));
-        mNextAction =
-                new NotificationCompat.Action(
-                        R.drawable.ic_skip_next_white_24dp,
-                        mService.getString(R.string.label_next),
-                        MediaButtonReceiver.buildMediaButtonPendingIntent(
-                                mService,
-                                PlaybackStateCompat.ACTION_SKIP_TO_NEXT));
-        mPrevAction =
-                new NotificationCompat.Action(
-                        R.drawable.ic_skip_previous_white_24dp,
-                        mService.getString(R.string.label_previous),
-                        MediaButtonReceiver.buildMediaButtonPendingIntent(
-                                mService,
-                                PlaybackStateCompat.ACTION_SKIP_TO_PREVIOUS));
-
-        // Cancel all notifications to handle the case where the Service was killed and
-        // restarted by the system.
-        mNotificationManager.cancelAll();
+    // A media button intent for the zone, to AudioService rather than MediaButtonReceiver,
+    // which only reaches the main zone's session.
+    private PendingIntent createMediaButtonIntent(String zoneId, int slot, long action) {
+        final Intent intent = new Intent(Intent.ACTION_MEDIA_BUTTON)
+                .setClass(mService, AudioService.class)
+                .putExtra(Intent.EXTRA_KEY_EVENT, new KeyEvent(KeyEvent.ACTION_DOWN,
+                        PlaybackStateCompat.toKeyCode(action)))
+                .putExtra(AudioLibrary.EXTRA_ZONE_ID, zoneId);
+        return PendingIntent.getService(mService,
+                MEDIA_BUTTON_REQUEST_CODE + slot * 8 + Long.numberOfTrailingZeros(action),
+                intent, PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
+    private synchronized ZoneActions getZoneActions(String zoneId, int slot) {
+        ZoneActions actions = mZoneActions.get(slot);
+        // A slot is taken by another zone once its zone is released.
+        if (actions == null || !actions.mZoneId.equals(zoneId)) {
+            actions = new ZoneActions(zoneId, slot);
+            mZoneActions.put(slot, actions);
+        }
+        return actions;
     }
 
     public void onDestroy() {
@@ -91,20 +124,29 @@ public class MediaNotificationManager {
         return mNotificationManager;
     }
 
+    /**
+     * @param zoneId the zone whose session {@code token} is, its controls act on that zone
+     * @param slot   the zone's slot
+     */
     public Notification getNotification(MediaMetadataCompat metadata,
                                         @NonNull PlaybackStateCompat state,
-                                        MediaSessionCompat.Token token) {
-        boolean isPlaying = state.getState() == PlaybackStateCompat.STATE_PLAYING;
+                                        MediaSessionCompat.Token token,
+                                        @NonNull String zoneId,
+                                        int slot) {
+        // Waiting for data on the way to playing still offers pause.
+        boolean isPlaying = state.getState() == PlaybackStateCompat.STATE_PLAYING
+                || state.getState() == PlaybackStateCompat.STATE_BUFFERING;
         MediaDescriptionCompat description = metadata.getDescription();
-        NotificationCompat.Builder builder =
-                buildNotification(state, token, isPlaying, description);
+        NotificationCompat.Builder builder = buildNotification(state, token, isPlaying,
+                description, getZoneActions(zoneId, slot));
         return builder.build();
     }
 
     private NotificationCompat.Builder buildNotification(@NonNull PlaybackStateCompat state,
                                                          MediaSessionCompat.Token token,
                                                          boolean isPlaying,
-                                                         MediaDescriptionCompat description) {
+                                                         MediaDescriptionCompat description,
+                                                         ZoneActions actions) {
 
         // Create the (mandatory) notification channel when running on Android Oreo.
         if (isAndroidOOrHigher()) {
@@ -118,10 +160,7 @@ public class MediaNotificationManager {
                         .setShowActionsInCompactView(0, 1, 2)
                         // For backwards compatibility with Android L and earlier.
                         .setShowCancelButton(true)
-                        .setCancelButtonIntent(
-                                MediaButtonReceiver.buildMediaButtonPendingIntent(
-                                        mService,
-                                        PlaybackStateCompat.ACTION_STOP)))
+                        .setCancelButtonIntent(actions.mStopIntent))
                 .setColor(ContextCompat.getColor(mService, R.color.notification_bg))
                 .setSmallIcon(R.drawable.ic_audiotrack_white_24dp)
                 // Pending intent that is fired when user clicks on notification.
@@ -130,24 +169,23 @@ public class MediaNotificationManager {
                 .setContentTitle(description.getTitle())
                 // Subtitle - Usually Artist name.
                 .setContentText(description.getSubtitle())
-                .setLargeIcon(AudioLibrary.getAlbumBitmap(mService, description.getMediaId()))
+                .setLargeIcon(description.getIconBitmap())
                 // When notification is deleted (when playback is paused and notification can be
                 // deleted) fire MediaButtonPendingIntent with ACTION_STOP.
-                .setDeleteIntent(MediaButtonReceiver.buildMediaButtonPendingIntent(
-                        mService, PlaybackStateCompat.ACTION_STOP))
+                .setDeleteIntent(actions.mStopIntent)
                 // Show controls on lock screen even when user hides sensitive content.
                 .setVisibility(NotificationCompat.VISIBILITY_PUBLIC);
 
         // If skip to next action is enabled.
         if ((state.getActions() & PlaybackStateCompat.ACTION_SKIP_TO_PREVIOUS) != 0) {
-            builder.addAction(mPrevAction);
+            builder.addAction(actions.mPrevAction);
         }
 
-        builder.addAction(isPlaying ? mPauseAction : mPlayAction);
+        builder.addAction(isPlaying ? actions.mPauseAction : actions.mPlayAction);
 
         // If skip to prev action is enabled.
         if ((state.getActions() & PlaybackStateCompat.ACTION_SKIP_TO_NEXT) != 0) {
-            builder.addAction(mNextAction);
+            builder.addAction(actions.mNextAction);
         }
 
         return builder;
@@ -0,0 +1,183 @@
+package com.beeitstudio.mediaplayer.service;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.wifi.WifiManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.PowerManager;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+/**
+ * What playback may do on the current network. Tells whether the network is metered, and
+ * keeps the CPU and Wi-Fi awake while a stream plays, so a long radio session doesn't drop
+ * when the device goes to sleep. Local files play without either lock, the audio path keeps
+ * the device awake for those.
+ * <p>
+ * Not thread safe, used on the playback thread only; the listener is called there as well.
+ */
+final class NetworkPolicy {
+
+    private static final String TAG = "oli_" + NetworkPolicy.class.getSimpleName();
+
+    interface Listener {
+        /**
+         * The network changed between metered and unmetered.
+         */
+        void onMeteredChanged(boolean metered);
+    }
+
+    private final Context mContext;
+    private final Handler mHandler;
+    private final Listener mListener;
+    private final ConnectivityManager mConnectivityManager;
+    private final PowerManager.WakeLock mWakeLock;
+    // Null on devices without Wi-Fi.
+    private final WifiManager.WifiLock mWifiLock;
+    private boolean mMetered;
+    private boolean mStarted;
+
+    private final Runnable mCheck = new Runnable() {
+        @Override
+        public void run() {
+            checkMetered();
+        }
+    };
+    // The callback from N on, called on the system's connectivity thread; the broadcast
+    // before, received on mHandler's.
+    private ConnectivityManager.NetworkCallback mNetworkCallback;
+    private BroadcastReceiver mConnectivityReceiver;
+
+    NetworkPolicy(@NonNull Context context, @NonNull Handler handler, @NonNull Listener listener) {
+        mContext = context.getApplicationContext();
+        mHandler = handler;
+        mListener = listener;
+        mConnectivityManager =
+                (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+
+        final PowerManager powerManager =
+                (PowerManager) mContext.getSystemService(Context.POWER_SERVICE);
+        mWakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, TAG);
+        mWakeLock.setReferenceCounted(false);
+
+        final WifiManager wifiManager =
+                (WifiManager) mContext.getSystemService(Context.WIFI_SERVICE);
+        if (wifiManager != null) {
+            mWifiLock = wifiManager.createWifiLock(WifiManager.WIFI_MODE_FULL_HIGH_PERF, TAG);
+            mWifiLock.setReferenceCounted(false);
+        } else {
+            mWifiLock = null;
+        }
+        mMetered = isActiveNetworkMetered();
+    }
+
+    /**
+     * Starts watching the network, the listener hears of changes from now on.
+     */
+    void start() {
+        if (mStarted) {
+            return;
+        }
+        mStarted = true;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            mNetworkCallback = new ConnectivityManager.NetworkCallback() {
+                @Override
+                public void onAvailable(Network network) {
+                    mHandler.post(mCheck);
+                }
+
+                @Override
+                public void onLost(Network network) {
+                    mHandler.post(mCheck);
+                }
+
+                @Override
+                public void onCapabilitiesChanged(Network network,
+                                                  NetworkCapabilities capabilities) {
+                    mHandler.post(mCheck);
+                }
+            };
+            mConnectivityManager.registerDefaultNetworkCallback(mNetworkCallback);
+        } else {
+            mConnectivityReceiver = new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    checkMetered();
+                }
+            };
+            mContext.registerReceiver(mConnectivityReceiver,
+                    new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION), null, mHandler);
+        }
+        checkMetered();
+    }
+
+    /**
+     * Stops watching the network and lets go of the locks.
+     */
+    void release() {
+        setStreaming(false);
+        if (!mStarted) {
+            return;
+        }
+        mStarted = false;
+        if (mNetworkCallback != null) {
+            mConnectivityManager.unregisterNetworkCallback(mNetworkCallback);
+            mNetworkCallback = null;
+        }
+        if (mConnectivityReceiver != null) {
+            mContext.unregisterReceiver(mConnectivityReceiver);
+            mConnectivityReceiver = null;
+        }
+        mHandler.removeCallbacks(mCheck);
+    }
+
+    /**
+     * @return true if data costs the user, as on most cellular networks and hotspots
+     */
+    boolean isMetered() {
+        return mMetered;
+    }
+
+    /**
+     * Holds the locks while {@code streaming}, releases them otherwise. Repeating the current
+     * value is a no-op.
+     */
+    void setStreaming(boolean streaming) {
+        if (streaming == mWakeLock.isHeld()) {
+            return;
+        }
+        Log.d(TAG, "setStreaming: " + streaming);
+        if (streaming) {
+            mWakeLock.acquire();
+            if (mWifiLock != null) {
+                mWifiLock.acquire();
+            }
+        } else {
+            mWakeLock.release();
+            if (mWifiLock != null) {
+                mWifiLock.release();
+            }
+        }
+    }
+
+    private void checkMetered() {
+        final boolean metered = isActiveNetworkMetered();
+        if (metered == mMetered) {
+            return;
+        }
+        mMetered = metered;
+        Log.i(TAG, "checkMetered: metered: " + metered);
+        mListener.onMeteredChanged(metered);
+    }
+
+    private boolean isActiveNetworkMetered() {
+        return mConnectivityManager.isActiveNetworkMetered();
+    }
+}
@@ -0,0 +1,165 @@
+package com.beeitstudio.mediaplayer.service;
+
+import android.support.v4.media.session.PlaybackStateCompat;
+
+import androidx.annotation.IntDef;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Playback state of a {@link PlayerAdapter} with an explicit transition table.
+ * <p>
+ * The player's thread is the only writer; {@link #moveTo(int)} validates and applies a
+ * transition atomically, and reports whether anything changed, so a state is only ever
+ * published once. Any thread may read the current state.
+ */
+final class PlaybackStateMachine {
+
+    static final int IDLE = 0;
+    static final int PREPARING = 1;
+    static final int BUFFERING = 2;
+    static final int PLAYING = 3;
+    static final int PAUSED = 4;
+    static final int STOPPED = 5;
+    static final int ERROR = 6;
+
+    @IntDef({IDLE, PREPARING, BUFFERING, PLAYING, PAUSED, STOPPED, ERROR})
+    @Retention(RetentionPolicy.SOURCE)
+    @interface State {
+    }
+
+    private static final int STATE_COUNT = 7;
+
+    // TRANSITIONS[from][to]. Staying in a state isn't a transition.
+    private static final boolean[][] TRANSITIONS = new boolean[STATE_COUNT][STATE_COUNT];
+
+    private static final int[] SESSION_STATES = {
+            PlaybackStateCompat.STATE_NONE,
+            PlaybackStateCompat.STATE_CONNECTING,
+            PlaybackStateCompat.STATE_BUFFERING,
+            PlaybackStateCompat.STATE_PLAYING,
+            PlaybackStateCompat.STATE_PAUSED,
+            PlaybackStateCompat.STATE_STOPPED,
+            PlaybackStateCompat.STATE_ERROR
+    };
+
+    private static final long[] ACTIONS = new long[STATE_COUNT];
+
+    static {
+        allow(IDLE, PREPARING, STOPPED, ERROR);
+        allow(PREPARING, BUFFERING, PLAYING, PAUSED, STOPPED, ERROR);
+        allow(BUFFERING, PREPARING, PLAYING, PAUSED, STOPPED, ERROR);
+        allow(PLAYING, PREPARING, BUFFERING, PAUSED, STOPPED, ERROR);
+        allow(PAUSED, PREPARING, BUFFERING, PLAYING, STOPPED, ERROR);
+        allow(STOPPED, IDLE, PREPARING, ERROR);
+        allow(ERROR, IDLE, PREPARING, STOPPED);
+
+        final long always = PlaybackStateCompat.ACTION_PLAY_FROM_MEDIA_ID
+                | PlaybackStateCompat.ACTION_PLAY_FROM_SEARCH
+                | PlaybackStateCompat.ACTION_SKIP_TO_NEXT
+                | PlaybackStateCompat.ACTION_SKIP_TO_PREVIOUS;
+        ACTIONS[IDLE] = always
+                | PlaybackStateCompat.ACTION_PLAY
+                | PlaybackStateCompat.ACTION_PLAY_PAUSE
+                | PlaybackStateCompat.ACTION_STOP
+                | PlaybackStateCompat.ACTION_PAUSE;
+        ACTIONS[PREPARING] = always
+                | PlaybackStateCompat.ACTION_STOP
+                | PlaybackStateCompat.ACTION_PAUSE;
+        ACTIONS[BUFFERING] = always
+                | PlaybackStateCompat.ACTION_STOP
+                | PlaybackStateCompat.ACTION_PAUSE
+                | PlaybackStateCompat.ACTION_SEEK_TO;
+        ACTIONS[PLAYING] = ACTIONS[BUFFERING];
+        ACTIONS[PAUSED] = always
+                | PlaybackStateCompat.ACTION_PLAY
+                | PlaybackStateCompat.ACTION_STOP
+                | PlaybackStateCompat.ACTION_SEEK_TO;
+        ACTIONS[STOPPED] = always
+                | PlaybackStateCompat.ACTION_PLAY
+                | PlaybackStateCompat.ACTION_PAUSE;
+        ACTIONS[ERROR] = always
+                | PlaybackStateCompat.ACTION_PLAY
+                | PlaybackStateCompat.ACTION_STOP;
+    }
+
+    private static void allow(int from, int... to) {
+        for (int state : to) {
+            TRANSITIONS[from][state] = true;
+        }
+    }
+
+    private final AtomicInteger mState = new AtomicInteger(IDLE);
+
+    @State
+    int getState() {
+        return mState.get();
+    }
+
+    static boolean isAllowed(@State int from, @State int to) {
+        return TRANSITIONS[from][to];
+    }
+
+    /**
+     * @return true if the state changed and should be published, false if {@code newState}
+     * is the current state or can't be reached from it
+     */
+    boolean moveTo(@State int newState) {
+        while (true) {
+            final int current = mState.get();
+            if (current == newState || !TRANSITIONS[current][newState]) {
+                return false;
+            }
+            if (mState.compareAndSet(current, newState)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return true if the player has to load the media again before it can play: it was
+     * never loaded, or stopped, or failed
+     */
+    boolean needsReload() {
+        final int state = mState.get();
+        return state == IDLE || state == STOPPED || state == ERROR;
+    }
+
+    boolean isActive() {
+        final int state = mState.get();
+        return state == PREPARING || state == BUFFERING || state == PLAYING;
+    }
+
+    @PlaybackStateCompat.State
+    int getSessionState() {
+        return SESSION_STATES[mState.get()];
+    }
+
+    @PlaybackStateCompat.Actions
+    long getAvailableActions() {
+        return ACTIONS[mState.get()];
+    }
+
+    static String toString(@State int state) {
+        switch (state) {
+            case IDLE:
+                return "IDLE";
+            case PREPARING:
+                return "PREPARING";
+            case BUFFERING:
+                return "BUFFERING";
+            case PLAYING:
+                return "PLAYING";
+            case PAUSED:
+                return "PAUSED";
+            case STOPPED:
+                return "STOPPED";
+            case ERROR:
+                return "ERROR";
+            default:
+                return "UNKNOWN(" + state + ")";
+        }
+    }
+}
@@ -5,13 +5,21 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.media.AudioManager;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v4.media.MediaMetadataCompat;
 
 import androidx.annotation.NonNull;
 
+import com.beeitstudio.mediaplayer.BuildConfig;
+
 /**
  * Abstract player implementation that handles playing music with proper handling of headphones
  * and audio focus.
+ * <p>
+ * A player belongs to the thread of the {@link Looper} it's created with: all of its methods
+ * must be called there, and audio focus changes and the becoming noisy broadcast are
+ * delivered there as well.
  */
 public abstract class PlayerAdapter {
 
@@ -23,6 +31,7 @@ public abstract class PlayerAdapter {
     private final Context mApplicationContext;
     private final AudioManager mAudioManager;
     private final AudioFocusHelper mAudioFocusHelper;
+    private final Handler mHandler;
     private boolean mAudioNoisyReceiverRegistered = false;
     private boolean mPlayOnAudioFocus = false;
     private final BroadcastReceiver mAudioNoisyReceiver =
@@ -37,7 +46,8 @@ public abstract class PlayerAdapter {
                 }
             };
 
-    public PlayerAdapter(@NonNull Context context) {
+    public PlayerAdapter(@NonNull Context context, @NonNull Looper looper) {
+        mHandler = new Handler(looper);
         mApplicationContext = context.getApplicationContext();
         mAudioManager = (AudioManager) mApplicationContext.getSystemService(Context.AUDIO_SERVICE);
         mAudioFocusHelper = new AudioFocusHelper();
@@ -50,6 +60,7 @@ public abstract class PlayerAdapter {
     public abstract boolean isPlaying();
 
     public final void play() {
+        checkThread();
         if (mAudioFocusHelper.requestAudioFocus()) {
             registerAudioNoisyReceiver();
             onPlay();
@@ -62,6 +73,7 @@ public abstract class PlayerAdapter {
     protected abstract void onPlay();
 
     public final void pause() {
+        checkThread();
         if (!mPlayOnAudioFocus) {
             mAudioFocusHelper.abandonAudioFocus();
         }
@@ -76,6 +88,7 @@ public abstract class PlayerAdapter {
     protected abstract void onPause();
 
     public final void stop() {
+        checkThread();
         mAudioFocusHelper.abandonAudioFocus();
         unregisterAudioNoisyReceiver();
         onStop();
@@ -89,11 +102,37 @@ public abstract class PlayerAdapter {
 
     public abstract void seekTo(long position);
 
+    /**
+     * Sets the playback volume, 0 to 1. Implementations should ramp to it rather than jump.
+     */
     public abstract void setVolume(float volume);
 
+    /**
+     * Sets the loudness normalization gain of the current media, applied on top of the volume.
+     */
+    public abstract void setNormalizationGain(float gain);
+
+    /**
+     * @return a handler of the thread this player belongs to
+     */
+    protected final Handler getHandler() {
+        return mHandler;
+    }
+
+    /**
+     * Fails fast in debug builds when called off the player's thread.
+     */
+    protected final void checkThread() {
+        if (BuildConfig.DEBUG && Looper.myLooper() != mHandler.getLooper()) {
+            throw new IllegalStateException("Player accessed from " + Thread.currentThread()
+                    + ", it belongs to " + mHandler.getLooper().getThread());
+        }
+    }
+
     private void registerAudioNoisyReceiver() {
         if (!mAudioNoisyReceiverRegistered) {
-            mApplicationContext.registerReceiver(mAudioNoisyReceiver, AUDIO_NOISY_INTENT_FILTER);
+            mApplicationContext.registerReceiver(mAudioNoisyReceiver, AUDIO_NOISY_INTENT_FILTER,
+                    null, mHandler);
             mAudioNoisyReceiverRegistered = true;
         }
     }
@@ -123,13 +162,25 @@ public abstract class PlayerAdapter {
         }
 
         @Override
-        public void onAudioFocusChange(int focusChange) {
+        public void onAudioFocusChange(final int focusChange) {
+            // Delivered on the main thread, handled on the player's.
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    handleAudioFocusChange(focusChange);
+                }
+            });
+        }
+
+        private void handleAudioFocusChange(int focusChange) {
             switch (focusChange) {
                 case AudioManager.AUDIOFOCUS_GAIN:
+                    // Volume changes are ramps in the audio path and cost no IPC, so the
+                    // level is restored unconditionally, also after a duck that was
+                    // followed by a transient loss.
+                    setVolume(MEDIA_VOLUME_DEFAULT);
                     if (mPlayOnAudioFocus && !isPlaying()) {
                         play();
-                    } else if (isPlaying()) {
-                        setVolume(MEDIA_VOLUME_DEFAULT);
                     }
                     mPlayOnAudioFocus = false;
                     break;
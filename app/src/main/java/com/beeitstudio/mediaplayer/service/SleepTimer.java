@@ -0,0 +1,132 @@
+package com.beeitstudio.mediaplayer.service;
+
+import android.content.SharedPreferences;
+import android.os.Bundle;
+import android.os.Handler;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Stops playback after a while or at the end of the current track. The deadline is a single
+ * message on the playback thread's handler: nothing polls, and nothing wakes the device - a
+ * deadline that passes while it sleeps is handled when it wakes up, playback keeps it awake
+ * anyway. The timer is persisted, so it carries over when the service is started again.
+ * <p>
+ * Not thread safe, used on the playback thread only.
+ */
+final class SleepTimer {
+
+    interface Listener {
+        /**
+         * The timer ran out, playback should stop.
+         */
+        void onSleepTimerExpired();
+    }
+
+    private static final String KEY_DEADLINE = "sleep_timer_deadline";
+    private static final String KEY_END_OF_TRACK = "sleep_timer_end_of_track";
+
+    private final SharedPreferences mPreferences;
+    private final Handler mHandler;
+    private final Listener mListener;
+    // In System.currentTimeMillis() time, so it means the same after a restart; 0 if not set.
+    private long mDeadline;
+    private boolean mEndOfTrack;
+    private final Runnable mExpiry = new Runnable() {
+        @Override
+        public void run() {
+            // Uptime stands still while the device sleeps, the wall clock doesn't; the message
+            // may also have been delivered early if the clock was set back.
+            final long remainingMs = mDeadline - System.currentTimeMillis();
+            if (remainingMs > 0) {
+                mHandler.postDelayed(this, remainingMs);
+                return;
+            }
+            cancel();
+            mListener.onSleepTimerExpired();
+        }
+    };
+
+    /**
+     * Restores the timer persisted in {@code preferences}, one that ran out while the service
+     * wasn't running is dropped.
+     */
+    SleepTimer(@NonNull SharedPreferences preferences,
+               @NonNull Handler handler,
+               @NonNull Listener listener) {
+        mPreferences = preferences;
+        mHandler = handler;
+        mListener = listener;
+
+        final long deadline = preferences.getLong(KEY_DEADLINE, 0);
+        if (deadline > System.currentTimeMillis()) {
+            schedule(deadline);
+        } else if (preferences.getBoolean(KEY_END_OF_TRACK, false)) {
+            mEndOfTrack = true;
+        } else if (deadline != 0) {
+            persist();
+        }
+    }
+
+    /**
+     * Stops playback {@code durationMs} from now, replacing the current timer.
+     */
+    void setDuration(long durationMs) {
+        mHandler.removeCallbacks(mExpiry);
+        mEndOfTrack = false;
+        schedule(System.currentTimeMillis() + durationMs);
+        persist();
+    }
+
+    /**
+     * Stops playback when the current track ends, replacing the current timer.
+     */
+    void setEndOfTrack() {
+        mHandler.removeCallbacks(mExpiry);
+        mDeadline = 0;
+        mEndOfTrack = true;
+        persist();
+    }
+
+    void cancel() {
+        mHandler.removeCallbacks(mExpiry);
+        mDeadline = 0;
+        mEndOfTrack = false;
+        persist();
+    }
+
+    /**
+     * @return true if the timer was waiting for the end of the track, it's done now
+     */
+    boolean onTrackEnded() {
+        if (!mEndOfTrack) {
+            return false;
+        }
+        cancel();
+        return true;
+    }
+
+    /**
+     * Adds the timer to the session extras, nothing if it isn't set.
+     */
+    void putExtras(@NonNull Bundle extras) {
+        if (mDeadline != 0) {
+            extras.putLong(AudioLibrary.EXTRA_SLEEP_TIMER_DEADLINE, mDeadline);
+        }
+        if (mEndOfTrack) {
+            extras.putBoolean(AudioLibrary.EXTRA_SLEEP_AT_END_OF_TRACK, true);
+        }
+    }
+
+    private void schedule(long deadline) {
+        mDeadline = deadline;
+        mHandler.postDelayed(mExpiry, Math.max(0, deadline - System.currentTimeMillis()));
+    }
+
+    private void persist() {
+        mPreferences.edit()
+                .putLong(KEY_DEADLINE, mDeadline)
+                .putBoolean(KEY_END_OF_TRACK, mEndOfTrack)
+                .apply();
+    }
+}
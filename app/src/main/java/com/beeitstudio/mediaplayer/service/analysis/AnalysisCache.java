@@ -0,0 +1,121 @@
+package com.beeitstudio.mediaplayer.service.analysis;
+
+import android.util.Log;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.beeitstudio.mediaplayer.service.Hashes;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Analysis results on disk, one small file (under 300 bytes) per track, named after the
+ * track's fingerprint. Recently used results are also kept in memory.
+ */
+public class AnalysisCache {
+
+    private static final String TAG = "oli_" + AnalysisCache.class.getSimpleName();
+
+    private static final int MAGIC = 0x57464D43; // "WFMC"
+    private static final int FORMAT_VERSION = 1;
+    private static final int MEMORY_ENTRIES = 32;
+
+    private final File mDirectory;
+    private final LruCache<String, TrackAnalysis> mMemory = new LruCache<>(MEMORY_ENTRIES);
+
+    public AnalysisCache(@NonNull File directory) {
+        mDirectory = directory;
+    }
+
+    /**
+     * Fingerprint of a local file, changes whenever the file is replaced or edited.
+     */
+    @NonNull
+    public static String fingerprint(@NonNull File file) {
+        return file.getAbsolutePath() + '|' + file.length() + '|' + file.lastModified();
+    }
+
+    /**
+     * @return the result from memory only, so it's safe to call on the main thread
+     */
+    @Nullable
+    public TrackAnalysis getFromMemory(@NonNull String fingerprint) {
+        return mMemory.get(fingerprint);
+    }
+
+    @Nullable
+    public TrackAnalysis get(@NonNull String fingerprint) {
+        final TrackAnalysis cached = mMemory.get(fingerprint);
+        if (cached != null) {
+            return cached;
+        }
+        final File file = getFile(fingerprint);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION
+                    || !fingerprint.equals(in.readUTF())) {
+                return null;
+            }
+            final float loudness = in.readFloat();
+            final float peak = in.readFloat();
+            final byte[] waveform = new byte[in.readUnsignedShort()];
+            in.readFully(waveform);
+            final TrackAnalysis analysis = new TrackAnalysis(waveform, loudness, peak);
+            mMemory.put(fingerprint, analysis);
+            return analysis;
+        } catch (IOException e) {
+            Log.e(TAG, "get: " + e.getMessage());
+            return null;
+        }
+    }
+
+    public boolean contains(@NonNull String fingerprint) {
+        return mMemory.get(fingerprint) != null || getFile(fingerprint).isFile();
+    }
+
+    public void put(@NonNull String fingerprint, @NonNull TrackAnalysis analysis) {
+        mMemory.put(fingerprint, analysis);
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.e(TAG, "put: can't create " + mDirectory);
+            return;
+        }
+
+        final File file = getFile(fingerprint);
+        final File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(fingerprint);
+            out.writeFloat(analysis.integratedLoudness);
+            out.writeFloat(analysis.peak);
+            out.writeShort(analysis.waveform.length);
+            out.write(analysis.waveform);
+        } catch (IOException e) {
+            Log.e(TAG, "put: " + e.getMessage());
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            Log.e(TAG, "put: can't replace " + file);
+            tmp.delete();
+        }
+    }
+
+    private File getFile(String fingerprint) {
+        // The full fingerprint is stored in the file, collisions of the name only cost a miss.
+        return new File(mDirectory, Long.toHexString(Hashes.fnv1a(fingerprint)) + ".wfm");
+    }
+}
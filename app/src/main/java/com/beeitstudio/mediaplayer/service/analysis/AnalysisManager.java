@@ -0,0 +1,150 @@
+package com.beeitstudio.mediaplayer.service.analysis;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Background analysis pipeline: every local track is decoded once on a single low priority
+ * thread and the result is kept in an {@link AnalysisCache}, so playback and the UI only ever
+ * look results up.
+ * <p>
+ * Tracks about to be played are requested ahead of the background backlog; a backlog track
+ * that is being decoded at that moment is abandoned and queued again.
+ */
+public class AnalysisManager {
+
+    private static final String TAG = "oli_" + AnalysisManager.class.getSimpleName();
+
+    public interface Callback {
+        /**
+         * Called on the requesting thread once the analysis of {@code mediaId} is available.
+         */
+        void onAnalysisReady(@NonNull String mediaId, @NonNull TrackAnalysis analysis);
+    }
+
+    private final AnalysisCache mCache;
+    private final TrackAnalyzer mAnalyzer = new TrackAnalyzer();
+    private final LinkedBlockingDeque<Job> mJobs = new LinkedBlockingDeque<>();
+    private final Set<String> mQueuedPaths =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final AtomicInteger mPendingRequests = new AtomicInteger();
+    private final Thread mThread;
+    private volatile boolean mReleased;
+
+    public AnalysisManager(@NonNull File cacheDirectory) {
+        mCache = new AnalysisCache(cacheDirectory);
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runJobs();
+            }
+        }, "AnalysisManager");
+        mThread.start();
+    }
+
+    /**
+     * Delivers the analysis of {@code file} to {@code callback}, decoding it first if it isn't
+     * cached yet. Nothing is delivered if the file can't be decoded. Must be called on a thread
+     * with a {@link Looper}, the callback runs there.
+     */
+    public void request(@NonNull String mediaId, @NonNull File file, @NonNull Callback callback) {
+        mPendingRequests.incrementAndGet();
+        mJobs.offerFirst(new Job(mediaId, file, callback, new Handler(Looper.myLooper())));
+    }
+
+    /**
+     * Queues {@code file} for analysis in the background unless it's queued already.
+     */
+    public void enqueue(@NonNull File file) {
+        if (mQueuedPaths.add(file.getAbsolutePath())) {
+            mJobs.offerLast(new Job(null, file, null, null));
+        }
+    }
+
+    public void release() {
+        mReleased = true;
+        mThread.interrupt();
+    }
+
+    private void runJobs() {
+        while (!mReleased) {
+            final Job job;
+            try {
+                job = mJobs.takeFirst();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (job.callback != null) {
+                mPendingRequests.decrementAndGet();
+            }
+            run(job);
+        }
+    }
+
+    private void run(final Job job) {
+        final String fingerprint = AnalysisCache.fingerprint(job.file);
+        TrackAnalysis analysis = mCache.get(fingerprint);
+        if (analysis == null) {
+            final boolean background = job.callback == null;
+            final long startMs = System.currentTimeMillis();
+            analysis = mAnalyzer.analyze(job.file, new TrackAnalyzer.CancellationSignal() {
+                @Override
+                public boolean isCancelled() {
+                    return mReleased || (background && mPendingRequests.get() > 0);
+                }
+            });
+            if (analysis == null) {
+                if (background && !mReleased && mPendingRequests.get() > 0) {
+                    // Gave way to a track that's about to be played, try again later.
+                    mJobs.offerLast(job);
+                } else {
+                    mQueuedPaths.remove(job.file.getAbsolutePath());
+                }
+                return;
+            }
+            mCache.put(fingerprint, analysis);
+            Log.d(TAG, "run: analysed " + job.file.getName() + " in "
+                    + (System.currentTimeMillis() - startMs) + "ms, "
+                    + analysis.integratedLoudness + " LUFS");
+        }
+        mQueuedPaths.remove(job.file.getAbsolutePath());
+
+        if (job.callback != null) {
+            final TrackAnalysis result = analysis;
+            job.handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mReleased) {
+                        job.callback.onAnalysisReady(job.mediaId, result);
+                    }
+                }
+            });
+        }
+    }
+
+    private static final class Job {
+        private final String mediaId;
+        private final File file;
+        private final Callback callback;
+        private final Handler handler;
+
+        private Job(String mediaId, File file, Callback callback, Handler handler) {
+            this.mediaId = mediaId;
+            this.file = file;
+            this.callback = callback;
+            this.handler = handler;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.beeitstudio.mediaplayer.service.analysis;
+
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * Integrated loudness after EBU R128 / ITU-R BS.1770-4: K-weighted mean square over 400 ms
+ * blocks overlapping by 75%, with the absolute (-70 LUFS) and relative (-10 LU) gates. Also
+ * tracks the sample peak.
+ * <p>
+ * Fed with interleaved 16 bit PCM, not thread safe.
+ */
+public class LoudnessMeter {
+
+    private static final double ABSOLUTE_GATE = -70.0;
+    private static final double RELATIVE_GATE = -10.0;
+    private static final int SUB_BLOCKS_PER_BLOCK = 4; // 400 ms blocks in 100 ms steps
+
+    private final int mChannels;
+    private final int mFramesPerSubBlock;
+    private final double[] mWeights;
+    // Two cascaded biquads per channel: the high shelf and the high pass of the K filter.
+    private final Biquad[] mShelf;
+    private final Biquad[] mHighPass;
+
+    private final double[] mSubBlocks = new double[SUB_BLOCKS_PER_BLOCK];
+    private int mSubBlockCount;
+    private double mSubBlockEnergy;
+    private int mSubBlockFrames;
+    private int mChannel;
+
+    private double[] mBlocks = new double[1024];
+    private int mBlockCount;
+    private int mPeak;
+
+    public LoudnessMeter(int sampleRate, int channels) {
+        mChannels = channels;
+        mFramesPerSubBlock = Math.max(1, sampleRate / 10);
+        mWeights = new double[channels];
+        mShelf = new Biquad[channels];
+        mHighPass = new Biquad[channels];
+        for (int i = 0; i < channels; i++) {
+            // L R C LFE Ls Rs: the LFE channel doesn't count, surrounds weigh +1.5 dB.
+            mWeights[i] = channels == 6 && i == 3 ? 0 : channels == 6 && i > 3 ? 1.41 : 1.0;
+            mShelf[i] = Biquad.highShelf(sampleRate);
+            mHighPass[i] = Biquad.highPass(sampleRate);
+        }
+    }
+
+    /**
+     * Processes the remaining samples of {@code pcm}, which may end in the middle of a frame.
+     */
+    public void process(ShortBuffer pcm) {
+        while (pcm.hasRemaining()) {
+            final short sample = pcm.get();
+            final int magnitude = Math.abs((int) sample);
+            if (magnitude > mPeak) {
+                mPeak = magnitude;
+            }
+
+            final double x = sample / 32768.0;
+            final double y = mHighPass[mChannel].filter(mShelf[mChannel].filter(x));
+            mSubBlockEnergy += mWeights[mChannel] * y * y;
+
+            if (++mChannel == mChannels) {
+                mChannel = 0;
+                if (++mSubBlockFrames == mFramesPerSubBlock) {
+                    endSubBlock();
+                }
+            }
+        }
+    }
+
+    private void endSubBlock() {
+        mSubBlocks[mSubBlockCount % SUB_BLOCKS_PER_BLOCK] = mSubBlockEnergy / mSubBlockFrames;
+        mSubBlockCount++;
+        mSubBlockEnergy = 0;
+        mSubBlockFrames = 0;
+
+        if (mSubBlockCount >= SUB_BLOCKS_PER_BLOCK) {
+            double block = 0;
+            for (double subBlock : mSubBlocks) {
+                block += subBlock;
+            }
+            if (mBlockCount == mBlocks.length) {
+                mBlocks = Arrays.copyOf(mBlocks, mBlockCount * 2);
+            }
+            mBlocks[mBlockCount++] = block / SUB_BLOCKS_PER_BLOCK;
+        }
+    }
+
+    /**
+     * @return the gated loudness in LUFS, {@link Double#NEGATIVE_INFINITY} if no block passed
+     * the gates
+     */
+    public double getIntegratedLoudness() {
+        final double absoluteThreshold = toEnergy(ABSOLUTE_GATE);
+        double sum = 0;
+        int count = 0;
+        for (int i = 0; i < mBlockCount; i++) {
+            if (mBlocks[i] > absoluteThreshold) {
+                sum += mBlocks[i];
+                count++;
+            }
+        }
+        if (count == 0) {
+            return Double.NEGATIVE_INFINITY;
+        }
+
+        final double relativeThreshold = toEnergy(toLoudness(sum / count) + RELATIVE_GATE);
+        final double gate = Math.max(absoluteThreshold, relativeThreshold);
+        sum = 0;
+        count = 0;
+        for (int i = 0; i < mBlockCount; i++) {
+            if (mBlocks[i] > gate) {
+                sum += mBlocks[i];
+                count++;
+            }
+        }
+        return count == 0 ? Double.NEGATIVE_INFINITY : toLoudness(sum / count);
+    }
+
+    /**
+     * @return the sample peak, 0 to 1
+     */
+    public float getPeak() {
+        return Math.min(1f, mPeak / 32768f);
+    }
+
+    private static double toLoudness(double energy) {
+        return -0.691 + 10 * Math.log10(energy);
+    }
+
+    private static double toEnergy(double loudness) {
+        return Math.pow(10, (loudness + 0.691) / 10);
+    }
+
+    private static final class Biquad {
+
+        private final double mB0, mB1, mB2, mA1, mA2;
+        private double mZ1, mZ2;
+
+        private Biquad(double b0, double b1, double b2, double a1, double a2) {
+            mB0 = b0;
+            mB1 = b1;
+            mB2 = b2;
+            mA1 = a1;
+            mA2 = a2;
+        }
+
+        // Pre-filter of BS.1770, derived for any sample rate rather than the tabulated 48 kHz.
+        static Biquad highShelf(int sampleRate) {
+            final double f0 = 1681.974450955533;
+            final double gain = 3.999843853973347;
+            final double q = 0.7071752369554196;
+            final double k = Math.tan(Math.PI * f0 / sampleRate);
+            final double vh = Math.pow(10, gain / 20);
+            final double vb = Math.pow(vh, 0.4996667741545416);
+            final double a0 = 1 + k / q + k * k;
+            return new Biquad(
+                    (vh + vb * k / q + k * k) / a0,
+                    2 * (k * k - vh) / a0,
+                    (vh - vb * k / q + k * k) / a0,
+                    2 * (k * k - 1) / a0,
+                    (1 - k / q + k * k) / a0);
+        }
+
+        // RLB weighting curve of BS.1770.
+        static Biquad highPass(int sampleRate) {
+            final double f0 = 38.13547087602444;
+            final double q = 0.5003270373238773;
+            final double k = Math.tan(Math.PI * f0 / sampleRate);
+            final double a0 = 1 + k / q + k * k;
+            return new Biquad(1, -2, 1, 2 * (k * k - 1) / a0, (1 - k / q + k * k) / a0);
+        }
+
+        double filter(double x) {
+            // Transposed direct form II.
+            final double y = mB0 * x + mZ1;
+            mZ1 = mB1 * x - mA1 * y + mZ2;
+            mZ2 = mB2 * x - mA2 * y;
+            return y;
+        }
+    }
+}
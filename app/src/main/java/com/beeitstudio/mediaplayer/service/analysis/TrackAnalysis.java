@@ -0,0 +1,55 @@
+package com.beeitstudio.mediaplayer.service.analysis;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Result of analysing one track: a downsampled peak waveform and its loudness.
+ */
+public final class TrackAnalysis {
+
+    /**
+     * Number of waveform buckets stored per track.
+     */
+    public static final int WAVEFORM_SIZE = 256;
+
+    /**
+     * ReplayGain 2.0 reference level, in LUFS.
+     */
+    public static final float REFERENCE_LOUDNESS = -18f;
+
+    /**
+     * Peak amplitude per bucket, 0 for silence to 255 for full scale.
+     */
+    @NonNull
+    public final byte[] waveform;
+    /**
+     * Integrated loudness (EBU R128) in LUFS, or {@link Float#NEGATIVE_INFINITY} when the
+     * track is silent.
+     */
+    public final float integratedLoudness;
+    /**
+     * Sample peak, 0 to 1.
+     */
+    public final float peak;
+
+    public TrackAnalysis(@NonNull byte[] waveform, float integratedLoudness, float peak) {
+        this.waveform = waveform;
+        this.integratedLoudness = integratedLoudness;
+        this.peak = peak;
+    }
+
+    /**
+     * Linear gain that brings the track to {@code targetLoudness}, never more than the peak
+     * allows without clipping.
+     */
+    public float getNormalizationGain(float targetLoudness) {
+        if (Float.isInfinite(integratedLoudness) || Float.isNaN(integratedLoudness)) {
+            return 1f;
+        }
+        float gain = (float) Math.pow(10, (targetLoudness - integratedLoudness) / 20f);
+        if (peak > 0) {
+            gain = Math.min(gain, 1f / peak);
+        }
+        return gain;
+    }
+}
@@ -0,0 +1,142 @@
+package com.beeitstudio.mediaplayer.service.analysis;
+
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * Decodes a track once with {@link MediaCodec} and runs the PCM through a
+ * {@link LoudnessMeter} and a {@link WaveformBuilder}.
+ */
+public class TrackAnalyzer {
+
+    private static final String TAG = "oli_" + TrackAnalyzer.class.getSimpleName();
+
+    private static final long TIMEOUT_US = 10000;
+
+    /**
+     * @return the analysis, or null if the file has no decodable audio track or
+     * {@code cancelled} was set while decoding
+     */
+    @Nullable
+    @WorkerThread
+    public TrackAnalysis analyze(@NonNull File file, @NonNull CancellationSignal cancelled) {
+        final MediaExtractor extractor = new MediaExtractor();
+        MediaCodec codec = null;
+        try {
+            extractor.setDataSource(file.getAbsolutePath());
+            final int track = selectAudioTrack(extractor);
+            if (track < 0) {
+                return null;
+            }
+            extractor.selectTrack(track);
+            final MediaFormat format = extractor.getTrackFormat(track);
+
+            codec = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+            codec.configure(format, null, null, 0);
+            codec.start();
+            return decode(extractor, codec, format, cancelled);
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "analyze: " + file + ": " + e.getMessage());
+            return null;
+        } finally {
+            if (codec != null) {
+                codec.release();
+            }
+            extractor.release();
+        }
+    }
+
+    @SuppressWarnings("deprecation") // getInputBuffers/getOutputBuffers, needed before API 21
+    @Nullable
+    private static TrackAnalysis decode(MediaExtractor extractor, MediaCodec codec,
+                                        MediaFormat format, CancellationSignal cancelled) {
+        ByteBuffer[] inputBuffers = codec.getInputBuffers();
+        ByteBuffer[] outputBuffers = codec.getOutputBuffers();
+        final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+
+        int sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+        int channels = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+        LoudnessMeter meter = null;
+        WaveformBuilder waveform = null;
+
+        boolean inputDone = false;
+        while (!cancelled.isCancelled()) {
+            if (!inputDone) {
+                final int inputIndex = codec.dequeueInputBuffer(TIMEOUT_US);
+                if (inputIndex >= 0) {
+                    final int size = extractor.readSampleData(inputBuffers[inputIndex], 0);
+                    if (size < 0) {
+                        codec.queueInputBuffer(inputIndex, 0, 0, 0,
+                                MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                        inputDone = true;
+                    } else {
+                        codec.queueInputBuffer(inputIndex, 0, size, extractor.getSampleTime(), 0);
+                        extractor.advance();
+                    }
+                }
+            }
+
+            final int outputIndex = codec.dequeueOutputBuffer(info, TIMEOUT_US);
+            if (outputIndex == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+                outputBuffers = codec.getOutputBuffers();
+            } else if (outputIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                // The decoder's output format is authoritative, e.g. for HE-AAC.
+                final MediaFormat outputFormat = codec.getOutputFormat();
+                sampleRate = outputFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+                channels = outputFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+            } else if (outputIndex >= 0) {
+                if (info.size > 0) {
+                    if (meter == null) {
+                        meter = new LoudnessMeter(sampleRate, channels);
+                        waveform = new WaveformBuilder(sampleRate, channels);
+                    }
+                    final ByteBuffer output = outputBuffers[outputIndex];
+                    output.position(info.offset);
+                    output.limit(info.offset + info.size);
+                    final ShortBuffer pcm = output.slice()
+                            .order(ByteOrder.nativeOrder())
+                            .asShortBuffer();
+                    meter.process(pcm);
+                    pcm.rewind();
+                    waveform.process(pcm);
+                }
+                codec.releaseOutputBuffer(outputIndex, false);
+
+                if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    return meter == null ? null : new TrackAnalysis(waveform.build(),
+                            (float) meter.getIntegratedLoudness(), meter.getPeak());
+                }
+            }
+        }
+        return null;
+    }
+
+    private static int selectAudioTrack(MediaExtractor extractor) {
+        for (int i = 0; i < extractor.getTrackCount(); i++) {
+            final String mime = extractor.getTrackFormat(i).getString(MediaFormat.KEY_MIME);
+            if (mime != null && mime.startsWith("audio/")) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Lets a caller abandon a decode that's no longer needed.
+     */
+    public interface CancellationSignal {
+        boolean isCancelled();
+    }
+}
@@ -0,0 +1,69 @@
+package com.beeitstudio.mediaplayer.service.analysis;
+
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * Collects the peak of every short window of interleaved 16 bit PCM and reduces them to
+ * {@link TrackAnalysis#WAVEFORM_SIZE} buckets once the length of the track is known.
+ */
+public class WaveformBuilder {
+
+    private static final int WINDOWS_PER_SECOND = 50;
+
+    private final int mSamplesPerWindow;
+    private int mWindowSamples;
+    private int mWindowPeak;
+
+    private short[] mWindows = new short[4096];
+    private int mWindowCount;
+
+    public WaveformBuilder(int sampleRate, int channels) {
+        mSamplesPerWindow = Math.max(1, sampleRate / WINDOWS_PER_SECOND) * channels;
+    }
+
+    public void process(ShortBuffer pcm) {
+        while (pcm.hasRemaining()) {
+            final int magnitude = Math.abs((int) pcm.get());
+            if (magnitude > mWindowPeak) {
+                mWindowPeak = magnitude;
+            }
+            if (++mWindowSamples == mSamplesPerWindow) {
+                endWindow();
+            }
+        }
+    }
+
+    private void endWindow() {
+        if (mWindowCount == mWindows.length) {
+            mWindows = Arrays.copyOf(mWindows, mWindowCount * 2);
+        }
+        mWindows[mWindowCount++] = (short) Math.min(Short.MAX_VALUE, mWindowPeak);
+        mWindowPeak = 0;
+        mWindowSamples = 0;
+    }
+
+    /**
+     * @return one peak per bucket scaled to 0..255, buckets without audio are 0
+     */
+    public byte[] build() {
+        if (mWindowSamples > 0) {
+            endWindow();
+        }
+        final byte[] waveform = new byte[TrackAnalysis.WAVEFORM_SIZE];
+        if (mWindowCount == 0) {
+            return waveform;
+        }
+        for (int bucket = 0; bucket < waveform.length; bucket++) {
+            final int start = (int) ((long) bucket * mWindowCount / waveform.length);
+            final int end = Math.max(start + 1,
+                    (int) ((long) (bucket + 1) * mWindowCount / waveform.length));
+            int peak = 0;
+            for (int i = start; i < end && i < mWindowCount; i++) {
+                peak = Math.max(peak, mWindows[i]);
+            }
+            waveform[bucket] = (byte) (peak * 255 / Short.MAX_VALUE);
+        }
+        return waveform;
+    }
+}
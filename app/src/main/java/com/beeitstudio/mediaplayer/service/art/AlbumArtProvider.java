@@ -0,0 +1,399 @@
+package com.beeitstudio.mediaplayer.service.art;
+
+import android.content.ClipDescription;
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.Resources;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Point;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.beeitstudio.mediaplayer.BuildConfig;
+import com.beeitstudio.mediaplayer.service.AudioLibrary;
+import com.beeitstudio.mediaplayer.service.Hashes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves the artwork of catalog entries under {@link AudioLibrary#getArtUri(String)}, so the
+ * session, browse results and notifications only carry a URI and every consumer - the lock
+ * screen, Auto, Wear or the app itself - loads the size it needs.
+ * <p>
+ * Images are scaled down to the next of a few fixed sizes, the requested one is taken from the
+ * {@link #PARAMETER_SIZE} query parameter or the size hint passed to
+ * {@link #openTypedAssetFile(Uri, String, Bundle)}. Scaled images are kept on disk: a cached
+ * image is opened directly, a new one is streamed through a pipe while it's encoded. An entry
+ * without artwork fails to open, which is remembered for the source as it is.
+ * <p>
+ * Exported without a permission, controllers in other apps couldn't load the art otherwise;
+ * it's read only and serves nothing but artwork.
+ */
+public class AlbumArtProvider extends ContentProvider {
+
+    private static final String TAG = "oli_" + AlbumArtProvider.class.getSimpleName();
+
+    /**
+     * Query parameter: the largest width or height the consumer will show, in pixels.
+     */
+    public static final String PARAMETER_SIZE = "size";
+
+    private static final String MIME_TYPE = "image/jpeg";
+    // ContentResolver.EXTRA_SIZE, a Point, public from API 21 on.
+    private static final String EXTRA_SIZE = "android.content.extra.SIZE";
+    // Requests are rounded up to one of these, so consumers share cached images.
+    private static final int[] SIZES = {128, 256, 512, 1024};
+    private static final int DEFAULT_SIZE = 512;
+    private static final int JPEG_QUALITY = 90;
+    private static final long MAX_CACHE_BYTES = 16 * 1024 * 1024;
+    private static final int MAX_NO_ART = 256;
+
+    private File mDirectory;
+    // Scales images for requests that miss the cache, the threads go away when idle.
+    private final Executor mExecutor = new ThreadPoolExecutor(
+            0, 2, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+    // Keys of sources found without artwork, least recently asked for first, so a file without
+    // an embedded picture isn't read again on every request. The key changes with the file.
+    private final Map<String, Boolean> mNoArt =
+            new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                    return size() > MAX_NO_ART;
+                }
+            };
+
+    @Override
+    public boolean onCreate() {
+        mDirectory = new File(getContext().getCacheDir(), "art");
+        return true;
+    }
+
+    @Nullable
+    @Override
+    public String getType(@NonNull Uri uri) {
+        return MIME_TYPE;
+    }
+
+    @Nullable
+    @Override
+    public String[] getStreamTypes(@NonNull Uri uri, @NonNull String mimeTypeFilter) {
+        return ClipDescription.compareMimeTypes(MIME_TYPE, mimeTypeFilter)
+                ? new String[]{MIME_TYPE}
+                : null;
+    }
+
+    @Nullable
+    @Override
+    public ParcelFileDescriptor openFile(@NonNull Uri uri, @NonNull String mode)
+            throws FileNotFoundException {
+        return open(uri, mode, getRequestedSize(uri, null));
+    }
+
+    @Nullable
+    @Override
+    public AssetFileDescriptor openTypedAssetFile(@NonNull Uri uri,
+                                                  @NonNull String mimeTypeFilter,
+                                                  @Nullable Bundle opts)
+            throws FileNotFoundException {
+        if (!ClipDescription.compareMimeTypes(MIME_TYPE, mimeTypeFilter)) {
+            return super.openTypedAssetFile(uri, mimeTypeFilter, opts);
+        }
+        return new AssetFileDescriptor(open(uri, "r", getRequestedSize(uri, opts)),
+                0, AssetFileDescriptor.UNKNOWN_LENGTH);
+    }
+
+    private ParcelFileDescriptor open(Uri uri, String mode, int requestedSize)
+            throws FileNotFoundException {
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("Artwork is read only: " + uri);
+        }
+        final String mediaId = uri.getLastPathSegment();
+        final ArtSource source = mediaId != null
+                ? ArtSource.of(getContext().getResources(), mediaId)
+                : null;
+        if (source == null) {
+            throw new FileNotFoundException("No artwork for " + uri);
+        }
+
+        final int size = bucket(requestedSize);
+        final File cached = new File(mDirectory,
+                Long.toHexString(Hashes.fnv1a(source.key)) + "_" + size + ".jpg");
+        if (cached.isFile()) {
+            // Recently used images survive trimming the longest.
+            cached.setLastModified(System.currentTimeMillis());
+            return ParcelFileDescriptor.open(cached, ParcelFileDescriptor.MODE_READ_ONLY);
+        }
+        // Checked before the pipe is handed out, an empty one would read as a broken image.
+        if (!hasArt(source)) {
+            throw new FileNotFoundException("No artwork for " + uri);
+        }
+
+        final ParcelFileDescriptor[] pipe;
+        try {
+            pipe = ParcelFileDescriptor.createPipe();
+        } catch (IOException e) {
+            throw new FileNotFoundException("Can't open a pipe: " + e.getMessage());
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try (OutputStream out = new ParcelFileDescriptor.AutoCloseOutputStream(pipe[1])) {
+                    final byte[] image = scale(source, size);
+                    if (image != null) {
+                        out.write(image);
+                        store(cached, image);
+                    }
+                } catch (IOException e) {
+                    // The reader went away before it had the whole image.
+                    Log.d(TAG, "open: " + e.getMessage());
+                }
+            }
+        });
+        return pipe[0];
+    }
+
+    // The source keeps what it read, scaling it afterwards doesn't read the file again.
+    private boolean hasArt(ArtSource source) {
+        synchronized (mNoArt) {
+            if (mNoArt.get(source.key) != null) {
+                return false;
+            }
+        }
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        source.decode(options);
+        if (options.outWidth > 0 && options.outHeight > 0) {
+            return true;
+        }
+        synchronized (mNoArt) {
+            mNoArt.put(source.key, Boolean.TRUE);
+        }
+        return false;
+    }
+
+    @Nullable
+    private static byte[] scale(ArtSource source, int size) {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        source.decode(options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        // Decode at the smallest power of two reduction still at least as large as asked.
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = 1;
+        while (Math.max(options.outWidth, options.outHeight) / (options.inSampleSize * 2)
+                >= size) {
+            options.inSampleSize *= 2;
+        }
+        Bitmap bitmap = source.decode(options);
+        if (bitmap == null) {
+            return null;
+        }
+        final int longest = Math.max(bitmap.getWidth(), bitmap.getHeight());
+        if (longest > size) {
+            final Bitmap scaled = Bitmap.createScaledBitmap(bitmap,
+                    bitmap.getWidth() * size / longest, bitmap.getHeight() * size / longest,
+                    true);
+            bitmap.recycle();
+            bitmap = scaled;
+        }
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+        bitmap.recycle();
+        return out.toByteArray();
+    }
+
+    private void store(File file, byte[] image) {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.e(TAG, "store: can't create " + mDirectory);
+            return;
+        }
+        final File tmp;
+        try {
+            tmp = File.createTempFile(file.getName(), ".tmp", mDirectory);
+        } catch (IOException e) {
+            Log.e(TAG, "store: " + e.getMessage());
+            return;
+        }
+        try (OutputStream out = new FileOutputStream(tmp)) {
+            out.write(image);
+        } catch (IOException e) {
+            Log.e(TAG, "store: " + e.getMessage());
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            return;
+        }
+        trim();
+    }
+
+    // Deletes the least recently used images until the cache fits its budget.
+    private synchronized void trim() {
+        final File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= MAX_CACHE_BYTES) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (int i = 0; i < files.length && total > MAX_CACHE_BYTES; i++) {
+            total -= files[i].length();
+            files[i].delete();
+        }
+    }
+
+    private static int getRequestedSize(Uri uri, @Nullable Bundle opts) {
+        final Point hint = opts != null ? (Point) opts.getParcelable(EXTRA_SIZE) : null;
+        if (hint != null) {
+            return Math.max(hint.x, hint.y);
+        }
+        final String size = uri.getQueryParameter(PARAMETER_SIZE);
+        if (size != null) {
+            try {
+                return Integer.parseInt(size);
+            } catch (NumberFormatException e) {
+                Log.d(TAG, "getRequestedSize: " + size);
+            }
+        }
+        return DEFAULT_SIZE;
+    }
+
+    private static int bucket(int size) {
+        for (int bucket : SIZES) {
+            if (size <= bucket) {
+                return bucket;
+            }
+        }
+        return SIZES[SIZES.length - 1];
+    }
+
+    @Nullable
+    @Override
+    public Cursor query(@NonNull Uri uri, @Nullable String[] projection,
+                        @Nullable String selection, @Nullable String[] selectionArgs,
+                        @Nullable String sortOrder) {
+        return null;
+    }
+
+    @Nullable
+    @Override
+    public Uri insert(@NonNull Uri uri, @Nullable ContentValues values) {
+        throw new UnsupportedOperationException("Artwork is read only");
+    }
+
+    @Override
+    public int delete(@NonNull Uri uri, @Nullable String selection,
+                      @Nullable String[] selectionArgs) {
+        throw new UnsupportedOperationException("Artwork is read only");
+    }
+
+    @Override
+    public int update(@NonNull Uri uri, @Nullable ContentValues values,
+                      @Nullable String selection, @Nullable String[] selectionArgs) {
+        throw new UnsupportedOperationException("Artwork is read only");
+    }
+
+    /**
+     * Where the artwork of an entry comes from: a bundled drawable, or the picture embedded in
+     * a local file.
+     */
+    private abstract static class ArtSource {
+
+        // Changes whenever the image would, names the cached copies.
+        final String key;
+
+        ArtSource(String key) {
+            this.key = key;
+        }
+
+        @Nullable
+        abstract Bitmap decode(BitmapFactory.Options options);
+
+        @Nullable
+        static ArtSource of(final Resources resources, final String mediaId) {
+            final int resId = AudioLibrary.getAlbumRes(mediaId);
+            if (resId != 0) {
+                return new ArtSource(mediaId + '|' + BuildConfig.VERSION_CODE) {
+                    @Override
+                    Bitmap decode(BitmapFactory.Options options) {
+                        return BitmapFactory.decodeResource(resources, resId, options);
+                    }
+                };
+            }
+
+            final String uri = AudioLibrary.getMediaUri(mediaId);
+            final String path = uri != null ? Uri.parse(uri).getPath() : null;
+            if (path == null || !uri.startsWith("file:")) {
+                return null;
+            }
+            final File file = new File(path);
+            if (!file.isFile()) {
+                return null;
+            }
+            return new ArtSource(mediaId + '|' + file.length() + '|' + file.lastModified()) {
+                private byte[] mPicture;
+
+                @Override
+                Bitmap decode(BitmapFactory.Options options) {
+                    if (mPicture == null) {
+                        mPicture = readEmbeddedPicture(file);
+                    }
+                    return mPicture != null && mPicture.length > 0
+                            ? BitmapFactory.decodeByteArray(mPicture, 0, mPicture.length, options)
+                            : null;
+                }
+            };
+        }
+
+        private static byte[] readEmbeddedPicture(File file) {
+            final MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+            try {
+                retriever.setDataSource(file.getAbsolutePath());
+                final byte[] picture = retriever.getEmbeddedPicture();
+                return picture != null ? picture : new byte[0];
+            } catch (RuntimeException e) {
+                Log.d(TAG, "readEmbeddedPicture: " + file + ": " + e.getMessage());
+                return new byte[0];
+            } finally {
+                retriever.release();
+            }
+        }
+    }
+}
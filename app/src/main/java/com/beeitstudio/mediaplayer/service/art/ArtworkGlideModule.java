@@ -0,0 +1,31 @@
+package com.beeitstudio.mediaplayer.service.art;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import com.bumptech.glide.GlideBuilder;
+import com.bumptech.glide.annotation.GlideModule;
+import com.bumptech.glide.load.engine.cache.InternalCacheDiskCacheFactory;
+import com.bumptech.glide.module.AppGlideModule;
+
+/**
+ * Glide's configuration for {@link ArtworkLoader}. The memory cache keeps Glide's default size,
+ * a few screens worth of images.
+ */
+@GlideModule
+public final class ArtworkGlideModule extends AppGlideModule {
+
+    private static final long DISK_CACHE_BYTES = 64 * 1024 * 1024;
+
+    @Override
+    public void applyOptions(@NonNull Context context, @NonNull GlideBuilder builder) {
+        builder.setDiskCache(
+                new InternalCacheDiskCacheFactory(context, "artwork", DISK_CACHE_BYTES));
+    }
+
+    @Override
+    public boolean isManifestParsingEnabled() {
+        return false;
+    }
+}
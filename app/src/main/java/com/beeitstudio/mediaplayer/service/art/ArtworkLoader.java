@@ -0,0 +1,162 @@
+package com.beeitstudio.mediaplayer.service.art;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.drawable.Drawable;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.widget.ImageView;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
+import com.bumptech.glide.request.RequestOptions;
+import com.bumptech.glide.request.target.SimpleTarget;
+import com.bumptech.glide.request.transition.Transition;
+
+/**
+ * The one way artwork is loaded, for the session, the notification and the UI alike, so they
+ * all share Glide's caches: decoded images in a memory LRU, fetched and scaled images on disk
+ * keyed by URI and size (see {@link ArtworkGlideModule}). Requests for an image that's already
+ * being loaded wait for that load instead of starting their own.
+ * <p>
+ * Artwork URIs are the ones in the catalog, served by {@link AlbumArtProvider} or remote.
+ */
+public final class ArtworkLoader {
+
+    /**
+     * Longest side of the artwork handed to the session and the notification.
+     */
+    public static final int SESSION_SIZE = 512;
+
+    private static final RequestOptions OPTIONS = new RequestOptions()
+            .diskCacheStrategy(DiskCacheStrategy.ALL);
+
+    public interface Callback {
+        /**
+         * @param bitmap the artwork, owned by the receiver; null if there is none
+         */
+        void onArtworkLoaded(@NonNull Uri uri, @Nullable Bitmap bitmap);
+    }
+
+    private final Context mContext;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    public ArtworkLoader(@NonNull Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    /**
+     * Shows the artwork at {@code uri} in {@code view}, dropping whatever the view was loading
+     * before. Must be called on the main thread.
+     */
+    public static void into(@NonNull ImageView view, @Nullable Uri uri) {
+        if (uri == null) {
+            Glide.with(view).clear(view);
+            return;
+        }
+        Glide.with(view).load(uri).apply(OPTIONS).into(view);
+    }
+
+    /**
+     * Loads the artwork at {@code uri}, scaled to fit {@code size}. Must be called on a thread
+     * with a {@link Looper}, the callback runs there unless the request is cancelled first.
+     */
+    @NonNull
+    public Request load(@NonNull Uri uri, int size, @NonNull Callback callback) {
+        final Request request = new Request(uri, size, callback, new Handler(Looper.myLooper()));
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                request.start();
+            }
+        });
+        return request;
+    }
+
+    public final class Request {
+
+        private final Uri mUri;
+        private final int mSize;
+        private final Callback mCallback;
+        private final Handler mHandler;
+        private volatile boolean mCancelled;
+        // Glide only takes requests on the main thread.
+        private SimpleTarget<Bitmap> mTarget;
+
+        private Request(Uri uri, int size, Callback callback, Handler handler) {
+            mUri = uri;
+            mSize = size;
+            mCallback = callback;
+            mHandler = handler;
+        }
+
+        /**
+         * Nothing is delivered after this, on the requesting thread. The load itself stops
+         * unless another request waits for the same image.
+         */
+        public void cancel() {
+            mCancelled = true;
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    clear();
+                }
+            });
+        }
+
+        private void start() {
+            if (mCancelled) {
+                return;
+            }
+            mTarget = new SimpleTarget<Bitmap>(mSize, mSize) {
+                @Override
+                public void onResourceReady(@NonNull Bitmap resource,
+                                            @Nullable Transition<? super Bitmap> transition) {
+                    deliver(resource);
+                }
+
+                @Override
+                public void onLoadFailed(@Nullable Drawable errorDrawable) {
+                    deliver(null);
+                }
+            };
+            Glide.with(mContext).asBitmap().load(mUri).apply(OPTIONS).into(mTarget);
+        }
+
+        private void clear() {
+            if (mTarget != null) {
+                Glide.with(mContext).clear(mTarget);
+                mTarget = null;
+            }
+        }
+
+        // Glide reuses its bitmaps once a target lets go, the receiver gets a copy it can keep
+        // in the session and notifications. It's made on the requesting thread rather than the
+        // main one, the target holds on to Glide's bitmap until then.
+        private void deliver(@Nullable final Bitmap resource) {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    final Bitmap bitmap = resource != null && !mCancelled
+                            ? resource.copy(Bitmap.Config.ARGB_8888, false)
+                            : null;
+                    if (resource != null) {
+                        mMainHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                clear();
+                            }
+                        });
+                    }
+                    if (!mCancelled) {
+                        mCallback.onArtworkLoaded(mUri, bitmap);
+                    }
+                }
+            });
+        }
+    }
+}
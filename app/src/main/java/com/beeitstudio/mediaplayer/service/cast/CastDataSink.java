@@ -0,0 +1,112 @@
+package com.beeitstudio.mediaplayer.service.cast;
+
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.android.exoplayer2.upstream.DataSink;
+import com.google.android.exoplayer2.upstream.DataSpec;
+
+import java.util.Locale;
+
+/**
+ * Hands what the player loads on to a {@link CastServer}, as the sink of a
+ * {@link com.google.android.exoplayer2.upstream.TeeDataSource} around the player's sources.
+ * The bytes are dropped while there's no server.
+ * <p>
+ * Meant for progressive streams, read from start to end: a reconnect where the last bytes left
+ * off carries on with the same stream, a seek starts a new one. So does another URI, unless it
+ * is read from its start and is of a type whose streams can follow one another: then clients
+ * play through the queue on one connection.
+ */
+public final class CastDataSink implements DataSink {
+
+    // Guarded by this.
+    private CastServer mServer;
+    private Uri mUri;
+    // Position in mUri of the next byte, and the type of the stream clients get.
+    private long mPosition;
+    private String mMimeType;
+
+    /**
+     * @param server to serve from now on, null to stop
+     */
+    public synchronized void setServer(@Nullable CastServer server) {
+        mServer = server;
+        if (server != null && mMimeType != null) {
+            // Casting started in the middle of the stream, clients get it from here.
+            server.startStream(mMimeType);
+        }
+    }
+
+    @Override
+    public synchronized void open(DataSpec dataSpec) {
+        final boolean sameUri = dataSpec.uri.equals(mUri);
+        if (sameUri && dataSpec.position == mPosition) {
+            // Reconnected where it left off.
+            return;
+        }
+        final String mimeType = getMimeType(dataSpec.uri);
+        final boolean next = !sameUri && dataSpec.position == 0
+                && mimeType.equals(mMimeType) && canFollow(mimeType);
+        mUri = dataSpec.uri;
+        mPosition = dataSpec.position;
+        if (next) {
+            return;
+        }
+        mMimeType = mimeType;
+        if (mServer != null) {
+            mServer.startStream(mimeType);
+        }
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) {
+        final CastServer server;
+        synchronized (this) {
+            server = mServer;
+            mPosition += length;
+        }
+        if (server != null) {
+            server.write(buffer, offset, length);
+        }
+    }
+
+    @Override
+    public void close() {
+        // The stream may be opened again where it left off.
+    }
+
+    /**
+     * @return whether a stream of the type can go on with another one's bytes: a decoder finds
+     * the frames of the next one as it does after a glitch. Not so for containers with an
+     * index or a single header.
+     */
+    static boolean canFollow(@NonNull String mimeType) {
+        // Chained Ogg streams are valid Ogg.
+        return mimeType.equals("audio/mpeg") || mimeType.equals("audio/aac")
+                || mimeType.equals("audio/ogg");
+    }
+
+    /**
+     * @return the type clients are told, guessed from the extension; MP3 if there is none, as
+     * with most radio streams
+     */
+    @NonNull
+    static String getMimeType(@NonNull Uri uri) {
+        final String path = uri.getPath() != null ? uri.getPath().toLowerCase(Locale.US) : "";
+        if (path.endsWith(".aac")) {
+            return "audio/aac";
+        } else if (path.endsWith(".ogg") || path.endsWith(".oga") || path.endsWith(".opus")) {
+            return "audio/ogg";
+        } else if (path.endsWith(".flac")) {
+            return "audio/flac";
+        } else if (path.endsWith(".m4a") || path.endsWith(".mp4")) {
+            return "audio/mp4";
+        } else if (path.endsWith(".wav")) {
+            return "audio/wav";
+        }
+        return "audio/mpeg";
+    }
+}
@@ -0,0 +1,370 @@
+package com.beeitstudio.mediaplayer.service.cast;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Serves the stream being played to other devices on the local network, over plain HTTP:
+ * every client that GETs {@link #PATH} gets the same bytes, while the stream is loaded once
+ * however many clients there are.
+ * <p>
+ * What the player loads is {@link #write written} to a ring buffer, and goes out to the
+ * clients from there: straight from the buffer's memory, no copy per client, on one thread
+ * that waits on all sockets at once. Every client reads at its own pace from its own
+ * position. A client that falls a whole buffer behind is dropped, it never holds up the
+ * player or the other clients; it can reconnect and pick up from the latest bytes.
+ * <p>
+ * Clients are let go when another stream starts, a player reconnects to get its type right.
+ */
+public final class CastServer {
+
+    public static final String PATH = "/stream";
+
+    private static final int MAX_CLIENTS = 16;
+    private static final int MAX_REQUEST_BYTES = 4096;
+    // Most sent to a client at once, so one fast client doesn't keep the others waiting.
+    private static final int MAX_WRITE_BYTES = 64 * 1024;
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private final StreamRingBuffer mRing;
+    private final int mBacklogBytes;
+    // The stream clients get, null until one starts. Guarded by this.
+    private String mMimeType;
+    private int mGeneration;
+
+    private Selector mSelector;
+    private ServerSocketChannel mServerChannel;
+    private volatile boolean mRunning;
+    // Set while the selector thread waits for new bytes, so writes know to wake it.
+    private final AtomicBoolean mWaiting = new AtomicBoolean();
+    private volatile int mClientCount;
+
+    /**
+     * @param capacityBytes how far back the buffer goes, and so how far a client may fall
+     *                      behind
+     * @param backlogBytes  how far back new clients start, to fill their buffers quickly
+     */
+    public CastServer(int capacityBytes, int backlogBytes) {
+        mRing = new StreamRingBuffer(capacityBytes);
+        mBacklogBytes = backlogBytes;
+    }
+
+    /**
+     * Starts accepting clients.
+     *
+     * @param address to listen on, null for all of the device's addresses
+     * @param port    to listen on, 0 for any free one, see {@link #getPort()}
+     */
+    public void start(@Nullable InetAddress address, int port) throws IOException {
+        mSelector = Selector.open();
+        mServerChannel = ServerSocketChannel.open();
+        mServerChannel.socket().setReuseAddress(true);
+        mServerChannel.socket().bind(new InetSocketAddress(address, port));
+        mServerChannel.configureBlocking(false);
+        mServerChannel.register(mSelector, SelectionKey.OP_ACCEPT);
+        mRunning = true;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                serve();
+            }
+        }, "CastServer").start();
+    }
+
+    public int getPort() {
+        return mServerChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Disconnects all clients and stops listening, shortly after this returns.
+     */
+    public void stop() {
+        mRunning = false;
+        mSelector.wakeup();
+    }
+
+    /**
+     * @return the clients being streamed to
+     */
+    public int getClientCount() {
+        return mClientCount;
+    }
+
+    /**
+     * Starts serving another stream from its first byte on. Clients of the previous one are
+     * disconnected.
+     */
+    public void startStream(@NonNull String mimeType) {
+        synchronized (this) {
+            mRing.reset();
+            mMimeType = mimeType;
+            mGeneration++;
+        }
+        mSelector.wakeup();
+    }
+
+    /**
+     * Appends to the current stream, on the thread that loads it. Doesn't block on clients.
+     */
+    public void write(@NonNull byte[] data, int offset, int length) {
+        mRing.write(data, offset, length);
+        if (mWaiting.compareAndSet(true, false)) {
+            mSelector.wakeup();
+        }
+    }
+
+    /**
+     * @return the device's IPv4 address on the local network, null if it isn't on one
+     */
+    @Nullable
+    public static InetAddress findLanAddress() throws SocketException {
+        for (NetworkInterface networkInterface
+                : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+            if (!networkInterface.isUp() || networkInterface.isLoopback()) {
+                continue;
+            }
+            for (InetAddress address : Collections.list(networkInterface.getInetAddresses())) {
+                if (address instanceof Inet4Address && address.isSiteLocalAddress()) {
+                    return address;
+                }
+            }
+        }
+        return null;
+    }
+
+    // The selector thread.
+    private void serve() {
+        try {
+            while (mRunning) {
+                updateInterests();
+                mSelector.select();
+                mWaiting.set(false);
+                final Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    final SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    final Client client = (Client) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            client.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            client.write();
+                        }
+                    } catch (IOException e) {
+                        // Gone, or not speaking HTTP.
+                        client.close();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // The selector failed, there's nothing to serve with.
+        } finally {
+            for (SelectionKey key : mSelector.keys()) {
+                closeQuietly(key);
+            }
+            mClientCount = 0;
+            try {
+                mSelector.close();
+                mServerChannel.close();
+            } catch (IOException e) {
+                // Closing anyway.
+            }
+        }
+    }
+
+    // Clients with something to send wait until they can, the others until they have.
+    private void updateInterests() {
+        // Set before looking at the buffer: a write that lands in between wakes the selector
+        // rather than waiting for the next one.
+        mWaiting.set(true);
+        final long written = mRing.getWritten();
+        final int generation;
+        synchronized (this) {
+            generation = mGeneration;
+        }
+        int streaming = 0;
+        for (SelectionKey key : mSelector.keys()) {
+            if (!key.isValid() || !(key.attachment() instanceof Client)) {
+                continue;
+            }
+            final Client client = (Client) key.attachment();
+            if (client.mStreaming && client.mStreamGeneration != generation) {
+                client.close();
+                continue;
+            }
+            if (client.mStreaming) {
+                streaming++;
+            }
+            final boolean pending = client.mHeader != null
+                    || (client.mStreaming && client.mPosition < written);
+            key.interestOps(pending
+                    ? SelectionKey.OP_READ | SelectionKey.OP_WRITE
+                    : SelectionKey.OP_READ);
+        }
+        mClientCount = streaming;
+    }
+
+    private void accept() throws IOException {
+        final SocketChannel channel = mServerChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        // A live stream trickles in, it shouldn't wait to fill packets.
+        channel.socket().setTcpNoDelay(true);
+        final Client client = new Client(channel);
+        client.mKey = channel.register(mSelector, SelectionKey.OP_READ, client);
+    }
+
+    private static void closeQuietly(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            // Closing anyway.
+        }
+    }
+
+    private final class Client {
+
+        private final SocketChannel mChannel;
+        private SelectionKey mKey;
+        private final ByteBuffer mRequest = ByteBuffer.allocate(MAX_REQUEST_BYTES);
+        // The response header still to be sent, null once it's out.
+        private ByteBuffer mHeader;
+        // An error response, the connection is closed after the header.
+        private boolean mClosing;
+        private boolean mStreaming;
+        // Of the stream it gets.
+        private int mStreamGeneration;
+        // Stream position of the next byte to send.
+        private long mPosition;
+        private final ByteBuffer[] mViews = {mRing.newView(), mRing.newView()};
+
+        Client(SocketChannel channel) {
+            mChannel = channel;
+        }
+
+        void read() throws IOException {
+            if (mHeader != null || mStreaming) {
+                // Nothing more is expected, reading only tells when the client goes away.
+                mRequest.clear();
+                if (mChannel.read(mRequest) < 0) {
+                    throw new EOFException();
+                }
+                return;
+            }
+            if (mChannel.read(mRequest) < 0) {
+                throw new EOFException();
+            }
+            final String request = new String(mRequest.array(), 0, mRequest.position(), ASCII);
+            if (!request.contains("\r\n\r\n")) {
+                if (!mRequest.hasRemaining()) {
+                    throw new IOException("Request too long");
+                }
+                return;
+            }
+            respond(request.substring(0, request.indexOf("\r\n")));
+        }
+
+        private void respond(String requestLine) {
+            final String[] parts = requestLine.split(" ");
+            final String path = parts.length > 1 ? parts[1].split("\\?")[0] : null;
+            final String mimeType;
+            final int generation;
+            synchronized (CastServer.this) {
+                mimeType = mMimeType;
+                generation = mGeneration;
+            }
+            if (!"GET".equals(parts[0])) {
+                sendError("405 Method Not Allowed");
+            } else if (!PATH.equals(path)) {
+                sendError("404 Not Found");
+            } else if (mimeType == null || mClientCount >= MAX_CLIENTS) {
+                sendError("503 Service Unavailable");
+            } else {
+                mStreaming = true;
+                mStreamGeneration = generation;
+                mPosition = Math.max(mRing.getOldest(), mRing.getWritten() - mBacklogBytes);
+                mHeader = ByteBuffer.wrap(("HTTP/1.0 200 OK\r\n"
+                        + "Content-Type: " + mimeType + "\r\n"
+                        + "Cache-Control: no-cache, no-store\r\n"
+                        + "Connection: close\r\n\r\n").getBytes(ASCII));
+                mClientCount++;
+            }
+            mKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+
+        private void sendError(String status) {
+            mClosing = true;
+            mHeader = ByteBuffer.wrap(("HTTP/1.0 " + status + "\r\n"
+                    + "Content-Length: 0\r\n"
+                    + "Connection: close\r\n\r\n").getBytes(ASCII));
+        }
+
+        void write() throws IOException {
+            if (mHeader != null) {
+                mChannel.write(mHeader);
+                if (mHeader.hasRemaining()) {
+                    return;
+                }
+                mHeader = null;
+                if (mClosing) {
+                    close();
+                    return;
+                }
+            }
+            final int views = mRing.getViews(mPosition, MAX_WRITE_BYTES, mViews);
+            if (views == 0) {
+                if (mPosition < mRing.getOldest()) {
+                    // Fell too far behind.
+                    close();
+                }
+                return;
+            }
+            final long sent = views == 1
+                    ? mChannel.write(mViews[0])
+                    : mChannel.write(mViews, 0, views);
+            // The bytes went out of the shared buffer as they were: if the writer got to them
+            // in the meantime, the client got some of the next lap.
+            if (mPosition < mRing.getOldest()) {
+                close();
+                return;
+            }
+            mPosition += sent;
+        }
+
+        void close() {
+            if (mStreaming) {
+                mClientCount--;
+                mStreaming = false;
+            }
+            closeQuietly(mKey);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.beeitstudio.mediaplayer.service.cast;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The most recent bytes of a stream, in a fixed direct buffer. Bytes are addressed by their
+ * position in the stream, counted from the start; the buffer keeps the last
+ * {@link #getCapacity()} of them and overwrites the oldest as new ones arrive.
+ * <p>
+ * One thread writes, any number read. Readers get views of the buffer instead of copies, so
+ * they have to check with {@link #getOldest()} after using a view that the writer didn't
+ * overwrite it in the meantime.
+ */
+final class StreamRingBuffer {
+
+    private final ByteBuffer mBuffer;
+    private final int mCapacity;
+    // Guarded by this.
+    private long mWritten;
+    // Position of the first byte of the current stream.
+    private long mStart;
+
+    StreamRingBuffer(int capacity) {
+        mCapacity = capacity;
+        mBuffer = ByteBuffer.allocateDirect(capacity);
+    }
+
+    int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * Appends {@code length} bytes. Only the last {@link #getCapacity()} of a longer write are
+     * kept.
+     */
+    synchronized void write(@NonNull byte[] data, int offset, int length) {
+        if (length > mCapacity) {
+            offset += length - mCapacity;
+            mWritten += length - mCapacity;
+            length = mCapacity;
+        }
+        final int index = (int) (mWritten % mCapacity);
+        final int first = Math.min(length, mCapacity - index);
+        mBuffer.clear();
+        mBuffer.position(index);
+        mBuffer.put(data, offset, first);
+        if (first < length) {
+            mBuffer.position(0);
+            mBuffer.put(data, offset + first, length - first);
+        }
+        mWritten += length;
+    }
+
+    /**
+     * Starts over with another stream: what's in the buffer is no longer readable, positions
+     * carry on from where the last stream ended.
+     */
+    synchronized void reset() {
+        mStart = mWritten;
+    }
+
+    /**
+     * @return the position after the last byte written
+     */
+    synchronized long getWritten() {
+        return mWritten;
+    }
+
+    /**
+     * @return the position of the oldest byte that can still be read
+     */
+    synchronized long getOldest() {
+        return Math.max(mStart, mWritten - mCapacity);
+    }
+
+    /**
+     * @return a view of the whole buffer for {@link #getViews}, one per reader
+     */
+    @NonNull
+    ByteBuffer newView() {
+        return mBuffer.duplicate();
+    }
+
+    /**
+     * Points {@code views} at the bytes from {@code position} on, at most {@code maxLength} of
+     * them. Bytes that wrap around the end of the buffer take the second view.
+     *
+     * @param views two buffers from {@link #newView()}
+     * @return how many of the views hold bytes, 0 if there's nothing new or
+     * {@code position} has been overwritten
+     */
+    synchronized int getViews(long position, int maxLength, @NonNull ByteBuffer[] views) {
+        if (position < getOldest() || position >= mWritten) {
+            return 0;
+        }
+        final int length = (int) Math.min(mWritten - position, maxLength);
+        final int index = (int) (position % mCapacity);
+        final int first = Math.min(length, mCapacity - index);
+        views[0].limit(index + first).position(index);
+        if (first == length) {
+            return 1;
+        }
+        views[1].limit(length - first).position(0);
+        return 2;
+    }
+}
@@ -0,0 +1,442 @@
+package com.beeitstudio.mediaplayer.service.download;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.beeitstudio.mediaplayer.service.http.HttpResponse;
+import com.beeitstudio.mediaplayer.service.http.PooledHttpClient;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * Downloads tracks for offline playback, a bounded number at a time.
+ * <p>
+ * Waiting downloads start in priority order, which follows the play queue: the track that
+ * plays next comes first. A download that fails or is cancelled keeps what it got, and the
+ * next attempt continues from there with a range request. Finished downloads live within a
+ * storage quota, the least recently played make way for new ones.
+ * <p>
+ * Queued tracks are pinned, and the pins are kept on disk: after a restart,
+ * {@link #resumePinned()} queues the ones that didn't finish again.
+ */
+public final class DownloadManager {
+
+    public interface Listener {
+        void onDownloadCompleted(@NonNull String mediaId, @NonNull File file);
+
+        void onDownloadFailed(@NonNull String mediaId, @NonNull IOException error);
+    }
+
+    /**
+     * Priority of downloads that aren't in the play queue.
+     */
+    public static final int PRIORITY_LOWEST = Integer.MAX_VALUE;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final DownloadStorage mStorage;
+    private final PooledHttpClient mClient;
+    private final Map<String, String> mRequestHeaders;
+    private final int mMaxConcurrent;
+    private final Executor mCallbackExecutor;
+    private final Listener mListener;
+
+    private final Object mLock = new Object();
+    // Guarded by mLock.
+    private final PriorityQueue<Task> mPending = new PriorityQueue<>();
+    // Waiting and running tasks. A cancelled one stays until its worker is done with the
+    // partial file, so no second worker appends to it meanwhile.
+    private final Map<String, Task> mTasks = new HashMap<>();
+    // Media ids and URIs, in the order they were pinned.
+    private final Map<String, String> mPins;
+    private int mWorkerCount;
+    private int mActiveCount;
+    private long mSequence;
+    private boolean mReleased;
+    // Held while the pins are written, so the last write has the latest pins.
+    private final Object mPinsWriteLock = new Object();
+
+    /**
+     * Reads the pins from disk, not to be made on the main thread.
+     *
+     * @param callbackExecutor where the listener is called
+     */
+    public DownloadManager(@NonNull File directory,
+                           long quotaBytes,
+                           int maxConcurrent,
+                           @NonNull PooledHttpClient client,
+                           @NonNull String userAgent,
+                           @NonNull Executor callbackExecutor,
+                           @NonNull Listener listener) {
+        mStorage = new DownloadStorage(directory, quotaBytes);
+        mClient = client;
+        mRequestHeaders = new HashMap<>();
+        mRequestHeaders.put("User-Agent", userAgent);
+        mRequestHeaders.put("Accept-Encoding", "identity");
+        mMaxConcurrent = maxConcurrent;
+        mCallbackExecutor = callbackExecutor;
+        mListener = listener;
+        mPins = mStorage.readPins();
+    }
+
+    /**
+     * Pins {@code mediaId} and queues the download of {@code uri} for it, or moves it to
+     * {@code priority} if it's queued already. Nothing is queued if it's downloaded.
+     *
+     * @param priority lower starts sooner, the position in the play queue
+     */
+    public void enqueue(@NonNull String mediaId, @NonNull String uri, int priority) {
+        final boolean pinned;
+        synchronized (mLock) {
+            if (mReleased) {
+                return;
+            }
+            pinned = !uri.equals(mPins.put(mediaId, uri));
+            if (!mStorage.getCompleteFile(mediaId).isFile()) {
+                queue(mediaId, uri, priority);
+            }
+        }
+        if (pinned) {
+            writePins();
+        }
+    }
+
+    /**
+     * Queues the pinned downloads that didn't finish, after a restart.
+     */
+    public void resumePinned() {
+        synchronized (mLock) {
+            if (mReleased) {
+                return;
+            }
+            for (Map.Entry<String, String> pin : mPins.entrySet()) {
+                if (!mStorage.getCompleteFile(pin.getKey()).isFile()) {
+                    queue(pin.getKey(), pin.getValue(), PRIORITY_LOWEST);
+                }
+            }
+        }
+    }
+
+    // With mLock held.
+    private void queue(String mediaId, String uri, int priority) {
+        final Task existing = mTasks.get(mediaId);
+        if (existing != null) {
+            if (existing.mCancelled) {
+                // Its worker hasn't stopped yet, a new task takes over once it has.
+                existing.mRequeued = true;
+                existing.mPriority = priority;
+            } else if (mPending.remove(existing)) {
+                existing.mPriority = priority;
+                mPending.add(existing);
+            }
+            return;
+        }
+        final Task task = new Task(mediaId, uri, priority, mSequence++);
+        mTasks.put(mediaId, task);
+        mPending.add(task);
+        startWorkers();
+    }
+
+    /**
+     * Reorders the waiting downloads by the play queue.
+     *
+     * @param mediaIds in the order they'll be played, the next one first. Downloads of tracks
+     *                 that aren't in it wait for all others.
+     */
+    public void setPriorities(@NonNull List<String> mediaIds) {
+        synchronized (mLock) {
+            final List<Task> pending = new ArrayList<>(mPending);
+            mPending.clear();
+            for (Task task : pending) {
+                final int index = mediaIds.indexOf(task.mMediaId);
+                task.mPriority = index != -1 ? index : PRIORITY_LOWEST;
+                mPending.add(task);
+            }
+        }
+    }
+
+    /**
+     * Stops the download of {@code mediaId}, what it got so far is kept for a later attempt.
+     */
+    public void cancel(@NonNull String mediaId) {
+        synchronized (mLock) {
+            cancelTask(mediaId);
+        }
+    }
+
+    // With mLock held.
+    private void cancelTask(String mediaId) {
+        final Task task = mTasks.get(mediaId);
+        if (task == null) {
+            return;
+        }
+        task.mCancelled = true;
+        task.mRequeued = false;
+        if (mPending.remove(task)) {
+            mTasks.remove(mediaId);
+        }
+    }
+
+    /**
+     * Unpins {@code mediaId}, cancels its download and deletes what's on disk.
+     */
+    public void remove(@NonNull String mediaId) {
+        final boolean unpinned;
+        synchronized (mLock) {
+            cancelTask(mediaId);
+            unpinned = mPins.remove(mediaId) != null;
+            // With the lock held, a download finishing meanwhile has either been renamed
+            // already or sees it was cancelled.
+            mStorage.delete(mediaId);
+        }
+        if (unpinned) {
+            writePins();
+        }
+    }
+
+    /**
+     * @return the finished download of {@code mediaId}, null if there is none. Counts as a
+     * use: the file is the last to be evicted. The use is only noted, it reaches the disk
+     * with the next download.
+     */
+    @Nullable
+    public File getDownloadedFile(@NonNull String mediaId) {
+        final File file = mStorage.getCompleteFile(mediaId);
+        if (!file.isFile()) {
+            return null;
+        }
+        mStorage.touch(mediaId);
+        return file;
+    }
+
+    public boolean isQueued(@NonNull String mediaId) {
+        synchronized (mLock) {
+            final Task task = mTasks.get(mediaId);
+            return task != null && (!task.mCancelled || task.mRequeued);
+        }
+    }
+
+    public long getUsedBytes() {
+        return mStorage.getUsedBytes();
+    }
+
+    /**
+     * Cancels everything, partial downloads and pins stay for the next time.
+     */
+    public void release() {
+        synchronized (mLock) {
+            mReleased = true;
+            for (Task task : mTasks.values()) {
+                task.mCancelled = true;
+                task.mRequeued = false;
+            }
+            mTasks.clear();
+            mPending.clear();
+        }
+        // Off the caller's thread, it's disk work.
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                mStorage.writeUsed();
+            }
+        }, "DownloadManager-release").start();
+    }
+
+    private void writePins() {
+        synchronized (mPinsWriteLock) {
+            final Map<String, String> pins;
+            synchronized (mLock) {
+                pins = new LinkedHashMap<>(mPins);
+            }
+            try {
+                mStorage.writePins(pins);
+            } catch (IOException e) {
+                // The downloads stay, only the ones that didn't finish won't resume.
+            }
+        }
+    }
+
+    // With mLock held.
+    private void startWorkers() {
+        // A new worker only when no idle one is going to pick the pending tasks up.
+        while (mWorkerCount < mMaxConcurrent
+                && mWorkerCount - mActiveCount < mPending.size()) {
+            mWorkerCount++;
+            final Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    runTasks();
+                }
+            }, "DownloadManager-" + mWorkerCount);
+            worker.setPriority(Thread.MIN_PRIORITY);
+            worker.start();
+        }
+    }
+
+    private void runTasks() {
+        while (true) {
+            final Task task;
+            synchronized (mLock) {
+                task = mPending.poll();
+                if (task == null || mReleased) {
+                    mWorkerCount--;
+                    return;
+                }
+                mActiveCount++;
+            }
+            runTask(task);
+            synchronized (mLock) {
+                mActiveCount--;
+            }
+        }
+    }
+
+    private void runTask(final Task task) {
+        File file = null;
+        IOException error = null;
+        try {
+            file = download(task);
+        } catch (IOException e) {
+            error = e;
+        }
+        synchronized (mLock) {
+            if (mTasks.get(task.mMediaId) == task) {
+                mTasks.remove(task.mMediaId);
+                if (task.mRequeued && !mReleased) {
+                    queue(task.mMediaId, task.mUri, task.mPriority);
+                }
+            }
+        }
+        if (task.mCancelled) {
+            return;
+        }
+        final File downloaded = file;
+        final IOException failure = error;
+        mCallbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (downloaded != null) {
+                    mListener.onDownloadCompleted(task.mMediaId, downloaded);
+                } else {
+                    mListener.onDownloadFailed(task.mMediaId, failure);
+                }
+            }
+        });
+    }
+
+    private File download(Task task) throws IOException {
+        mStorage.ensureDirectory();
+        final File partial = mStorage.getPartialFile(task.mMediaId);
+        final File complete = mStorage.getCompleteFile(task.mMediaId);
+        long resumeFrom = partial.length();
+
+        try (HttpResponse response = mClient.get(new URL(task.mUri), resumeFrom, -1,
+                mRequestHeaders)) {
+            final int code = response.getCode();
+            if (code == 416 && resumeFrom > 0) {
+                // Nothing past what we have, the last attempt only missed the rename.
+                return finish(task, partial, complete);
+            }
+            if (code == 200) {
+                // The server ignored the range, start over.
+                resumeFrom = 0;
+            } else if (code != 206 || !isRangeFrom(response, resumeFrom)) {
+                throw new IOException(response.getStatusLine() + ": " + task.mUri);
+            }
+
+            final long length = response.getContentLength();
+            if (length != -1) {
+                mStorage.makeRoom(length - (code == 200 ? partial.length() : 0),
+                        getTaskIds());
+            }
+
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            final InputStream in = response.getBody();
+            try (OutputStream out = new FileOutputStream(partial, resumeFrom > 0)) {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    if (task.mCancelled) {
+                        throw new InterruptedIOException("Cancelled");
+                    }
+                    out.write(buffer, 0, read);
+                }
+            }
+        }
+        return finish(task, partial, complete);
+    }
+
+    private File finish(Task task, File partial, File complete) throws IOException {
+        synchronized (mLock) {
+            // Not after remove() deleted the files.
+            if (task.mCancelled) {
+                throw new InterruptedIOException("Cancelled");
+            }
+            if (!partial.renameTo(complete)) {
+                throw new IOException("Can't rename " + partial);
+            }
+        }
+        // Sizes that weren't known up front are checked now.
+        try {
+            mStorage.makeRoom(0, getTaskIds());
+        } catch (IOException e) {
+            // Not even room for this one on its own.
+            complete.delete();
+            throw e;
+        }
+        mStorage.touch(task.mMediaId);
+        return complete;
+    }
+
+    private List<String> getTaskIds() {
+        synchronized (mLock) {
+            return new ArrayList<>(mTasks.keySet());
+        }
+    }
+
+    private static boolean isRangeFrom(HttpResponse response, long position) {
+        // Content-Range: bytes 1000-4999/5000
+        final String range = response.getHeader("Content-Range");
+        return range != null && range.startsWith("bytes " + position + "-");
+    }
+
+    private static final class Task implements Comparable<Task> {
+
+        final String mMediaId;
+        final String mUri;
+        // Guarded by mLock, changed only while the task isn't in mPending.
+        int mPriority;
+        final long mSequence;
+        volatile boolean mCancelled;
+        // Guarded by mLock: queued again after it was cancelled, while it was running.
+        boolean mRequeued;
+
+        Task(String mediaId, String uri, int priority, long sequence) {
+            mMediaId = mediaId;
+            mUri = uri;
+            mPriority = priority;
+            mSequence = sequence;
+        }
+
+        @Override
+        public int compareTo(@NonNull Task other) {
+            if (mPriority != other.mPriority) {
+                return mPriority < other.mPriority ? -1 : 1;
+            }
+            // First come, first served among equals.
+            return Long.compare(mSequence, other.mSequence);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.beeitstudio.mediaplayer.service.download;
+
+import androidx.annotation.NonNull;
+
+import com.beeitstudio.mediaplayer.service.Hashes;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Download files on disk, one per media id, within a quota. When a download needs room, the
+ * least recently used finished downloads make way for it. Also keeps the list of pinned
+ * tracks, so downloads that didn't finish carry on after a restart.
+ */
+final class DownloadStorage {
+
+    private static final String COMPLETE_SUFFIX = ".dl";
+    private static final String PARTIAL_SUFFIX = ".part";
+    private static final String PINS_FILE = "pins";
+    private static final int PINS_MAGIC = 0x444c504e; // "DLPN"
+    private static final int PINS_FORMAT_VERSION = 1;
+
+    private final File mDirectory;
+    private final long mQuotaBytes;
+    // When finished downloads were last used, by file name, until it's written to their
+    // modification time. Guarded by itself, so a lookup never waits for disk work.
+    private final Map<String, Long> mUsed = new HashMap<>();
+
+    DownloadStorage(@NonNull File directory, long quotaBytes) {
+        mDirectory = directory;
+        mQuotaBytes = quotaBytes;
+    }
+
+    File getCompleteFile(String mediaId) {
+        return new File(mDirectory, name(mediaId) + COMPLETE_SUFFIX);
+    }
+
+    /**
+     * @return where the download goes while it's incomplete, kept across attempts so the next
+     * one resumes where the last one stopped
+     */
+    File getPartialFile(String mediaId) {
+        return new File(mDirectory, name(mediaId) + PARTIAL_SUFFIX);
+    }
+
+    void ensureDirectory() throws IOException {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Can't create " + mDirectory);
+        }
+    }
+
+    /**
+     * Marks the download of {@code mediaId} as used, the last to be evicted. Only remembered,
+     * it reaches the disk with the next {@link #makeRoom} or {@link #writeUsed()}.
+     */
+    void touch(String mediaId) {
+        synchronized (mUsed) {
+            mUsed.put(getCompleteFile(mediaId).getName(), System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Writes when downloads were last used to their modification time.
+     */
+    void writeUsed() {
+        final Map<String, Long> used;
+        synchronized (mUsed) {
+            used = new HashMap<>(mUsed);
+            mUsed.clear();
+        }
+        for (Map.Entry<String, Long> entry : used.entrySet()) {
+            new File(mDirectory, entry.getKey()).setLastModified(entry.getValue());
+        }
+    }
+
+    void delete(String mediaId) {
+        synchronized (mUsed) {
+            mUsed.remove(getCompleteFile(mediaId).getName());
+        }
+        getCompleteFile(mediaId).delete();
+        getPartialFile(mediaId).delete();
+    }
+
+    /**
+     * @return the pinned media ids and their URIs, in the order they were pinned; none if the
+     * list can't be read
+     */
+    @NonNull
+    synchronized Map<String, String> readPins() {
+        final Map<String, String> pins = new LinkedHashMap<>();
+        final File file = new File(mDirectory, PINS_FILE);
+        if (!file.isFile()) {
+            return pins;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != PINS_MAGIC || in.readInt() != PINS_FORMAT_VERSION) {
+                return pins;
+            }
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                final String mediaId = in.readUTF();
+                pins.put(mediaId, in.readUTF());
+            }
+        } catch (IOException e) {
+            pins.clear();
+        }
+        return pins;
+    }
+
+    synchronized void writePins(@NonNull Map<String, String> pins) throws IOException {
+        ensureDirectory();
+        final File file = new File(mDirectory, PINS_FILE);
+        final File tmp = new File(mDirectory, PINS_FILE + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(PINS_MAGIC);
+            out.writeInt(PINS_FORMAT_VERSION);
+            out.writeInt(pins.size());
+            for (Map.Entry<String, String> pin : pins.entrySet()) {
+                out.writeUTF(pin.getKey());
+                out.writeUTF(pin.getValue());
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Can't replace " + file);
+        }
+    }
+
+    synchronized long getUsedBytes() {
+        long used = 0;
+        for (File file : listFiles()) {
+            used += file.length();
+        }
+        return used;
+    }
+
+    /**
+     * Evicts finished downloads, least recently used first, until {@code incomingBytes} more
+     * fit in the quota.
+     *
+     * @param keep media ids whose files stay whatever happens, the ones being downloaded
+     * @throws IOException if evicting everything else still isn't enough
+     */
+    synchronized void makeRoom(long incomingBytes, @NonNull Collection<String> keep)
+            throws IOException {
+        writeUsed();
+        final List<File> files = listFiles();
+        long used = 0;
+        for (File file : files) {
+            used += file.length();
+        }
+        if (used + incomingBytes <= mQuotaBytes) {
+            return;
+        }
+
+        final List<String> kept = new ArrayList<>(keep.size() * 2);
+        for (String mediaId : keep) {
+            kept.add(getCompleteFile(mediaId).getName());
+            kept.add(getPartialFile(mediaId).getName());
+        }
+        final List<File> evictable = new ArrayList<>();
+        for (File file : files) {
+            // Partial files are other downloads in progress, or waiting to be resumed.
+            if (file.getName().endsWith(COMPLETE_SUFFIX) && !kept.contains(file.getName())) {
+                evictable.add(file);
+            }
+        }
+        Collections.sort(evictable, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (File file : evictable) {
+            if (used + incomingBytes <= mQuotaBytes) {
+                break;
+            }
+            final long length = file.length();
+            if (file.delete()) {
+                used -= length;
+            }
+        }
+        if (used + incomingBytes > mQuotaBytes) {
+            throw new IOException("Storage quota of " + mQuotaBytes + " bytes exceeded");
+        }
+    }
+
+    // The downloads, finished or not.
+    private List<File> listFiles() {
+        final File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return Collections.emptyList();
+        }
+        final List<File> downloads = new ArrayList<>(files.length);
+        for (File file : files) {
+            final String name = file.getName();
+            if (name.endsWith(COMPLETE_SUFFIX) || name.endsWith(PARTIAL_SUFFIX)) {
+                downloads.add(file);
+            }
+        }
+        return downloads;
+    }
+
+    // The media id itself may not be a valid file name.
+    private static String name(String mediaId) {
+        return Long.toHexString(Hashes.fnv1a(mediaId));
+    }
+}
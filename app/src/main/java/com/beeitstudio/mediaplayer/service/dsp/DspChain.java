@@ -0,0 +1,151 @@
+package com.beeitstudio.mediaplayer.service.dsp;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.audio.AudioProcessor;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * {@link AudioProcessor} that runs 16 bit PCM through a fixed list of {@link DspStage}s.
+ * <p>
+ * The input buffer belongs to the decoder and is handed back as soon as it's consumed, so it
+ * can't be modified and returned as output. Each buffer is therefore converted once into a
+ * float scratch array, every stage works on that array in place, and the result is written
+ * into a direct output buffer owned by the chain. Both are only reallocated when a larger
+ * buffer than ever before comes along, nothing is allocated per buffer.
+ */
+public final class DspChain implements AudioProcessor {
+
+    private static final float SHORT_TO_FLOAT = 1f / 32768f;
+
+    private final DspStage[] mStages;
+
+    private int mSampleRateHz = Format.NO_VALUE;
+    private int mChannelCount = Format.NO_VALUE;
+    private float[] mSamples = new float[0];
+    private ByteBuffer mBuffer = EMPTY_BUFFER;
+    private ByteBuffer mOutputBuffer = EMPTY_BUFFER;
+    private boolean mInputEnded;
+
+    public DspChain(DspStage... stages) {
+        mStages = stages.clone();
+    }
+
+    @Override
+    public boolean configure(int sampleRateHz, int channelCount, @C.Encoding int encoding)
+            throws UnhandledFormatException {
+        if (encoding != C.ENCODING_PCM_16BIT) {
+            throw new UnhandledFormatException(sampleRateHz, channelCount, encoding);
+        }
+        if (sampleRateHz == mSampleRateHz && channelCount == mChannelCount) {
+            return false;
+        }
+        mSampleRateHz = sampleRateHz;
+        mChannelCount = channelCount;
+        for (DspStage stage : mStages) {
+            stage.configure(sampleRateHz, channelCount);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isActive() {
+        return mSampleRateHz != Format.NO_VALUE && mStages.length > 0;
+    }
+
+    @Override
+    public int getOutputChannelCount() {
+        return mChannelCount;
+    }
+
+    @Override
+    public int getOutputEncoding() {
+        return C.ENCODING_PCM_16BIT;
+    }
+
+    @Override
+    public int getOutputSampleRateHz() {
+        return mSampleRateHz;
+    }
+
+    @Override
+    public void queueInput(ByteBuffer inputBuffer) {
+        final int position = inputBuffer.position();
+        final int limit = inputBuffer.limit();
+        final int frameCount = (limit - position) / (2 * mChannelCount);
+        final int sampleCount = frameCount * mChannelCount;
+        if (sampleCount == 0) {
+            inputBuffer.position(limit);
+            return;
+        }
+
+        if (mSamples.length < sampleCount) {
+            mSamples = new float[sampleCount];
+        }
+        final float[] samples = mSamples;
+        // PCM from the decoder is little endian, independent of the buffer's byte order.
+        for (int i = 0, offset = position; i < sampleCount; i++, offset += 2) {
+            samples[i] = (short) ((inputBuffer.get(offset) & 0xFF)
+                    | (inputBuffer.get(offset + 1) << 8)) * SHORT_TO_FLOAT;
+        }
+        inputBuffer.position(limit);
+
+        for (DspStage stage : mStages) {
+            if (stage.isActive()) {
+                stage.process(samples, frameCount);
+            }
+        }
+
+        final int outputSize = sampleCount * 2;
+        if (mBuffer.capacity() < outputSize) {
+            mBuffer = ByteBuffer.allocateDirect(outputSize).order(ByteOrder.LITTLE_ENDIAN);
+        } else {
+            mBuffer.clear();
+        }
+        for (int i = 0; i < sampleCount; i++) {
+            final float value = samples[i] * 32768f;
+            mBuffer.putShort(value >= 32767f ? Short.MAX_VALUE
+                    : value <= -32768f ? Short.MIN_VALUE
+                    : (short) value);
+        }
+        mBuffer.flip();
+        mOutputBuffer = mBuffer;
+    }
+
+    @Override
+    public void queueEndOfStream() {
+        mInputEnded = true;
+    }
+
+    @Override
+    public ByteBuffer getOutput() {
+        final ByteBuffer outputBuffer = mOutputBuffer;
+        mOutputBuffer = EMPTY_BUFFER;
+        return outputBuffer;
+    }
+
+    @Override
+    public boolean isEnded() {
+        return mInputEnded && mOutputBuffer == EMPTY_BUFFER;
+    }
+
+    @Override
+    public void flush() {
+        mOutputBuffer = EMPTY_BUFFER;
+        mInputEnded = false;
+        for (DspStage stage : mStages) {
+            stage.reset();
+        }
+    }
+
+    @Override
+    public void reset() {
+        flush();
+        mBuffer = EMPTY_BUFFER;
+        mSamples = new float[0];
+        mSampleRateHz = Format.NO_VALUE;
+        mChannelCount = Format.NO_VALUE;
+    }
+}
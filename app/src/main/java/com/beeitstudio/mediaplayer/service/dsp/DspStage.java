@@ -0,0 +1,29 @@
+package com.beeitstudio.mediaplayer.service.dsp;
+
+/**
+ * One step of a {@link DspChain}. Stages run on the player's playback thread and process
+ * interleaved float samples in place; setters meant for other threads publish their values
+ * through volatile fields, which the stage picks up at the start of its next buffer.
+ */
+public interface DspStage {
+
+    /**
+     * Called before the first buffer and whenever the input format changes.
+     */
+    void configure(int sampleRateHz, int channelCount);
+
+    /**
+     * @return false to be skipped for the current buffer
+     */
+    boolean isActive();
+
+    /**
+     * Processes {@code frameCount} frames of {@code samples}, in place. Must not allocate.
+     */
+    void process(float[] samples, int frameCount);
+
+    /**
+     * Drops filter history, e.g. after a seek.
+     */
+    void reset();
+}
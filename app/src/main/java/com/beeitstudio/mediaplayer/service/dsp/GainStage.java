@@ -0,0 +1,115 @@
+package com.beeitstudio.mediaplayer.service.dsp;
+
+/**
+ * Multiplies the signal by a gain that follows sample accurate linear ramps. Used for the
+ * ReplayGain/R128 normalization gain, ducking and play/pause fades.
+ * <p>
+ * A ramp is set from any thread as one immutable object, so the audio thread always sees a
+ * consistent start, target and duration. The ramp itself is advanced per frame while
+ * processing, no timers or per step calls from other threads are involved.
+ */
+public class GainStage implements DspStage {
+
+    private static final class Ramp {
+        // NaN starts from wherever the gain is at the moment.
+        private final float from;
+        private final float to;
+        private final int durationMs;
+
+        private Ramp(float from, float to, int durationMs) {
+            this.from = from;
+            this.to = to;
+            this.durationMs = durationMs;
+        }
+    }
+
+    private volatile Ramp mRamp = new Ramp(Float.NaN, 1f, 0);
+
+    // Owned by the playback thread.
+    private Ramp mAppliedRamp = mRamp;
+    private int mSampleRateHz = 44100;
+    private int mChannelCount = 1;
+    private float mGain = 1f;
+    private float mStep;
+    private int mRemainingFrames;
+
+    /**
+     * Moves to {@code gain} over the next buffer, may be called from any thread.
+     */
+    public void setGain(float gain) {
+        mRamp = new Ramp(Float.NaN, gain, 0);
+    }
+
+    /**
+     * Moves from the current gain to {@code gain} over {@code durationMs}, may be called from
+     * any thread.
+     */
+    public void rampTo(float gain, int durationMs) {
+        mRamp = new Ramp(Float.NaN, gain, durationMs);
+    }
+
+    /**
+     * Jumps to {@code from} and moves on to {@code to} over {@code durationMs}, may be called
+     * from any thread.
+     */
+    public void rampFromTo(float from, float to, int durationMs) {
+        mRamp = new Ramp(from, to, durationMs);
+    }
+
+    /**
+     * @return the gain this stage is heading for
+     */
+    public float getGain() {
+        return mRamp.to;
+    }
+
+    @Override
+    public void configure(int sampleRateHz, int channelCount) {
+        mSampleRateHz = sampleRateHz;
+        mChannelCount = channelCount;
+    }
+
+    @Override
+    public boolean isActive() {
+        return mRamp != mAppliedRamp || mRemainingFrames > 0 || mGain != 1f;
+    }
+
+    @Override
+    public void process(float[] samples, int frameCount) {
+        final Ramp ramp = mRamp;
+        if (ramp != mAppliedRamp) {
+            mAppliedRamp = ramp;
+            if (!Float.isNaN(ramp.from)) {
+                mGain = ramp.from;
+            }
+            // Without a duration the ramp spans this buffer, which is enough to avoid a click.
+            mRemainingFrames = ramp.durationMs > 0
+                    ? Math.max(1, (int) ((long) ramp.durationMs * mSampleRateHz / 1000))
+                    : frameCount;
+            mStep = (ramp.to - mGain) / mRemainingFrames;
+        }
+
+        final int channels = mChannelCount;
+        float gain = mGain;
+        int frame = 0;
+        int i = 0;
+        for (; frame < frameCount && mRemainingFrames > 0; frame++) {
+            gain = --mRemainingFrames == 0 ? ramp.to : gain + mStep;
+            for (int channel = 0; channel < channels; channel++, i++) {
+                samples[i] *= gain;
+            }
+        }
+        mGain = gain;
+
+        if (gain != 1f) {
+            for (final int end = frameCount * channels; i < end; i++) {
+                samples[i] *= gain;
+            }
+        }
+    }
+
+    @Override
+    public void reset() {
+        // Gains aren't history: a seek neither restarts nor finishes a ramp.
+    }
+}
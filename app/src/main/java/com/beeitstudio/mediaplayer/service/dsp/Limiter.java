@@ -0,0 +1,69 @@
+package com.beeitstudio.mediaplayer.service.dsp;
+
+/**
+ * Peak limiter at the end of the chain, so that EQ boosts and normalization gains above unity
+ * can't clip. Attack is instant, which guarantees the ceiling without a lookahead delay; the
+ * gain then recovers with an exponential release.
+ */
+public class Limiter implements DspStage {
+
+    private static final float DEFAULT_CEILING = 0.977f; // -0.2 dBFS
+    private static final float RELEASE_MS = 80f;
+
+    private volatile float mCeiling = DEFAULT_CEILING;
+    private int mChannelCount = 1;
+    private float mReleaseCoefficient;
+    private float mGain = 1f;
+
+    /**
+     * Sets the highest output amplitude, 0 to 1. May be called from any thread.
+     */
+    public void setCeiling(float ceiling) {
+        mCeiling = ceiling;
+    }
+
+    @Override
+    public void configure(int sampleRateHz, int channelCount) {
+        mChannelCount = channelCount;
+        mReleaseCoefficient = (float) Math.exp(-1000.0 / (RELEASE_MS * sampleRateHz));
+        mGain = 1f;
+    }
+
+    @Override
+    public boolean isActive() {
+        return true;
+    }
+
+    @Override
+    public void process(float[] samples, int frameCount) {
+        final float ceiling = mCeiling;
+        final float release = mReleaseCoefficient;
+        final int channels = mChannelCount;
+        float gain = mGain;
+        for (int frame = 0, start = 0; frame < frameCount; frame++, start += channels) {
+            float peak = 0f;
+            for (int i = start; i < start + channels; i++) {
+                final float magnitude = Math.abs(samples[i]);
+                if (magnitude > peak) {
+                    peak = magnitude;
+                }
+            }
+            // Recover towards unity, but never further than this frame's peak allows.
+            gain = gain < 0.9999f ? 1f - (1f - gain) * release : 1f;
+            if (peak * gain > ceiling) {
+                gain = ceiling / peak;
+            }
+            if (gain != 1f) {
+                for (int i = start; i < start + channels; i++) {
+                    samples[i] *= gain;
+                }
+            }
+        }
+        mGain = gain;
+    }
+
+    @Override
+    public void reset() {
+        mGain = 1f;
+    }
+}
@@ -0,0 +1,176 @@
+package com.beeitstudio.mediaplayer.service.dsp;
+
+import androidx.annotation.IntDef;
+import androidx.annotation.NonNull;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Parametric EQ as a cascade of biquads (RBJ cookbook), one per {@link Band}. Coefficients and
+ * per channel filter state live in primitive arrays; they're only rebuilt when the bands or
+ * the format change.
+ */
+public class ParametricEqualizer implements DspStage {
+
+    public static final int TYPE_PEAKING = 0;
+    public static final int TYPE_LOW_SHELF = 1;
+    public static final int TYPE_HIGH_SHELF = 2;
+
+    @IntDef({TYPE_PEAKING, TYPE_LOW_SHELF, TYPE_HIGH_SHELF})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface Type {
+    }
+
+    public static final class Band {
+        @Type
+        public final int type;
+        public final float frequencyHz;
+        public final float gainDb;
+        public final float q;
+
+        public Band(@Type int type, float frequencyHz, float gainDb, float q) {
+            this.type = type;
+            this.frequencyHz = frequencyHz;
+            this.gainDb = gainDb;
+            this.q = q;
+        }
+    }
+
+    private static final int COEFFICIENTS_PER_BAND = 5; // b0 b1 b2 a1 a2, normalized by a0
+
+    private volatile Band[] mBands = new Band[0];
+
+    // Owned by the playback thread.
+    private Band[] mAppliedBands;
+    private int mSampleRateHz;
+    private int mChannelCount = 1;
+    private double[] mCoefficients = new double[0];
+    private double[] mState = new double[0]; // z1 z2 per band and channel
+
+    /**
+     * Replaces all bands, may be called from any thread. No bands turns the stage off.
+     */
+    public void setBands(@NonNull Band... bands) {
+        mBands = bands.clone();
+    }
+
+    @NonNull
+    public Band[] getBands() {
+        return mBands.clone();
+    }
+
+    @Override
+    public void configure(int sampleRateHz, int channelCount) {
+        mSampleRateHz = sampleRateHz;
+        mChannelCount = channelCount;
+        mAppliedBands = null;
+    }
+
+    @Override
+    public boolean isActive() {
+        return mBands.length > 0;
+    }
+
+    @Override
+    public void process(float[] samples, int frameCount) {
+        final Band[] bands = mBands;
+        if (bands != mAppliedBands) {
+            applyBands(bands);
+        }
+
+        final int channels = mChannelCount;
+        final double[] coefficients = mCoefficients;
+        final double[] state = mState;
+        for (int band = 0; band < bands.length; band++) {
+            final int c = band * COEFFICIENTS_PER_BAND;
+            final double b0 = coefficients[c];
+            final double b1 = coefficients[c + 1];
+            final double b2 = coefficients[c + 2];
+            final double a1 = coefficients[c + 3];
+            final double a2 = coefficients[c + 4];
+            for (int channel = 0; channel < channels; channel++) {
+                final int s = (band * channels + channel) * 2;
+                double z1 = state[s];
+                double z2 = state[s + 1];
+                for (int i = channel, end = frameCount * channels; i < end; i += channels) {
+                    // Transposed direct form II.
+                    final double x = samples[i];
+                    final double y = b0 * x + z1;
+                    z1 = b1 * x - a1 * y + z2;
+                    z2 = b2 * x - a2 * y;
+                    samples[i] = (float) y;
+                }
+                state[s] = z1;
+                state[s + 1] = z2;
+            }
+        }
+    }
+
+    private void applyBands(Band[] bands) {
+        if (mAppliedBands == null || mAppliedBands.length != bands.length
+                || mState.length != bands.length * mChannelCount * 2) {
+            mCoefficients = new double[bands.length * COEFFICIENTS_PER_BAND];
+            mState = new double[bands.length * mChannelCount * 2];
+        }
+        for (int i = 0; i < bands.length; i++) {
+            computeCoefficients(bands[i], mSampleRateHz, mCoefficients,
+                    i * COEFFICIENTS_PER_BAND);
+        }
+        mAppliedBands = bands;
+    }
+
+    private static void computeCoefficients(Band band, int sampleRateHz, double[] out,
+                                            int offset) {
+        final double frequency = Math.min(band.frequencyHz, sampleRateHz * 0.49);
+        final double a = Math.pow(10, band.gainDb / 40.0);
+        final double w0 = 2 * Math.PI * frequency / sampleRateHz;
+        final double cos = Math.cos(w0);
+        final double alpha = Math.sin(w0) / (2 * Math.max(band.q, 0.01f));
+
+        final double b0, b1, b2, a0, a1, a2;
+        switch (band.type) {
+            case TYPE_LOW_SHELF: {
+                final double sq = 2 * Math.sqrt(a) * alpha;
+                b0 = a * ((a + 1) - (a - 1) * cos + sq);
+                b1 = 2 * a * ((a - 1) - (a + 1) * cos);
+                b2 = a * ((a + 1) - (a - 1) * cos - sq);
+                a0 = (a + 1) + (a - 1) * cos + sq;
+                a1 = -2 * ((a - 1) + (a + 1) * cos);
+                a2 = (a + 1) + (a - 1) * cos - sq;
+                break;
+            }
+            case TYPE_HIGH_SHELF: {
+                final double sq = 2 * Math.sqrt(a) * alpha;
+                b0 = a * ((a + 1) + (a - 1) * cos + sq);
+                b1 = -2 * a * ((a - 1) + (a + 1) * cos);
+                b2 = a * ((a + 1) + (a - 1) * cos - sq);
+                a0 = (a + 1) - (a - 1) * cos + sq;
+                a1 = 2 * ((a - 1) - (a + 1) * cos);
+                a2 = (a + 1) - (a - 1) * cos - sq;
+                break;
+            }
+            case TYPE_PEAKING:
+            default:
+                b0 = 1 + alpha * a;
+                b1 = -2 * cos;
+                b2 = 1 - alpha * a;
+                a0 = 1 + alpha / a;
+                a1 = -2 * cos;
+                a2 = 1 - alpha / a;
+                break;
+        }
+        out[offset] = b0 / a0;
+        out[offset + 1] = b1 / a0;
+        out[offset + 2] = b2 / a0;
+        out[offset + 3] = a1 / a0;
+        out[offset + 4] = a2 / a0;
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < mState.length; i++) {
+            mState[i] = 0;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.beeitstudio.mediaplayer.service.http;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Snapshot of one pooled connection.
+ */
+public final class ConnectionStats {
+
+    private final String mAddress;
+    private final long mConnectTimeMs;
+    private final int mRequestCount;
+    private final long mBytesRead;
+    private final long mAgeMs;
+    private final boolean mIdle;
+
+    ConnectionStats(String address, long connectTimeMs, int requestCount, long bytesRead,
+                    long ageMs, boolean idle) {
+        mAddress = address;
+        mConnectTimeMs = connectTimeMs;
+        mRequestCount = requestCount;
+        mBytesRead = bytesRead;
+        mAgeMs = ageMs;
+        mIdle = idle;
+    }
+
+    /**
+     * @return scheme://host:port the connection goes to
+     */
+    @NonNull
+    public String getAddress() {
+        return mAddress;
+    }
+
+    /**
+     * @return time spent on the TCP connect and TLS handshake
+     */
+    public long getConnectTimeMs() {
+        return mConnectTimeMs;
+    }
+
+    /**
+     * @return number of requests sent, more than 1 once the connection has been reused
+     */
+    public int getRequestCount() {
+        return mRequestCount;
+    }
+
+    /**
+     * @return response body bytes read
+     */
+    public long getBytesRead() {
+        return mBytesRead;
+    }
+
+    public long getAgeMs() {
+        return mAgeMs;
+    }
+
+    /**
+     * @return true if the connection is in the pool, waiting to be reused
+     */
+    public boolean isIdle() {
+        return mIdle;
+    }
+
+    @Override
+    public String toString() {
+        return mAddress + " connect=" + mConnectTimeMs + "ms requests=" + mRequestCount
+                + " read=" + mBytesRead + " age=" + mAgeMs + "ms" + (mIdle ? " idle" : "");
+    }
+}
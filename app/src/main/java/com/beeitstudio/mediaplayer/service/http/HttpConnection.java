@@ -0,0 +1,253 @@
+package com.beeitstudio.mediaplayer.service.http;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * One HTTP/1.1 connection, used by one request at a time. The socket stays open between
+ * requests as long as the server allows it.
+ */
+final class HttpConnection {
+
+    static final Charset ASCII = Charset.forName("ISO-8859-1");
+
+    private static final int MAX_LINE_LENGTH = 8192;
+    private static final int MAX_HEADER_COUNT = 256;
+
+    private final String mAddress;
+    private final Socket mSocket;
+    private final InputStream mIn;
+    private final OutputStream mOut;
+    private final int mReadTimeoutMs;
+    private final long mConnectTimeMs;
+    private final long mCreatedAt;
+
+    // Written by the request that holds the connection, read by stats snapshots.
+    private volatile int mRequestCount;
+    private volatile long mBytesRead;
+    private volatile long mIdleSince;
+
+    private HttpConnection(String address, Socket socket, int readTimeoutMs, long connectTimeMs)
+            throws IOException {
+        mAddress = address;
+        mSocket = socket;
+        mIn = new BufferedInputStream(socket.getInputStream());
+        mOut = new BufferedOutputStream(socket.getOutputStream());
+        mReadTimeoutMs = readTimeoutMs;
+        mConnectTimeMs = connectTimeMs;
+        mCreatedAt = System.currentTimeMillis();
+    }
+
+    static HttpConnection connect(String scheme, String host, int port,
+                                  int connectTimeoutMs, int readTimeoutMs) throws IOException {
+        final long start = System.nanoTime();
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            socket.connect(new InetSocketAddress(host, port), connectTimeoutMs);
+            socket.setSoTimeout(readTimeoutMs);
+            if ("https".equals(scheme)) {
+                final SSLSocket sslSocket = (SSLSocket) ((SSLSocketFactory) SSLSocketFactory
+                        .getDefault()).createSocket(socket, host, port, true);
+                socket = sslSocket;
+                sslSocket.startHandshake();
+                if (!HttpsURLConnection.getDefaultHostnameVerifier()
+                        .verify(host, sslSocket.getSession())) {
+                    throw new SSLPeerUnverifiedException("Hostname " + host + " not verified");
+                }
+            }
+            return new HttpConnection(address(scheme, host, port), socket, readTimeoutMs,
+                    (System.nanoTime() - start) / 1000000);
+        } catch (IOException e) {
+            closeQuietly(socket);
+            throw e;
+        }
+    }
+
+    static String address(String scheme, String host, int port) {
+        return scheme + "://" + host + ":" + port;
+    }
+
+    String getAddress() {
+        return mAddress;
+    }
+
+    /**
+     * Sends a GET request and reads the response head, the body is left for the caller.
+     */
+    HttpResponse execute(PooledHttpClient client, URL url, Map<String, String> headers)
+            throws IOException {
+        final StringBuilder request = new StringBuilder(256);
+        final String file = url.getFile();
+        request.append("GET ").append(file.isEmpty() ? "/" : file).append(" HTTP/1.1\r\n");
+        request.append("Host: ").append(url.getHost());
+        if (url.getPort() != -1 && url.getPort() != url.getDefaultPort()) {
+            request.append(':').append(url.getPort());
+        }
+        request.append("\r\n");
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            request.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        if (!headers.containsKey("Connection")) {
+            request.append("Connection: keep-alive\r\n");
+        }
+        request.append("\r\n");
+        mRequestCount++;
+        mOut.write(request.toString().getBytes(ASCII));
+        mOut.flush();
+
+        String statusLine;
+        int code;
+        Map<String, List<String>> responseHeaders;
+        do {
+            statusLine = readLine();
+            code = parseCode(statusLine);
+            responseHeaders = readHeaders();
+            // Informational responses (100 Continue) come before the real one.
+        } while (code >= 100 && code < 200);
+
+        return new HttpResponse(client, this, url, statusLine, code, responseHeaders);
+    }
+
+    /**
+     * @return false if the server closed the connection, or sent something unexpected,
+     * while it was in the pool
+     */
+    boolean isHealthy() {
+        if (mSocket.isClosed() || mSocket.isInputShutdown() || mSocket.isOutputShutdown()) {
+            return false;
+        }
+        try {
+            mSocket.setSoTimeout(1);
+            // An idle connection has nothing to read, so a read has to time out. The end of
+            // the stream, or stray data, both make it unusable.
+            mIn.read();
+            return false;
+        } catch (SocketTimeoutException e) {
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            try {
+                mSocket.setSoTimeout(mReadTimeoutMs);
+            } catch (IOException ignored) {
+                // Checked again by the next read.
+            }
+        }
+    }
+
+    InputStream getInputStream() {
+        return mIn;
+    }
+
+    void addBytesRead(int count) {
+        mBytesRead += count;
+    }
+
+    void markIdle() {
+        mIdleSince = System.currentTimeMillis();
+    }
+
+    long getIdleSince() {
+        return mIdleSince;
+    }
+
+    ConnectionStats getStats(boolean idle) {
+        return new ConnectionStats(mAddress, mConnectTimeMs, mRequestCount, mBytesRead,
+                System.currentTimeMillis() - mCreatedAt, idle);
+    }
+
+    void close() {
+        closeQuietly(mSocket);
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // Nothing left to do with it.
+        }
+    }
+
+    String readLine() throws IOException {
+        final StringBuilder line = new StringBuilder(64);
+        while (true) {
+            final int c = mIn.read();
+            if (c == -1) {
+                throw new ProtocolException("Unexpected end of stream");
+            }
+            if (c == '\n') {
+                final int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+            if (line.length() == MAX_LINE_LENGTH) {
+                throw new ProtocolException("Line too long");
+            }
+            line.append((char) c);
+        }
+    }
+
+    private Map<String, List<String>> readHeaders() throws IOException {
+        final Map<String, List<String>> headers = new LinkedHashMap<>();
+        for (int i = 0; ; i++) {
+            final String line = readLine();
+            if (line.isEmpty()) {
+                return headers;
+            }
+            final int colon = line.indexOf(':');
+            if (colon <= 0 || i == MAX_HEADER_COUNT) {
+                throw new ProtocolException("Bad header: " + line);
+            }
+            final String name = line.substring(0, colon).trim();
+            List<String> values = headers.get(name);
+            if (values == null) {
+                values = new ArrayList<>(1);
+                headers.put(name, values);
+            }
+            values.add(line.substring(colon + 1).trim());
+        }
+    }
+
+    private static int parseCode(String statusLine) throws ProtocolException {
+        // HTTP/1.1 206 Partial Content, or ICY 200 OK from a Shoutcast server, which is
+        // HTTP/1.0 otherwise.
+        final int codeStart;
+        if (statusLine.startsWith("HTTP/1.")) {
+            codeStart = 9;
+        } else if (statusLine.startsWith("ICY ")) {
+            codeStart = 4;
+        } else {
+            throw new ProtocolException("Bad status line: " + statusLine);
+        }
+        if (statusLine.length() < codeStart + 3) {
+            throw new ProtocolException("Bad status line: " + statusLine);
+        }
+        try {
+            return Integer.parseInt(statusLine.substring(codeStart, codeStart + 3));
+        } catch (NumberFormatException e) {
+            throw new ProtocolException("Bad status line: " + statusLine);
+        }
+    }
+}
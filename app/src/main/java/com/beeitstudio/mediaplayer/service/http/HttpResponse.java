@@ -0,0 +1,294 @@
+package com.beeitstudio.mediaplayer.service.http;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Response of a {@link PooledHttpClient} request. Closing it hands the connection back to the
+ * pool if the body was read to the end, or is short enough to skip over.
+ */
+public final class HttpResponse implements Closeable {
+
+    private static final long UNKNOWN_LENGTH = -1;
+    // Cheaper to read and drop than to open a new connection for the next request: a whole
+    // range of a PooledHttpDataSource left unread.
+    private static final long MAX_DRAIN_BYTES = PooledHttpDataSource.RANGE_BYTES;
+
+    private final PooledHttpClient mClient;
+    private final HttpConnection mConnection;
+    private final URL mUrl;
+    private final String mStatusLine;
+    private final int mCode;
+    private final Map<String, List<String>> mHeaders;
+    private final long mContentLength;
+    private final Body mBody;
+    private boolean mKeepAlive;
+    private boolean mClosed;
+
+    HttpResponse(PooledHttpClient client, HttpConnection connection, URL url, String statusLine,
+                 int code, Map<String, List<String>> headers) throws ProtocolException {
+        mClient = client;
+        mConnection = connection;
+        mUrl = url;
+        mStatusLine = statusLine;
+        mCode = code;
+        mHeaders = Collections.unmodifiableMap(headers);
+
+        final String connectionHeader = getHeader("Connection");
+        // ICY, as HTTP/1.0, closes unless asked not to.
+        mKeepAlive = statusLine.startsWith("HTTP/1.1")
+                ? !"close".equalsIgnoreCase(connectionHeader)
+                : "keep-alive".equalsIgnoreCase(connectionHeader);
+
+        final String contentLength = getHeader("Content-Length");
+        if (code == 204 || code == 304) {
+            mContentLength = 0;
+            mBody = new FixedLengthBody(0);
+        } else if ("chunked".equalsIgnoreCase(getHeader("Transfer-Encoding"))) {
+            mContentLength = UNKNOWN_LENGTH;
+            mBody = new ChunkedBody();
+        } else if (contentLength != null) {
+            try {
+                mContentLength = Long.parseLong(contentLength);
+            } catch (NumberFormatException e) {
+                throw new ProtocolException("Bad Content-Length: " + contentLength);
+            }
+            mBody = new FixedLengthBody(mContentLength);
+        } else {
+            // The body ends when the server closes the connection, as live streams do.
+            mContentLength = UNKNOWN_LENGTH;
+            mBody = new UntilCloseBody();
+            mKeepAlive = false;
+        }
+    }
+
+    /**
+     * @return where the response came from, after redirects
+     */
+    @NonNull
+    public URL getUrl() {
+        return mUrl;
+    }
+
+    public int getCode() {
+        return mCode;
+    }
+
+    @NonNull
+    public String getStatusLine() {
+        return mStatusLine;
+    }
+
+    /**
+     * @return the first value of the header, names are case insensitive
+     */
+    @Nullable
+    public String getHeader(@NonNull String name) {
+        for (Map.Entry<String, List<String>> header : mHeaders.entrySet()) {
+            if (header.getKey().equalsIgnoreCase(name)) {
+                return header.getValue().get(0);
+            }
+        }
+        return null;
+    }
+
+    @NonNull
+    public Map<String, List<String>> getHeaders() {
+        return mHeaders;
+    }
+
+    /**
+     * @return the body length, -1 if the server didn't say
+     */
+    public long getContentLength() {
+        return mContentLength;
+    }
+
+    @NonNull
+    public InputStream getBody() {
+        return mBody;
+    }
+
+    @Override
+    public void close() {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        if (mKeepAlive && mBody.skipRest()) {
+            mClient.recycle(mConnection);
+        } else {
+            mClient.discard(mConnection);
+        }
+    }
+
+    private abstract class Body extends InputStream {
+
+        final InputStream mIn = mConnection.getInputStream();
+
+        @Override
+        public int read() throws IOException {
+            final byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+            if (mClosed) {
+                throw new IOException("Response closed");
+            }
+            final int read = readBody(buffer, offset, length);
+            if (read > 0) {
+                mConnection.addBytesRead(read);
+            }
+            return read;
+        }
+
+        abstract int readBody(byte[] buffer, int offset, int length) throws IOException;
+
+        /**
+         * Reads to the end of the body if that's cheap.
+         *
+         * @return true if the connection is positioned at the next response
+         */
+        abstract boolean skipRest();
+
+        @Override
+        public void close() {
+            HttpResponse.this.close();
+        }
+    }
+
+    private final class FixedLengthBody extends Body {
+
+        private long mRemaining;
+
+        FixedLengthBody(long length) {
+            mRemaining = length;
+        }
+
+        @Override
+        int readBody(byte[] buffer, int offset, int length) throws IOException {
+            if (mRemaining == 0) {
+                return -1;
+            }
+            final int read = mIn.read(buffer, offset, (int) Math.min(length, mRemaining));
+            if (read == -1) {
+                throw new ProtocolException("Connection closed with " + mRemaining
+                        + " bytes left");
+            }
+            mRemaining -= read;
+            return read;
+        }
+
+        @Override
+        boolean skipRest() {
+            if (mRemaining > MAX_DRAIN_BYTES) {
+                return false;
+            }
+            try {
+                while (mRemaining > 0) {
+                    final long skipped = mIn.skip(mRemaining);
+                    if (skipped <= 0) {
+                        return false;
+                    }
+                    mRemaining -= skipped;
+                }
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+    }
+
+    private final class ChunkedBody extends Body {
+
+        // Left in the current chunk, -1 before the first chunk header.
+        private long mChunkRemaining = -1;
+        private boolean mEnded;
+
+        @Override
+        int readBody(byte[] buffer, int offset, int length) throws IOException {
+            if (mEnded) {
+                return -1;
+            }
+            if (mChunkRemaining <= 0) {
+                nextChunk();
+                if (mEnded) {
+                    return -1;
+                }
+            }
+            final int read = mIn.read(buffer, offset, (int) Math.min(length, mChunkRemaining));
+            if (read == -1) {
+                throw new ProtocolException("Connection closed inside a chunk");
+            }
+            mChunkRemaining -= read;
+            return read;
+        }
+
+        private void nextChunk() throws IOException {
+            if (mChunkRemaining == 0) {
+                // CRLF after the previous chunk's data.
+                mConnection.readLine();
+            }
+            final String line = mConnection.readLine();
+            final int extension = line.indexOf(';');
+            try {
+                mChunkRemaining = Long.parseLong(
+                        (extension == -1 ? line : line.substring(0, extension)).trim(), 16);
+            } catch (NumberFormatException e) {
+                throw new ProtocolException("Bad chunk size: " + line);
+            }
+            if (mChunkRemaining == 0) {
+                // Trailers, up to the empty line.
+                while (!mConnection.readLine().isEmpty()) {
+                    // Ignored.
+                }
+                mEnded = true;
+            }
+        }
+
+        @Override
+        boolean skipRest() {
+            // Only worth it when the end is already buffered, the total size is unknown.
+            final byte[] scratch = new byte[1024];
+            long drained = 0;
+            try {
+                while (!mEnded && drained <= MAX_DRAIN_BYTES) {
+                    if (mIn.available() == 0) {
+                        return false;
+                    }
+                    final int read = readBody(scratch, 0, scratch.length);
+                    if (read > 0) {
+                        drained += read;
+                    }
+                }
+                return mEnded;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+    }
+
+    private final class UntilCloseBody extends Body {
+
+        @Override
+        int readBody(byte[] buffer, int offset, int length) throws IOException {
+            return mIn.read(buffer, offset, length);
+        }
+
+        @Override
+        boolean skipRest() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package com.beeitstudio.mediaplayer.service.http;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Minimal HTTP/1.1 client for media streams that keeps connections alive between requests.
+ * <p>
+ * Re-preparing a stream, or seeking in one, sends a new range request to the same host. With
+ * {@link java.net.HttpURLConnection} that usually means a new TCP connection (and TLS
+ * handshake); here the request goes out on a connection from the pool instead. Only GET is
+ * supported, which also makes it safe to retry a request once on a fresh connection when a
+ * pooled one turns out to be dead.
+ * <p>
+ * Thread safe, connections are handed to one request at a time.
+ */
+public final class PooledHttpClient {
+
+    public static final int DEFAULT_CONNECT_TIMEOUT_MS = 8000;
+    public static final int DEFAULT_READ_TIMEOUT_MS = 8000;
+    public static final int DEFAULT_KEEP_ALIVE_MS = 30000;
+    public static final int DEFAULT_MAX_IDLE_PER_HOST = 2;
+
+    private static final int MAX_REDIRECTS = 5;
+
+    private final int mConnectTimeoutMs;
+    private final int mReadTimeoutMs;
+    private final int mKeepAliveMs;
+    private final int mMaxIdlePerHost;
+
+    private final Object mLock = new Object();
+    // Guarded by mLock. Idle connections by address, the most recently used last.
+    private final Map<String, ArrayDeque<HttpConnection>> mIdle = new HashMap<>();
+    private final Set<HttpConnection> mOpen = new HashSet<>();
+    private int mConnectCount;
+    private int mReuseCount;
+
+    private PooledHttpClient(Builder builder) {
+        mConnectTimeoutMs = builder.mConnectTimeoutMs;
+        mReadTimeoutMs = builder.mReadTimeoutMs;
+        mKeepAliveMs = builder.mKeepAliveMs;
+        mMaxIdlePerHost = builder.mMaxIdlePerHost;
+    }
+
+    /**
+     * GETs {@code length} bytes from {@code position}, following redirects. The response
+     * must be closed.
+     *
+     * @param position first byte to request, 0 for the whole resource
+     * @param length   number of bytes to request, -1 for everything from {@code position}
+     * @param headers  extra request headers
+     */
+    @NonNull
+    public HttpResponse get(@NonNull URL url, long position, long length,
+                            @NonNull Map<String, String> headers) throws IOException {
+        final Map<String, String> request = new LinkedHashMap<>(headers);
+        if (position != 0 || length != -1) {
+            request.put("Range", "bytes=" + position + "-"
+                    + (length != -1 ? String.valueOf(position + length - 1) : ""));
+        }
+        for (int redirects = 0; ; redirects++) {
+            final HttpResponse response = execute(url, request);
+            final String location = response.getHeader("Location");
+            if (!isRedirect(response.getCode()) || location == null) {
+                return response;
+            }
+            response.close();
+            if (redirects == MAX_REDIRECTS) {
+                throw new ProtocolException("Too many redirects: " + url);
+            }
+            url = new URL(url, location);
+        }
+    }
+
+    private HttpResponse execute(URL url, Map<String, String> headers) throws IOException {
+        final String scheme = url.getProtocol();
+        if (!"http".equals(scheme) && !"https".equals(scheme)) {
+            throw new ProtocolException("Unsupported scheme: " + url);
+        }
+        final String host = url.getHost();
+        final int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+        final String address = HttpConnection.address(scheme, host, port);
+
+        while (true) {
+            HttpConnection connection = takeIdle(address);
+            final boolean pooled = connection != null;
+            if (!pooled) {
+                connection = HttpConnection.connect(scheme, host, port,
+                        mConnectTimeoutMs, mReadTimeoutMs);
+                synchronized (mLock) {
+                    mOpen.add(connection);
+                    mConnectCount++;
+                }
+            }
+            try {
+                return connection.execute(this, url, headers);
+            } catch (IOException e) {
+                discard(connection);
+                if (!pooled) {
+                    throw e;
+                }
+                // The server dropped the pooled connection between the health check and the
+                // request. Another pooled one, or a new one, gets the request instead.
+            }
+        }
+    }
+
+    private HttpConnection takeIdle(String address) {
+        while (true) {
+            final HttpConnection connection;
+            synchronized (mLock) {
+                evictExpired(System.currentTimeMillis());
+                final ArrayDeque<HttpConnection> idle = mIdle.get(address);
+                connection = idle != null ? idle.pollLast() : null;
+            }
+            if (connection == null) {
+                return null;
+            }
+            // Checked outside the lock, it blocks for a millisecond.
+            if (connection.isHealthy()) {
+                synchronized (mLock) {
+                    mReuseCount++;
+                }
+                return connection;
+            }
+            discard(connection);
+        }
+    }
+
+    void recycle(HttpConnection connection) {
+        synchronized (mLock) {
+            if (!mOpen.contains(connection)) {
+                return;
+            }
+            if (mMaxIdlePerHost == 0) {
+                mOpen.remove(connection);
+                connection.close();
+                return;
+            }
+            ArrayDeque<HttpConnection> idle = mIdle.get(connection.getAddress());
+            if (idle == null) {
+                idle = new ArrayDeque<>(mMaxIdlePerHost);
+                mIdle.put(connection.getAddress(), idle);
+            }
+            if (idle.size() == mMaxIdlePerHost) {
+                final HttpConnection oldest = idle.pollFirst();
+                mOpen.remove(oldest);
+                oldest.close();
+            }
+            connection.markIdle();
+            idle.addLast(connection);
+        }
+    }
+
+    void discard(HttpConnection connection) {
+        synchronized (mLock) {
+            mOpen.remove(connection);
+        }
+        connection.close();
+    }
+
+    private void evictExpired(long now) {
+        final Iterator<ArrayDeque<HttpConnection>> addresses = mIdle.values().iterator();
+        while (addresses.hasNext()) {
+            final ArrayDeque<HttpConnection> idle = addresses.next();
+            while (!idle.isEmpty() && now - idle.peekFirst().getIdleSince() >= mKeepAliveMs) {
+                final HttpConnection expired = idle.pollFirst();
+                mOpen.remove(expired);
+                expired.close();
+            }
+            if (idle.isEmpty()) {
+                addresses.remove();
+            }
+        }
+    }
+
+    /**
+     * Closes all idle connections, the ones in use are closed when their response is.
+     */
+    public void evictAll() {
+        synchronized (mLock) {
+            for (ArrayDeque<HttpConnection> idle : mIdle.values()) {
+                for (HttpConnection connection : idle) {
+                    mOpen.remove(connection);
+                    connection.close();
+                }
+            }
+            mIdle.clear();
+        }
+    }
+
+    /**
+     * @return the open connections, in use or idle
+     */
+    @NonNull
+    public List<ConnectionStats> getConnectionStats() {
+        synchronized (mLock) {
+            final Set<HttpConnection> idle = new HashSet<>();
+            for (ArrayDeque<HttpConnection> connections : mIdle.values()) {
+                idle.addAll(connections);
+            }
+            final List<ConnectionStats> stats = new ArrayList<>(mOpen.size());
+            for (HttpConnection connection : mOpen) {
+                stats.add(connection.getStats(idle.contains(connection)));
+            }
+            return Collections.unmodifiableList(stats);
+        }
+    }
+
+    /**
+     * @return number of connections opened so far
+     */
+    public int getConnectCount() {
+        synchronized (mLock) {
+            return mConnectCount;
+        }
+    }
+
+    /**
+     * @return number of requests that went out on a pooled connection
+     */
+    public int getReuseCount() {
+        synchronized (mLock) {
+            return mReuseCount;
+        }
+    }
+
+    private static boolean isRedirect(int code) {
+        return code == 300 || code == 301 || code == 302 || code == 303
+                || code == 307 || code == 308;
+    }
+
+    public static final class Builder {
+
+        private int mConnectTimeoutMs = DEFAULT_CONNECT_TIMEOUT_MS;
+        private int mReadTimeoutMs = DEFAULT_READ_TIMEOUT_MS;
+        private int mKeepAliveMs = DEFAULT_KEEP_ALIVE_MS;
+        private int mMaxIdlePerHost = DEFAULT_MAX_IDLE_PER_HOST;
+
+        public Builder setConnectTimeoutMs(int connectTimeoutMs) {
+            mConnectTimeoutMs = connectTimeoutMs;
+            return this;
+        }
+
+        public Builder setReadTimeoutMs(int readTimeoutMs) {
+            mReadTimeoutMs = readTimeoutMs;
+            return this;
+        }
+
+        /**
+         * @param keepAliveMs how long an idle connection stays in the pool
+         */
+        public Builder setKeepAliveMs(int keepAliveMs) {
+            mKeepAliveMs = keepAliveMs;
+            return this;
+        }
+
+        /**
+         * @param maxIdlePerHost idle connections kept per host, 0 disables pooling
+         */
+        public Builder setMaxIdlePerHost(int maxIdlePerHost) {
+            mMaxIdlePerHost = maxIdlePerHost;
+            return this;
+        }
+
+        public PooledHttpClient build() {
+            return new PooledHttpClient(this);
+        }
+    }
+}
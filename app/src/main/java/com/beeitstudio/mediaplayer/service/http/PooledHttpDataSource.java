@@ -0,0 +1,275 @@
+package com.beeitstudio.mediaplayer.service.http;
+
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.BaseDataSource;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.HttpDataSource;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ExoPlayer {@link DataSource} for http(s) URIs on top of a shared {@link PooledHttpClient},
+ * so successive loads of a stream reuse the connection of the previous one.
+ * <p>
+ * The stream is requested {@link #RANGE_BYTES} at a time from servers that honour ranges, one
+ * request after the other on the same connection. A load closed early, for a seek or a
+ * re-prepare, then leaves little enough of its response to drain, and the connection goes
+ * back to the pool for the next load rather than being dropped.
+ */
+public final class PooledHttpDataSource extends BaseDataSource implements HttpDataSource {
+
+    static final long RANGE_BYTES = 64 * 1024;
+
+    private final PooledHttpClient mClient;
+    private final String mUserAgent;
+    private final Map<String, String> mRequestHeaders;
+
+    @Nullable
+    private DataSpec mDataSpec;
+    @Nullable
+    private URL mUrl;
+    @Nullable
+    private HttpResponse mResponse;
+    // Of the load's first response, empty while closed.
+    private Map<String, List<String>> mResponseHeaders = Collections.emptyMap();
+    private InputStream mBody;
+    // The next byte to read and the end of the load, C.LENGTH_UNSET if not known.
+    private long mPosition;
+    private long mEnd;
+    private boolean mRanged;
+    private long mBytesRemaining;
+    private boolean mOpened;
+
+    public PooledHttpDataSource(@NonNull PooledHttpClient client, @NonNull String userAgent) {
+        super(true);
+        mClient = client;
+        mUserAgent = userAgent;
+        mRequestHeaders = new HashMap<>();
+        clearAllRequestProperties();
+    }
+
+    @Override
+    public void setRequestProperty(@NonNull String name, @NonNull String value) {
+        mRequestHeaders.put(name, value);
+    }
+
+    @Override
+    public void clearRequestProperty(@NonNull String name) {
+        mRequestHeaders.remove(name);
+    }
+
+    /**
+     * Clears the properties set, back to the ones every request has.
+     */
+    @Override
+    public void clearAllRequestProperties() {
+        mRequestHeaders.clear();
+        mRequestHeaders.put("User-Agent", mUserAgent);
+        // Compressed bodies can't be read from a byte offset.
+        mRequestHeaders.put("Accept-Encoding", "identity");
+    }
+
+    @Override
+    public Map<String, List<String>> getResponseHeaders() {
+        return mResponseHeaders;
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws HttpDataSource.HttpDataSourceException {
+        mDataSpec = dataSpec;
+        transferInitializing(dataSpec);
+
+        final long position = dataSpec.absoluteStreamPosition;
+        mPosition = position;
+        mEnd = dataSpec.length != C.LENGTH_UNSET ? position + dataSpec.length : C.LENGTH_UNSET;
+        try {
+            mUrl = new URL(dataSpec.uri.toString());
+            requestRange();
+        } catch (IOException e) {
+            throw new HttpDataSource.HttpDataSourceException("Unable to connect to "
+                    + dataSpec.uri, e, dataSpec, HttpDataSource.HttpDataSourceException.TYPE_OPEN);
+        }
+
+        final int code = mResponse.getCode();
+        if (code < 200 || code > 299) {
+            final Map<String, List<String>> headers = mResponse.getHeaders();
+            closeResponse();
+            throw new HttpDataSource.InvalidResponseCodeException(code, headers, dataSpec);
+        }
+        // Later ranges skip the redirects.
+        mUrl = mResponse.getUrl();
+        mResponseHeaders = mResponse.getHeaders();
+
+        // A server that ignores the range sends everything from the start.
+        final long bytesToSkip = mRanged ? 0 : position;
+        final long contentLength = mRanged ? getTotalLength() : mResponse.getContentLength();
+        if (dataSpec.length != C.LENGTH_UNSET) {
+            mBytesRemaining = dataSpec.length;
+        } else if (contentLength != -1) {
+            mBytesRemaining = contentLength - position;
+            mEnd = contentLength;
+        } else {
+            mBytesRemaining = C.LENGTH_UNSET;
+        }
+
+        try {
+            skip(bytesToSkip);
+        } catch (IOException e) {
+            closeResponse();
+            throw new HttpDataSource.HttpDataSourceException(e, dataSpec,
+                    HttpDataSource.HttpDataSourceException.TYPE_OPEN);
+        }
+
+        mOpened = true;
+        transferStarted(dataSpec);
+        return mBytesRemaining;
+    }
+
+    // Requests the next range from mPosition on, up to mEnd.
+    private void requestRange() throws IOException {
+        final long length = mEnd != C.LENGTH_UNSET
+                ? Math.min(RANGE_BYTES, mEnd - mPosition)
+                : RANGE_BYTES;
+        mResponse = mClient.get(mUrl, mPosition, length, mRequestHeaders);
+        mRanged = mResponse.getCode() == 206;
+        mBody = mResponse.getBody();
+    }
+
+    // The resource length from "Content-Range: bytes first-last/length", -1 if not given.
+    private long getTotalLength() {
+        final String range = mResponse.getHeader("Content-Range");
+        final int slash = range != null ? range.lastIndexOf('/') : -1;
+        if (slash == -1) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(range.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // Moves on to the range after the one read to the end.
+    // Returns false if the stream ends there after all.
+    private boolean nextRange() throws IOException {
+        closeResponse();
+        requestRange();
+        final int code = mResponse.getCode();
+        if (code == 416) {
+            // Past the end of a stream that didn't say how long it is.
+            closeResponse();
+            return false;
+        }
+        if (code < 200 || code > 299) {
+            throw new IOException("Unexpected response to a range: " + mResponse.getStatusLine());
+        }
+        if (!mRanged) {
+            skip(mPosition);
+        }
+        return true;
+    }
+
+    private void skip(long bytes) throws IOException {
+        final byte[] scratch = new byte[4096];
+        while (bytes > 0) {
+            final int read = mBody.read(scratch, 0, (int) Math.min(bytes, scratch.length));
+            if (read == -1) {
+                throw new EOFException();
+            }
+            bytes -= read;
+        }
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength)
+            throws HttpDataSource.HttpDataSourceException {
+        if (readLength == 0) {
+            return 0;
+        }
+        if (mBytesRemaining == 0) {
+            return C.RESULT_END_OF_INPUT;
+        }
+        final int toRead = mBytesRemaining == C.LENGTH_UNSET
+                ? readLength
+                : (int) Math.min(readLength, mBytesRemaining);
+        int read;
+        try {
+            read = mBody != null ? mBody.read(buffer, offset, toRead) : -1;
+            if (read == -1 && mRanged && (mEnd == C.LENGTH_UNSET || mPosition < mEnd)) {
+                read = nextRange() ? mBody.read(buffer, offset, toRead) : -1;
+            }
+        } catch (IOException e) {
+            throw new HttpDataSource.HttpDataSourceException(e, mDataSpec,
+                    HttpDataSource.HttpDataSourceException.TYPE_READ);
+        }
+        if (read == -1) {
+            if (mBytesRemaining != C.LENGTH_UNSET) {
+                throw new HttpDataSource.HttpDataSourceException(new EOFException(), mDataSpec,
+                        HttpDataSource.HttpDataSourceException.TYPE_READ);
+            }
+            return C.RESULT_END_OF_INPUT;
+        }
+        if (mBytesRemaining != C.LENGTH_UNSET) {
+            mBytesRemaining -= read;
+        }
+        mPosition += read;
+        bytesTransferred(read);
+        return read;
+    }
+
+    @Nullable
+    @Override
+    public Uri getUri() {
+        return mUrl != null ? Uri.parse(mUrl.toString()) : null;
+    }
+
+    @Override
+    public void close() {
+        closeResponse();
+        mUrl = null;
+        mResponseHeaders = Collections.emptyMap();
+        mRanged = false;
+        if (mOpened) {
+            mOpened = false;
+            transferEnded();
+        }
+    }
+
+    private void closeResponse() {
+        if (mResponse != null) {
+            // Back to the pool if the rest of the range is short enough to drain.
+            mResponse.close();
+            mResponse = null;
+            mBody = null;
+        }
+    }
+
+    public static final class Factory implements DataSource.Factory {
+
+        private final PooledHttpClient mClient;
+        private final String mUserAgent;
+
+        public Factory(@NonNull PooledHttpClient client, @NonNull String userAgent) {
+            mClient = client;
+            mUserAgent = userAgent;
+        }
+
+        @Override
+        public PooledHttpDataSource createDataSource() {
+            return new PooledHttpDataSource(mClient, mUserAgent);
+        }
+    }
+}
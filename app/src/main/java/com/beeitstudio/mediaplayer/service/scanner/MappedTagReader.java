@@ -0,0 +1,876 @@
+package com.beeitstudio.mediaplayer.service.scanner;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+/**
+ * Pure Java {@link TagExtractor} for ID3v1/ID3v2 (MP3), Vorbis comments (FLAC, Ogg Vorbis,
+ * Opus) and iTunes style MP4 atoms.
+ * <p>
+ * Only the regions holding tags are memory mapped: the head of the file (sized to the tag when
+ * the format says how big it is), the last kilobytes for trailers, and for MP4 just the
+ * {@code moov} atom. Frames and blocks are walked in place with absolute reads; frames that
+ * aren't needed, like embedded pictures, are skipped by their length without touching their
+ * pages. Only the handful of text values that end up in {@link TrackTags} are copied out.
+ * <p>
+ * Files it can't parse are handed to the fallback extractor.
+ */
+public class MappedTagReader implements TagExtractor {
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Charset UTF_16 = Charset.forName("UTF-16");
+    private static final Charset UTF_16BE = Charset.forName("UTF-16BE");
+
+    // Upper bound for the head mapping of formats that don't declare their tag size upfront.
+    private static final int MAX_HEAD_MAP = 4 * 1024 * 1024;
+    private static final int TRAILER_MAP = 64 * 1024;
+    private static final int MAX_MOOV_MAP = 16 * 1024 * 1024;
+    private static final int MP3_SYNC_SEARCH = 64 * 1024;
+
+    private static final String[] ID3V1_GENRES = {
+            "Blues", "Classic Rock", "Country", "Dance", "Disco", "Funk", "Grunge", "Hip-Hop",
+            "Jazz", "Metal", "New Age", "Oldies", "Other", "Pop", "R&B", "Rap", "Reggae", "Rock",
+            "Techno", "Industrial", "Alternative", "Ska", "Death Metal", "Pranks", "Soundtrack",
+            "Euro-Techno", "Ambient", "Trip-Hop", "Vocal", "Jazz+Funk", "Fusion", "Trance",
+            "Classical", "Instrumental", "Acid", "House", "Game", "Sound Clip", "Gospel", "Noise",
+            "AlternRock", "Bass", "Soul", "Punk", "Space", "Meditative", "Instrumental Pop",
+            "Instrumental Rock", "Ethnic", "Gothic", "Darkwave", "Techno-Industrial", "Electronic",
+            "Pop-Folk", "Eurodance", "Dream", "Southern Rock", "Comedy", "Cult", "Gangsta",
+            "Top 40", "Christian Rap", "Pop/Funk", "Jungle", "Native American", "Cabaret",
+            "New Wave", "Psychadelic", "Rave", "Showtunes", "Trailer", "Lo-Fi", "Tribal",
+            "Acid Punk", "Acid Jazz", "Polka", "Retro", "Musical", "Rock & Roll", "Hard Rock"
+    };
+
+    private static final int[][] MPEG1_BITRATES = {
+            {0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448},
+            {0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384},
+            {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320}
+    };
+    private static final int[][] MPEG2_BITRATES = {
+            {0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256},
+            {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160},
+            {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160}
+    };
+    private static final int[][] MPEG_SAMPLE_RATES = {
+            {44100, 48000, 32000}, // MPEG 1
+            {22050, 24000, 16000}, // MPEG 2
+            {11025, 12000, 8000}   // MPEG 2.5
+    };
+
+    @Nullable
+    private final TagExtractor mFallback;
+
+    public MappedTagReader(@Nullable TagExtractor fallback) {
+        mFallback = fallback;
+    }
+
+    @Nullable
+    @Override
+    public TrackTags extract(@NonNull File file) {
+        TrackTags tags = null;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            tags = read(raf.getChannel());
+        } catch (IOException | RuntimeException e) {
+            // Truncated or malformed, let the fallback have a go.
+        }
+        if (tags == null && mFallback != null) {
+            tags = mFallback.extract(file);
+        }
+        return tags;
+    }
+
+    @Nullable
+    TrackTags read(FileChannel channel) throws IOException {
+        final long size = channel.size();
+        if (size < 12) {
+            return null;
+        }
+        final ByteBuffer probe = map(channel, 0, 12);
+
+        if (matches(probe, 0, "ID3")) {
+            return readId3v2(channel, size, probe);
+        }
+        if (matches(probe, 0, "fLaC")) {
+            return readFlac(channel, size, 0);
+        }
+        if (matches(probe, 0, "OggS")) {
+            return readOgg(channel, size);
+        }
+        if (matches(probe, 4, "ftyp")) {
+            return readMp4(channel, size);
+        }
+        if ((probe.get(0) & 0xFF) == 0xFF && (probe.get(1) & 0xE0) == 0xE0) {
+            // Bare MPEG audio, at most an ID3v1 trailer.
+            final Builder builder = new Builder();
+            readId3v1(channel, size, builder);
+            builder.durationMs = readMp3Duration(channel, size, 0, builder.hasId3v1);
+            return builder.build();
+        }
+        return null;
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, long position, long length)
+            throws IOException {
+        final MappedByteBuffer buffer =
+                channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        return buffer;
+    }
+
+    // --- ID3 ---------------------------------------------------------------------------------
+
+    private TrackTags readId3v2(FileChannel channel, long size, ByteBuffer probe)
+            throws IOException {
+        final int major = probe.get(3) & 0xFF;
+        final int flags = probe.get(5) & 0xFF;
+        final int tagSize = readSyncSafe(probe, 6);
+        final long audioStart = 10L + tagSize + ((flags & 0x10) != 0 ? 10 : 0);
+
+        // FLAC files are sometimes prefixed with an ID3 tag as well.
+        if (audioStart + 4 <= size && matches(map(channel, audioStart, 4), 0, "fLaC")) {
+            return readFlac(channel, size, audioStart);
+        }
+
+        // Whole-tag unsynchronisation (2.2/2.3) would need a de-unsynchronised copy, rare enough
+        // to leave to the fallback. Without one the trailer and duration are still worth having.
+        final boolean unsynchronised = (flags & 0x80) != 0 && major < 4;
+        if (unsynchronised && mFallback != null) {
+            return null;
+        }
+        final Builder builder = new Builder();
+        if (major >= 2 && major <= 4 && !unsynchronised) {
+            final ByteBuffer tag = map(channel, 0, Math.min(size, 10L + tagSize));
+            parseId3v2Frames(tag, major, flags, builder);
+        }
+        if (builder.title == null) {
+            readId3v1(channel, size, builder);
+        }
+        if (builder.durationMs <= 0) {
+            builder.durationMs = readMp3Duration(channel, size, audioStart, builder.hasId3v1);
+        }
+        return builder.build();
+    }
+
+    private void parseId3v2Frames(ByteBuffer tag, int major, int flags, Builder builder) {
+        int position = 10;
+        if ((flags & 0x40) != 0 && major >= 3) {
+            position += major == 4 ? readSyncSafe(tag, position) : tag.getInt(position) + 4;
+        }
+
+        final int idLength = major == 2 ? 3 : 4;
+        final int headerLength = major == 2 ? 6 : 10;
+        final int end = tag.limit();
+        while (position + headerLength <= end) {
+            if (tag.get(position) == 0) {
+                break; // padding
+            }
+            final int frameSize;
+            if (major == 2) {
+                frameSize = ((tag.get(position + 3) & 0xFF) << 16)
+                        | ((tag.get(position + 4) & 0xFF) << 8)
+                        | (tag.get(position + 5) & 0xFF);
+            } else if (major == 4) {
+                frameSize = readSyncSafe(tag, position + 4);
+            } else {
+                frameSize = tag.getInt(position + 4);
+            }
+            final int frameStart = position + headerLength;
+            if (frameSize <= 0 || frameStart + frameSize > end) {
+                break;
+            }
+
+            final int frameFlags = major == 2 ? 0 : tag.get(position + 9) & 0xFF;
+            // Compressed or encrypted frames can't be read in place, skip them.
+            final boolean readable = (frameFlags & (major == 4 ? 0x0C : 0xC0)) == 0;
+            // ID3v2.4 may put a data length indicator in front of the frame content.
+            final int skip = major == 4 && (frameFlags & 0x01) != 0 ? 4 : 0;
+            final int dataStart = frameStart + skip;
+            final int dataLength = frameSize - skip;
+            if (readable && dataLength > 0) {
+                final String id = asciiString(tag, position, idLength);
+                switch (id) {
+                    case "TIT2":
+                    case "TT2":
+                        builder.title = readId3Text(tag, dataStart, dataLength);
+                        break;
+                    case "TPE1":
+                    case "TP1":
+                        builder.artist = readId3Text(tag, dataStart, dataLength);
+                        break;
+                    case "TALB":
+                    case "TAL":
+                        builder.album = readId3Text(tag, dataStart, dataLength);
+                        break;
+                    case "TCON":
+                    case "TCO":
+                        builder.genre = resolveGenre(readId3Text(tag, dataStart, dataLength));
+                        break;
+                    case "TLEN":
+                    case "TLE":
+                        builder.durationMs = parseLong(readId3Text(tag, dataStart, dataLength));
+                        break;
+                    default:
+                        break;
+                }
+            }
+            position = frameStart + frameSize;
+        }
+    }
+
+    @Nullable
+    private static String readId3Text(ByteBuffer tag, int offset, int length) {
+        if (length < 2) {
+            return null;
+        }
+        final int encoding = tag.get(offset);
+        final Charset charset;
+        final int terminatorLength;
+        switch (encoding) {
+            case 1:
+                charset = UTF_16;
+                terminatorLength = 2;
+                break;
+            case 2:
+                charset = UTF_16BE;
+                terminatorLength = 2;
+                break;
+            case 3:
+                charset = UTF_8;
+                terminatorLength = 1;
+                break;
+            default:
+                charset = ISO_8859_1;
+                terminatorLength = 1;
+                break;
+        }
+
+        // Stop at the first terminator, ID3v2.4 separates multiple values with it.
+        final int start = offset + 1;
+        final int end = offset + length;
+        int textEnd = start;
+        while (textEnd + terminatorLength <= end) {
+            if (tag.get(textEnd) == 0 && (terminatorLength == 1 || tag.get(textEnd + 1) == 0)) {
+                break;
+            }
+            textEnd += terminatorLength;
+        }
+        return emptyToNull(decode(tag, start, Math.min(textEnd, end) - start, charset));
+    }
+
+    private static void readId3v1(FileChannel channel, long size, Builder builder)
+            throws IOException {
+        if (size < 128) {
+            return;
+        }
+        final ByteBuffer trailer = map(channel, size - 128, 128);
+        if (!matches(trailer, 0, "TAG")) {
+            return;
+        }
+        builder.hasId3v1 = true;
+        if (builder.title == null) {
+            builder.title = id3v1String(trailer, 3, 30);
+        }
+        if (builder.artist == null) {
+            builder.artist = id3v1String(trailer, 33, 30);
+        }
+        if (builder.album == null) {
+            builder.album = id3v1String(trailer, 63, 30);
+        }
+        if (builder.genre == null) {
+            final int genre = trailer.get(127) & 0xFF;
+            builder.genre = genre < ID3V1_GENRES.length ? ID3V1_GENRES[genre] : null;
+        }
+    }
+
+    @Nullable
+    private static String id3v1String(ByteBuffer buffer, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && buffer.get(end) != 0) {
+            end++;
+        }
+        return emptyToNull(decode(buffer, offset, end - offset, ISO_8859_1).trim());
+    }
+
+    @Nullable
+    private static String resolveGenre(@Nullable String genre) {
+        if (genre == null) {
+            return null;
+        }
+        // "(17)", "(17)Rock" or just "17" refer to the ID3v1 genre list.
+        String index = genre;
+        if (genre.startsWith("(")) {
+            final int close = genre.indexOf(')');
+            if (close > 1) {
+                if (close + 1 < genre.length()) {
+                    return genre.substring(close + 1);
+                }
+                index = genre.substring(1, close);
+            }
+        }
+        final long value = parseLong(index);
+        if (value > 0 || "0".equals(index)) {
+            return value < ID3V1_GENRES.length ? ID3V1_GENRES[(int) value] : null;
+        }
+        return genre;
+    }
+
+    private static long readMp3Duration(FileChannel channel, long size, long audioStart,
+                                        boolean hasId3v1) throws IOException {
+        if (audioStart >= size) {
+            return 0;
+        }
+        final ByteBuffer head =
+                map(channel, audioStart, Math.min(size - audioStart, MP3_SYNC_SEARCH));
+        for (int i = 0; i + 4 <= head.limit(); i++) {
+            if ((head.get(i) & 0xFF) != 0xFF || (head.get(i + 1) & 0xE0) != 0xE0) {
+                continue;
+            }
+            final int header = head.getInt(i);
+            final int versionBits = (header >>> 19) & 0x3;
+            final int layerBits = (header >>> 17) & 0x3;
+            final int bitrateIndex = (header >>> 12) & 0xF;
+            final int sampleRateIndex = (header >>> 10) & 0x3;
+            if (versionBits == 1 || layerBits == 0 || bitrateIndex == 0 || bitrateIndex == 15
+                    || sampleRateIndex == 3) {
+                continue;
+            }
+
+            final boolean mpeg1 = versionBits == 3;
+            final int layer = 4 - layerBits; // 1, 2 or 3
+            final int sampleRate =
+                    MPEG_SAMPLE_RATES[mpeg1 ? 0 : versionBits == 2 ? 1 : 2][sampleRateIndex];
+            final int bitrateKbps =
+                    (mpeg1 ? MPEG1_BITRATES : MPEG2_BITRATES)[layer - 1][bitrateIndex];
+            final int samplesPerFrame = layer == 1 ? 384 : layer == 2 || mpeg1 ? 1152 : 576;
+            final boolean mono = ((header >>> 6) & 0x3) == 3;
+
+            // A Xing/Info or VBRI header in the first frame knows the exact frame count.
+            final int sideInfo = mpeg1 ? (mono ? 17 : 32) : (mono ? 9 : 17);
+            final int xing = i + 4 + sideInfo;
+            if (xing + 12 <= head.limit()
+                    && (matches(head, xing, "Xing") || matches(head, xing, "Info"))
+                    && (head.getInt(xing + 4) & 0x1) != 0) {
+                return head.getInt(xing + 8) * 1000L * samplesPerFrame / sampleRate;
+            }
+            final int vbri = i + 4 + 32;
+            if (vbri + 18 <= head.limit() && matches(head, vbri, "VBRI")) {
+                return head.getInt(vbri + 14) * 1000L * samplesPerFrame / sampleRate;
+            }
+
+            // Constant bitrate: the stream length tells the duration.
+            final long audioBytes = size - audioStart - i - (hasId3v1 ? 128 : 0);
+            return audioBytes * 8 / bitrateKbps;
+        }
+        return 0;
+    }
+
+    // --- FLAC / Ogg / Vorbis comments -------------------------------------------------------
+
+    private TrackTags readFlac(FileChannel channel, long size, long start) throws IOException {
+        final ByteBuffer head = map(channel, start, Math.min(size - start, MAX_HEAD_MAP));
+        final Builder builder = new Builder();
+        int position = 4;
+        boolean last = false;
+        while (!last && position + 4 <= head.limit()) {
+            final int blockHeader = head.getInt(position);
+            last = (blockHeader & 0x80000000) != 0;
+            final int type = (blockHeader >>> 24) & 0x7F;
+            final int length = blockHeader & 0xFFFFFF;
+            final int data = position + 4;
+            if (data + length > head.limit()) {
+                break;
+            }
+            if (type == 0 && length >= 18) {
+                // STREAMINFO: 20 bit sample rate, 3 bit channels, 5 bit depth, 36 bit samples.
+                final long packed = head.getLong(data + 10);
+                final int sampleRate = (int) (packed >>> 44);
+                final long totalSamples = packed & 0xFFFFFFFFFL;
+                if (sampleRate > 0) {
+                    builder.durationMs = totalSamples * 1000 / sampleRate;
+                }
+            } else if (type == 4) {
+                readVorbisComment(new FlatCursor(head, data, data + length), builder);
+            }
+            position = data + length;
+        }
+        return builder.build();
+    }
+
+    private TrackTags readOgg(FileChannel channel, long size) throws IOException {
+        final ByteBuffer head = map(channel, 0, Math.min(size, MAX_HEAD_MAP));
+        final OggCursor cursor = new OggCursor(head);
+        final Builder builder = new Builder();
+
+        // Identification header: tells the codec and its sample rate.
+        final int sampleRate;
+        long preSkip = 0;
+        final boolean opus;
+        if (cursor.startsWith("OpusHead")) {
+            opus = true;
+            cursor.skip(10);
+            preSkip = cursor.readU16Le();
+            sampleRate = 48000; // Opus granule positions always count 48 kHz samples.
+        } else if (cursor.startsWith("\u0001vorbis")) {
+            opus = false;
+            cursor.skip(7 + 4 + 1);
+            sampleRate = (int) cursor.readU32Le();
+        } else {
+            return null;
+        }
+        cursor.nextPacket();
+
+        // Comment header.
+        if (opus ? cursor.startsWith("OpusTags") : cursor.startsWith("\u0003vorbis")) {
+            cursor.skip(opus ? 8 : 7);
+            readVorbisComment(cursor, builder);
+        }
+
+        // The granule position of the last page is the stream length in samples.
+        final int trailerLength = (int) Math.min(size, TRAILER_MAP);
+        final ByteBuffer trailer = map(channel, size - trailerLength, trailerLength);
+        trailer.order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = trailerLength - 27; i >= 0; i--) {
+            if (matches(trailer, i, "OggS")) {
+                final long granule = trailer.getLong(i + 6);
+                if (granule > 0 && sampleRate > 0) {
+                    builder.durationMs = (granule - preSkip) * 1000 / sampleRate;
+                }
+                break;
+            }
+        }
+        return builder.build();
+    }
+
+    private static void readVorbisComment(Cursor cursor, Builder builder) {
+        cursor.skip((int) cursor.readU32Le()); // vendor string
+        final long count = cursor.readU32Le();
+        for (long i = 0; i < count && cursor.hasRemaining(); i++) {
+            final int length = (int) cursor.readU32Le();
+            final int keyLength = cursor.indexOf((byte) '=', length);
+            if (keyLength < 0) {
+                cursor.skip(length);
+                continue;
+            }
+            final String key = cursor.readString(keyLength, ISO_8859_1).toUpperCase(Locale.US);
+            cursor.skip(1);
+            final int valueLength = length - keyLength - 1;
+            switch (key) {
+                case "TITLE":
+                    builder.title = firstNonNull(builder.title,
+                            cursor.readString(valueLength, UTF_8));
+                    break;
+                case "ARTIST":
+                    builder.artist = firstNonNull(builder.artist,
+                            cursor.readString(valueLength, UTF_8));
+                    break;
+                case "ALBUM":
+                    builder.album = firstNonNull(builder.album,
+                            cursor.readString(valueLength, UTF_8));
+                    break;
+                case "GENRE":
+                    builder.genre = firstNonNull(builder.genre,
+                            cursor.readString(valueLength, UTF_8));
+                    break;
+                default:
+                    // Includes METADATA_BLOCK_PICTURE, which is skipped without being read.
+                    cursor.skip(valueLength);
+                    break;
+            }
+        }
+    }
+
+    // --- MP4 ---------------------------------------------------------------------------------
+
+    private TrackTags readMp4(FileChannel channel, long size) throws IOException {
+        // Only the small atom headers are read until moov is found, which may well sit at the
+        // end of the file behind the media data.
+        final ByteBuffer header = ByteBuffer.allocate(16);
+        long position = 0;
+        while (position + 8 <= size) {
+            header.clear();
+            channel.read(header, position);
+            long atomSize = header.getInt(0) & 0xFFFFFFFFL;
+            int headerLength = 8;
+            if (atomSize == 1) {
+                atomSize = header.getLong(8);
+                headerLength = 16;
+            } else if (atomSize == 0) {
+                atomSize = size - position;
+            }
+            if (atomSize < headerLength) {
+                return null;
+            }
+            if (matches(header, 4, "moov")) {
+                final long length = Math.min(atomSize - headerLength,
+                        Math.min(size - position - headerLength, MAX_MOOV_MAP));
+                final ByteBuffer moov = map(channel, position + headerLength, length);
+                final Builder builder = new Builder();
+                parseMp4Atoms(moov, 0, moov.limit(), builder);
+                return builder.build();
+            }
+            position += atomSize;
+        }
+        return null;
+    }
+
+    private void parseMp4Atoms(ByteBuffer buffer, int start, int end, Builder builder) {
+        int position = start;
+        while (position + 8 <= end) {
+            final int atomSize = buffer.getInt(position);
+            if (atomSize < 8 || position + atomSize > end) {
+                return;
+            }
+            final int data = position + 8;
+            final int atomEnd = position + atomSize;
+            if (matches(buffer, position + 4, "udta") || matches(buffer, position + 4, "ilst")) {
+                parseMp4Atoms(buffer, data, atomEnd, builder);
+            } else if (matches(buffer, position + 4, "meta")) {
+                parseMp4Atoms(buffer, data + 4, atomEnd, builder); // full box
+            } else if (matches(buffer, position + 4, "mvhd")) {
+                final int version = buffer.get(data) & 0xFF;
+                final long timescale;
+                final long duration;
+                if (version == 1) {
+                    timescale = buffer.getInt(data + 20) & 0xFFFFFFFFL;
+                    duration = buffer.getLong(data + 24);
+                } else {
+                    timescale = buffer.getInt(data + 12) & 0xFFFFFFFFL;
+                    duration = buffer.getInt(data + 16) & 0xFFFFFFFFL;
+                }
+                if (timescale > 0) {
+                    builder.durationMs = duration * 1000 / timescale;
+                }
+            } else if (buffer.get(position + 4) == (byte) 0xA9) {
+                final String name = asciiString(buffer, position + 5, 3);
+                switch (name) {
+                    case "nam":
+                        builder.title = readMp4Text(buffer, data, atomEnd);
+                        break;
+                    case "ART":
+                        builder.artist = readMp4Text(buffer, data, atomEnd);
+                        break;
+                    case "alb":
+                        builder.album = readMp4Text(buffer, data, atomEnd);
+                        break;
+                    case "gen":
+                        builder.genre = readMp4Text(buffer, data, atomEnd);
+                        break;
+                    default:
+                        break;
+                }
+            } else if (matches(buffer, position + 4, "gnre") && builder.genre == null) {
+                // Binary genre, the ID3v1 index plus one.
+                if (data + 18 <= atomEnd && matches(buffer, data + 4, "data")) {
+                    final int genre = (buffer.getShort(data + 16) & 0xFFFF) - 1;
+                    if (genre >= 0 && genre < ID3V1_GENRES.length) {
+                        builder.genre = ID3V1_GENRES[genre];
+                    }
+                }
+            }
+            position = atomEnd;
+        }
+    }
+
+    @Nullable
+    private static String readMp4Text(ByteBuffer buffer, int start, int end) {
+        // Item atoms hold a "data" atom: size, "data", type, locale, then the value.
+        if (start + 16 > end || !matches(buffer, start + 4, "data")) {
+            return null;
+        }
+        final int dataEnd = Math.min(end, start + buffer.getInt(start));
+        return emptyToNull(decode(buffer, start + 16, dataEnd - start - 16, UTF_8));
+    }
+
+    // --- helpers -----------------------------------------------------------------------------
+
+    private static boolean matches(ByteBuffer buffer, int offset, String ascii) {
+        if (offset < 0 || offset + ascii.length() > buffer.limit()) {
+            return false;
+        }
+        for (int i = 0; i < ascii.length(); i++) {
+            if (buffer.get(offset + i) != (byte) ascii.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int readSyncSafe(ByteBuffer buffer, int offset) {
+        return ((buffer.get(offset) & 0x7F) << 21)
+                | ((buffer.get(offset + 1) & 0x7F) << 14)
+                | ((buffer.get(offset + 2) & 0x7F) << 7)
+                | (buffer.get(offset + 3) & 0x7F);
+    }
+
+    private static String asciiString(ByteBuffer buffer, int offset, int length) {
+        final char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) (buffer.get(offset + i) & 0xFF);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Copies exactly the bytes of one value out of the mapping, the only copy made per field.
+     */
+    private static String decode(ByteBuffer buffer, int offset, int length, Charset charset) {
+        if (length <= 0) {
+            return "";
+        }
+        final byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(offset + i);
+        }
+        return new String(bytes, charset);
+    }
+
+    private static long parseLong(@Nullable String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    @Nullable
+    private static String emptyToNull(@Nullable String value) {
+        return value == null || value.isEmpty() ? null : value;
+    }
+
+    private static String firstNonNull(@Nullable String current, String value) {
+        return current != null ? current : emptyToNull(value);
+    }
+
+    private static final class Builder {
+        private String title;
+        private String artist;
+        private String album;
+        private String genre;
+        private long durationMs;
+        private boolean hasId3v1;
+
+        private TrackTags build() {
+            return new TrackTags(title, artist, album, genre, Math.max(0, durationMs));
+        }
+    }
+
+    /**
+     * Sequential little endian reads over tag data that may not be contiguous in the file.
+     */
+    private abstract static class Cursor {
+
+        abstract boolean hasRemaining();
+
+        abstract int readU8();
+
+        abstract void skip(int count);
+
+        /**
+         * @return the distance to the next {@code value} within {@code limit} bytes, or -1.
+         */
+        abstract int indexOf(byte value, int limit);
+
+        final int readU16Le() {
+            return readU8() | (readU8() << 8);
+        }
+
+        final long readU32Le() {
+            return (readU8() | (readU8() << 8) | (readU8() << 16) | ((long) readU8() << 24));
+        }
+
+        final String readString(int length, Charset charset) {
+            final byte[] bytes = new byte[Math.max(0, length)];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = (byte) readU8();
+            }
+            return new String(bytes, charset);
+        }
+    }
+
+    private static final class FlatCursor extends Cursor {
+
+        private final ByteBuffer mBuffer;
+        private final int mEnd;
+        private int mPosition;
+
+        private FlatCursor(ByteBuffer buffer, int start, int end) {
+            mBuffer = buffer;
+            mPosition = start;
+            mEnd = end;
+        }
+
+        @Override
+        boolean hasRemaining() {
+            return mPosition < mEnd;
+        }
+
+        @Override
+        int readU8() {
+            if (mPosition >= mEnd) {
+                throw new IndexOutOfBoundsException("read past the end of the block");
+            }
+            return mBuffer.get(mPosition++) & 0xFF;
+        }
+
+        @Override
+        void skip(int count) {
+            mPosition += count;
+        }
+
+        @Override
+        int indexOf(byte value, int limit) {
+            for (int i = 0; i < limit && mPosition + i < mEnd; i++) {
+                if (mBuffer.get(mPosition + i) == value) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Reads the packets of an Ogg bitstream straight from the mapped pages, stepping over page
+     * headers instead of reassembling packets that span pages into a copy.
+     */
+    private static final class OggCursor extends Cursor {
+
+        private final ByteBuffer mBuffer;
+        private int mPageStart;
+        private int mSegmentCount;
+        private int mSegment;
+        private int mSegmentEnd;
+        private int mPosition;
+
+        private OggCursor(ByteBuffer buffer) {
+            mBuffer = buffer;
+            mPageStart = -1;
+            openPage(0);
+        }
+
+        private boolean openPage(int pageStart) {
+            if (pageStart + 27 > mBuffer.limit() || !matches(mBuffer, pageStart, "OggS")) {
+                mSegment = mSegmentCount = 0;
+                mPosition = mSegmentEnd = mBuffer.limit();
+                return false;
+            }
+            mPageStart = pageStart;
+            mSegmentCount = mBuffer.get(pageStart + 26) & 0xFF;
+            mSegment = 0;
+            mPosition = pageStart + 27 + mSegmentCount;
+            mSegmentEnd = mPosition + segmentLength(0);
+            return true;
+        }
+
+        private int segmentLength(int segment) {
+            return segment < mSegmentCount ? mBuffer.get(mPageStart + 27 + segment) & 0xFF : 0;
+        }
+
+        // Moves on to the next segment, across pages if needed. Returns false at a packet end.
+        private boolean advanceSegment(boolean crossPacketEnd) {
+            final boolean packetEnds = segmentLength(mSegment) < 255;
+            if (packetEnds && !crossPacketEnd) {
+                return false;
+            }
+            if (mSegment + 1 < mSegmentCount) {
+                mSegment++;
+                mSegmentEnd = mPosition + segmentLength(mSegment);
+                return true;
+            }
+            return openPage(mPosition);
+        }
+
+        /**
+         * Skips the rest of the current packet.
+         */
+        private void nextPacket() {
+            while (true) {
+                mPosition = mSegmentEnd;
+                if (segmentLength(mSegment) < 255) {
+                    advanceSegment(true);
+                    return;
+                }
+                if (!advanceSegment(false)) {
+                    return;
+                }
+            }
+        }
+
+        private boolean startsWith(String ascii) {
+            return mSegmentEnd - mPosition >= ascii.length() && matches(mBuffer, mPosition, ascii);
+        }
+
+        @Override
+        boolean hasRemaining() {
+            return mPosition < mSegmentEnd || segmentLength(mSegment) == 255;
+        }
+
+        @Override
+        int readU8() {
+            while (mPosition >= mSegmentEnd) {
+                if (!advanceSegment(false) || mPosition >= mBuffer.limit()) {
+                    throw new IndexOutOfBoundsException("read past the end of the packet");
+                }
+            }
+            return mBuffer.get(mPosition++) & 0xFF;
+        }
+
+        @Override
+        void skip(int count) {
+            int remaining = count;
+            while (remaining > 0) {
+                if (mPosition >= mSegmentEnd) {
+                    if (!advanceSegment(false) || mPosition >= mBuffer.limit()) {
+                        return;
+                    }
+                    continue;
+                }
+                final int step = Math.min(remaining, mSegmentEnd - mPosition);
+                mPosition += step;
+                remaining -= step;
+            }
+        }
+
+        @Override
+        int indexOf(byte value, int limit) {
+            // Reads ahead across segments and pages like readU8(), then goes back.
+            final int pageStart = mPageStart;
+            final int segmentCount = mSegmentCount;
+            final int segment = mSegment;
+            final int segmentEnd = mSegmentEnd;
+            final int position = mPosition;
+            int index = -1;
+            search:
+            for (int i = 0; i < limit; i++) {
+                while (mPosition >= mSegmentEnd) {
+                    if (!advanceSegment(false) || mPosition >= mBuffer.limit()) {
+                        break search;
+                    }
+                }
+                if (mBuffer.get(mPosition++) == value) {
+                    index = i;
+                    break;
+                }
+            }
+            mPageStart = pageStart;
+            mSegmentCount = segmentCount;
+            mSegment = segment;
+            mSegmentEnd = segmentEnd;
+            mPosition = position;
+            return index;
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package com.beeitstudio.mediaplayer.service.scanner;
+
+import android.net.Uri;
+import android.os.Process;
+import android.support.v4.media.MediaMetadataCompat;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.beeitstudio.mediaplayer.service.AudioLibrary;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Indexes audio files below a set of local directories into {@link AudioLibrary}.
+ * <p>
+ * A single walker thread lists directories and stats files; only files whose fingerprint
+ * (size and modification time) differs from the {@link ScanIndex} are handed to a bounded
+ * pool of workers for tag extraction. When the pool is saturated the walker extracts tags
+ * itself, which throttles the walk instead of queueing an unbounded amount of work.
+ * <p>
+ * Results reach the catalog in batches, so the first ones are browsable long before a large
+ * scan completes. Indexed entries of a previous run that the catalog lacks are published
+ * before walking starts; the ones it has are left alone, they haven't changed.
+ */
+public class MediaScanner {
+
+    private static final String TAG = "oli_" + MediaScanner.class.getSimpleName();
+
+    private static final int BATCH_SIZE = 200;
+    private static final int WORK_QUEUE_SIZE = 64;
+    private static final String MEDIA_ID_PREFIX = "local:";
+    private static final String[] AUDIO_EXTENSIONS = {
+            ".mp3", ".m4a", ".aac", ".flac", ".ogg", ".oga", ".opus", ".wav"
+    };
+
+    private final ScanIndex mIndex;
+    private final TagExtractor mTagExtractor;
+    private final String mParentId;
+    private final ExecutorService mWalker =
+            Executors.newSingleThreadExecutor(new ScannerThreadFactory("walker"));
+    private final int mWorkerCount =
+            Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private volatile boolean mScanning;
+    private volatile boolean mReleased;
+
+    public MediaScanner(@NonNull File indexFile,
+                        @NonNull TagExtractor tagExtractor,
+                        @NonNull String parentId) {
+        mIndex = new ScanIndex(indexFile);
+        mTagExtractor = tagExtractor;
+        mParentId = parentId;
+    }
+
+    /**
+     * Starts a scan of {@code roots} in the background unless one is already running.
+     */
+    public synchronized void scan(@NonNull final List<File> roots) {
+        if (mScanning || mReleased) {
+            return;
+        }
+        mScanning = true;
+        mWalker.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runScan(roots);
+                } finally {
+                    mScanning = false;
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops a running scan as soon as possible, the scanner can't be used afterwards.
+     */
+    public void release() {
+        mReleased = true;
+        mWalker.shutdownNow();
+    }
+
+    public static boolean isLocalMediaId(String mediaId) {
+        return mediaId != null && mediaId.startsWith(MEDIA_ID_PREFIX);
+    }
+
+    private void runScan(List<File> roots) {
+        final long startMs = System.currentTimeMillis();
+        final BatchPublisher publisher = new BatchPublisher();
+
+        // Whatever was indexed last time is browsable right away, the walk below only corrects
+        // it. What the catalog has already, from an earlier scanner, isn't published again.
+        if (mIndex.load()) {
+            for (ScanIndex.Entry entry : mIndex.getEntries()) {
+                if (entry.tags != null && !AudioLibrary.hasMedia(getMediaId(entry.path))) {
+                    publisher.add(entry);
+                }
+            }
+            publisher.flush();
+        }
+
+        final Set<String> seen = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        final AtomicInteger extracted = new AtomicInteger();
+        // Indexed files whose tags can no longer be read.
+        final List<String> removedIds = Collections.synchronizedList(new ArrayList<String>());
+        final ThreadPoolExecutor workers = new ThreadPoolExecutor(
+                mWorkerCount, mWorkerCount,
+                0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(WORK_QUEUE_SIZE),
+                new ScannerThreadFactory("worker"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+
+        // Directories that couldn't be listed, an unmounted card say: what was indexed below
+        // them is kept rather than taken for deleted.
+        final List<String> unreadable = new ArrayList<>();
+        final ArrayDeque<File> directories = new ArrayDeque<>();
+        for (File root : roots) {
+            if (root == null) {
+                continue;
+            }
+            if (root.isDirectory()) {
+                directories.push(root);
+            } else {
+                unreadable.add(root.getAbsolutePath());
+            }
+        }
+        while (!directories.isEmpty() && !mReleased) {
+            final File directory = directories.pop();
+            final File[] files = directory.listFiles();
+            if (files == null) {
+                unreadable.add(directory.getAbsolutePath());
+                continue;
+            }
+            for (final File file : files) {
+                if (file.getName().startsWith(".")) {
+                    continue;
+                }
+                if (file.isDirectory()) {
+                    directories.push(file);
+                    continue;
+                }
+                if (!isAudioFile(file)) {
+                    continue;
+                }
+
+                final String path = file.getAbsolutePath();
+                seen.add(path);
+                final long size = file.length();
+                final long lastModified = file.lastModified();
+                final ScanIndex.Entry indexed = mIndex.get(path);
+                if (indexed != null && indexed.matches(size, lastModified)) {
+                    continue;
+                }
+
+                workers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        final TrackTags tags = mTagExtractor.extract(file);
+                        final ScanIndex.Entry entry =
+                                new ScanIndex.Entry(path, size, lastModified, tags);
+                        // Recorded either way, an unreadable file isn't read again until it
+                        // changes.
+                        mIndex.put(entry);
+                        if (tags == null) {
+                            removedIds.add(getMediaId(path));
+                            return;
+                        }
+                        publisher.add(entry);
+                        extracted.incrementAndGet();
+                    }
+                });
+            }
+        }
+
+        workers.shutdown();
+        try {
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (mReleased) {
+            return;
+        }
+        publisher.flush();
+
+        for (ScanIndex.Entry entry : mIndex.getEntries()) {
+            if (!seen.contains(entry.path) && !isBelow(entry.path, unreadable)) {
+                mIndex.remove(entry.path);
+                removedIds.add(getMediaId(entry.path));
+            }
+        }
+        AudioLibrary.removeMedia(removedIds);
+        mIndex.save();
+
+        Log.d(TAG, "runScan: " + seen.size() + " files, " + extracted.get() + " read, "
+                + removedIds.size() + " removed in "
+                + (System.currentTimeMillis() - startMs) + "ms");
+    }
+
+    private static boolean isBelow(String path, List<String> directories) {
+        for (String directory : directories) {
+            if (path.startsWith(directory.endsWith(File.separator)
+                    ? directory : directory + File.separator)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isAudioFile(File file) {
+        final String name = file.getName().toLowerCase(Locale.US);
+        for (String extension : AUDIO_EXTENSIONS) {
+            if (name.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String getMediaId(String path) {
+        return MEDIA_ID_PREFIX + path;
+    }
+
+    private static MediaMetadataCompat createMetadata(ScanIndex.Entry entry) {
+        final File file = new File(entry.path);
+        String title = entry.tags.title;
+        if (title == null || title.isEmpty()) {
+            final String name = file.getName();
+            final int dot = name.lastIndexOf('.');
+            title = dot > 0 ? name.substring(0, dot) : name;
+        }
+        return AudioLibrary.buildMetadata(
+                getMediaId(entry.path),
+                title,
+                entry.tags.artist,
+                entry.tags.album,
+                entry.tags.genre,
+                entry.tags.durationMs,
+                Uri.fromFile(file).toString());
+    }
+
+    // Collects scanned entries from the walker and workers and hands them to the catalog in
+    // batches, so catalog clients see a few large changes instead of one per file.
+    private class BatchPublisher {
+
+        private final List<MediaMetadataCompat> mPending = new ArrayList<>(BATCH_SIZE);
+
+        private void add(ScanIndex.Entry entry) {
+            final MediaMetadataCompat metadata = createMetadata(entry);
+            List<MediaMetadataCompat> batch = null;
+            synchronized (this) {
+                mPending.add(metadata);
+                if (mPending.size() >= BATCH_SIZE) {
+                    batch = new ArrayList<>(mPending);
+                    mPending.clear();
+                }
+            }
+            if (batch != null) {
+                AudioLibrary.putMedia(mParentId, batch);
+            }
+        }
+
+        private void flush() {
+            final List<MediaMetadataCompat> batch;
+            synchronized (this) {
+                batch = new ArrayList<>(mPending);
+                mPending.clear();
+            }
+            if (!batch.isEmpty()) {
+                AudioLibrary.putMedia(mParentId, batch);
+            }
+        }
+    }
+
+    private static class ScannerThreadFactory implements ThreadFactory {
+
+        private final String mName;
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        private ScannerThreadFactory(String name) {
+            mName = name;
+        }
+
+        @Override
+        public Thread newThread(@NonNull final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, "MediaScanner-" + mName + "-" + mCount.incrementAndGet());
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.beeitstudio.mediaplayer.service.scanner;
+
+import android.media.MediaMetadataRetriever;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+
+/**
+ * {@link TagExtractor} backed by the platform {@link MediaMetadataRetriever}.
+ */
+public class RetrieverTagExtractor implements TagExtractor {
+
+    private static final String TAG = "oli_" + RetrieverTagExtractor.class.getSimpleName();
+
+    @Nullable
+    @Override
+    public TrackTags extract(@NonNull File file) {
+        final MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(file.getAbsolutePath());
+            final String duration =
+                    retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
+            return new TrackTags(
+                    retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_TITLE),
+                    retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_ARTIST),
+                    retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_ALBUM),
+                    retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_GENRE),
+                    duration != null ? Long.parseLong(duration) : 0);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "extract: can't read " + file + ": " + e.getMessage());
+            return null;
+        } finally {
+            retriever.release();
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.beeitstudio.mediaplayer.service.scanner;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Everything the scanner learnt about local files, persisted between runs. An entry is reused
+ * as long as the file's size and modification time (its fingerprint) are unchanged, so a rescan
+ * only has to stat unchanged files instead of reading their tags again.
+ */
+public class ScanIndex {
+
+    private static final String TAG = "oli_" + ScanIndex.class.getSimpleName();
+
+    private static final int MAGIC = 0x53434958; // "SCIX"
+    // 2 adds entries of files without tags.
+    private static final int FORMAT_VERSION = 2;
+
+    private final File mFile;
+    private final Map<String, Entry> mEntries = new ConcurrentHashMap<>();
+    private boolean mLoaded;
+
+    public static final class Entry {
+        public final String path;
+        public final long size;
+        public final long lastModified;
+        // Null for a file whose tags couldn't be read, it isn't read again until it changes.
+        @Nullable
+        public final TrackTags tags;
+
+        public Entry(String path, long size, long lastModified, @Nullable TrackTags tags) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.tags = tags;
+        }
+
+        public boolean matches(long size, long lastModified) {
+            return this.size == size && this.lastModified == lastModified;
+        }
+    }
+
+    public ScanIndex(@NonNull File file) {
+        mFile = file;
+    }
+
+    /**
+     * Loads the persisted entries once, a missing or unreadable index simply starts empty.
+     *
+     * @return whether this call did the loading.
+     */
+    public synchronized boolean load() {
+        if (mLoaded) {
+            return false;
+        }
+        mLoaded = true;
+        if (!mFile.exists()) {
+            return true;
+        }
+
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(mFile)))) {
+            final int magic = in.readInt();
+            final int version = in.readInt();
+            if (magic != MAGIC || version < 1 || version > FORMAT_VERSION) {
+                Log.w(TAG, "load: ignoring index in an unknown format");
+                return true;
+            }
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                final String path = in.readUTF();
+                final long size = in.readLong();
+                final long lastModified = in.readLong();
+                final TrackTags tags = version < 2 || in.readBoolean()
+                        ? new TrackTags(
+                        readNullableUTF(in),
+                        readNullableUTF(in),
+                        readNullableUTF(in),
+                        readNullableUTF(in),
+                        in.readLong())
+                        : null;
+                mEntries.put(path, new Entry(path, size, lastModified, tags));
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "load: discarding unreadable index: " + e.getMessage());
+            mEntries.clear();
+        }
+        return true;
+    }
+
+    /**
+     * Writes the index to a temporary file first, so a crash never leaves a truncated one.
+     */
+    public synchronized void save() {
+        final File tmp = new File(mFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            final Collection<Entry> entries = new ArrayList<>(mEntries.values());
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(entries.size());
+            for (Entry entry : entries) {
+                out.writeUTF(entry.path);
+                out.writeLong(entry.size);
+                out.writeLong(entry.lastModified);
+                out.writeBoolean(entry.tags != null);
+                if (entry.tags == null) {
+                    continue;
+                }
+                writeNullableUTF(out, entry.tags.title);
+                writeNullableUTF(out, entry.tags.artist);
+                writeNullableUTF(out, entry.tags.album);
+                writeNullableUTF(out, entry.tags.genre);
+                out.writeLong(entry.tags.durationMs);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "save: " + e.getMessage());
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(mFile)) {
+            Log.e(TAG, "save: can't replace " + mFile);
+            tmp.delete();
+        }
+    }
+
+    @Nullable
+    public Entry get(String path) {
+        return mEntries.get(path);
+    }
+
+    public void put(Entry entry) {
+        mEntries.put(entry.path, entry);
+    }
+
+    public void remove(String path) {
+        mEntries.remove(path);
+    }
+
+    public List<Entry> getEntries() {
+        return new ArrayList<>(mEntries.values());
+    }
+
+    private static String readNullableUTF(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeNullableUTF(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+}
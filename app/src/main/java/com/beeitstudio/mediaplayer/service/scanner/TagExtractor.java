@@ -0,0 +1,19 @@
+package com.beeitstudio.mediaplayer.service.scanner;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+
+/**
+ * Reads the tags of one audio file. Called from several scanner workers at once, so
+ * implementations must not share per-file state.
+ */
+public interface TagExtractor {
+
+    /**
+     * @return the tags of {@code file}, or null if it can't be read as audio.
+     */
+    @Nullable
+    TrackTags extract(@NonNull File file);
+}
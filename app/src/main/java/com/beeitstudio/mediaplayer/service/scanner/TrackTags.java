@@ -0,0 +1,32 @@
+package com.beeitstudio.mediaplayer.service.scanner;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Tags read from an audio file. Any field may be missing, the scanner falls back to the file
+ * name for the title.
+ */
+public final class TrackTags {
+
+    @Nullable
+    public final String title;
+    @Nullable
+    public final String artist;
+    @Nullable
+    public final String album;
+    @Nullable
+    public final String genre;
+    public final long durationMs;
+
+    public TrackTags(@Nullable String title,
+                     @Nullable String artist,
+                     @Nullable String album,
+                     @Nullable String genre,
+                     long durationMs) {
+        this.title = title;
+        this.artist = artist;
+        this.album = album;
+        this.genre = genre;
+        this.durationMs = durationMs;
+    }
+}
@@ -0,0 +1,139 @@
+package com.beeitstudio.mediaplayer.service.stream;
+
+import android.os.Handler;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.exoplayer2.upstream.BandwidthMeter;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.TransferListener;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The bandwidth meter handed to the player. Its estimate is capped while a cap is set, so
+ * adaptive streams settle on a rendition at or below the cap however fast the network is.
+ * Every byte the player loads over the network passes through here and is counted, metered
+ * bytes separately.
+ * <p>
+ * Transfers are reported on the loaders' threads, everything is safe to call from any.
+ */
+public final class CappedBandwidthMeter implements BandwidthMeter, TransferListener {
+
+    public static final long NO_CAP = Long.MAX_VALUE;
+
+    // PlaybackStateCompat extras, present once something has been loaded.
+    public static final String EXTRA_DATA_USAGE = "com.beeitstudio.mediaplayer.DATA_USAGE";
+    public static final String EXTRA_METERED_DATA_USAGE =
+            "com.beeitstudio.mediaplayer.METERED_DATA_USAGE";
+
+    private final BandwidthMeter mMeter;
+    private volatile long mBitrateCap = NO_CAP;
+    private volatile boolean mMetered;
+    private final AtomicLong mBytes = new AtomicLong();
+    private final AtomicLong mMeteredBytes = new AtomicLong();
+
+    /**
+     * @param meter does the actual estimating, also gets the transfers
+     */
+    public CappedBandwidthMeter(@NonNull BandwidthMeter meter) {
+        mMeter = meter;
+    }
+
+    /**
+     * @param bitsPerSecond the most the estimate may say, {@link #NO_CAP} for none
+     */
+    public void setBitrateCap(long bitsPerSecond) {
+        mBitrateCap = bitsPerSecond;
+    }
+
+    public long getBitrateCap() {
+        return mBitrateCap;
+    }
+
+    /**
+     * Whether the bytes loaded from now on count as metered.
+     */
+    public void setMetered(boolean metered) {
+        mMetered = metered;
+    }
+
+    /**
+     * @return bytes loaded over the network since the last {@link #resetUsage()}
+     */
+    public long getBytes() {
+        return mBytes.get();
+    }
+
+    /**
+     * @return the part of {@link #getBytes()} loaded over a metered network
+     */
+    public long getMeteredBytes() {
+        return mMeteredBytes.get();
+    }
+
+    public void resetUsage() {
+        mBytes.set(0);
+        mMeteredBytes.set(0);
+    }
+
+    @Override
+    public long getBitrateEstimate() {
+        return Math.min(mMeter.getBitrateEstimate(), mBitrateCap);
+    }
+
+    @Override
+    public TransferListener getTransferListener() {
+        return this;
+    }
+
+    @Override
+    public void addEventListener(Handler eventHandler, EventListener eventListener) {
+        mMeter.addEventListener(eventHandler, eventListener);
+    }
+
+    @Override
+    public void removeEventListener(EventListener eventListener) {
+        mMeter.removeEventListener(eventListener);
+    }
+
+    @Override
+    public void onTransferInitializing(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+        final TransferListener listener = mMeter.getTransferListener();
+        if (listener != null) {
+            listener.onTransferInitializing(source, dataSpec, isNetwork);
+        }
+    }
+
+    @Override
+    public void onTransferStart(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+        final TransferListener listener = mMeter.getTransferListener();
+        if (listener != null) {
+            listener.onTransferStart(source, dataSpec, isNetwork);
+        }
+    }
+
+    @Override
+    public void onBytesTransferred(DataSource source, DataSpec dataSpec, boolean isNetwork,
+                                   int bytesTransferred) {
+        if (isNetwork) {
+            mBytes.addAndGet(bytesTransferred);
+            if (mMetered) {
+                mMeteredBytes.addAndGet(bytesTransferred);
+            }
+        }
+        final TransferListener listener = mMeter.getTransferListener();
+        if (listener != null) {
+            listener.onBytesTransferred(source, dataSpec, isNetwork, bytesTransferred);
+        }
+    }
+
+    @Override
+    public void onTransferEnd(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+        final TransferListener listener = mMeter.getTransferListener();
+        if (listener != null) {
+            listener.onTransferEnd(source, dataSpec, isNetwork);
+        }
+    }
+}
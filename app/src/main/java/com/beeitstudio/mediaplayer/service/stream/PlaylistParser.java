@@ -0,0 +1,178 @@
+package com.beeitstudio.mediaplayer.service.stream;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Recognizes and parses the playlists radio directories hand out instead of stream URLs:
+ * PLS, M3U and, only to recognize them, HLS and DASH.
+ */
+final class PlaylistParser {
+
+    static final int TYPE_NONE = 0;
+    static final int TYPE_PLS = 1;
+    static final int TYPE_M3U = 2;
+    static final int TYPE_HLS = 3;
+    static final int TYPE_DASH = 4;
+
+    static final String[] PLAYLIST_EXTENSIONS = {".pls", ".m3u", ".m3u8"};
+    static final String[] HLS_EXTENSIONS = {".m3u8"};
+    static final String[] DASH_EXTENSIONS = {".mpd"};
+    // Never a playlist, no need to look.
+    static final String[] MEDIA_EXTENSIONS = {
+            ".mp3", ".m4a", ".aac", ".flac", ".ogg", ".oga", ".opus", ".wav", ".mp4", ".webm"
+    };
+
+    private PlaylistParser() {
+    }
+
+    /**
+     * @return true if the path of {@code uri} ends with one of {@code extensions}
+     */
+    static boolean hasExtension(@NonNull String uri, @NonNull String[] extensions) {
+        String path = uri;
+        final int query = path.indexOf('?');
+        if (query != -1) {
+            path = path.substring(0, query);
+        }
+        final int fragment = path.indexOf('#');
+        if (fragment != -1) {
+            path = path.substring(0, fragment);
+        }
+        path = path.toLowerCase(Locale.US);
+        for (String extension : extensions) {
+            if (path.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the playlist type the content type announces, {@link #TYPE_NONE} for media and
+     * null if it doesn't tell
+     */
+    @Nullable
+    static Integer typeOfContentType(@Nullable String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        String mime = contentType.toLowerCase(Locale.US);
+        final int parameters = mime.indexOf(';');
+        if (parameters != -1) {
+            mime = mime.substring(0, parameters);
+        }
+        mime = mime.trim();
+        switch (mime) {
+            case "audio/x-scpls":
+            case "audio/scpls":
+            case "application/pls+xml":
+                return TYPE_PLS;
+            case "audio/x-mpegurl":
+            case "audio/mpegurl":
+                // Also used for HLS, the content tells.
+                return TYPE_M3U;
+            case "application/vnd.apple.mpegurl":
+            case "application/x-mpegurl":
+                return TYPE_HLS;
+            case "application/dash+xml":
+                return TYPE_DASH;
+            default:
+                if (mime.startsWith("audio/") || mime.startsWith("video/")) {
+                    return TYPE_NONE;
+                }
+                // text/plain, application/octet-stream and friends say nothing.
+                return null;
+        }
+    }
+
+    /**
+     * Sniffs the playlist type from the start of the content.
+     */
+    static int typeOfContent(@NonNull String content) {
+        final String start = stripBom(content).trim();
+        if (start.regionMatches(true, 0, "[playlist]", 0, 10)) {
+            return TYPE_PLS;
+        }
+        if (start.startsWith("#EXTM3U")) {
+            return start.contains("#EXT-X-") ? TYPE_HLS : TYPE_M3U;
+        }
+        if (start.startsWith("<") && start.contains("<MPD")) {
+            return TYPE_DASH;
+        }
+        // Plain M3U is just a list of URIs.
+        for (String line : start.split("\\r?\\n")) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            return line.contains("://") ? TYPE_M3U : TYPE_NONE;
+        }
+        return TYPE_NONE;
+    }
+
+    /**
+     * @return the entries of a PLS or M3U playlist as absolute URIs, in playlist order,
+     * without duplicates and without what can't be played (mms://, rtsp://)
+     */
+    @NonNull
+    static List<String> parse(int type, @NonNull String content, @NonNull URL base) {
+        final List<String> entries = type == TYPE_PLS ? parsePls(content) : parseM3u(content);
+        final Set<String> candidates = new LinkedHashSet<>();
+        for (String entry : entries) {
+            try {
+                final URL url = new URL(base, entry);
+                final String protocol = url.getProtocol();
+                if ("http".equals(protocol) || "https".equals(protocol)
+                        || "file".equals(protocol)) {
+                    candidates.add(url.toString());
+                }
+            } catch (MalformedURLException e) {
+                // Not something we can play.
+            }
+        }
+        return new ArrayList<>(candidates);
+    }
+
+    private static List<String> parsePls(String content) {
+        // File1=..., File2=..., in index order, whatever order the lines are in.
+        final TreeMap<Integer, String> files = new TreeMap<>();
+        for (String line : stripBom(content).split("\\r?\\n")) {
+            final int equals = line.indexOf('=');
+            if (equals <= 4 || !line.regionMatches(true, 0, "file", 0, 4)) {
+                continue;
+            }
+            try {
+                files.put(Integer.parseInt(line.substring(4, equals).trim()),
+                        line.substring(equals + 1).trim());
+            } catch (NumberFormatException e) {
+                // Not an entry.
+            }
+        }
+        return new ArrayList<>(files.values());
+    }
+
+    private static List<String> parseM3u(String content) {
+        final List<String> entries = new ArrayList<>();
+        for (String line : stripBom(content).split("\\r?\\n")) {
+            line = line.trim();
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                entries.add(line);
+            }
+        }
+        return entries;
+    }
+
+    private static String stripBom(String content) {
+        return content.startsWith("\uFEFF") ? content.substring(1) : content;
+    }
+}
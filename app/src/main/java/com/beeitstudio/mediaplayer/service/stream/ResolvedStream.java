@@ -0,0 +1,99 @@
+package com.beeitstudio.mediaplayer.service.stream;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What a media URI turned out to point at: the stream to play, and the other candidates the
+ * playlist offered in case it fails.
+ */
+public final class ResolvedStream {
+
+    /**
+     * A file, or a continuous stream, that an extractor can read from start to end.
+     */
+    public static final int TYPE_PROGRESSIVE = 0;
+    /**
+     * An HLS playlist, played as such instead of being resolved any further.
+     */
+    public static final int TYPE_HLS = 1;
+    /**
+     * A DASH manifest.
+     */
+    public static final int TYPE_DASH = 2;
+
+    private final String mUri;
+    private final int mType;
+    private final List<String> mAlternatives;
+
+    public ResolvedStream(@NonNull String uri, int type, @NonNull List<String> alternatives) {
+        mUri = uri;
+        mType = type;
+        mAlternatives = Collections.unmodifiableList(alternatives);
+    }
+
+    /**
+     * @return a stream for {@code uri} as it is, its type guessed from the extension
+     */
+    @NonNull
+    public static ResolvedStream of(@NonNull String uri) {
+        return of(uri, Collections.<String>emptyList());
+    }
+
+    private static ResolvedStream of(String uri, List<String> alternatives) {
+        final int type;
+        if (PlaylistParser.hasExtension(uri, PlaylistParser.HLS_EXTENSIONS)) {
+            type = TYPE_HLS;
+        } else if (PlaylistParser.hasExtension(uri, PlaylistParser.DASH_EXTENSIONS)) {
+            type = TYPE_DASH;
+        } else {
+            type = TYPE_PROGRESSIVE;
+        }
+        return new ResolvedStream(uri, type, alternatives);
+    }
+
+    @NonNull
+    public String getUri() {
+        return mUri;
+    }
+
+    public int getType() {
+        return mType;
+    }
+
+    /**
+     * @return true if the stream is loaded over the network
+     */
+    public boolean isRemote() {
+        return mUri.startsWith("http://") || mUri.startsWith("https://");
+    }
+
+    /**
+     * @return the remaining candidates, best first
+     */
+    @NonNull
+    public List<String> getAlternatives() {
+        return mAlternatives;
+    }
+
+    /**
+     * @return the next candidate, null if there is none. Its type is a guess, it hasn't been
+     * resolved.
+     */
+    @Nullable
+    public ResolvedStream next() {
+        if (mAlternatives.isEmpty()) {
+            return null;
+        }
+        return of(mAlternatives.get(0), mAlternatives.subList(1, mAlternatives.size()));
+    }
+
+    @Override
+    public String toString() {
+        return mUri + (mType == TYPE_HLS ? " (hls)" : mType == TYPE_DASH ? " (dash)" : "")
+                + " +" + mAlternatives.size();
+    }
+}
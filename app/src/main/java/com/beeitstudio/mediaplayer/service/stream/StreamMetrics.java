@@ -0,0 +1,89 @@
+package com.beeitstudio.mediaplayer.service.stream;
+
+/**
+ * Bitrate adaptation of the current stream: which rendition plays, how often the player
+ * switched and in which direction, and what it thinks the network can do.
+ * <p>
+ * Updated on the player's thread, readable from any.
+ */
+public final class StreamMetrics {
+
+    public static final int UNKNOWN = -1;
+
+    // PlaybackStateCompat extras, present while the stream announces its bitrate.
+    public static final String EXTRA_BITRATE = "com.beeitstudio.mediaplayer.BITRATE";
+    public static final String EXTRA_UPSHIFT_COUNT = "com.beeitstudio.mediaplayer.UPSHIFTS";
+    public static final String EXTRA_DOWNSHIFT_COUNT =
+            "com.beeitstudio.mediaplayer.DOWNSHIFTS";
+    public static final String EXTRA_BANDWIDTH_ESTIMATE =
+            "com.beeitstudio.mediaplayer.BANDWIDTH_ESTIMATE";
+
+    private volatile int mBitrate = UNKNOWN;
+    private volatile int mUpshiftCount;
+    private volatile int mDownshiftCount;
+    private volatile long mBandwidthEstimate = UNKNOWN;
+
+    /**
+     * Called with the bitrate of every format the player starts loading.
+     *
+     * @return true if it's a switch to another bitrate, not the first one of the stream
+     */
+    public boolean onFormat(int bitrate) {
+        if (bitrate <= 0) {
+            // Not announced, as with most progressive streams.
+            return false;
+        }
+        final int previous = mBitrate;
+        mBitrate = bitrate;
+        if (previous == UNKNOWN || previous == bitrate) {
+            return false;
+        }
+        if (bitrate > previous) {
+            mUpshiftCount++;
+        } else {
+            mDownshiftCount++;
+        }
+        return true;
+    }
+
+    public void onBandwidthEstimate(long bitsPerSecond) {
+        mBandwidthEstimate = bitsPerSecond;
+    }
+
+    /**
+     * Starts over for a new stream, the bandwidth estimate carries over.
+     */
+    public void reset() {
+        mBitrate = UNKNOWN;
+        mUpshiftCount = 0;
+        mDownshiftCount = 0;
+    }
+
+    /**
+     * @return bits per second of the rendition playing, {@link #UNKNOWN} if not announced
+     */
+    public int getBitrate() {
+        return mBitrate;
+    }
+
+    public int getUpshiftCount() {
+        return mUpshiftCount;
+    }
+
+    public int getDownshiftCount() {
+        return mDownshiftCount;
+    }
+
+    /**
+     * @return bits per second, {@link #UNKNOWN} until something has been loaded
+     */
+    public long getBandwidthEstimate() {
+        return mBandwidthEstimate;
+    }
+
+    @Override
+    public String toString() {
+        return "bitrate=" + mBitrate + " up=" + mUpshiftCount + " down=" + mDownshiftCount
+                + " bandwidth=" + mBandwidthEstimate;
+    }
+}
@@ -0,0 +1,242 @@
+package com.beeitstudio.mediaplayer.service.stream;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.beeitstudio.mediaplayer.service.http.HttpResponse;
+import com.beeitstudio.mediaplayer.service.http.PooledHttpClient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns a media URI into something the player can open: playlists (PLS, M3U) are fetched and
+ * parsed, nested ones too, and the first candidate that resolves wins.
+ * <p>
+ * Results are cached for a while, so playing a station again doesn't fetch its playlist
+ * again. {@link #resolve(String)} blocks on network I/O, call it off the playback thread.
+ */
+public final class StreamResolver {
+
+    public static final long DEFAULT_TTL_MS = 30 * 60 * 1000;
+
+    private static final int MAX_PLAYLIST_BYTES = 64 * 1024;
+    private static final int MAX_DEPTH = 3;
+    private static final int MAX_CACHED = 64;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final PooledHttpClient mClient;
+    private final Map<String, String> mRequestHeaders;
+    private final long mTtlMs;
+
+    // Guarded by itself. Access ordered, the least recently used is dropped first.
+    private final LinkedHashMap<String, Entry> mCache =
+            new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                    return size() > MAX_CACHED;
+                }
+            };
+
+    public StreamResolver(@NonNull PooledHttpClient client, @NonNull String userAgent,
+                          long ttlMs) {
+        mClient = client;
+        mRequestHeaders = new HashMap<>();
+        mRequestHeaders.put("User-Agent", userAgent);
+        mTtlMs = ttlMs;
+    }
+
+    /**
+     * @return true if {@code uri} can be played as it is, no resolving (and no I/O) needed
+     */
+    public static boolean isDirect(@NonNull String uri) {
+        final boolean http = uri.startsWith("http://") || uri.startsWith("https://");
+        if (!http && !uri.startsWith("file:")) {
+            // content:// and friends.
+            return true;
+        }
+        if (PlaylistParser.hasExtension(uri, PlaylistParser.MEDIA_EXTENSIONS)
+                || PlaylistParser.hasExtension(uri, PlaylistParser.DASH_EXTENSIONS)) {
+            return true;
+        }
+        // A local file without a playlist extension is media, a URL might be either.
+        return !http && !PlaylistParser.hasExtension(uri, PlaylistParser.PLAYLIST_EXTENSIONS);
+    }
+
+    /**
+     * @return the cached result for {@code uri}, null if there is none or it has expired
+     */
+    @Nullable
+    public ResolvedStream getCached(@NonNull String uri) {
+        synchronized (mCache) {
+            final Entry entry = mCache.get(uri);
+            if (entry == null) {
+                return null;
+            }
+            if (System.currentTimeMillis() - entry.mResolvedAt >= mTtlMs) {
+                mCache.remove(uri);
+                return null;
+            }
+            return entry.mStream;
+        }
+    }
+
+    /**
+     * Forgets the result for {@code uri}, when the stream it pointed at failed.
+     */
+    public void invalidate(@NonNull String uri) {
+        synchronized (mCache) {
+            mCache.remove(uri);
+        }
+    }
+
+    @NonNull
+    public ResolvedStream resolve(@NonNull String uri) throws IOException {
+        final ResolvedStream cached = getCached(uri);
+        if (cached != null) {
+            return cached;
+        }
+        final ResolvedStream stream = resolve(uri, 0);
+        synchronized (mCache) {
+            mCache.put(uri, new Entry(stream, System.currentTimeMillis()));
+        }
+        return stream;
+    }
+
+    private ResolvedStream resolve(String uri, int depth) throws IOException {
+        if (isDirect(uri)) {
+            return ResolvedStream.of(uri);
+        }
+        // Even .m3u8 is fetched, it's a plain M3U as often as an HLS playlist.
+        final Playlist playlist = fetch(uri);
+        switch (playlist.mType) {
+            case PlaylistParser.TYPE_PLS:
+            case PlaylistParser.TYPE_M3U:
+                return resolveEntries(playlist, depth);
+            case PlaylistParser.TYPE_HLS:
+                return new ResolvedStream(playlist.mUrl.toString(), ResolvedStream.TYPE_HLS,
+                        Collections.<String>emptyList());
+            case PlaylistParser.TYPE_DASH:
+                return new ResolvedStream(playlist.mUrl.toString(), ResolvedStream.TYPE_DASH,
+                        Collections.<String>emptyList());
+            default:
+                return progressive(playlist.mUrl.toString());
+        }
+    }
+
+    private ResolvedStream resolveEntries(Playlist playlist, int depth) throws IOException {
+        final List<String> candidates =
+                PlaylistParser.parse(playlist.mType, playlist.mContent, playlist.mUrl);
+        if (candidates.isEmpty()) {
+            throw new IOException("Empty playlist: " + playlist.mUrl);
+        }
+        if (depth == MAX_DEPTH) {
+            throw new IOException("Playlists nested too deep: " + playlist.mUrl);
+        }
+        IOException error = null;
+        for (int i = 0; i < candidates.size(); i++) {
+            try {
+                final ResolvedStream stream = resolve(candidates.get(i), depth + 1);
+                if (!stream.getAlternatives().isEmpty()) {
+                    // A nested playlist already offers its own.
+                    return stream;
+                }
+                return new ResolvedStream(stream.getUri(), stream.getType(),
+                        candidates.subList(i + 1, candidates.size()));
+            } catch (IOException e) {
+                // Dead entry, try the next one.
+                error = e;
+            }
+        }
+        throw error;
+    }
+
+    /**
+     * Reads the start of {@code uri}, up to the size of a large playlist. A stream announced by
+     * its content type isn't read at all.
+     */
+    private Playlist fetch(String uri) throws IOException {
+        final URL url = new URL(uri);
+        if ("file".equals(url.getProtocol())) {
+            final File file;
+            try {
+                file = new File(url.toURI());
+            } catch (URISyntaxException | IllegalArgumentException e) {
+                throw new IOException("Bad file URI: " + uri, e);
+            }
+            try (InputStream in = new FileInputStream(file)) {
+                final String content = readText(in);
+                return new Playlist(url, PlaylistParser.typeOfContent(content), content);
+            }
+        }
+        try (HttpResponse response = mClient.get(url, 0, -1, mRequestHeaders)) {
+            if (response.getCode() < 200 || response.getCode() > 299) {
+                throw new IOException(response.getStatusLine() + ": " + uri);
+            }
+            final Integer announced =
+                    PlaylistParser.typeOfContentType(response.getHeader("Content-Type"));
+            if (announced != null && announced == PlaylistParser.TYPE_NONE) {
+                return new Playlist(response.getUrl(), PlaylistParser.TYPE_NONE, "");
+            }
+            final String content = readText(response.getBody());
+            final int sniffed = PlaylistParser.typeOfContent(content);
+            // Trust the content over the header, except that a bare list of paths is only
+            // recognizable by its content type.
+            final int type = sniffed != PlaylistParser.TYPE_NONE || announced == null
+                    ? sniffed : announced;
+            return new Playlist(response.getUrl(), type, content);
+        }
+    }
+
+    private static String readText(InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[4096];
+        int read;
+        while (out.size() < MAX_PLAYLIST_BYTES
+                && (read = in.read(buffer, 0,
+                Math.min(buffer.length, MAX_PLAYLIST_BYTES - out.size()))) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return new String(out.toByteArray(), UTF_8);
+    }
+
+    private static ResolvedStream progressive(String uri) {
+        return new ResolvedStream(uri, ResolvedStream.TYPE_PROGRESSIVE,
+                Collections.<String>emptyList());
+    }
+
+    private static final class Playlist {
+
+        final URL mUrl;
+        final int mType;
+        final String mContent;
+
+        Playlist(URL url, int type, String content) {
+            mUrl = url;
+            mType = type;
+            mContent = content;
+        }
+    }
+
+    private static final class Entry {
+
+        final ResolvedStream mStream;
+        final long mResolvedAt;
+
+        Entry(ResolvedStream stream, long resolvedAt) {
+            mStream = stream;
+            mResolvedAt = resolvedAt;
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package com.beeitstudio.mediaplayer.service.stream;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+
+/**
+ * The most recent bytes of a live stream, in a file of fixed size on disk: what lets a live
+ * stream be paused, rewound and caught up with. Bytes are addressed by their position in the
+ * stream, counted from the start of the recording; the file keeps the last
+ * {@link #getCapacity()} of them and overwrites the oldest as new ones arrive.
+ * <p>
+ * One thread writes, in order, through a {@link FileChannel}. Any number of {@link Reader}s
+ * read from their own positions, waiting for bytes that haven't arrived yet. Where the stream
+ * was at a given time is marked every second, since a live stream arrives as fast as it plays.
+ */
+public final class TimeShiftBuffer {
+
+    private static final int MARK_INTERVAL_MS = 1000;
+
+    /**
+     * Thrown to a reader whose position has been overwritten: it fell a whole buffer behind
+     * the recording.
+     */
+    public static final class OverrunException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        OverrunException(long position, long oldest) {
+            super("Position " + position + " overwritten, oldest is " + oldest);
+        }
+    }
+
+    private final File mFile;
+    private final RandomAccessFile mWriteFile;
+    private final FileChannel mChannel;
+    private final int mCapacity;
+    private final long mStartNanos = System.nanoTime();
+
+    // Guarded by this.
+    private long mWritten;
+    // The end of the write in progress, its bytes can't be read yet and the ones it
+    // overwrites no longer can.
+    private long mWriting;
+    private long mLastWriteMs;
+    private boolean mFinished;
+    private boolean mClosed;
+    // Time and stream position pairs, the oldest first, none older than the oldest byte but
+    // the first.
+    private final ArrayDeque<long[]> mMarks = new ArrayDeque<>();
+
+    /**
+     * @param file     to record to, created or truncated; deleted on {@link #close()}
+     * @param capacity how many bytes the file keeps
+     */
+    public TimeShiftBuffer(@NonNull File file, int capacity) throws IOException {
+        mFile = file;
+        mCapacity = capacity;
+        mWriteFile = new RandomAccessFile(file, "rw");
+        mWriteFile.setLength(0);
+        mChannel = mWriteFile.getChannel();
+        mMarks.add(new long[]{0, 0});
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * Appends {@code length} bytes, on the recording thread. Only the last
+     * {@link #getCapacity()} of a longer write are kept.
+     */
+    public void write(@NonNull byte[] data, int offset, int length) throws IOException {
+        final long start;
+        synchronized (this) {
+            if (mClosed || mFinished) {
+                throw new IOException("Recording ended");
+            }
+            if (length > mCapacity) {
+                offset += length - mCapacity;
+                mWritten += length - mCapacity;
+                length = mCapacity;
+            }
+            start = mWritten;
+            mWriting = mWritten + length;
+        }
+        final int index = (int) (start % mCapacity);
+        final int first = Math.min(length, mCapacity - index);
+        writeFully(ByteBuffer.wrap(data, offset, first), index);
+        if (first < length) {
+            writeFully(ByteBuffer.wrap(data, offset + first, length - first), 0);
+        }
+        synchronized (this) {
+            mWritten = mWriting;
+            mLastWriteMs = elapsedMs();
+            if (mLastWriteMs - mMarks.getLast()[0] >= MARK_INTERVAL_MS) {
+                mMarks.add(new long[]{mLastWriteMs, mWritten});
+            }
+            // The first mark from the oldest byte on is kept, to seek to it.
+            final long oldest = getOldest();
+            while (mMarks.size() > 1 && mMarks.getFirst()[1] < oldest) {
+                mMarks.removeFirst();
+            }
+            notifyAll();
+        }
+    }
+
+    private void writeFully(ByteBuffer data, long filePosition) throws IOException {
+        while (data.hasRemaining()) {
+            filePosition += mChannel.write(data, filePosition);
+        }
+    }
+
+    /**
+     * Ends the recording: readers get to the end of what was written, then the end of input.
+     */
+    public synchronized void finish() {
+        mFinished = true;
+        notifyAll();
+    }
+
+    /**
+     * Ends the recording and deletes the file, readers fail from now on.
+     */
+    public void close() {
+        synchronized (this) {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            notifyAll();
+        }
+        try {
+            mWriteFile.close();
+        } catch (IOException e) {
+            // Deleted anyway.
+        }
+        //noinspection ResultOfMethodCallIgnored
+        mFile.delete();
+    }
+
+    /**
+     * @return the position after the last byte written
+     */
+    public synchronized long getWritten() {
+        return mWritten;
+    }
+
+    /**
+     * @return the position of the oldest byte that can still be read
+     */
+    public synchronized long getOldest() {
+        return Math.max(0, mWriting - mCapacity);
+    }
+
+    /**
+     * @return when the last bytes arrived, in ms since the recording started: the live edge
+     */
+    public synchronized long getLiveMs() {
+        return mLastWriteMs;
+    }
+
+    /**
+     * @return the earliest time that can be sought to, in ms since the recording started
+     */
+    public synchronized long getOldestMs() {
+        return mMarks.getFirst()[0];
+    }
+
+    /**
+     * @return where the recording had got to at {@code timeMs}, to a second: the position to
+     * play from to be that far behind live. The oldest that can be read for earlier times.
+     */
+    public synchronized long getPositionAt(long timeMs) {
+        long position = mMarks.getFirst()[1];
+        for (long[] mark : mMarks) {
+            if (mark[0] > timeMs) {
+                break;
+            }
+            position = mark[1];
+        }
+        return position;
+    }
+
+    /**
+     * @return when the recording got to {@code position}, in ms since it started, to a second
+     */
+    public synchronized long getTimeAt(long position) {
+        long timeMs = mMarks.getFirst()[0];
+        for (long[] mark : mMarks) {
+            if (mark[1] > position) {
+                break;
+            }
+            timeMs = mark[0];
+        }
+        return timeMs;
+    }
+
+    /**
+     * @return a reader from {@code position} on, to be closed when done
+     */
+    @NonNull
+    public Reader openReader(long position) throws IOException {
+        return new Reader(position);
+    }
+
+    private long elapsedMs() {
+        return (System.nanoTime() - mStartNanos) / 1000000;
+    }
+
+    /**
+     * Reads the recording in order, from a file handle of its own.
+     */
+    public final class Reader {
+
+        private final RandomAccessFile mReadFile;
+        private long mPosition;
+
+        private Reader(long position) throws IOException {
+            mReadFile = new RandomAccessFile(mFile, "r");
+            mPosition = position;
+        }
+
+        public long getPosition() {
+            return mPosition;
+        }
+
+        /**
+         * Reads what there is from the current position on, waiting for the recording if
+         * there's nothing yet.
+         *
+         * @return the bytes read, -1 at the end of a finished recording
+         * @throws OverrunException if the position has been overwritten
+         */
+        public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+            final int available;
+            synchronized (TimeShiftBuffer.this) {
+                while (mPosition >= mWritten && !mFinished && !mClosed) {
+                    try {
+                        TimeShiftBuffer.this.wait();
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException();
+                    }
+                }
+                if (mClosed) {
+                    throw new IOException("Recording closed");
+                }
+                if (mPosition < getOldest()) {
+                    throw new OverrunException(mPosition, getOldest());
+                }
+                if (mPosition >= mWritten) {
+                    return -1;
+                }
+                available = (int) Math.min(length, mWritten - mPosition);
+            }
+            final int index = (int) (mPosition % mCapacity);
+            final int first = Math.min(available, mCapacity - index);
+            mReadFile.seek(index);
+            mReadFile.readFully(buffer, offset, first);
+            if (first < available) {
+                mReadFile.seek(0);
+                mReadFile.readFully(buffer, offset + first, available - first);
+            }
+            // The writer may have got to the bytes in the meantime.
+            final long oldest = getOldest();
+            if (mPosition < oldest) {
+                throw new OverrunException(mPosition, oldest);
+            }
+            mPosition += available;
+            return available;
+        }
+
+        public void close() throws IOException {
+            mReadFile.close();
+        }
+    }
+}
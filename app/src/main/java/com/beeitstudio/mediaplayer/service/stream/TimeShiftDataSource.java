@@ -0,0 +1,109 @@
+package com.beeitstudio.mediaplayer.service.stream;
+
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.HttpDataSource;
+import com.google.android.exoplayer2.upstream.TransferListener;
+
+import java.io.IOException;
+
+/**
+ * ExoPlayer {@link DataSource} that plays a live stream from its {@link TimeShiftRecorder}'s
+ * recording rather than from the network, from a given position of the recording on.
+ * <p>
+ * The stream is opened on {@code upstream} first. If it turns out to be live, the recorder
+ * takes that connection over and the player reads from the recording; otherwise it's loaded
+ * from {@code upstream} as usual, no recording made.
+ */
+public final class TimeShiftDataSource implements DataSource {
+
+    private final TimeShiftRecorder mRecorder;
+    private final long mStartPosition;
+    private final HttpDataSource mUpstream;
+
+    @Nullable
+    private TimeShiftBuffer.Reader mReader;
+    @Nullable
+    private Uri mUri;
+    private boolean mPassThrough;
+
+    /**
+     * @param startPosition of the recording, where the stream starts for the player
+     */
+    public TimeShiftDataSource(@NonNull TimeShiftRecorder recorder, long startPosition,
+                               @NonNull HttpDataSource upstream) {
+        mRecorder = recorder;
+        mStartPosition = startPosition;
+        mUpstream = upstream;
+    }
+
+    @Override
+    public void addTransferListener(TransferListener transferListener) {
+        mUpstream.addTransferListener(transferListener);
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+        if (mRecorder.isLive()) {
+            return openRecording(dataSpec);
+        }
+        final long length = mUpstream.open(dataSpec);
+        if (dataSpec.position == 0
+                && TimeShiftRecorder.isLive(length, mUpstream.getResponseHeaders())
+                && mRecorder.start(mUpstream, dataSpec.uri)) {
+            // The connection is the recorder's now.
+            return openRecording(dataSpec);
+        }
+        if (mRecorder.isLive()) {
+            // Another load got there first.
+            mUpstream.close();
+            return openRecording(dataSpec);
+        }
+        mPassThrough = true;
+        return length;
+    }
+
+    private long openRecording(DataSpec dataSpec) throws IOException {
+        mUri = dataSpec.uri;
+        mReader = mRecorder.getBuffer().openReader(mStartPosition + dataSpec.position);
+        // Live, there's no telling where it ends.
+        return C.LENGTH_UNSET;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+        if (mPassThrough) {
+            return mUpstream.read(buffer, offset, readLength);
+        }
+        if (readLength == 0) {
+            return 0;
+        }
+        final int read = mReader.read(buffer, offset, readLength);
+        return read < 0 ? C.RESULT_END_OF_INPUT : read;
+    }
+
+    @Nullable
+    @Override
+    public Uri getUri() {
+        return mPassThrough ? mUpstream.getUri() : mUri;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mPassThrough) {
+            mPassThrough = false;
+            mUpstream.close();
+        }
+        if (mReader != null) {
+            mReader.close();
+            mReader = null;
+        }
+        mUri = null;
+    }
+}
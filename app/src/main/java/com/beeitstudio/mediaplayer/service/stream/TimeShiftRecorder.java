@@ -0,0 +1,228 @@
+package com.beeitstudio.mediaplayer.service.stream;
+
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.HttpDataSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Records a live stream into a {@link TimeShiftBuffer} on a thread of its own, as it
+ * arrives, whether or not the player keeps up: paused, the player picks up where it left
+ * off.
+ * <p>
+ * Nothing is recorded until the player's own connection turns out to be live, see
+ * {@link #isLive(long, Map)}; the recorder then takes that connection over. Anything else is
+ * played as usual, with no recording made. A dropped connection is made again, the stream
+ * carries on from what's live by then.
+ */
+public final class TimeShiftRecorder {
+
+    private static final int READ_BYTES = 16 * 1024;
+    // Connections made again in a row before giving up, and the wait before all but the
+    // first. A connection that stays up this long ends the row.
+    private static final int MAX_RECONNECTS = 3;
+    private static final int RECONNECT_DELAY_MS = 1000;
+    private static final long RECOVERED_MS = 30000;
+
+    private final File mDirectory;
+    private final int mCapacity;
+
+    // Guarded by this: set once recording starts.
+    private HttpDataSource mUpstream;
+    private Uri mUri;
+    private TimeShiftBuffer mBuffer;
+    private Thread mThread;
+    private boolean mReleased;
+
+    private volatile boolean mStopped;
+
+    /**
+     * @param directory to record to once the stream is live
+     * @param capacity  of the recording, in bytes
+     */
+    public TimeShiftRecorder(@NonNull File directory, int capacity) {
+        mDirectory = directory;
+        mCapacity = capacity;
+    }
+
+    /**
+     * @param length  the stream's length as opened, {@link C#LENGTH_UNSET} if not known
+     * @param headers of the response
+     * @return true if the stream is a live one: it has no length, and comes from a streaming
+     * server, which announces the station in {@code icy-} headers. A file sent without a
+     * length has an end and isn't recorded.
+     */
+    public static boolean isLive(long length, @NonNull Map<String, List<String>> headers) {
+        if (length != C.LENGTH_UNSET) {
+            return false;
+        }
+        for (String name : headers.keySet()) {
+            if (name == null) {
+                continue;
+            }
+            final String lowerName = name.toLowerCase(Locale.US);
+            if (lowerName.startsWith("icy-") || lowerName.startsWith("ice-")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Starts recording from {@code upstream}, opened on {@code uri}'s live stream from its
+     * start, on a loading thread. The recorder owns it from then on and closes it when done.
+     *
+     * @return false if nothing is recorded, the stream is to be played as usual: recording
+     * stopped or started already, or the recording couldn't be made
+     */
+    public synchronized boolean start(@NonNull HttpDataSource upstream, @NonNull Uri uri) {
+        if (mReleased || mStopped || mThread != null) {
+            return false;
+        }
+        try {
+            mBuffer = new TimeShiftBuffer(File.createTempFile("stream", null, mDirectory),
+                    mCapacity);
+        } catch (IOException e) {
+            return false;
+        }
+        mUpstream = upstream;
+        mUri = uri;
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                record();
+            }
+        }, "TimeShiftRecorder");
+        mThread.start();
+        return true;
+    }
+
+    /**
+     * Stops recording, shortly after this returns. What has been recorded can still be read
+     * until {@link #release()}.
+     */
+    public void stop() {
+        mStopped = true;
+    }
+
+    /**
+     * Stops recording and deletes the recording.
+     */
+    public void release() {
+        stop();
+        final TimeShiftBuffer buffer;
+        synchronized (this) {
+            mReleased = true;
+            buffer = mBuffer;
+        }
+        if (buffer != null) {
+            buffer.close();
+        }
+    }
+
+    public synchronized boolean isRecording() {
+        return mThread != null && mThread.isAlive() && !mStopped;
+    }
+
+    /**
+     * @return true once the stream has turned out to be live and is being recorded
+     */
+    public synchronized boolean isLive() {
+        return mThread != null;
+    }
+
+    /**
+     * @return the recording, only once {@link #isLive()}
+     */
+    @NonNull
+    public synchronized TimeShiftBuffer getBuffer() {
+        return mBuffer;
+    }
+
+    // The recording thread.
+    private void record() {
+        final HttpDataSource upstream;
+        final Uri uri;
+        final TimeShiftBuffer buffer;
+        synchronized (this) {
+            upstream = mUpstream;
+            uri = mUri;
+            buffer = mBuffer;
+        }
+        final byte[] data = new byte[READ_BYTES];
+        int reconnects = 0;
+        boolean open = true;
+        long openedAt = elapsedMs();
+        try {
+            while (!mStopped) {
+                if (!open) {
+                    if (reconnects > 1) {
+                        Thread.sleep(RECONNECT_DELAY_MS);
+                    }
+                    final long length;
+                    try {
+                        length = upstream.open(new DataSpec(uri));
+                    } catch (IOException e) {
+                        if (++reconnects > MAX_RECONNECTS) {
+                            return;
+                        }
+                        continue;
+                    }
+                    if (!isLive(length, upstream.getResponseHeaders())) {
+                        // Not the live stream any more.
+                        return;
+                    }
+                    open = true;
+                    openedAt = elapsedMs();
+                }
+                int read;
+                try {
+                    read = upstream.read(data, 0, data.length);
+                } catch (IOException e) {
+                    read = C.RESULT_END_OF_INPUT;
+                }
+                if (read == C.RESULT_END_OF_INPUT) {
+                    // Dropped, or the station went off air for a moment. Straight back the
+                    // first time, the stream moves on meanwhile. A connection that only lasted
+                    // a moment doesn't count as recovered, so the row comes to an end.
+                    closeQuietly(upstream);
+                    open = false;
+                    if (elapsedMs() - openedAt >= RECOVERED_MS) {
+                        reconnects = 0;
+                    }
+                    if (++reconnects > MAX_RECONNECTS) {
+                        return;
+                    }
+                    continue;
+                }
+                buffer.write(data, 0, read);
+            }
+        } catch (IOException | InterruptedException e) {
+            // The buffer was closed, nothing more to record.
+        } finally {
+            closeQuietly(upstream);
+            buffer.finish();
+        }
+    }
+
+    private static long elapsedMs() {
+        return System.nanoTime() / 1000000;
+    }
+
+    private static void closeQuietly(HttpDataSource upstream) {
+        try {
+            upstream.close();
+        } catch (IOException e) {
+            // Closing anyway.
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.beeitstudio.mediaplayer.service;
+
+import android.support.v4.media.session.PlaybackStateCompat;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PlaybackStateMachineTest {
+
+    @Test
+    public void startsIdleAndNeedsReload() {
+        PlaybackStateMachine machine = new PlaybackStateMachine();
+        assertEquals(PlaybackStateMachine.IDLE, machine.getState());
+        assertEquals(PlaybackStateCompat.STATE_NONE, machine.getSessionState());
+        assertTrue(machine.needsReload());
+    }
+
+    @Test
+    public void repeatedStateIsNotATransition() {
+        PlaybackStateMachine machine = new PlaybackStateMachine();
+        assertTrue(machine.moveTo(PlaybackStateMachine.PREPARING));
+        assertTrue(machine.moveTo(PlaybackStateMachine.PLAYING));
+        assertFalse(machine.moveTo(PlaybackStateMachine.PLAYING));
+        assertEquals(PlaybackStateCompat.STATE_PLAYING, machine.getSessionState());
+    }
+
+    @Test
+    public void invalidTransitionKeepsState() {
+        PlaybackStateMachine machine = new PlaybackStateMachine();
+        assertFalse(machine.moveTo(PlaybackStateMachine.PLAYING));
+        assertEquals(PlaybackStateMachine.IDLE, machine.getState());
+
+        machine.moveTo(PlaybackStateMachine.STOPPED);
+        assertFalse(machine.moveTo(PlaybackStateMachine.PAUSED));
+        assertEquals(PlaybackStateMachine.STOPPED, machine.getState());
+        assertTrue(machine.needsReload());
+    }
+
+    @Test
+    public void everyStateCanFailAndRecover() {
+        for (int state = PlaybackStateMachine.IDLE;
+                state <= PlaybackStateMachine.STOPPED; state++) {
+            assertTrue(PlaybackStateMachine.isAllowed(state, PlaybackStateMachine.ERROR));
+        }
+        assertTrue(PlaybackStateMachine.isAllowed(
+                PlaybackStateMachine.ERROR, PlaybackStateMachine.PREPARING));
+    }
+
+    @Test
+    public void actionsFollowState() {
+        PlaybackStateMachine machine = new PlaybackStateMachine();
+        machine.moveTo(PlaybackStateMachine.PREPARING);
+        machine.moveTo(PlaybackStateMachine.PLAYING);
+        long playing = machine.getAvailableActions();
+        assertTrue((playing & PlaybackStateCompat.ACTION_PAUSE) != 0);
+        assertTrue((playing & PlaybackStateCompat.ACTION_SEEK_TO) != 0);
+        assertEquals(0, playing & PlaybackStateCompat.ACTION_PLAY);
+
+        machine.moveTo(PlaybackStateMachine.PAUSED);
+        long paused = machine.getAvailableActions();
+        assertTrue((paused & PlaybackStateCompat.ACTION_PLAY) != 0);
+        assertEquals(0, paused & PlaybackStateCompat.ACTION_PAUSE);
+    }
+
+    @Test
+    public void concurrentWritersApplyTransitionOnce() throws InterruptedException {
+        final PlaybackStateMachine machine = new PlaybackStateMachine();
+        machine.moveTo(PlaybackStateMachine.PREPARING);
+        final int[] winners = new int[1];
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    if (machine.moveTo(PlaybackStateMachine.PLAYING)) {
+                        synchronized (winners) {
+                            winners[0]++;
+                        }
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(1, winners[0]);
+    }
+}
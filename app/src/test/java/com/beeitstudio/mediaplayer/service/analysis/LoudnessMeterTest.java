@@ -0,0 +1,79 @@
+package com.beeitstudio.mediaplayer.service.analysis;
+
+import org.junit.Test;
+
+import java.nio.ShortBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Reference signals from EBU Tech 3341.
+ */
+public class LoudnessMeterTest {
+
+    private static final int SAMPLE_RATE = 48000;
+
+    @Test
+    public void stereoSineAtMinus23dBFSIsMinus23Lufs() {
+        LoudnessMeter meter = new LoudnessMeter(SAMPLE_RATE, 2);
+        meter.process(sine(1000, -23, 20));
+
+        assertEquals(-23.0, meter.getIntegratedLoudness(), 0.1);
+        assertEquals(Math.pow(10, -23 / 20.0), meter.getPeak(), 0.001);
+    }
+
+    @Test
+    public void quietPassagesAreGatedOut() {
+        // Test case 3: -36, -23, -36 dBFS for 10, 60 and 10 seconds reads -23 LUFS.
+        LoudnessMeter meter = new LoudnessMeter(SAMPLE_RATE, 2);
+        meter.process(sine(1000, -36, 10));
+        meter.process(sine(1000, -23, 60));
+        meter.process(sine(1000, -36, 10));
+
+        assertEquals(-23.0, meter.getIntegratedLoudness(), 0.1);
+    }
+
+    @Test
+    public void silenceHasNoLoudness() {
+        LoudnessMeter meter = new LoudnessMeter(SAMPLE_RATE, 2);
+        meter.process(ShortBuffer.allocate(SAMPLE_RATE * 2 * 5));
+
+        assertEquals(Double.NEGATIVE_INFINITY, meter.getIntegratedLoudness(), 0);
+        assertEquals(0f, meter.getPeak(), 0);
+    }
+
+    @Test
+    public void waveformFollowsTheEnvelope() {
+        WaveformBuilder builder = new WaveformBuilder(SAMPLE_RATE, 2);
+        builder.process(ShortBuffer.allocate(SAMPLE_RATE * 2 * 5));
+        builder.process(sine(1000, 0, 5));
+
+        byte[] waveform = builder.build();
+        assertEquals(TrackAnalysis.WAVEFORM_SIZE, waveform.length);
+        assertEquals(0, waveform[0] & 0xFF);
+        assertTrue((waveform[waveform.length - 1] & 0xFF) > 250);
+    }
+
+    @Test
+    public void normalizationGainIsLimitedByPeak() {
+        TrackAnalysis loud = new TrackAnalysis(new byte[0], -8f, 1f);
+        assertEquals(Math.pow(10, -10 / 20.0), loud.getNormalizationGain(-18f), 0.0001);
+
+        TrackAnalysis quiet = new TrackAnalysis(new byte[0], -30f, 0.5f);
+        assertEquals(2f, quiet.getNormalizationGain(-18f), 0.0001);
+    }
+
+    private static ShortBuffer sine(double frequency, double dbfs, int seconds) {
+        final double amplitude = Math.pow(10, dbfs / 20) * 32767;
+        final int frames = SAMPLE_RATE * seconds;
+        final ShortBuffer buffer = ShortBuffer.allocate(frames * 2);
+        for (int i = 0; i < frames; i++) {
+            final short sample = (short) Math.round(
+                    amplitude * Math.sin(2 * Math.PI * frequency * i / SAMPLE_RATE));
+            buffer.put(sample);
+            buffer.put(sample);
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
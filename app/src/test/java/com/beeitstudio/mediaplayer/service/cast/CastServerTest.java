@@ -0,0 +1,176 @@
+package com.beeitstudio.mediaplayer.service.cast;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CastServerTest {
+
+    private static final int CAPACITY = 256 * 1024;
+
+    private final byte[] mData = new byte[100000];
+    private CastServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        for (int i = 0; i < mData.length; i++) {
+            mData[i] = (byte) (i * 31);
+        }
+        mServer = new CastServer(CAPACITY, CAPACITY);
+        mServer.start(InetAddress.getLoopbackAddress(), 0);
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop();
+    }
+
+    @Test
+    public void servesTheSameBytesToEveryClient() throws Exception {
+        mServer.startStream("audio/mpeg");
+        final Socket first = connect(CastServer.PATH);
+        final Socket second = connect(CastServer.PATH);
+        assertEquals("HTTP/1.0 200 OK", readStatus(first.getInputStream()));
+        assertEquals("HTTP/1.0 200 OK", readStatus(second.getInputStream()));
+        awaitClients(2);
+
+        for (int offset = 0; offset < mData.length; offset += 1000) {
+            mServer.write(mData, offset, Math.min(1000, mData.length - offset));
+        }
+
+        assertArrayEquals(mData, readFully(first.getInputStream(), mData.length));
+        assertArrayEquals(mData, readFully(second.getInputStream(), mData.length));
+        first.close();
+        second.close();
+    }
+
+    @Test
+    public void newClientsStartWithTheBacklog() throws Exception {
+        mServer.startStream("audio/mpeg");
+        mServer.write(mData, 0, mData.length);
+
+        final Socket late = connect(CastServer.PATH);
+        assertEquals("HTTP/1.0 200 OK", readStatus(late.getInputStream()));
+        assertArrayEquals(mData, readFully(late.getInputStream(), mData.length));
+        late.close();
+    }
+
+    @Test
+    public void anotherStreamDisconnectsClients() throws Exception {
+        mServer.startStream("audio/mpeg");
+        final Socket client = connect(CastServer.PATH);
+        assertEquals("HTTP/1.0 200 OK", readStatus(client.getInputStream()));
+        awaitClients(1);
+
+        mServer.startStream("audio/aac");
+        assertEquals(-1, client.getInputStream().read());
+        client.close();
+    }
+
+    @Test
+    public void unknownPathIsNotFound() throws Exception {
+        mServer.startStream("audio/mpeg");
+        final Socket client = connect("/other");
+        assertEquals("HTTP/1.0 404 Not Found", readStatus(client.getInputStream()));
+        client.close();
+    }
+
+    @Test
+    public void nothingToServeBeforeAStream() throws Exception {
+        final Socket client = connect(CastServer.PATH);
+        assertEquals("HTTP/1.0 503 Service Unavailable", readStatus(client.getInputStream()));
+        client.close();
+    }
+
+    @Test
+    public void clientThatFallsBehindIsDropped() throws Exception {
+        mServer.startStream("audio/mpeg");
+        final Socket stalled = connect(CastServer.PATH);
+        stalled.setReceiveBufferSize(4096);
+        final Socket reading = connect(CastServer.PATH);
+        awaitClients(2);
+
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        final Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final InputStream in = reading.getInputStream();
+                    final byte[] buffer = new byte[8192];
+                    int read;
+                    while ((read = in.read(buffer)) >= 0) {
+                        received.write(buffer, 0, read);
+                    }
+                } catch (IOException e) {
+                    // Closed by the test.
+                }
+            }
+        });
+        reader.start();
+
+        // Far more than the stalled client's socket and the ring can hold, written at the
+        // pace of a stream so the reading client keeps up.
+        for (int i = 0; i < 400 && mServer.getClientCount() > 1; i++) {
+            mServer.write(mData, 0, mData.length);
+            Thread.sleep(5);
+        }
+        awaitClients(1);
+        reading.close();
+        stalled.close();
+        reader.join(5000);
+        assertTrue(received.size() > CAPACITY);
+    }
+
+    private Socket connect(String path) throws IOException {
+        final Socket socket = new Socket(InetAddress.getLoopbackAddress(), mServer.getPort());
+        socket.setSoTimeout(5000);
+        final OutputStream out = socket.getOutputStream();
+        out.write(("GET " + path + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes("US-ASCII"));
+        out.flush();
+        return socket;
+    }
+
+    private void awaitClients(int count) throws InterruptedException {
+        for (int i = 0; i < 500 && mServer.getClientCount() != count; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, mServer.getClientCount());
+    }
+
+    // Reads the header, returns its status line.
+    private static String readStatus(InputStream in) throws IOException {
+        final StringBuilder header = new StringBuilder();
+        while (header.indexOf("\r\n\r\n") < 0) {
+            final int b = in.read();
+            if (b < 0) {
+                break;
+            }
+            header.append((char) b);
+        }
+        return header.substring(0, header.indexOf("\r\n"));
+    }
+
+    private static byte[] readFully(InputStream in, int length) throws IOException {
+        final byte[] data = new byte[length];
+        int offset = 0;
+        while (offset < length) {
+            final int read = in.read(data, offset, length - offset);
+            if (read < 0) {
+                break;
+            }
+            offset += read;
+        }
+        return data;
+    }
+}
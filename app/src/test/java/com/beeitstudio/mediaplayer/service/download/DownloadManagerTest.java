@@ -0,0 +1,266 @@
+package com.beeitstudio.mediaplayer.service.download;
+
+import androidx.annotation.NonNull;
+
+import com.beeitstudio.mediaplayer.service.http.PooledHttpClient;
+import com.beeitstudio.mediaplayer.service.http.TestHttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DownloadManagerTest {
+
+    private static final int SIZE = 50000;
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(@NonNull Runnable command) {
+            command.run();
+        }
+    };
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final byte[] mData = new byte[SIZE];
+    // "path range" of every request, range is "-" without a Range header.
+    private final List<String> mRequests = new CopyOnWriteArrayList<>();
+    private final BlockingQueue<String> mResults = new LinkedBlockingQueue<>();
+    private volatile boolean mIgnoreRanges;
+    private volatile CountDownLatch mGate = new CountDownLatch(0);
+    private TestHttpServer mServer;
+    private PooledHttpClient mClient;
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        for (int i = 0; i < SIZE; i++) {
+            mData[i] = (byte) (i * 7);
+        }
+        mDirectory = mFolder.newFolder("downloads");
+        mServer = new TestHttpServer(new TestHttpServer.Handler() {
+            @Override
+            public boolean handle(TestHttpServer.Request request, OutputStream out)
+                    throws IOException, InterruptedException {
+                return serve(request, out);
+            }
+        });
+        mClient = new PooledHttpClient.Builder().setReadTimeoutMs(5000).build();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mGate.countDown();
+        mClient.evictAll();
+        mServer.close();
+    }
+
+    @Test
+    public void downloadsAndServesLocalCopy() throws Exception {
+        final DownloadManager manager = manager(SIZE * 10, 2);
+        assertNull(manager.getDownloadedFile("a"));
+        manager.enqueue("a", url("/a"), 0);
+        assertEquals("done a", nextResult());
+        final File file = manager.getDownloadedFile("a");
+        assertNotNull(file);
+        assertArrayEquals(mData, Files.readAllBytes(file.toPath()));
+        assertFalse(manager.isQueued("a"));
+
+        // Downloaded already, nothing to do.
+        manager.enqueue("a", url("/a"), 0);
+        assertFalse(manager.isQueued("a"));
+    }
+
+    @Test
+    public void resumesPartialDownload() throws Exception {
+        final DownloadManager manager = manager(SIZE * 10, 1);
+        writePartial("a", 12345);
+        manager.enqueue("a", url("/a"), 0);
+        assertEquals("done a", nextResult());
+        assertEquals(Arrays.asList("/a 12345-"), mRequests);
+        assertArrayEquals(mData, Files.readAllBytes(manager.getDownloadedFile("a").toPath()));
+    }
+
+    @Test
+    public void startsOverWhenRangeIsIgnored() throws Exception {
+        mIgnoreRanges = true;
+        final DownloadManager manager = manager(SIZE * 10, 1);
+        writePartial("a", 20000);
+        manager.enqueue("a", url("/a"), 0);
+        assertEquals("done a", nextResult());
+        assertArrayEquals(mData, Files.readAllBytes(manager.getDownloadedFile("a").toPath()));
+    }
+
+    @Test
+    public void startsWaitingDownloadsByPriority() throws Exception {
+        mGate = new CountDownLatch(1);
+        final DownloadManager manager = manager(SIZE * 10, 1);
+        manager.enqueue("first", url("/first"), 5);
+        // Let "first" take the only slot before the others arrive.
+        while (mRequests.isEmpty()) {
+            Thread.sleep(5);
+        }
+        manager.enqueue("c", url("/c"), 7);
+        manager.enqueue("b", url("/b"), 3);
+        manager.enqueue("d", url("/d"), 9);
+        // The queue moved on: d is next.
+        manager.setPriorities(Arrays.asList("d", "b"));
+        mGate.countDown();
+        for (int i = 0; i < 4; i++) {
+            nextResult();
+        }
+        assertEquals(Arrays.asList("/first -", "/d -", "/b -", "/c -"), mRequests);
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedOverQuota() throws Exception {
+        final DownloadManager manager = manager(SIZE * 5 / 2, 1);
+        manager.enqueue("a", url("/a"), 0);
+        assertEquals("done a", nextResult());
+        manager.enqueue("b", url("/b"), 0);
+        assertEquals("done b", nextResult());
+        // "a" was played last.
+        manager.getDownloadedFile("b").setLastModified(System.currentTimeMillis() - 60000);
+        manager.getDownloadedFile("a");
+
+        manager.enqueue("c", url("/c"), 0);
+        assertEquals("done c", nextResult());
+        assertNotNull(manager.getDownloadedFile("a"));
+        assertNull(manager.getDownloadedFile("b"));
+        assertNotNull(manager.getDownloadedFile("c"));
+        assertTrue(manager.getUsedBytes() <= SIZE * 5 / 2);
+    }
+
+    @Test
+    public void failsWhenQuotaIsTooSmall() throws Exception {
+        final DownloadManager manager = manager(SIZE / 2, 1);
+        manager.enqueue("a", url("/a"), 0);
+        assertEquals("failed a", nextResult());
+        assertNull(manager.getDownloadedFile("a"));
+    }
+
+    @Test
+    public void removeDeletesDownload() throws Exception {
+        final DownloadManager manager = manager(SIZE * 10, 1);
+        manager.enqueue("a", url("/a"), 0);
+        assertEquals("done a", nextResult());
+        manager.remove("a");
+        assertNull(manager.getDownloadedFile("a"));
+        assertEquals(0, manager.getUsedBytes());
+    }
+
+    @Test
+    public void requeueAfterCancelWaitsForTheWorker() throws Exception {
+        mGate = new CountDownLatch(1);
+        final DownloadManager manager = manager(SIZE * 10, 2);
+        manager.enqueue("a", url("/a"), 0);
+        while (mRequests.isEmpty()) {
+            Thread.sleep(5);
+        }
+        // The worker is still waiting for the response.
+        manager.cancel("a");
+        manager.enqueue("a", url("/a"), 0);
+        assertTrue(manager.isQueued("a"));
+        Thread.sleep(100);
+        assertEquals(1, mRequests.size());
+
+        mGate.countDown();
+        assertEquals("done a", nextResult());
+        assertEquals(2, mRequests.size());
+        assertArrayEquals(mData, Files.readAllBytes(manager.getDownloadedFile("a").toPath()));
+        assertNull(mResults.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void pinnedDownloadsResumeAfterRestart() throws Exception {
+        mGate = new CountDownLatch(1);
+        final DownloadManager manager = manager(SIZE * 10, 1);
+        manager.enqueue("a", url("/a"), 0);
+        manager.enqueue("b", url("/b"), 0);
+        manager.remove("b");
+        manager.release();
+        mGate.countDown();
+
+        final DownloadManager restarted = manager(SIZE * 10, 1);
+        restarted.resumePinned();
+        assertTrue(restarted.isQueued("a"));
+        assertFalse(restarted.isQueued("b"));
+        assertEquals("done a", nextResult());
+        assertNotNull(restarted.getDownloadedFile("a"));
+    }
+
+    private DownloadManager manager(long quota, int maxConcurrent) {
+        return new DownloadManager(mDirectory, quota, maxConcurrent, mClient, "test", DIRECT,
+                new DownloadManager.Listener() {
+                    @Override
+                    public void onDownloadCompleted(@NonNull String mediaId,
+                                                    @NonNull File file) {
+                        mResults.add("done " + mediaId);
+                    }
+
+                    @Override
+                    public void onDownloadFailed(@NonNull String mediaId,
+                                                 @NonNull IOException error) {
+                        mResults.add("failed " + mediaId);
+                    }
+                });
+    }
+
+    private String nextResult() throws InterruptedException {
+        final String result = mResults.poll(10, TimeUnit.SECONDS);
+        assertNotNull("timed out", result);
+        return result;
+    }
+
+    private void writePartial(String mediaId, int length) throws IOException {
+        final File partial = new DownloadStorage(mDirectory, 0).getPartialFile(mediaId);
+        try (OutputStream out = new FileOutputStream(partial)) {
+            out.write(mData, 0, length);
+        }
+    }
+
+    private String url(String path) {
+        return mServer.url(path);
+    }
+
+    private boolean serve(TestHttpServer.Request request, OutputStream out)
+            throws IOException, InterruptedException {
+        final String range = request.getHeader("Range") != null
+                ? request.getHeader("Range").substring("bytes=".length())
+                : "-";
+        mRequests.add(request.path + " " + range);
+        mGate.await();
+        final int start = range.equals("-") || mIgnoreRanges
+                ? 0 : Integer.parseInt(range.substring(0, range.indexOf('-')));
+        final String status = start > 0
+                ? "206 Partial Content\r\nContent-Range: bytes " + start + "-"
+                + (SIZE - 1) + "/" + SIZE
+                : "200 OK";
+        TestHttpServer.write(out, "HTTP/1.1 " + status + "\r\nContent-Length: " + (SIZE - start)
+                + "\r\n\r\n", Arrays.copyOfRange(mData, start, SIZE));
+        return true;
+    }
+}
@@ -0,0 +1,127 @@
+package com.beeitstudio.mediaplayer.service.dsp;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.audio.AudioProcessor;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+public class DspChainTest {
+
+    private static final int SAMPLE_RATE = 44100;
+
+    @Test
+    public void passesThroughWithNeutralSettings() throws Exception {
+        DspChain chain = configure(new DspChain(new ParametricEqualizer(), new GainStage()));
+        short[] input = sine(0.5, 4096);
+
+        assertArrayEquals(input, process(chain, input));
+    }
+
+    @Test
+    public void gainRampsToTheNewGainWithinOneBuffer() throws Exception {
+        GainStage gain = new GainStage();
+        DspChain chain = configure(new DspChain(gain));
+        gain.setGain(0.5f);
+
+        short[] ramp = process(chain, constant(10000, 1000));
+        assertTrue(ramp[0] > 9900);
+        assertEquals(5000, ramp[ramp.length - 1], 1);
+
+        short[] steady = process(chain, constant(10000, 1000));
+        assertEquals(5000, steady[0], 1);
+    }
+
+    @Test
+    public void timedRampIsSampleAccurateAcrossBuffers() throws Exception {
+        GainStage fade = new GainStage();
+        DspChain chain = configure(new DspChain(fade));
+        fade.rampFromTo(0f, 1f, 20); // 882 frames
+
+        short[] first = process(chain, constant(10000, 512));
+        assertEquals(0, first[0], 20);
+        assertEquals(10000 * 256 / 882, first[255], 20);
+
+        short[] second = process(chain, constant(10000, 512));
+        assertTrue(second[881 - 512 - 1] < 10000);
+        assertEquals(10000, second[881 - 512], 1);
+        assertEquals(10000, second[511], 1);
+    }
+
+    @Test
+    public void limiterHoldsTheCeiling() throws Exception {
+        GainStage gain = new GainStage();
+        gain.setGain(4f);
+        Limiter limiter = new Limiter();
+        limiter.setCeiling(0.5f);
+        DspChain chain = configure(new DspChain(gain, limiter));
+
+        for (short sample : process(chain, sine(0.5, 8192))) {
+            assertTrue(Math.abs(sample) <= 0.5 * 32768 + 1);
+        }
+    }
+
+    @Test
+    public void peakingBandBoostsItsFrequency() throws Exception {
+        ParametricEqualizer equalizer = new ParametricEqualizer();
+        equalizer.setBands(new ParametricEqualizer.Band(
+                ParametricEqualizer.TYPE_PEAKING, 1000, 6f, 1f));
+        DspChain chain = configure(new DspChain(equalizer));
+
+        short[] output = process(chain, sine(0.25, SAMPLE_RATE));
+        int peak = 0;
+        // Skip the filter's settling time.
+        for (int i = output.length / 2; i < output.length; i++) {
+            peak = Math.max(peak, Math.abs(output[i]));
+        }
+        assertEquals(0.25 * 2, peak / 32768.0, 0.01); // +6 dB
+    }
+
+    @Test(expected = AudioProcessor.UnhandledFormatException.class)
+    public void rejectsFloatInput() throws Exception {
+        new DspChain(new GainStage()).configure(SAMPLE_RATE, 2, C.ENCODING_PCM_FLOAT);
+    }
+
+    private static DspChain configure(DspChain chain) throws Exception {
+        chain.configure(SAMPLE_RATE, 1, C.ENCODING_PCM_16BIT);
+        chain.flush();
+        return chain;
+    }
+
+    private static short[] process(DspChain chain, short[] input) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(input.length * 2)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        for (short sample : input) {
+            buffer.putShort(sample);
+        }
+        buffer.flip();
+        chain.queueInput(buffer);
+        assertFalse(buffer.hasRemaining());
+
+        ByteBuffer output = chain.getOutput().order(ByteOrder.LITTLE_ENDIAN);
+        short[] result = new short[output.remaining() / 2];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = output.getShort();
+        }
+        return result;
+    }
+
+    private static short[] sine(double amplitude, int count) {
+        short[] samples = new short[count];
+        for (int i = 0; i < count; i++) {
+            samples[i] = (short) Math.round(
+                    amplitude * 32767 * Math.sin(2 * Math.PI * 1000 * i / SAMPLE_RATE));
+        }
+        return samples;
+    }
+
+    private static short[] constant(int value, int count) {
+        short[] samples = new short[count];
+        java.util.Arrays.fill(samples, (short) value);
+        return samples;
+    }
+}
@@ -0,0 +1,239 @@
+package com.beeitstudio.mediaplayer.service.http;
+
+import android.net.Uri;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSpec;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+
+import static com.beeitstudio.mediaplayer.service.http.TestHttpServer.write;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PooledHttpClientTest {
+
+    private static final Map<String, String> NO_HEADERS = Collections.emptyMap();
+
+    private final byte[] mData = new byte[100000];
+    private TestHttpServer mServer;
+    private PooledHttpClient mClient;
+
+    @Before
+    public void setUp() throws IOException {
+        for (int i = 0; i < mData.length; i++) {
+            mData[i] = (byte) (i * 31);
+        }
+        mServer = new TestHttpServer(new TestHttpServer.Handler() {
+            @Override
+            public boolean handle(TestHttpServer.Request request, OutputStream out)
+                    throws IOException, InterruptedException {
+                return serve(request, out);
+            }
+        });
+        mClient = new PooledHttpClient.Builder()
+                .setConnectTimeoutMs(2000)
+                .setReadTimeoutMs(500)
+                .build();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mClient.evictAll();
+        mServer.close();
+    }
+
+    @Test
+    public void reusesConnectionForRangeRequests() throws IOException {
+        assertArrayEquals(mData, readAll(mClient.get(url("/data"), 0, -1, NO_HEADERS)));
+
+        final HttpResponse range = mClient.get(url("/data"), 1000, 500, NO_HEADERS);
+        assertEquals(206, range.getCode());
+        final byte[] expected = new byte[500];
+        System.arraycopy(mData, 1000, expected, 0, 500);
+        assertArrayEquals(expected, readAll(range));
+
+        assertEquals(1, mServer.getAcceptedCount());
+        assertEquals(1, mClient.getConnectCount());
+        assertEquals(1, mClient.getReuseCount());
+        assertEquals(1, mClient.getConnectionStats().size());
+        final ConnectionStats stats = mClient.getConnectionStats().get(0);
+        assertEquals(2, stats.getRequestCount());
+        assertEquals(mData.length + 500, stats.getBytesRead());
+        assertTrue(stats.isIdle());
+    }
+
+    @Test
+    public void abandonedLargeBodyIsNotReused() throws IOException {
+        final HttpResponse response = mClient.get(url("/data"), 0, -1, NO_HEADERS);
+        response.getBody().read(new byte[10]);
+        response.close();
+        readAll(mClient.get(url("/data"), 0, 10, NO_HEADERS));
+        assertEquals(2, mServer.getAcceptedCount());
+    }
+
+    @Test
+    public void dataSourceSeekReusesConnection() throws IOException {
+        final PooledHttpDataSource dataSource = new PooledHttpDataSource(mClient, "test");
+        final Uri uri = Uri.parse(url("/data").toString());
+        assertEquals(mData.length, dataSource.open(new DataSpec(uri, 0, -1, null)));
+        assertArrayEquals(mData, readAll(dataSource, mData.length));
+        assertEquals(C.RESULT_END_OF_INPUT, dataSource.read(new byte[1], 0, 1));
+        dataSource.close();
+
+        // Abandoned a few bytes in, as a seek does.
+        assertEquals(mData.length - 1000, dataSource.open(new DataSpec(uri, 1000, -1, null)));
+        assertEquals(mData[1000], readAll(dataSource, 10)[0]);
+        dataSource.close();
+
+        dataSource.open(new DataSpec(uri, 50000, -1, null));
+        final byte[] expected = new byte[mData.length - 50000];
+        System.arraycopy(mData, 50000, expected, 0, expected.length);
+        assertArrayEquals(expected, readAll(dataSource, expected.length));
+        dataSource.close();
+
+        assertEquals(1, mServer.getAcceptedCount());
+    }
+
+    @Test
+    public void connectionCloseIsNotPooled() throws IOException {
+        readAll(mClient.get(url("/close"), 0, -1, NO_HEADERS));
+        assertTrue(mClient.getConnectionStats().isEmpty());
+        readAll(mClient.get(url("/close"), 0, -1, NO_HEADERS));
+        assertEquals(2, mServer.getAcceptedCount());
+    }
+
+    @Test
+    public void chunkedBodyIsDecodedAndReused() throws IOException {
+        assertArrayEquals(mData, readAll(mClient.get(url("/chunked"), 0, -1, NO_HEADERS)));
+        assertArrayEquals(mData, readAll(mClient.get(url("/chunked"), 0, -1, NO_HEADERS)));
+        assertEquals(1, mServer.getAcceptedCount());
+    }
+
+    @Test
+    public void followsRedirects() throws IOException {
+        final HttpResponse response = mClient.get(url("/redirect"), 0, -1, NO_HEADERS);
+        assertEquals("/data", response.getUrl().getPath());
+        assertArrayEquals(mData, readAll(response));
+        assertEquals(1, mServer.getAcceptedCount());
+    }
+
+    @Test
+    public void replacesConnectionClosedByServer() throws IOException, InterruptedException {
+        readAll(mClient.get(url("/data?then-close"), 0, -1, NO_HEADERS));
+        // Let the server's close arrive.
+        Thread.sleep(100);
+        assertArrayEquals(mData, readAll(mClient.get(url("/data"), 0, -1, NO_HEADERS)));
+        assertEquals(2, mServer.getAcceptedCount());
+    }
+
+    @Test
+    public void acceptsIcyStatusLine() throws IOException {
+        final HttpResponse response = mClient.get(url("/icy"), 0, -1, NO_HEADERS);
+        assertEquals(200, response.getCode());
+        assertEquals("Station", response.getHeader("icy-name"));
+        assertArrayEquals(mData, readAll(response));
+        // Ended by the close, like HTTP/1.0.
+        assertTrue(mClient.getConnectionStats().isEmpty());
+    }
+
+    @Test
+    public void readTimesOut() throws IOException {
+        try {
+            mClient.get(url("/slow"), 0, -1, NO_HEADERS);
+            fail();
+        } catch (SocketTimeoutException expected) {
+            // 500 ms read timeout.
+        }
+    }
+
+    private URL url(String path) throws IOException {
+        return new URL(mServer.url(path));
+    }
+
+    private static byte[] readAll(HttpResponse response) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[4096];
+        try (InputStream body = response.getBody()) {
+            int read;
+            while ((read = body.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] readAll(PooledHttpDataSource dataSource, int length)
+            throws IOException {
+        final byte[] data = new byte[length];
+        int offset = 0;
+        while (offset < length) {
+            final int read = dataSource.read(data, offset, length - offset);
+            if (read == C.RESULT_END_OF_INPUT) {
+                break;
+            }
+            offset += read;
+        }
+        return data;
+    }
+
+    // Answers on a connection of mServer, false to close it.
+    private boolean serve(TestHttpServer.Request request, OutputStream out)
+            throws IOException, InterruptedException {
+        final String range = request.getHeader("Range") != null
+                ? request.getHeader("Range").substring("bytes=".length())
+                : null;
+        final String path = request.path;
+        if (path.equals("/slow")) {
+            Thread.sleep(2000);
+            return false;
+        } else if (path.equals("/redirect")) {
+            write(out, "HTTP/1.1 302 Found\r\nLocation: /data\r\n"
+                    + "Content-Length: 0\r\n\r\n", null);
+        } else if (path.equals("/chunked")) {
+            write(out, "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n", null);
+            for (int offset = 0; offset < mData.length; offset += 30000) {
+                final int length = Math.min(30000, mData.length - offset);
+                out.write((Integer.toHexString(length) + ";ext=1\r\n").getBytes("ASCII"));
+                out.write(mData, offset, length);
+                out.write("\r\n".getBytes("ASCII"));
+            }
+            write(out, "0\r\n\r\n", null);
+        } else if (path.equals("/icy")) {
+            write(out, "ICY 200 OK\r\nicy-name: Station\r\n\r\n", mData);
+            return false;
+        } else if (path.equals("/close")) {
+            write(out, "HTTP/1.1 200 OK\r\nConnection: close\r\n"
+                    + "Content-Length: 3\r\n\r\n", new byte[3]);
+            return false;
+        } else if (range != null) {
+            final String[] bounds = range.split("-", -1);
+            final int start = Integer.parseInt(bounds[0]);
+            final int end = bounds[1].isEmpty()
+                    ? mData.length - 1
+                    : Math.min(mData.length - 1, Integer.parseInt(bounds[1]));
+            final byte[] body = new byte[end - start + 1];
+            System.arraycopy(mData, start, body, 0, body.length);
+            write(out, "HTTP/1.1 206 Partial Content\r\nContent-Length: " + body.length
+                    + "\r\nContent-Range: bytes " + start + "-" + end + "/"
+                    + mData.length + "\r\n\r\n", body);
+        } else {
+            write(out, "HTTP/1.1 200 OK\r\nContent-Length: " + mData.length
+                    + "\r\n\r\n", mData);
+        }
+        return !path.endsWith("?then-close");
+    }
+}
@@ -0,0 +1,139 @@
+package com.beeitstudio.mediaplayer.service.http;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An HTTP/1.1 server on a local port for tests, a thread per connection. Requests on a
+ * connection are answered in turn by a {@link Handler} until it or the client closes it.
+ */
+public final class TestHttpServer implements Closeable {
+
+    public interface Handler {
+
+        /**
+         * Writes the response to {@code request}.
+         *
+         * @return false to close the connection afterwards
+         */
+        boolean handle(Request request, OutputStream out)
+                throws IOException, InterruptedException;
+    }
+
+    public static final class Request {
+
+        public final String method;
+        public final String path;
+        // By lower case name.
+        private final Map<String, String> mHeaders;
+
+        private Request(String method, String path, Map<String, String> headers) {
+            this.method = method;
+            this.path = path;
+            mHeaders = headers;
+        }
+
+        /**
+         * @return the header's value, null if the request has none
+         */
+        public String getHeader(String name) {
+            return mHeaders.get(name.toLowerCase(Locale.US));
+        }
+    }
+
+    private final ServerSocket mServer;
+    private final Handler mHandler;
+    private final AtomicInteger mAccepted = new AtomicInteger();
+
+    public TestHttpServer(Handler handler) throws IOException {
+        mHandler = handler;
+        mServer = new ServerSocket(0);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        final Socket socket = mServer.accept();
+                        mAccepted.incrementAndGet();
+                        new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                serve(socket);
+                            }
+                        }).start();
+                    }
+                } catch (IOException e) {
+                    // Server closed.
+                }
+            }
+        }).start();
+    }
+
+    public String url(String path) {
+        return "http://127.0.0.1:" + mServer.getLocalPort() + path;
+    }
+
+    /**
+     * @return the connections accepted so far
+     */
+    public int getAcceptedCount() {
+        return mAccepted.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mServer.close();
+    }
+
+    /**
+     * Writes a response head, ended by the blank line, then {@code body} if not null.
+     */
+    public static void write(OutputStream out, String head, byte[] body) throws IOException {
+        out.write(head.getBytes("ISO-8859-1"));
+        if (body != null) {
+            out.write(body);
+        }
+        out.flush();
+    }
+
+    private void serve(Socket socket) {
+        try {
+            final BufferedReader in = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+            final OutputStream out = socket.getOutputStream();
+            String requestLine;
+            while ((requestLine = in.readLine()) != null) {
+                final Map<String, String> headers = new LinkedHashMap<>();
+                String line;
+                while (!(line = in.readLine()).isEmpty()) {
+                    final int colon = line.indexOf(':');
+                    if (colon > 0) {
+                        headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US),
+                                line.substring(colon + 1).trim());
+                    }
+                }
+                final String[] parts = requestLine.split(" ");
+                if (!mHandler.handle(new Request(parts[0], parts[1], headers), out)) {
+                    return;
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            // Client went away.
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // Done either way.
+            }
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package com.beeitstudio.mediaplayer.service.scanner;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+/**
+ * Parses small synthesized files of each supported format.
+ */
+public class MappedTagReaderTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final MappedTagReader reader = new MappedTagReader(null);
+
+    @Test
+    public void readsId3v23AndCbrDuration() throws IOException {
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        writeId3Frame(frames, "TIT2", text("Title"));
+        writeId3Frame(frames, "TPE1", text("Artist"));
+        writeId3Frame(frames, "APIC", new byte[4096]);
+        writeId3Frame(frames, "TALB", text("Album"));
+        writeId3Frame(frames, "TCON", text("(17)"));
+        frames.write(new byte[64]); // padding
+
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        file.write(new byte[]{'I', 'D', '3', 3, 0, 0});
+        writeSyncSafe(file, frames.size());
+        frames.writeTo(file);
+        // One second of 128 kbps MPEG 1 layer III at 44.1 kHz.
+        byte[] audio = new byte[16000];
+        audio[0] = (byte) 0xFF;
+        audio[1] = (byte) 0xFB;
+        audio[2] = (byte) 0x90;
+        file.write(audio);
+
+        TrackTags tags = reader.extract(write("song.mp3", file.toByteArray()));
+        assertNotNull(tags);
+        assertEquals("Title", tags.title);
+        assertEquals("Artist", tags.artist);
+        assertEquals("Album", tags.album);
+        assertEquals("Rock", tags.genre);
+        assertEquals(1000, tags.durationMs);
+    }
+
+    @Test
+    public void readsId3v1Trailer() throws IOException {
+        byte[] file = new byte[4096 + 128];
+        file[0] = (byte) 0xFF;
+        file[1] = (byte) 0xFB;
+        file[2] = (byte) 0x90;
+        int trailer = 4096;
+        put(file, trailer, "TAG");
+        put(file, trailer + 3, "Old Title");
+        put(file, trailer + 33, "Old Artist");
+        file[trailer + 127] = 8; // Jazz
+
+        TrackTags tags = reader.extract(write("old.mp3", file));
+        assertNotNull(tags);
+        assertEquals("Old Title", tags.title);
+        assertEquals("Old Artist", tags.artist);
+        assertNull(tags.album);
+        assertEquals("Jazz", tags.genre);
+    }
+
+    @Test
+    public void readsFlacStreamInfoAndVorbisComment() throws IOException {
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        file.write(new byte[]{'f', 'L', 'a', 'C'});
+
+        byte[] streamInfo = new byte[34];
+        // 44100 Hz, stereo, 16 bit, 441000 samples.
+        long packed = (44100L << 44) | (1L << 41) | (15L << 36) | 441000L;
+        for (int i = 0; i < 8; i++) {
+            streamInfo[10 + i] = (byte) (packed >>> (56 - 8 * i));
+        }
+        writeFlacBlock(file, 0, false, streamInfo);
+        writeFlacBlock(file, 6, false, new byte[2048]); // picture
+        writeFlacBlock(file, 4, true,
+                vorbisComment("TITLE=Flac Title", "artist=Flac Artist", "ALBUM=Flac Album"));
+
+        TrackTags tags = reader.extract(write("song.flac", file.toByteArray()));
+        assertNotNull(tags);
+        assertEquals("Flac Title", tags.title);
+        assertEquals("Flac Artist", tags.artist);
+        assertEquals("Flac Album", tags.album);
+        assertEquals(10000, tags.durationMs);
+    }
+
+    @Test
+    public void readsOggCommentSpanningPages() throws IOException {
+        byte[] identification = new byte[30];
+        put(identification, 0, "\u0001vorbis");
+        writeLe32(identification, 12, 48000);
+
+        ByteArrayOutputStream comment = new ByteArrayOutputStream();
+        comment.write("\u0003vorbis".getBytes(UTF_8));
+        comment.write(vorbisComment("COMMENT=" + repeat('x', 300), "TITLE=Ogg Title"));
+
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        byte[] commentBytes = comment.toByteArray();
+        writeOggPage(file, 0, identification, 0, identification.length, true);
+        // Split the comment packet over two pages, the first one ending on a 255 segment.
+        writeOggPage(file, 0, commentBytes, 0, 255, false);
+        writeOggPage(file, 0, commentBytes, 255, commentBytes.length - 255, true);
+        writeOggPage(file, 96000, new byte[100], 0, 100, true);
+
+        TrackTags tags = reader.extract(write("song.ogg", file.toByteArray()));
+        assertNotNull(tags);
+        assertEquals("Ogg Title", tags.title);
+        assertEquals(2000, tags.durationMs);
+    }
+
+    @Test
+    public void findsOggCommentKeyAcrossSegments() throws IOException {
+        byte[] identification = new byte[30];
+        put(identification, 0, "\u0001vorbis");
+        writeLe32(identification, 12, 48000);
+
+        ByteArrayOutputStream comment = new ByteArrayOutputStream();
+        comment.write("\u0003vorbis".getBytes(UTF_8));
+        // 19 bytes of header and vendor, then the comment lengths put the '=' of TITLE at 255.
+        comment.write(vorbisComment("COMMENT=" + repeat('x', 215), "TITLE=Ogg Title"));
+        byte[] commentBytes = comment.toByteArray();
+        assertEquals('=', commentBytes[255]);
+
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        writeOggPage(file, 0, identification, 0, identification.length, true);
+        writeOggPage(file, 0, commentBytes, 0, commentBytes.length, true);
+        writeOggPage(file, 96000, new byte[100], 0, 100, true);
+
+        TrackTags tags = reader.extract(write("song.ogg", file.toByteArray()));
+        assertNotNull(tags);
+        assertEquals("Ogg Title", tags.title);
+    }
+
+    @Test
+    public void readsMp4WithMoovAfterMediaData() throws IOException {
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        file.write(atom("ftyp", "M4A ".getBytes(UTF_8)));
+        file.write(atom("mdat", new byte[8192]));
+
+        byte[] mvhd = new byte[100];
+        writeBe32(mvhd, 12, 1000); // timescale
+        writeBe32(mvhd, 16, 185000); // duration
+        byte[] ilst = concat(
+                atom("\u00A9nam", dataAtom("Mp4 Title")),
+                atom("\u00A9ART", dataAtom("Mp4 Artist")),
+                atom("\u00A9alb", dataAtom("Mp4 Album")));
+        byte[] meta = concat(new byte[4], atom("hdlr", new byte[25]), atom("ilst", ilst));
+        file.write(atom("moov", concat(atom("mvhd", mvhd), atom("udta", atom("meta", meta)))));
+
+        TrackTags tags = reader.extract(write("song.m4a", file.toByteArray()));
+        assertNotNull(tags);
+        assertEquals("Mp4 Title", tags.title);
+        assertEquals("Mp4 Artist", tags.artist);
+        assertEquals("Mp4 Album", tags.album);
+        assertEquals(185000, tags.durationMs);
+    }
+
+    @Test
+    public void unknownFormatUsesFallback() throws IOException {
+        final TrackTags fallbackTags = new TrackTags("Fallback", null, null, null, 0);
+        MappedTagReader withFallback = new MappedTagReader(file -> fallbackTags);
+
+        assertNull(reader.extract(write("song.wav", new byte[64])));
+        assertSame(fallbackTags, withFallback.extract(write("song.wav", new byte[64])));
+    }
+
+    // --- file builders ---
+
+    private File write(String name, byte[] content) throws IOException {
+        File file = new File(folder.getRoot(), name);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(content);
+        }
+        return file;
+    }
+
+    private static byte[] text(String value) {
+        byte[] bytes = value.getBytes(UTF_8);
+        byte[] frame = new byte[bytes.length + 1];
+        frame[0] = 3; // UTF-8
+        System.arraycopy(bytes, 0, frame, 1, bytes.length);
+        return frame;
+    }
+
+    private static void writeId3Frame(ByteArrayOutputStream out, String id, byte[] data)
+            throws IOException {
+        out.write(id.getBytes(UTF_8));
+        byte[] size = new byte[4];
+        writeBe32(size, 0, data.length);
+        out.write(size);
+        out.write(new byte[2]);
+        out.write(data);
+    }
+
+    private static void writeSyncSafe(ByteArrayOutputStream out, int value) {
+        out.write((value >>> 21) & 0x7F);
+        out.write((value >>> 14) & 0x7F);
+        out.write((value >>> 7) & 0x7F);
+        out.write(value & 0x7F);
+    }
+
+    private static void writeFlacBlock(ByteArrayOutputStream out, int type, boolean last,
+                                       byte[] data) throws IOException {
+        out.write((last ? 0x80 : 0) | type);
+        out.write((data.length >>> 16) & 0xFF);
+        out.write((data.length >>> 8) & 0xFF);
+        out.write(data.length & 0xFF);
+        out.write(data);
+    }
+
+    private static byte[] vorbisComment(String... comments) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] vendor = "test".getBytes(UTF_8);
+        writeLe32(out, vendor.length);
+        out.write(vendor);
+        writeLe32(out, comments.length);
+        for (String comment : comments) {
+            byte[] bytes = comment.getBytes(UTF_8);
+            writeLe32(out, bytes.length);
+            out.write(bytes);
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeOggPage(ByteArrayOutputStream out, long granule, byte[] data,
+                                     int offset, int length, boolean packetEnds) {
+        ByteArrayOutputStream segments = new ByteArrayOutputStream();
+        int remaining = length;
+        while (remaining >= 255) {
+            segments.write(255);
+            remaining -= 255;
+        }
+        if (packetEnds) {
+            segments.write(remaining);
+        }
+        byte[] header = new byte[27];
+        put(header, 0, "OggS");
+        for (int i = 0; i < 8; i++) {
+            header[6 + i] = (byte) (granule >>> (8 * i));
+        }
+        header[26] = (byte) segments.size();
+        out.write(header, 0, header.length);
+        byte[] table = segments.toByteArray();
+        out.write(table, 0, table.length);
+        out.write(data, offset, length);
+    }
+
+    private static byte[] atom(String type, byte[] payload) {
+        byte[] atom = new byte[8 + payload.length];
+        writeBe32(atom, 0, atom.length);
+        for (int i = 0; i < 4; i++) {
+            atom[4 + i] = (byte) type.charAt(i);
+        }
+        System.arraycopy(payload, 0, atom, 8, payload.length);
+        return atom;
+    }
+
+    private static byte[] dataAtom(String value) {
+        byte[] bytes = value.getBytes(UTF_8);
+        byte[] payload = new byte[8 + bytes.length];
+        payload[3] = 1; // UTF-8 text
+        System.arraycopy(bytes, 0, payload, 8, bytes.length);
+        return atom("data", payload);
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+
+    private static void put(byte[] target, int offset, String ascii) {
+        for (int i = 0; i < ascii.length(); i++) {
+            target[offset + i] = (byte) ascii.charAt(i);
+        }
+    }
+
+    private static void writeBe32(byte[] target, int offset, int value) {
+        target[offset] = (byte) (value >>> 24);
+        target[offset + 1] = (byte) (value >>> 16);
+        target[offset + 2] = (byte) (value >>> 8);
+        target[offset + 3] = (byte) value;
+    }
+
+    private static void writeLe32(byte[] target, int offset, int value) {
+        target[offset] = (byte) value;
+        target[offset + 1] = (byte) (value >>> 8);
+        target[offset + 2] = (byte) (value >>> 16);
+        target[offset + 3] = (byte) (value >>> 24);
+    }
+
+    private static void writeLe32(ByteArrayOutputStream out, int value) {
+        out.write(value & 0xFF);
+        out.write((value >>> 8) & 0xFF);
+        out.write((value >>> 16) & 0xFF);
+        out.write((value >>> 24) & 0xFF);
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        java.util.Arrays.fill(chars, c);
+        return new String(chars);
+    }
+}
@@ -0,0 +1,66 @@
+package com.beeitstudio.mediaplayer.service.stream;
+
+import android.os.Handler;
+
+import com.google.android.exoplayer2.upstream.BandwidthMeter;
+import com.google.android.exoplayer2.upstream.TransferListener;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class CappedBandwidthMeterTest {
+
+    private static final class FixedMeter implements BandwidthMeter {
+        long estimate;
+
+        @Override
+        public long getBitrateEstimate() {
+            return estimate;
+        }
+
+        @Override
+        public TransferListener getTransferListener() {
+            return null;
+        }
+
+        @Override
+        public void addEventListener(Handler eventHandler, EventListener eventListener) {
+        }
+
+        @Override
+        public void removeEventListener(EventListener eventListener) {
+        }
+    }
+
+    @Test
+    public void capsEstimateOnlyWhileSet() {
+        FixedMeter fixed = new FixedMeter();
+        fixed.estimate = 500000;
+        CappedBandwidthMeter meter = new CappedBandwidthMeter(fixed);
+        assertEquals(500000, meter.getBitrateEstimate());
+        meter.setBitrateCap(96000);
+        assertEquals(96000, meter.getBitrateEstimate());
+        fixed.estimate = 64000;
+        assertEquals(64000, meter.getBitrateEstimate());
+        meter.setBitrateCap(CappedBandwidthMeter.NO_CAP);
+        fixed.estimate = 500000;
+        assertEquals(500000, meter.getBitrateEstimate());
+    }
+
+    @Test
+    public void countsNetworkBytesAndMeteredPart() {
+        CappedBandwidthMeter meter = new CappedBandwidthMeter(new FixedMeter());
+        meter.onBytesTransferred(null, null, true, 1000);
+        // Local reads cost nothing.
+        meter.onBytesTransferred(null, null, false, 5000);
+        meter.setMetered(true);
+        meter.onBytesTransferred(null, null, true, 300);
+        assertEquals(1300, meter.getBytes());
+        assertEquals(300, meter.getMeteredBytes());
+
+        meter.resetUsage();
+        assertEquals(0, meter.getBytes());
+        assertEquals(0, meter.getMeteredBytes());
+    }
+}
@@ -0,0 +1,44 @@
+package com.beeitstudio.mediaplayer.service.stream;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StreamMetricsTest {
+
+    @Test
+    public void countsSwitchesByDirection() {
+        StreamMetrics metrics = new StreamMetrics();
+        assertFalse(metrics.onFormat(64000));
+        assertFalse(metrics.onFormat(64000));
+        assertTrue(metrics.onFormat(128000));
+        assertTrue(metrics.onFormat(32000));
+        assertTrue(metrics.onFormat(48000));
+        assertEquals(48000, metrics.getBitrate());
+        assertEquals(2, metrics.getUpshiftCount());
+        assertEquals(1, metrics.getDownshiftCount());
+    }
+
+    @Test
+    public void unannouncedBitrateIsIgnored() {
+        StreamMetrics metrics = new StreamMetrics();
+        assertFalse(metrics.onFormat(-1));
+        assertEquals(StreamMetrics.UNKNOWN, metrics.getBitrate());
+    }
+
+    @Test
+    public void resetKeepsBandwidthEstimate() {
+        StreamMetrics metrics = new StreamMetrics();
+        metrics.onFormat(64000);
+        metrics.onFormat(128000);
+        metrics.onBandwidthEstimate(300000);
+        metrics.reset();
+        assertEquals(StreamMetrics.UNKNOWN, metrics.getBitrate());
+        assertEquals(0, metrics.getUpshiftCount());
+        assertEquals(300000, metrics.getBandwidthEstimate());
+        // The first format of the next stream isn't a switch.
+        assertFalse(metrics.onFormat(128000));
+    }
+}
@@ -0,0 +1,171 @@
+package com.beeitstudio.mediaplayer.service.stream;
+
+import com.beeitstudio.mediaplayer.service.http.PooledHttpClient;
+import com.beeitstudio.mediaplayer.service.http.TestHttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StreamResolverTest {
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    // Path -> {content type, body}, anything else is a 404.
+    private final Map<String, String[]> mResources = new ConcurrentHashMap<>();
+    private final AtomicInteger mRequests = new AtomicInteger();
+    private TestHttpServer mServer;
+    private PooledHttpClient mClient;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new TestHttpServer(new TestHttpServer.Handler() {
+            @Override
+            public boolean handle(TestHttpServer.Request request, OutputStream out)
+                    throws IOException, InterruptedException {
+                return serve(request, out);
+            }
+        });
+        mClient = new PooledHttpClient.Builder().setReadTimeoutMs(2000).build();
+        mResources.put("/live", new String[]{"audio/mpeg", "not really mp3"});
+        mResources.put("/backup", new String[]{"audio/aacp", "not really aac"});
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mClient.evictAll();
+        mServer.close();
+    }
+
+    @Test
+    public void directUris() {
+        assertTrue(StreamResolver.isDirect("http://example.com/music/track.mp3?sid=1"));
+        assertTrue(StreamResolver.isDirect("file:///sdcard/Music/track.flac"));
+        assertTrue(StreamResolver.isDirect("content://media/external/audio/media/12"));
+        assertFalse(StreamResolver.isDirect("http://example.com:8000/stream"));
+        assertFalse(StreamResolver.isDirect("file:///sdcard/radio.pls"));
+    }
+
+    @Test
+    public void resolvesLocalPls() throws IOException {
+        final File pls = mFolder.newFile("radio.pls");
+        write(pls, "[playlist]\r\nNumberOfEntries=2\r\nFile2=http://b.example/b.mp3\r\n"
+                + "File1=http://a.example/a.mp3\r\nTitle1=Radio\r\nVersion=2\r\n");
+        final ResolvedStream stream = resolver(60000).resolve(pls.toURI().toString());
+        assertEquals("http://a.example/a.mp3", stream.getUri());
+        assertEquals(Collections.singletonList("http://b.example/b.mp3"),
+                stream.getAlternatives());
+    }
+
+    @Test
+    public void cachedResolutionSkipsTheNetwork() throws IOException {
+        mResources.put("/radio.pls", new String[]{"audio/x-scpls",
+                "[playlist]\nFile1=" + url("/live") + "\nNumberOfEntries=1\n"});
+        final StreamResolver resolver = resolver(60000);
+        final String uri = url("/radio.pls");
+        assertEquals(url("/live"), resolver.resolve(uri).getUri());
+        final int requests = mRequests.get();
+
+        assertEquals(url("/live"), resolver.getCached(uri).getUri());
+        assertEquals(url("/live"), resolver.resolve(uri).getUri());
+        assertEquals(requests, mRequests.get());
+    }
+
+    @Test
+    public void expiredResolutionIsFetchedAgain() throws IOException, InterruptedException {
+        mResources.put("/radio.m3u", new String[]{"audio/x-mpegurl", "live\n"});
+        final StreamResolver resolver = resolver(50);
+        resolver.resolve(url("/radio.m3u"));
+        final int requests = mRequests.get();
+        Thread.sleep(100);
+        assertEquals(null, resolver.getCached(url("/radio.m3u")));
+        assertEquals(url("/live"), resolver.resolve(url("/radio.m3u")).getUri());
+        assertTrue(mRequests.get() > requests);
+    }
+
+    @Test
+    public void skipsDeadCandidatesAndFollowsNesting() throws IOException {
+        mResources.put("/inner.pls", new String[]{"text/plain",
+                "[playlist]\nFile1=/gone\nFile2=/backup\nFile3=mms://old.example/\n"});
+        mResources.put("/outer.m3u", new String[]{"audio/x-mpegurl",
+                "#EXTM3U\n#EXTINF:-1,Station\ninner.pls\n"});
+        final ResolvedStream stream = resolver(60000).resolve(url("/outer.m3u"));
+        assertEquals(url("/backup"), stream.getUri());
+        assertEquals(ResolvedStream.TYPE_PROGRESSIVE, stream.getType());
+    }
+
+    @Test
+    public void recognizesHls() throws IOException {
+        mResources.put("/station.m3u8", new String[]{"application/vnd.apple.mpegurl",
+                "#EXTM3U\n#EXT-X-STREAM-INF:BANDWIDTH=64000,CODECS=\"mp4a.40.5\"\nlow.m3u8\n"});
+        final ResolvedStream stream = resolver(60000).resolve(url("/station.m3u8"));
+        assertEquals(url("/station.m3u8"), stream.getUri());
+        assertEquals(ResolvedStream.TYPE_HLS, stream.getType());
+    }
+
+    @Test
+    public void recognizesDash() throws IOException {
+        final StreamResolver resolver = resolver(60000);
+        assertEquals(ResolvedStream.TYPE_DASH,
+                resolver.resolve("https://cdn.example/radio/manifest.mpd").getType());
+        mResources.put("/manifest", new String[]{"application/dash+xml",
+                "<?xml version=\"1.0\"?>\n<MPD type=\"dynamic\"></MPD>\n"});
+        assertEquals(ResolvedStream.TYPE_DASH, resolver.resolve(url("/manifest")).getType());
+    }
+
+    @Test
+    public void plainM3uWithHlsExtension() throws IOException {
+        mResources.put("/list.m3u8", new String[]{"audio/x-mpegurl", "/live\n/backup\n"});
+        final ResolvedStream stream = resolver(60000).resolve(url("/list.m3u8"));
+        assertEquals(url("/live"), stream.getUri());
+        assertEquals(Arrays.asList(url("/backup")), stream.getAlternatives());
+    }
+
+    @Test(expected = IOException.class)
+    public void failsWhenNothingResolves() throws IOException {
+        mResources.put("/dead.pls", new String[]{"audio/x-scpls", "[playlist]\nFile1=/gone\n"});
+        resolver(60000).resolve(url("/dead.pls"));
+    }
+
+    private StreamResolver resolver(long ttlMs) {
+        return new StreamResolver(mClient, "test", ttlMs);
+    }
+
+    private String url(String path) {
+        return mServer.url(path);
+    }
+
+    private static void write(File file, String content) throws IOException {
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(content.getBytes("UTF-8"));
+        }
+    }
+
+    private boolean serve(TestHttpServer.Request request, OutputStream out)
+            throws IOException {
+        mRequests.incrementAndGet();
+        final String[] resource = mResources.get(request.path);
+        final byte[] body = (resource != null ? resource[1] : "").getBytes("UTF-8");
+        TestHttpServer.write(out, (resource != null ? "HTTP/1.1 200 OK\r\nContent-Type: "
+                + resource[0] : "HTTP/1.1 404 Not Found") + "\r\nContent-Length: "
+                + body.length + "\r\n\r\n", body);
+        return true;
+    }
+}
@@ -0,0 +1,148 @@
+package com.beeitstudio.mediaplayer.service.stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TimeShiftBufferTest {
+
+    private static final int CAPACITY = 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final byte[] mData = new byte[2500];
+    private File mFile;
+    private TimeShiftBuffer mBuffer;
+
+    @Before
+    public void setUp() throws IOException {
+        for (int i = 0; i < mData.length; i++) {
+            mData[i] = (byte) (i * 31);
+        }
+        mFile = folder.newFile();
+        mBuffer = new TimeShiftBuffer(mFile, CAPACITY);
+    }
+
+    @After
+    public void tearDown() {
+        mBuffer.close();
+    }
+
+    @Test
+    public void keepsTheLastBytesAcrossTheWrap() throws IOException {
+        for (int offset = 0; offset < mData.length; offset += 300) {
+            mBuffer.write(mData, offset, Math.min(300, mData.length - offset));
+        }
+        assertEquals(mData.length, mBuffer.getWritten());
+        assertEquals(mData.length - CAPACITY, mBuffer.getOldest());
+
+        final TimeShiftBuffer.Reader reader = mBuffer.openReader(mBuffer.getOldest());
+        final byte[] read = readFully(reader, CAPACITY);
+        reader.close();
+        assertArrayEquals(Arrays.copyOfRange(mData, mData.length - CAPACITY, mData.length), read);
+    }
+
+    @Test
+    public void readerWaitsForTheRecording() throws Exception {
+        final TimeShiftBuffer.Reader reader = mBuffer.openReader(0);
+        final byte[] read = new byte[100];
+        final int[] count = new int[1];
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    count[0] = reader.read(read, 0, read.length);
+                } catch (IOException e) {
+                    count[0] = -2;
+                }
+            }
+        });
+        thread.start();
+        Thread.sleep(50);
+        assertTrue(thread.isAlive());
+
+        mBuffer.write(mData, 0, 100);
+        thread.join(5000);
+        assertEquals(100, count[0]);
+        assertArrayEquals(Arrays.copyOf(mData, 100), read);
+        reader.close();
+    }
+
+    @Test
+    public void overwrittenPositionFails() throws IOException {
+        final TimeShiftBuffer.Reader reader = mBuffer.openReader(0);
+        mBuffer.write(mData, 0, CAPACITY + 1);
+        try {
+            reader.read(new byte[10], 0, 10);
+            fail();
+        } catch (TimeShiftBuffer.OverrunException e) {
+            // Expected.
+        }
+        reader.close();
+    }
+
+    @Test
+    public void finishedRecordingEnds() throws IOException {
+        mBuffer.write(mData, 0, 10);
+        mBuffer.finish();
+        final TimeShiftBuffer.Reader reader = mBuffer.openReader(0);
+        assertEquals(10, reader.read(new byte[100], 0, 100));
+        assertEquals(-1, reader.read(new byte[100], 0, 100));
+        reader.close();
+    }
+
+    @Test
+    public void closeDeletesTheRecording() throws IOException {
+        mBuffer.write(mData, 0, 10);
+        final TimeShiftBuffer.Reader reader = mBuffer.openReader(10);
+        mBuffer.close();
+        assertFalse(mFile.exists());
+        try {
+            reader.read(new byte[10], 0, 10);
+            fail();
+        } catch (IOException e) {
+            // Expected.
+        }
+        reader.close();
+    }
+
+    @Test
+    public void marksWhereTheRecordingWasEverySecond() throws Exception {
+        mBuffer.write(mData, 0, 100);
+        Thread.sleep(1100);
+        mBuffer.write(mData, 100, 100);
+
+        assertEquals(0, mBuffer.getPositionAt(500));
+        assertEquals(200, mBuffer.getPositionAt(Long.MAX_VALUE));
+        assertTrue(mBuffer.getTimeAt(200) >= 1000);
+        assertTrue(mBuffer.getLiveMs() >= mBuffer.getTimeAt(200));
+        assertEquals(0, mBuffer.getOldestMs());
+    }
+
+    private static byte[] readFully(TimeShiftBuffer.Reader reader, int length)
+            throws IOException {
+        final byte[] data = new byte[length];
+        int offset = 0;
+        while (offset < length) {
+            final int read = reader.read(data, offset, length - offset);
+            if (read < 0) {
+                break;
+            }
+            offset += read;
+        }
+        return data;
+    }
+}
@@ -0,0 +1,44 @@
+package com.beeitstudio.mediaplayer.service.stream;
+
+import com.google.android.exoplayer2.C;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TimeShiftRecorderTest {
+
+    @Test
+    public void streamFromAStreamingServerIsLive() {
+        assertTrue(TimeShiftRecorder.isLive(C.LENGTH_UNSET, headers("icy-name", "Radio")));
+        assertTrue(TimeShiftRecorder.isLive(C.LENGTH_UNSET, headers("Icy-MetaInt", "16000")));
+        assertTrue(TimeShiftRecorder.isLive(C.LENGTH_UNSET,
+                headers("ice-audio-info", "bitrate=128")));
+    }
+
+    @Test
+    public void fileWithoutALengthIsNotLive() {
+        assertFalse(TimeShiftRecorder.isLive(C.LENGTH_UNSET,
+                headers("Transfer-Encoding", "chunked")));
+        assertFalse(TimeShiftRecorder.isLive(C.LENGTH_UNSET,
+                Collections.<String, List<String>>emptyMap()));
+    }
+
+    @Test
+    public void streamWithALengthIsNotLive() {
+        assertFalse(TimeShiftRecorder.isLive(1000, headers("icy-name", "Radio")));
+    }
+
+    private static Map<String, List<String>> headers(String name, String value) {
+        final Map<String, List<String>> headers = new HashMap<>();
+        headers.put(null, Collections.singletonList("HTTP/1.1 200 OK"));
+        headers.put(name, Collections.singletonList(value));
+        return headers;
+    }
+}